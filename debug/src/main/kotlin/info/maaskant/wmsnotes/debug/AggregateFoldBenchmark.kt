@@ -0,0 +1,43 @@
+package info.maaskant.wmsnotes.debug
+
+import info.maaskant.wmsnotes.model.Aggregate
+import info.maaskant.wmsnotes.model.Event
+import info.maaskant.wmsnotes.model.Path
+import info.maaskant.wmsnotes.model.note.Note
+import info.maaskant.wmsnotes.model.note.NoteCreatedEvent
+import info.maaskant.wmsnotes.model.note.TitleChangedEvent
+import io.reactivex.rxkotlin.toObservable
+import java.util.*
+import kotlin.system.measureNanoTime
+
+/**
+ * Compares folding events into a note using an Rx `reduceWith` with folding them directly, for notes with a growing
+ * number of events.
+ *
+ * Usage: `AggregateFoldBenchmarkKt [history sizes...]`
+ */
+fun main(args: Array<String>) {
+    val historySizes = if (args.isNotEmpty()) args.map { it.toInt() } else listOf(10, 1_000, 100_000)
+    println("%10s %15s %15s".format(Locale.ROOT, "events", "Rx µs/fold", "direct µs/fold"))
+    for (historySize in historySizes) {
+        val events = createEvents(historySize)
+        val iterations = maxOf(10, 1_000_000 / historySize)
+        val rxFold = { rxFold(Note(), events) }
+        val directFold = { Aggregate.apply(Note(), events) }
+        repeat(iterations) { rxFold(); directFold() }
+        val rxTime = measureNanoTime { repeat(iterations) { rxFold() } }
+        val directTime = measureNanoTime { repeat(iterations) { directFold() } }
+        println("%10d %15.2f %15.2f".format(Locale.ROOT, historySize, rxTime / 1000.0 / iterations, directTime / 1000.0 / iterations))
+    }
+}
+
+private fun createEvents(historySize: Int): List<Event> {
+    val aggId = Note.randomAggId()
+    return listOf(NoteCreatedEvent(eventId = 1, aggId = aggId, revision = 1, path = Path("benchmark"), title = "Title", content = "")) +
+            (2..historySize).map { TitleChangedEvent(eventId = it, aggId = aggId, revision = it, title = "Title $it") }
+}
+
+private fun rxFold(base: Note, events: List<Event>): Note =
+        events.toObservable()
+                .reduceWith({ base }, { note: Note, event: Event -> note.apply(event).component1() })
+                .blockingGet()
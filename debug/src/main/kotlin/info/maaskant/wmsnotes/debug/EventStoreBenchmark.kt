@@ -0,0 +1,40 @@
+package info.maaskant.wmsnotes.debug
+
+import info.maaskant.wmsnotes.model.Path
+import info.maaskant.wmsnotes.model.eventstore.FileEventStore
+import info.maaskant.wmsnotes.model.note.ContentChangedEvent
+import info.maaskant.wmsnotes.model.note.NoteCreatedEvent
+import java.util.*
+import kotlin.system.measureNanoTime
+
+/**
+ * Measures how long it takes to read the newest event of a note, for notes with a growing number of events.
+ *
+ * Usage: `EventStoreBenchmarkKt [history sizes...]`
+ */
+fun main(args: Array<String>) {
+    val historySizes = if (args.isNotEmpty()) args.map { it.toInt() } else listOf(10, 100, 1000, 10000)
+    val rootDirectory = createTempDir("event-store-benchmark")
+    try {
+        val eventStore = FileEventStore(rootDirectory, eventSerializer(kryoPool()))
+        println("%10s %15s".format(Locale.ROOT, "events", "µs per read"))
+        for (historySize in historySizes) {
+            val aggId = "n-$historySize"
+            eventStore.appendEvent(NoteCreatedEvent(eventId = 0, aggId = aggId, revision = 1, path = Path("benchmark"), title = aggId, content = ""))
+            for (revision in 2..historySize) {
+                eventStore.appendEvent(ContentChangedEvent(eventId = 0, aggId = aggId, revision = revision, content = "Content $revision"))
+            }
+            val readLastEvent = { eventStore.getEventsOfAggregate(aggId, afterRevision = historySize - 1).blockingLast() }
+            repeat(warmupIterations) { readLastEvent() }
+            val time = measureNanoTime {
+                repeat(measuredIterations) { readLastEvent() }
+            }
+            println("%10d %15.1f".format(Locale.ROOT, historySize, time / 1000.0 / measuredIterations))
+        }
+    } finally {
+        rootDirectory.deleteRecursively()
+    }
+}
+
+private const val warmupIterations = 1000
+private const val measuredIterations = 10000
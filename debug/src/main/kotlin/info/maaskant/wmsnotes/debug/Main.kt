@@ -25,10 +25,8 @@ private fun dump(rootDirectory: File) {
     }
     val eventStore = eventStore(rootDirectory, eventSerializer(kryoPool()))
     val noteRepository = noteRepository(eventStore, noteCache())
-    eventStore.getAggregateIds()
-            .filter { it.startsWith("n-") }
-            .map { noteRepository.getLatest(aggId = it) }
-            .subscribe {
+    noteRepository.streamAllLatest()
+            .blockingSubscribe {
                 println(it.aggId)
                 val file = outputDirectory.resolve(it.aggId + ".md")
                 writeNoteToFile(it, file)
@@ -36,7 +34,7 @@ private fun dump(rootDirectory: File) {
 }
 
 fun writeNoteToFile(note: Note, file: File) {
-    if (note.attachments.isNotEmpty()) throw NotImplementedError()
+    if (note.attachmentHashes.isNotEmpty()) throw NotImplementedError()
     val content = """---
 aggId: ${note.aggId}
 exists: ${note.exists}
@@ -0,0 +1,24 @@
+package info.maaskant.wmsnotes.debug
+
+import info.maaskant.wmsnotes.model.eventstore.FileEventStore
+import info.maaskant.wmsnotes.model.eventstore.SegmentedEventStore
+import info.maaskant.wmsnotes.model.eventstore.SegmentedEventStoreMigrator
+import java.io.File
+import kotlin.system.exitProcess
+
+/**
+ * Converts an event store with one file per event into a [SegmentedEventStore].
+ *
+ * Usage: `MigrateEventStoreKt <source directory> <target directory>`
+ */
+fun main(args: Array<String>) {
+    if (args.size != 2) {
+        System.err.println("Usage: MigrateEventStoreKt <source directory> <target directory>")
+        exitProcess(1)
+    }
+    val serializer = eventSerializer(kryoPool())
+    val source = FileEventStore(File(args[0]), serializer)
+    val target = SegmentedEventStore(File(args[1]), serializer)
+    val numberOfEvents = SegmentedEventStoreMigrator(source, target).migrate()
+    println("Migrated $numberOfEvents events from ${args[0]} to ${args[1]}")
+}
@@ -14,9 +14,10 @@ import info.maaskant.wmsnotes.model.eventstore.FileEventStore
 import info.maaskant.wmsnotes.model.eventstore.InMemoryEventStore
 import info.maaskant.wmsnotes.model.folder.Folder
 import info.maaskant.wmsnotes.model.folder.KryoFolderSerializer
-import info.maaskant.wmsnotes.model.note.KryoNoteSerializer
-import info.maaskant.wmsnotes.model.note.Note
+import info.maaskant.wmsnotes.model.note.*
 import info.maaskant.wmsnotes.utilities.serialization.Serializer
+import io.reactivex.schedulers.Schedulers
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
 import java.io.File
@@ -27,22 +28,57 @@ import javax.inject.Singleton
 class AggregateConfiguration {
     @Bean
     @Singleton
-    fun folderCache(@OtherConfiguration.AppDirectory appDirectory: File, serializer: Serializer<Folder>): AggregateCache<Folder> =
+    fun folderCache(
+            @OtherConfiguration.AppDirectory appDirectory: File,
+            serializer: Serializer<Folder>,
+            snapshotPolicy: SnapshotPolicy,
+            @Value("\${aggregateCache.folders.memorySize:8388608}") memorySize: Long
+    ): AggregateCache<Folder> =
             if (cache && !storeInMemory) {
-                FileAggregateCache(appDirectory.resolve("cache").resolve("projected_folders"), serializer)
+                MemoryAggregateCache(
+                        FileAggregateCache(folderCacheDirectory(appDirectory), serializer, snapshotPolicy),
+                        maximumSize = memorySize,
+                        weigher = Folder::estimateSize
+                )
             } else {
                 NoopAggregateCache()
             }
 
     @Bean
     @Singleton
-    fun noteCache(@OtherConfiguration.AppDirectory appDirectory: File, serializer: Serializer<Note>): AggregateCache<Note> =
+    fun noteCache(
+            @OtherConfiguration.AppDirectory appDirectory: File,
+            serializer: Serializer<Note>,
+            snapshotPolicy: SnapshotPolicy,
+            @Value("\${aggregateCache.notes.memorySize:67108864}") memorySize: Long
+    ): AggregateCache<Note> =
             if (cache && !storeInMemory) {
-                FileAggregateCache(appDirectory.resolve("cache").resolve("projected_notes"), serializer)
+                MemoryAggregateCache(
+                        FileAggregateCache(noteCacheDirectory(appDirectory), serializer, snapshotPolicy),
+                        maximumSize = memorySize,
+                        weigher = Note::estimateSize
+                )
             } else {
                 NoopAggregateCache()
             }
 
+    @Bean
+    @Singleton
+    fun snapshotPolicy(
+            @Value("\${aggregateCache.snapshotInterval:20}") interval: Int,
+            @Value("\${aggregateCache.retainedSnapshots:2}") retainedSnapshots: Int
+    ): SnapshotPolicy =
+            SnapshotPolicy(interval = interval, retainedSnapshots = retainedSnapshots)
+
+    @Bean
+    @Singleton
+    fun aggregateCacheCompactor(@OtherConfiguration.AppDirectory appDirectory: File, snapshotPolicy: SnapshotPolicy): AggregateCacheCompactor =
+            AggregateCacheCompactor(
+                    listOf(folderCacheDirectory(appDirectory), noteCacheDirectory(appDirectory)),
+                    snapshotPolicy,
+                    Schedulers.io()
+            )
+
     @Bean
     @Singleton
     fun folderRepository(eventStore: EventStore, cache: AggregateCache<Folder>): AggregateRepository<Folder> =
@@ -53,6 +89,20 @@ class AggregateConfiguration {
     fun noteRepository(eventStore: EventStore, cache: AggregateCache<Note>): AggregateRepository<Note> =
             CachingAggregateRepository(eventStore, cache, Note())
 
+    @Bean
+    @Singleton
+    fun attachmentStore(@OtherConfiguration.AppDirectory appDirectory: File): AttachmentStore =
+            if (storeInMemory) {
+                InMemoryAttachmentStore()
+            } else {
+                FileAttachmentStore(appDirectory.resolve("cache").resolve("attachment_contents"))
+            }
+
+    @Bean
+    @Singleton
+    fun attachmentRepository(eventStore: EventStore, attachmentStore: AttachmentStore): AttachmentRepository =
+            AttachmentRepository(eventStore, attachmentStore)
+
     @Bean
     @Singleton
     fun folderSerializer(kryoPool: Pool<Kryo>): Serializer<Folder> = KryoFolderSerializer(kryoPool)
@@ -60,4 +110,7 @@ class AggregateConfiguration {
     @Bean
     @Singleton
     fun noteSerializer(kryoPool: Pool<Kryo>): Serializer<Note> = KryoNoteSerializer(kryoPool)
+
+    private fun folderCacheDirectory(appDirectory: File) = appDirectory.resolve("cache").resolve("projected_folders")
+    private fun noteCacheDirectory(appDirectory: File) = appDirectory.resolve("cache").resolve("projected_notes")
 }
\ No newline at end of file
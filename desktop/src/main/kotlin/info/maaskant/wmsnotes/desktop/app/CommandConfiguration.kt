@@ -58,9 +58,10 @@ class CommandConfiguration {
 
     @Bean
     @Singleton
-    fun noteTitlePolicy(commandBus: CommandBus) =
+    fun noteTitlePolicy(commandBus: CommandBus, noteRepository: AggregateRepository<Note>) =
             NoteTitlePolicy(
                     commandBus,
+                    noteRepository,
                     Schedulers.computation(),
                     titleExtractor = ::extractTitleFromContent
             )
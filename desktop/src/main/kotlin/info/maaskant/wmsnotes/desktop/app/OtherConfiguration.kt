@@ -3,6 +3,7 @@ package info.maaskant.wmsnotes.desktop.app
 import com.esotericsoftware.kryo.Kryo
 import com.esotericsoftware.kryo.util.Pool
 import info.maaskant.wmsnotes.client.indexing.TreeIndex
+import info.maaskant.wmsnotes.model.aggregaterepository.AggregateCacheCompactor
 import info.maaskant.wmsnotes.model.folder.FolderCommandExecutor
 import info.maaskant.wmsnotes.model.note.NoteCommandExecutor
 import info.maaskant.wmsnotes.model.note.policy.NoteTitlePolicy
@@ -45,11 +46,13 @@ class OtherConfiguration {
     @Bean
     @Singleton
     fun applicationServices(
+            aggregateCacheCompactor: AggregateCacheCompactor,
             folderCommandExecutor: FolderCommandExecutor,
             noteCommandExecutor: NoteCommandExecutor,
             noteTitlePolicy: NoteTitlePolicy,
             treeIndex: TreeIndex
     ): List<ApplicationService> = listOf(
+            aggregateCacheCompactor,
             folderCommandExecutor,
             noteCommandExecutor,
             noteTitlePolicy,
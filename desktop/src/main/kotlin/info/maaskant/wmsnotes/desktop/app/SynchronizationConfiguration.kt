@@ -2,6 +2,7 @@ package info.maaskant.wmsnotes.desktop.app
 
 import com.esotericsoftware.kryo.Kryo
 import com.esotericsoftware.kryo.util.Pool
+import info.maaskant.wmsnotes.client.api.AttachmentTransferClient
 import info.maaskant.wmsnotes.client.api.GrpcCommandMapper
 import info.maaskant.wmsnotes.client.api.GrpcEventMapper
 import info.maaskant.wmsnotes.client.synchronization.*
@@ -19,6 +20,7 @@ import info.maaskant.wmsnotes.client.synchronization.strategy.merge.note.Differe
 import info.maaskant.wmsnotes.client.synchronization.strategy.merge.note.DifferenceCompensator
 import info.maaskant.wmsnotes.client.synchronization.strategy.merge.note.KeepBothMergeStrategy
 import info.maaskant.wmsnotes.client.synchronization.strategy.merge.note.NoteMergingSynchronizationStrategy
+import info.maaskant.wmsnotes.desktop.settings.Configuration.pushSynchronization
 import info.maaskant.wmsnotes.desktop.settings.Configuration.storeInMemory
 import info.maaskant.wmsnotes.model.CommandBus
 import info.maaskant.wmsnotes.model.CommandExecution
@@ -26,10 +28,14 @@ import info.maaskant.wmsnotes.model.Event
 import info.maaskant.wmsnotes.model.aggregaterepository.AggregateRepository
 import info.maaskant.wmsnotes.model.eventstore.EventStore
 import info.maaskant.wmsnotes.model.folder.Folder
+import info.maaskant.wmsnotes.model.note.AttachmentRepository
+import info.maaskant.wmsnotes.model.note.AttachmentStore
 import info.maaskant.wmsnotes.model.note.Note
+import info.maaskant.wmsnotes.server.command.grpc.AttachmentServiceGrpc
 import info.maaskant.wmsnotes.server.command.grpc.CommandServiceGrpc
 import info.maaskant.wmsnotes.server.command.grpc.EventServiceGrpc
 import info.maaskant.wmsnotes.utilities.persistence.FileStateRepository
+import info.maaskant.wmsnotes.utilities.persistence.JournalingFileStateRepository
 import info.maaskant.wmsnotes.utilities.persistence.StateRepository
 import info.maaskant.wmsnotes.utilities.serialization.Serializer
 import io.grpc.Deadline
@@ -59,7 +65,9 @@ class SynchronizationConfiguration {
             eventToCommandMapper: EventToCommandMapper,
             localCommandExecutor: LocalCommandExecutor,
             remoteCommandExecutor: RemoteCommandExecutor,
-            stateRepository: StateRepository<SynchronizerState>
+            stateRepository: JournalingFileStateRepository<SynchronizerState, SynchronizerState.Change>,
+            dirtyAggregates: DirtyAggregates,
+            @Value("\${synchronization.maxRemoteExecutionsInFlight:16}") maxRemoteExecutionsInFlight: Int
     ) = Synchronizer(
             localEvents,
             remoteEvents,
@@ -67,17 +75,26 @@ class SynchronizationConfiguration {
             eventToCommandMapper,
             localCommandExecutor,
             remoteCommandExecutor,
-            stateRepository.load()
+            stateRepository.load(),
+            dirtyAggregates,
+            maxRemoteExecutionsInFlight = maxRemoteExecutionsInFlight
     ).apply {
         stateRepository.connect(this)
     }
 
     @Bean
     @Singleton
-    fun synchronizerStateRepository(@OtherConfiguration.AppDirectory appDirectory: File, kryoPool: Pool<Kryo>): StateRepository<SynchronizerState> =
-            FileStateRepository(
-                    serializer = KryoSynchronizerStateSerializer(kryoPool),
+    fun dirtyAggregates() = DirtyAggregates()
+
+    @Bean
+    @Singleton
+    fun synchronizerStateRepository(@OtherConfiguration.AppDirectory appDirectory: File, kryoPool: Pool<Kryo>): JournalingFileStateRepository<SynchronizerState, SynchronizerState.Change> =
+            JournalingFileStateRepository(
+                    stateSerializer = KryoSynchronizerStateSerializer(kryoPool),
+                    changeSerializer = KryoSynchronizerStateChangeSerializer(kryoPool),
                     file = appDirectory.resolve("synchronization").resolve("synchronizer.state"),
+                    emptyState = { SynchronizerState.create() },
+                    applyChange = SynchronizerState::update,
                     scheduler = Schedulers.io(),
                     timeout = 1,
                     unit = TimeUnit.SECONDS
@@ -86,7 +103,12 @@ class SynchronizationConfiguration {
     @Bean
     @Singleton
     fun synchronizationTask(localEventImporter: LocalEventImporter, remoteEventImporter: RemoteEventImporter, synchronizer: Synchronizer) =
-            SynchronizationTask(localEventImporter, remoteEventImporter, synchronizer)
+            SynchronizationTask(
+                    localEventImporter,
+                    remoteEventImporter,
+                    synchronizer,
+                    if (pushSynchronization) SynchronizationTask.SynchronizationMode.PUSH else SynchronizationTask.SynchronizationMode.POLLING
+            )
 
     @Bean
     @Singleton
@@ -142,12 +164,16 @@ class SynchronizationConfiguration {
     fun localEventImporter(
             eventStore: EventStore,
             @ForLocalEvents eventRepository: ModifiableEventRepository,
-            @ForLocalEvents stateRepository: StateRepository<EventImporterState>
+            @ForLocalEvents stateRepository: StateRepository<EventImporterState>,
+            dirtyAggregates: DirtyAggregates,
+            @Value("\${synchronization.importBatchSize:1000}") importBatchSize: Int
     ) =
             LocalEventImporter(
                     eventStore,
                     eventRepository,
-                    stateRepository.load()
+                    stateRepository.load(),
+                    dirtyAggregates,
+                    importBatchSize
             ).apply {
                 stateRepository.connect(this)
             }
@@ -159,14 +185,20 @@ class SynchronizationConfiguration {
             grpcDeadline: Deadline,
             grpcEventMapper: GrpcEventMapper,
             @ForRemoteEvents eventRepository: ModifiableEventRepository,
-            @ForRemoteEvents stateRepository: StateRepository<EventImporterState>
+            @ForRemoteEvents stateRepository: StateRepository<EventImporterState>,
+            dirtyAggregates: DirtyAggregates,
+            @Value("\${synchronization.importBatchSize:1000}") importBatchSize: Int,
+            @Value("\${synchronization.maxPushedEvents:10000}") maxPushedEvents: Int
     ) =
             RemoteEventImporter(
                     grpcEventService,
                     grpcDeadline,
                     eventRepository,
                     grpcEventMapper,
-                    stateRepository.load()
+                    stateRepository.load(),
+                    dirtyAggregates,
+                    importBatchSize,
+                    maxPushedEvents
             ).apply {
                 stateRepository.connect(this)
             }
@@ -196,12 +228,17 @@ class SynchronizationConfiguration {
 
     @Bean
     @Singleton
-    fun noteMergeStrategy(differenceAnalyzer: DifferenceAnalyzer, differenceCompensator: DifferenceCompensator): MergeStrategy<Note> =
+    fun noteMergeStrategy(
+            differenceAnalyzer: DifferenceAnalyzer,
+            differenceCompensator: DifferenceCompensator,
+            attachmentRepository: AttachmentRepository
+    ): MergeStrategy<Note> =
             MultipleMergeStrategy(
                     EqualsMergeStrategy(),
                     KeepBothMergeStrategy(
                             differenceAnalyzer = differenceAnalyzer,
                             differenceCompensator = differenceCompensator,
+                            attachmentRepository = attachmentRepository,
                             aggregateIdGenerator = { "n-" + UUID.randomUUID().toString() },
                             conflictedNoteTitleSuffix = " (conflict on desktop)"
                     )
@@ -242,9 +279,13 @@ class SynchronizationConfiguration {
     fun remoteCommandExecutor(
             grpcCommandMapper: GrpcCommandMapper,
             grpcCommandService: CommandServiceGrpc.CommandServiceBlockingStub,
-            grpcDeadline: Deadline
+            attachmentTransferClient: AttachmentTransferClient,
+            grpcDeadline: Deadline,
+            asyncGrpcCommandService: CommandServiceGrpc.CommandServiceFutureStub,
+            @Value("\${synchronization.remoteBatchSize:100}") batchSize: Int,
+            @Value("\${synchronization.remoteCallTimeout:30000}") callTimeoutMillis: Long
     ) =
-            RemoteCommandExecutor(grpcCommandMapper, grpcCommandService, grpcDeadline)
+            RemoteCommandExecutor(grpcCommandMapper, grpcCommandService, attachmentTransferClient, grpcDeadline, asyncGrpcCommandService, batchSize, callTimeoutMillis)
 
     @Bean
     @Singleton
@@ -260,11 +301,35 @@ class SynchronizationConfiguration {
     fun grpcCommandService(managedChannel: ManagedChannel) =
             CommandServiceGrpc.newBlockingStub(managedChannel)!!
 
+    @Bean
+    @Singleton
+    fun asyncGrpcCommandService(managedChannel: ManagedChannel) =
+            CommandServiceGrpc.newFutureStub(managedChannel)!!
+
     @Bean
     @Singleton
     fun grpcEventService(managedChannel: ManagedChannel) =
             EventServiceGrpc.newBlockingStub(managedChannel)!!
 
+    @Bean
+    @Singleton
+    fun grpcAttachmentService(managedChannel: ManagedChannel) =
+            AttachmentServiceGrpc.newBlockingStub(managedChannel)!!
+
+    @Bean
+    @Singleton
+    fun asyncGrpcAttachmentService(managedChannel: ManagedChannel) =
+            AttachmentServiceGrpc.newStub(managedChannel)!!
+
+    @Bean
+    @Singleton
+    fun attachmentTransferClient(
+            grpcAttachmentService: AttachmentServiceGrpc.AttachmentServiceBlockingStub,
+            asyncGrpcAttachmentService: AttachmentServiceGrpc.AttachmentServiceStub,
+            attachmentStore: AttachmentStore
+    ) =
+            AttachmentTransferClient(grpcAttachmentService, asyncGrpcAttachmentService, attachmentStore)
+
     @Bean
     @Singleton
     fun managedChannel(@ServerHostname hostname: String): ManagedChannel =
@@ -280,7 +345,7 @@ class SynchronizationConfiguration {
 
     @Bean
     @Singleton
-    fun grpcEventMapper() = GrpcEventMapper()
+    fun grpcEventMapper(attachmentTransferClient: AttachmentTransferClient) = GrpcEventMapper(attachmentTransferClient)
 
 
     @Qualifier
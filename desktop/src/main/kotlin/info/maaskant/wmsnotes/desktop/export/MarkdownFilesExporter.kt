@@ -3,9 +3,10 @@ package info.maaskant.wmsnotes.desktop.export
 import info.maaskant.wmsnotes.client.indexing.TreeIndex
 import info.maaskant.wmsnotes.desktop.main.editing.preview.AttachmentLinkResolver
 import info.maaskant.wmsnotes.model.aggregaterepository.AggregateRepository
+import info.maaskant.wmsnotes.model.note.AttachmentRepository
 import info.maaskant.wmsnotes.model.note.Note
 import info.maaskant.wmsnotes.utilities.logger
-import io.reactivex.rxkotlin.subscribeBy
+import io.reactivex.rxkotlin.blockingSubscribeBy
 import org.springframework.stereotype.Component
 import java.nio.file.Files
 import java.nio.file.Path
@@ -16,7 +17,8 @@ import javax.inject.Singleton
 @Component
 class MarkdownFilesExporter @Inject constructor(
     private val treeIndex: TreeIndex,
-    private val noteRepository: AggregateRepository<Note>
+    private val noteRepository: AggregateRepository<Note>,
+    private val attachmentRepository: AttachmentRepository
 ) {
     private val logger by logger()
 
@@ -24,8 +26,10 @@ class MarkdownFilesExporter @Inject constructor(
         treeIndex.getNodes()
             .map { it.value }
             .filter { it is info.maaskant.wmsnotes.client.indexing.Note }
-            .map { noteRepository.getLatest(it.aggId) }
-            .subscribeBy(
+            .map { it.aggId }
+            .toList()
+            .flatMapPublisher { noteRepository.getLatestAll(it) }
+            .blockingSubscribeBy(
                 onNext = { note ->
                     val noteParentDirectory = note.path.elements.fold(
                         rootDirectory,
@@ -36,7 +40,7 @@ class MarkdownFilesExporter @Inject constructor(
                     val markdown = note.content.replace(AttachmentLinkResolver.attachmentPrefix, "")
                     Files.writeString(nodeFile, markdown)
 
-                    note.attachments.forEach { (name, content) ->
+                    attachmentRepository.getContents(note).forEach { (name, content) ->
                         val attachmentFile = noteParentDirectory.resolve(name)
                         Files.write(attachmentFile, content)
                     }
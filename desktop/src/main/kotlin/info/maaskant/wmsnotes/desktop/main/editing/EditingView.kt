@@ -54,7 +54,7 @@ class EditingView : View() {
                 center = vbox {
                     editingViewModel.getNote()
                             .observeOnFx()
-                            .map { it.value?.attachments?.keys?.sorted() ?: emptyList() }
+                            .map { it.value?.attachmentHashes?.keys?.sorted() ?: emptyList() }
                             .subscribe { updateAttachments(it, this) }
                 }
 
@@ -1,6 +1,7 @@
 package info.maaskant.wmsnotes.desktop.main.editing.preview
 
 import info.maaskant.wmsnotes.desktop.main.editing.EditingViewModel
+import info.maaskant.wmsnotes.model.note.AttachmentRepository
 import info.maaskant.wmsnotes.model.note.Note
 import info.maaskant.wmsnotes.utilities.logger
 import io.reactivex.Observable
@@ -18,6 +19,7 @@ import javax.inject.Qualifier
 class PreviewAttachmentStorage @Inject constructor(
         @PreviewAttachmentDirectory private val rootDirectory: File,
         editingViewModel: EditingViewModel,
+        private val attachmentRepository: AttachmentRepository,
         initialState: PreviewAttachmentStorageState?,
         scheduler: Scheduler = Schedulers.computation()
 ) {
@@ -41,11 +43,12 @@ class PreviewAttachmentStorage @Inject constructor(
                     previousResult.second to new
                 }
                 .subscribeBy(onNext = { (previous, new) ->
-                    if (new.attachments.isNotEmpty()) {
+                    if (new.attachmentHashes.isNotEmpty()) {
                         rootDirectory.mkdirs()
-                        new.attachments.forEach { (name, content) ->
-                            val hash = new.attachmentHashes[name]!!
+                        new.attachmentHashes.forEach { (name, hash) ->
                             if (state.storedAttachments[name] != hash) {
+                                val content = attachmentRepository.getContent(new.aggId, hash)
+                                        ?: throw IllegalStateException("Content of attachment $name of note ${new.aggId} not found")
                                 rootDirectory.resolve(name).writeBytes(content)
                                 updateState(state.addAttachment(name, hash))
                             }
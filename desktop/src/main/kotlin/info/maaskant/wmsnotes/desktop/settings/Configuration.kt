@@ -12,4 +12,8 @@ object Configuration {
     const val cache =
             true
 //            false
+
+    const val pushSynchronization =
+//            true
+            false
 }
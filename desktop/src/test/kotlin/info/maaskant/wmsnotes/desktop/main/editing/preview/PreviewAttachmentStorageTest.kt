@@ -2,8 +2,11 @@ package info.maaskant.wmsnotes.desktop.main.editing.preview
 
 import info.maaskant.wmsnotes.desktop.main.editing.EditingViewModel
 import info.maaskant.wmsnotes.model.Path
+import info.maaskant.wmsnotes.model.eventstore.InMemoryEventStore
 import info.maaskant.wmsnotes.model.note.AttachmentAddedEvent
+import info.maaskant.wmsnotes.model.note.AttachmentRepository
 import info.maaskant.wmsnotes.model.note.ContentChangedEvent
+import info.maaskant.wmsnotes.model.note.InMemoryAttachmentStore
 import info.maaskant.wmsnotes.model.note.Note
 import info.maaskant.wmsnotes.model.note.NoteCreatedEvent
 import info.maaskant.wmsnotes.utilities.Optional
@@ -27,6 +30,8 @@ internal class PreviewAttachmentStorageTest {
 
     private lateinit var tempDir: File
     private val editingViewModel: EditingViewModel = mockk()
+    private lateinit var attachmentStore: InMemoryAttachmentStore
+    private lateinit var attachmentRepository: AttachmentRepository
     private lateinit var state: PreviewAttachmentStorageState
     private val scheduler = Schedulers.trampoline()
     private lateinit var note: Subject<Optional<Note>>
@@ -40,13 +45,15 @@ internal class PreviewAttachmentStorageTest {
         note = PublishSubject.create()
         every { editingViewModel.getNote() }.returns(note)
         state = PreviewAttachmentStorageState()
+        attachmentStore = InMemoryAttachmentStore()
+        attachmentRepository = AttachmentRepository(InMemoryEventStore(), attachmentStore)
     }
 
     @Test
     fun `no note`() {
         // Given
         val note1 = Optional<Note>()
-        val storage = PreviewAttachmentStorage(tempDir, editingViewModel, initialState = state, scheduler = scheduler)
+        val storage = PreviewAttachmentStorage(tempDir, editingViewModel, attachmentRepository, initialState = state, scheduler = scheduler)
         val observer = storage.getAttachmentsStoredNotifications().test()
 
         // When
@@ -61,7 +68,7 @@ internal class PreviewAttachmentStorageTest {
     fun `initial note`() {
         // Given
         val note1 = createNote(note1Id, "att", "data")
-        val storage = PreviewAttachmentStorage(tempDir, editingViewModel, initialState = state, scheduler = scheduler)
+        val storage = PreviewAttachmentStorage(tempDir, editingViewModel, attachmentRepository, initialState = state, scheduler = scheduler)
         val observer = storage.getAttachmentsStoredNotifications().test()
 
         // When
@@ -77,7 +84,7 @@ internal class PreviewAttachmentStorageTest {
     fun `initial note, no attachments`() {
         // Given
         val note1 = createNote(note1Id)
-        val storage = PreviewAttachmentStorage(tempDir, editingViewModel, initialState = state, scheduler = scheduler)
+        val storage = PreviewAttachmentStorage(tempDir, editingViewModel, attachmentRepository, initialState = state, scheduler = scheduler)
         val observer = storage.getAttachmentsStoredNotifications().test()
 
         // When
@@ -94,7 +101,7 @@ internal class PreviewAttachmentStorageTest {
         val note1v2 = Optional(note1v1.value!!
                 .apply(ContentChangedEvent(eventId = 3, aggId = note1Id, revision = 3, content = "text")).component1()
         )
-        val storage = PreviewAttachmentStorage(tempDir, editingViewModel, initialState = state, scheduler = scheduler)
+        val storage = PreviewAttachmentStorage(tempDir, editingViewModel, attachmentRepository, initialState = state, scheduler = scheduler)
         note.onNext(note1v1)
         val observer = storage.getAttachmentsStoredNotifications().test()
 
@@ -110,7 +117,7 @@ internal class PreviewAttachmentStorageTest {
         // Given
         val note1v1 = createNote(note1Id, "att-1", "data1")
         val note1v2 = createNote(note1Id, "att-2", "data2")
-        val storage = PreviewAttachmentStorage(tempDir, editingViewModel, initialState = state, scheduler = scheduler)
+        val storage = PreviewAttachmentStorage(tempDir, editingViewModel, attachmentRepository, initialState = state, scheduler = scheduler)
         note.onNext(note1v1)
         val observer = storage.getAttachmentsStoredNotifications().test()
 
@@ -129,7 +136,7 @@ internal class PreviewAttachmentStorageTest {
         // Given
         val note1 = createNote(note1Id, "att", "data")
         val note2 = createNote(note2Id)
-        PreviewAttachmentStorage(tempDir, editingViewModel, initialState = state, scheduler = scheduler)
+        PreviewAttachmentStorage(tempDir, editingViewModel, attachmentRepository, initialState = state, scheduler = scheduler)
         note.onNext(note1)
         note.onNext(note2)
         val file = tempDir.resolve("att")
@@ -151,4 +158,5 @@ internal class PreviewAttachmentStorageTest {
             Optional(Note()
                     .apply(NoteCreatedEvent(eventId = 1, aggId = aggId, revision = 1, path = path, title = title, content = content)).component1()
                     .apply(AttachmentAddedEvent(eventId = 2, aggId = aggId, revision = 2, name = attachmentName, content = attachmentContent.toByteArray())).component1())
+                    .also { attachmentStore.put(attachmentContent.toByteArray()) }
 }
\ No newline at end of file
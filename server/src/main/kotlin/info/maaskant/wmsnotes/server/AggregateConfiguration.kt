@@ -3,15 +3,22 @@ package info.maaskant.wmsnotes.server
 import com.esotericsoftware.kryo.Kryo
 import com.esotericsoftware.kryo.util.Pool
 import info.maaskant.wmsnotes.model.aggregaterepository.AggregateCache
+import info.maaskant.wmsnotes.model.aggregaterepository.AggregateCacheCompactor
 import info.maaskant.wmsnotes.model.aggregaterepository.AggregateRepository
 import info.maaskant.wmsnotes.model.aggregaterepository.CachingAggregateRepository
 import info.maaskant.wmsnotes.model.aggregaterepository.FileAggregateCache
+import info.maaskant.wmsnotes.model.aggregaterepository.MemoryAggregateCache
+import info.maaskant.wmsnotes.model.aggregaterepository.SnapshotPolicy
 import info.maaskant.wmsnotes.model.eventstore.EventStore
 import info.maaskant.wmsnotes.model.folder.Folder
 import info.maaskant.wmsnotes.model.folder.KryoFolderSerializer
+import info.maaskant.wmsnotes.model.note.AttachmentStore
+import info.maaskant.wmsnotes.model.note.FileAttachmentStore
 import info.maaskant.wmsnotes.model.note.KryoNoteSerializer
 import info.maaskant.wmsnotes.model.note.Note
 import info.maaskant.wmsnotes.utilities.serialization.Serializer
+import io.reactivex.schedulers.Schedulers
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
 import java.io.File
@@ -21,13 +28,48 @@ import javax.inject.Singleton
 class AggregateConfiguration {
     @Bean
     @Singleton
-    fun folderCache(@OtherConfiguration.AppDirectory appDirectory: File, serializer: Serializer<Folder>): AggregateCache<Folder> =
-            FileAggregateCache(appDirectory.resolve("cache").resolve("projected_folders"), serializer)
+    fun folderCache(
+            @OtherConfiguration.AppDirectory appDirectory: File,
+            serializer: Serializer<Folder>,
+            snapshotPolicy: SnapshotPolicy,
+            @Value("\${aggregateCache.folders.memorySize:8388608}") memorySize: Long
+    ): AggregateCache<Folder> =
+            MemoryAggregateCache(
+                    FileAggregateCache(folderCacheDirectory(appDirectory), serializer, snapshotPolicy),
+                    maximumSize = memorySize,
+                    weigher = Folder::estimateSize
+            )
 
     @Bean
     @Singleton
-    fun noteCache(@OtherConfiguration.AppDirectory appDirectory: File, serializer: Serializer<Note>): AggregateCache<Note> =
-            FileAggregateCache(appDirectory.resolve("cache").resolve("projected_notes"), serializer)
+    fun noteCache(
+            @OtherConfiguration.AppDirectory appDirectory: File,
+            serializer: Serializer<Note>,
+            snapshotPolicy: SnapshotPolicy,
+            @Value("\${aggregateCache.notes.memorySize:67108864}") memorySize: Long
+    ): AggregateCache<Note> =
+            MemoryAggregateCache(
+                    FileAggregateCache(noteCacheDirectory(appDirectory), serializer, snapshotPolicy),
+                    maximumSize = memorySize,
+                    weigher = Note::estimateSize
+            )
+
+    @Bean
+    @Singleton
+    fun snapshotPolicy(
+            @Value("\${aggregateCache.snapshotInterval:20}") interval: Int,
+            @Value("\${aggregateCache.retainedSnapshots:2}") retainedSnapshots: Int
+    ): SnapshotPolicy =
+            SnapshotPolicy(interval = interval, retainedSnapshots = retainedSnapshots)
+
+    @Bean
+    @Singleton
+    fun aggregateCacheCompactor(@OtherConfiguration.AppDirectory appDirectory: File, snapshotPolicy: SnapshotPolicy): AggregateCacheCompactor =
+            AggregateCacheCompactor(
+                    listOf(folderCacheDirectory(appDirectory), noteCacheDirectory(appDirectory)),
+                    snapshotPolicy,
+                    Schedulers.io()
+            )
 
     @Bean
     @Singleton
@@ -39,6 +81,11 @@ class AggregateConfiguration {
     fun noteRepository(eventStore: EventStore, cache: AggregateCache<Note>): AggregateRepository<Note> =
             CachingAggregateRepository(eventStore, cache, Note())
 
+    @Bean
+    @Singleton
+    fun attachmentStore(@OtherConfiguration.AppDirectory appDirectory: File): AttachmentStore =
+            FileAttachmentStore(appDirectory.resolve("attachments"))
+
     @Bean
     @Singleton
     fun folderSerializer(kryoPool: Pool<Kryo>): Serializer<Folder> = KryoFolderSerializer(kryoPool)
@@ -46,4 +93,7 @@ class AggregateConfiguration {
     @Bean
     @Singleton
     fun noteSerializer(kryoPool: Pool<Kryo>): Serializer<Note> = KryoNoteSerializer(kryoPool)
+
+    private fun folderCacheDirectory(appDirectory: File) = appDirectory.resolve("cache").resolve("projected_folders")
+    private fun noteCacheDirectory(appDirectory: File) = appDirectory.resolve("cache").resolve("projected_notes")
 }
\ No newline at end of file
@@ -11,6 +11,7 @@ import info.maaskant.wmsnotes.model.note.Note
 import info.maaskant.wmsnotes.model.note.NoteCommandExecutor
 import info.maaskant.wmsnotes.model.note.NoteCommandToEventMapper
 import io.reactivex.schedulers.Schedulers
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
 import java.util.concurrent.TimeUnit
@@ -32,13 +33,15 @@ class CommandConfiguration {
     fun folderCommandExecutor(
             commandBus: CommandBus,
             eventStore: EventStore,
-            repository: AggregateRepository<Folder>
+            repository: AggregateRepository<Folder>,
+            @Value("\${commandExecutor.lanes:8}") numberOfLanes: Int
     ) = FolderCommandExecutor(
             commandBus,
             eventStore,
             repository,
             FolderCommandToEventMapper(),
-            Schedulers.io()
+            Schedulers.io(),
+            numberOfLanes
     )
 
     @Bean
@@ -46,12 +49,14 @@ class CommandConfiguration {
     fun noteCommandExecutor(
             commandBus: CommandBus,
             eventStore: EventStore,
-            repository: AggregateRepository<Note>
+            repository: AggregateRepository<Note>,
+            @Value("\${commandExecutor.lanes:8}") numberOfLanes: Int
     ) = NoteCommandExecutor(
             commandBus,
             eventStore,
             repository,
             NoteCommandToEventMapper(),
-            Schedulers.io()
+            Schedulers.io(),
+            numberOfLanes
     )
 }
\ No newline at end of file
@@ -3,8 +3,14 @@ package info.maaskant.wmsnotes.server
 import com.esotericsoftware.kryo.Kryo
 import com.esotericsoftware.kryo.util.Pool
 import info.maaskant.wmsnotes.model.KryoEventSerializer
+import info.maaskant.wmsnotes.model.eventstore.CachingEventStore
+import info.maaskant.wmsnotes.model.eventstore.Durability
 import info.maaskant.wmsnotes.model.eventstore.EventStore
 import info.maaskant.wmsnotes.model.eventstore.FileEventStore
+import info.maaskant.wmsnotes.model.eventstore.SegmentedEventStore
+import info.maaskant.wmsnotes.model.note.AttachmentStore
+import info.maaskant.wmsnotes.server.attachment.AttachmentStoringEventStore
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
 import java.io.File
@@ -14,9 +20,31 @@ import javax.inject.Singleton
 class EventConfiguration {
     @Bean
     @Singleton
-    fun eventStore(@OtherConfiguration.AppDirectory appDirectory: File, kryoPool: Pool<Kryo>): EventStore =
-            FileEventStore(
-                    appDirectory.resolve("events"),
-                    KryoEventSerializer(kryoPool)
-            )
-}
\ No newline at end of file
+    fun eventStore(
+            @OtherConfiguration.AppDirectory appDirectory: File,
+            kryoPool: Pool<Kryo>,
+            @Value("\${eventStore.segmented:false}") segmented: Boolean,
+            @Value("\${eventStore.durability:none}") durability: String,
+            @Value("\${eventStore.syncInterval:1000}") syncIntervalMillis: Long,
+            @Value("\${eventStore.cacheSize:16777216}") cacheSize: Long,
+            attachmentStore: AttachmentStore
+    ): EventStore {
+        val store = if (segmented) {
+                SegmentedEventStore(
+                        appDirectory.resolve("segmented_events"),
+                        KryoEventSerializer(kryoPool),
+                        durability = Durability.parse(durability, syncIntervalMillis)
+                )
+            } else {
+                FileEventStore(
+                        appDirectory.resolve("events"),
+                        KryoEventSerializer(kryoPool),
+                        durability = Durability.parse(durability, syncIntervalMillis)
+                )
+            }
+        val cachedStore = if (cacheSize > 0) CachingEventStore(store, maximumSize = cacheSize) else store
+        return AttachmentStoringEventStore(cachedStore, attachmentStore).apply {
+            storeExistingAttachments(marker = appDirectory.resolve(".existing_attachments_stored"))
+        }
+    }
+}
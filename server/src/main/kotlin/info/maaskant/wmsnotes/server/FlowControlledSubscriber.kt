@@ -0,0 +1,63 @@
+package info.maaskant.wmsnotes.server
+
+import info.maaskant.wmsnotes.utilities.logger
+import io.grpc.stub.ServerCallStreamObserver
+import io.grpc.stub.StreamObserver
+import io.reactivex.subscribers.DisposableSubscriber
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Passes the items of a flowable to a gRPC response observer. A new item is only requested when the observer is ready
+ * to send it, so a slow client does not cause items to pile up in memory. If the observer does not support flow
+ * control, all items are requested at once.
+ *
+ * Must be created before the gRPC service method returns.
+ */
+class FlowControlledSubscriber<T, R>(
+        private val responseObserver: StreamObserver<R>,
+        private val mapper: (T) -> R
+) : DisposableSubscriber<T>() {
+
+    private val logger by logger()
+
+    private val serverCallStreamObserver = responseObserver as? ServerCallStreamObserver<R>
+    private val awaitingReady = AtomicBoolean(false)
+
+    init {
+        serverCallStreamObserver?.setOnReadyHandler {
+            if (awaitingReady.compareAndSet(true, false)) request(1)
+        }
+        serverCallStreamObserver?.setOnCancelHandler { dispose() }
+    }
+
+    override fun onStart() {
+        if (serverCallStreamObserver != null) {
+            requestWhenReady(serverCallStreamObserver)
+        } else {
+            request(Long.MAX_VALUE)
+        }
+    }
+
+    override fun onNext(item: T) {
+        responseObserver.onNext(mapper(item))
+        if (serverCallStreamObserver != null) {
+            requestWhenReady(serverCallStreamObserver)
+        }
+    }
+
+    override fun onError(t: Throwable) {
+        logger.warn("Internal error", t)
+        responseObserver.onError(t)
+    }
+
+    override fun onComplete() {
+        responseObserver.onCompleted()
+    }
+
+    private fun requestWhenReady(observer: ServerCallStreamObserver<R>) {
+        awaitingReady.set(true)
+        if (observer.isReady && awaitingReady.compareAndSet(true, false)) {
+            request(1)
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package info.maaskant.wmsnotes.server.attachment
+
+import com.google.protobuf.ByteString
+import info.maaskant.wmsnotes.model.note.AttachmentStore
+import info.maaskant.wmsnotes.server.FlowControlledSubscriber
+import info.maaskant.wmsnotes.server.command.grpc.Attachment.*
+import info.maaskant.wmsnotes.server.command.grpc.AttachmentServiceGrpc
+import info.maaskant.wmsnotes.utilities.logger
+import io.grpc.Status
+import io.grpc.stub.StreamObserver
+import io.reactivex.Flowable
+import io.reactivex.functions.BiFunction
+import org.lognet.springboot.grpc.GRpcService
+import org.springframework.beans.factory.annotation.Value
+import java.util.concurrent.Callable
+
+/**
+ * Transfers the contents of attachments in chunks. Uploaded contents are kept in the [AttachmentStore] until a command
+ * refers to them by their hash.
+ */
+@GRpcService
+class AttachmentService(
+        private val attachmentStore: AttachmentStore,
+        @Value("\${attachments.chunkSize:262144}") private val chunkSize: Int
+) : AttachmentServiceGrpc.AttachmentServiceImplBase() {
+
+    private val logger by logger()
+
+    override fun getUploadStatus(
+            request: GetUploadStatusRequest,
+            responseObserver: StreamObserver<GetUploadStatusResponse>
+    ) {
+        if (!isValidHash(request.hash, responseObserver)) return
+        val size = attachmentStore.size(request.hash)
+        responseObserver.onNext(GetUploadStatusResponse.newBuilder()
+                .setStored(size != null)
+                .setReceivedBytes(if (size == null) attachmentStore.getReceivedSize(request.hash) else 0)
+                .build())
+        responseObserver.onCompleted()
+    }
+
+    override fun uploadAttachment(responseObserver: StreamObserver<UploadAttachmentResponse>): StreamObserver<UploadAttachmentRequest> =
+            object : StreamObserver<UploadAttachmentRequest> {
+                private var hash: String? = null
+                private var failed = false
+
+                override fun onNext(request: UploadAttachmentRequest) {
+                    if (failed) return
+                    if (hash == null) {
+                        if (!AttachmentStore.isValidHash(request.hash)) {
+                            fail(Status.INVALID_ARGUMENT.withDescription("Invalid hash: ${request.hash}"))
+                            return
+                        }
+                        hash = request.hash
+                    } else if (request.hash != hash) {
+                        fail(Status.INVALID_ARGUMENT.withDescription("All chunks must have the same hash"))
+                        return
+                    }
+                    try {
+                        attachmentStore.append(request.hash, request.offset, request.data.toByteArray())
+                    } catch (e: IllegalArgumentException) {
+                        fail(Status.OUT_OF_RANGE.withDescription(e.message))
+                    }
+                }
+
+                override fun onError(t: Throwable) {
+                    logger.debug("Upload of attachment content {} interrupted, keeping the received chunks", hash)
+                }
+
+                override fun onCompleted() {
+                    if (failed) return
+                    val hash = hash
+                    when {
+                        hash == null -> fail(Status.INVALID_ARGUMENT.withDescription("No chunks received"))
+                        attachmentStore.complete(hash) -> {
+                            logger.debug("Received attachment content {}", hash)
+                            responseObserver.onNext(UploadAttachmentResponse.getDefaultInstance())
+                            responseObserver.onCompleted()
+                        }
+                        else -> fail(Status.INVALID_ARGUMENT.withDescription("Content does not match hash $hash"))
+                    }
+                }
+
+                private fun fail(status: Status) {
+                    logger.info("Bad upload request: {}", status.description)
+                    failed = true
+                    responseObserver.onError(status.asRuntimeException())
+                }
+            }
+
+    override fun downloadAttachment(
+            request: DownloadAttachmentRequest,
+            responseObserver: StreamObserver<DownloadAttachmentResponse>
+    ) {
+        if (!isValidHash(request.hash, responseObserver)) return
+        val size = attachmentStore.size(request.hash)
+        if (size == null) {
+            responseObserver.onError(Status.NOT_FOUND.withDescription("Attachment content ${request.hash} not found").asRuntimeException())
+            return
+        }
+        if (request.offset < 0 || request.offset > size) {
+            responseObserver.onError(Status.OUT_OF_RANGE.withDescription("Offset must be between 0 and $size").asRuntimeException())
+            return
+        }
+        Flowable.generate<Pair<Long, ByteArray>, Long>(Callable { request.offset }, BiFunction { offset, emitter ->
+            val chunk = if (offset < size) attachmentStore.read(request.hash, offset, chunkSize) else null
+            if (chunk == null || chunk.isEmpty()) {
+                emitter.onComplete()
+                offset
+            } else {
+                emitter.onNext(offset to chunk)
+                offset + chunk.size
+            }
+        })
+                .subscribe(FlowControlledSubscriber(responseObserver) { (offset, chunk) ->
+                    DownloadAttachmentResponse.newBuilder()
+                            .setOffset(offset)
+                            .setData(ByteString.copyFrom(chunk))
+                            .build()
+                })
+    }
+
+    private fun isValidHash(hash: String, responseObserver: StreamObserver<*>): Boolean =
+            AttachmentStore.isValidHash(hash).also {
+                if (!it) responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Invalid hash: $hash").asRuntimeException())
+            }
+}
@@ -0,0 +1,62 @@
+package info.maaskant.wmsnotes.server.attachment
+
+import arrow.core.Either
+import info.maaskant.wmsnotes.model.CommandError
+import info.maaskant.wmsnotes.model.Event
+import info.maaskant.wmsnotes.model.eventstore.EventStore
+import info.maaskant.wmsnotes.model.note.AttachmentAddedEvent
+import info.maaskant.wmsnotes.model.note.AttachmentStore
+import info.maaskant.wmsnotes.model.note.Note
+import info.maaskant.wmsnotes.utilities.logger
+import java.io.File
+
+/**
+ * Puts the content of every [AttachmentAddedEvent] in the [AttachmentStore] before the event is appended to the wrapped
+ * [EventStore], so that clients can download the content as soon as they receive the event.
+ *
+ * Events that were appended before contents were stored this way are handled by [storeExistingAttachments].
+ */
+class AttachmentStoringEventStore(
+        private val wrapped: EventStore,
+        private val attachmentStore: AttachmentStore
+) : EventStore by wrapped {
+
+    private val logger by logger()
+
+    /**
+     * Puts the contents of the attachment events that are already in the wrapped store in the attachment store. This
+     * only needs to happen once, so afterwards a marker file is created and the events are not read again.
+     *
+     * @param marker The file that records that the existing contents have been stored.
+     */
+    fun storeExistingAttachments(marker: File) {
+        if (marker.exists()) return
+        logger.info("Storing the contents of existing attachments")
+        var numberOfContents = 0
+        wrapped.getEventsFlowable()
+                .ofType(AttachmentAddedEvent::class.java)
+                .blockingForEach {
+                    if (attachmentStore.size(Note.hash(it.content)) == null) {
+                        attachmentStore.put(it.content)
+                        numberOfContents++
+                    }
+                }
+        logger.info("Stored the contents of {} existing attachments", numberOfContents)
+        marker.parentFile.mkdirs()
+        marker.createNewFile()
+    }
+
+    override fun appendEvent(event: Event): Either<CommandError.StorageError, Event> {
+        storeAttachment(event)
+        return wrapped.appendEvent(event)
+    }
+
+    override fun appendEvents(events: List<Event>): Either<CommandError.StorageError, List<Event>> {
+        events.forEach(::storeAttachment)
+        return wrapped.appendEvents(events)
+    }
+
+    private fun storeAttachment(event: Event) {
+        if (event is AttachmentAddedEvent) attachmentStore.put(event.content)
+    }
+}
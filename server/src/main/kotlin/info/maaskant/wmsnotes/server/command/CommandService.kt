@@ -8,6 +8,8 @@ import info.maaskant.wmsnotes.model.CommandBus
 import info.maaskant.wmsnotes.model.CommandError
 import info.maaskant.wmsnotes.model.CommandError.*
 import info.maaskant.wmsnotes.model.CommandExecution
+import info.maaskant.wmsnotes.model.CommandRequest
+import info.maaskant.wmsnotes.model.CommandResult
 import info.maaskant.wmsnotes.model.Event
 import info.maaskant.wmsnotes.server.command.grpc.Command
 import info.maaskant.wmsnotes.server.command.grpc.CommandServiceGrpc
@@ -15,6 +17,9 @@ import info.maaskant.wmsnotes.utilities.logger
 import io.grpc.Status
 import io.grpc.StatusRuntimeException
 import io.grpc.stub.StreamObserver
+import io.reactivex.Observable
+import io.reactivex.Single
+import io.reactivex.rxkotlin.subscribeBy
 import org.lognet.springboot.grpc.GRpcService
 
 @Suppress("MoveVariableDeclarationIntoWhen")
@@ -27,7 +32,6 @@ class CommandService(
 
     private val logger by logger()
 
-    @Synchronized
     override fun postCommand(
             request: Command.PostCommandRequest,
             responseObserver: StreamObserver<Command.PostCommandResponse>
@@ -43,29 +47,11 @@ class CommandService(
                         .asRuntimeException()
                 )
             } else {
-                val commandResult = CommandExecution.executeBlocking(commandBus = commandBus, commandRequest = commandRequest, timeout = commandExecutionTimeout)
-                if (commandResult.outcome.size != 1) {
-                    val message = "Result does not contain 1 command but ${commandResult.outcome.size}: $commandRequest -> $commandResult"
-                    logger.warn(message)
-                    responseObserver.onError(Status.INTERNAL
-                            .withDescription(message)
-                            .asRuntimeException()
-                    )
-                } else {
-                    val outcome: Either<CommandError, Option<Event>> = commandResult.outcome.first().second
-                    when (outcome) {
-                        is Left -> {
-                            val sre = commandErrorToStatusRuntimeException(outcome.a)
-                            logger.debug("Answering request: {}, {}", sre.status.code, sre.status.description)
-                            responseObserver.onError(sre)}
-                        is Right -> {
-                            logger.debug("Answering request: OK, {}", outcome.b)
-                            val response = eventToResponse(outcome.b)
-                            responseObserver.onNext(response)
-                            responseObserver.onCompleted()
-                        }
-                    }
-                }
+                CommandExecution.execute(commandBus = commandBus, commandRequest = commandRequest, timeout = commandExecutionTimeout)
+                        .subscribeBy(
+                                onSuccess = { commandResult -> answerRequest(commandRequest, commandResult, responseObserver) },
+                                onError = { answerInternalError(it, responseObserver) }
+                        )
             }
         } catch (t: InvalidRequestException) {
             // TODO Stop throwing exceptions
@@ -84,6 +70,120 @@ class CommandService(
         }
     }
 
+    override fun postCommands(
+            request: Command.PostCommandsRequest,
+            responseObserver: StreamObserver<Command.PostCommandsResponse>
+    ) {
+        try {
+            val commandRequests = grpcCommandMapper.toModelCommandRequests(request)
+            logger.debug("Received requests: {}", commandRequests)
+            val failedAggIds = HashSet<String>()
+            val response = Command.PostCommandsResponse.newBuilder()
+            Observable.fromIterable(commandRequests)
+                    .concatMapCompletable { commandRequest ->
+                        val outcomes: Single<List<Either<CommandError, Option<Event>>>> = if (commandRequest.aggId in failedAggIds) {
+                            Single.just(emptyList())
+                        } else {
+                            CommandExecution.execute(commandBus = commandBus, commandRequest = commandRequest, timeout = commandExecutionTimeout)
+                                    .map { commandResult -> commandResult.outcome.map { it.second } }
+                        }
+                        outcomes
+                                .doOnSuccess {
+                                    it.forEach { outcome -> response.addResults(outcomeToResult(outcome)) }
+                                    if (it.size < commandRequest.commands.size || it.any { outcome -> outcome.isLeft() }) {
+                                        failedAggIds += commandRequest.aggId
+                                        repeat(commandRequest.commands.size - it.size) {
+                                            response.addResults(notExecutedResult(commandRequest.aggId))
+                                        }
+                                    }
+                                }
+                                .ignoreElement()
+                    }
+                    .subscribeBy(
+                            onComplete = {
+                                logger.debug("Answering requests: {} results, {} failed aggregates", response.resultsCount, failedAggIds.size)
+                                responseObserver.onNext(response.build())
+                                responseObserver.onCompleted()
+                            },
+                            onError = { answerInternalError(it, responseObserver) }
+                    )
+        } catch (t: InvalidRequestException) {
+            logger.info("Bad request: {}", t.message)
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription(t.message)
+                    .withCause(t)
+                    .asRuntimeException()
+            )
+        } catch (t: Throwable) {
+            logger.warn("Internal error", t)
+            responseObserver.onError(Status.INTERNAL
+                    .withCause(t)
+                    .asRuntimeException()
+            )
+        }
+    }
+
+    private fun answerRequest(
+            commandRequest: CommandRequest<info.maaskant.wmsnotes.model.Command>,
+            commandResult: CommandResult,
+            responseObserver: StreamObserver<Command.PostCommandResponse>
+    ) {
+        if (commandResult.outcome.size != 1) {
+            val message = "Result does not contain 1 command but ${commandResult.outcome.size}: $commandRequest -> $commandResult"
+            logger.warn(message)
+            responseObserver.onError(Status.INTERNAL
+                    .withDescription(message)
+                    .asRuntimeException()
+            )
+        } else {
+            val outcome: Either<CommandError, Option<Event>> = commandResult.outcome.first().second
+            when (outcome) {
+                is Left -> {
+                    val sre = commandErrorToStatusRuntimeException(outcome.a)
+                    logger.debug("Answering request: {}, {}", sre.status.code, sre.status.description)
+                    responseObserver.onError(sre)
+                }
+                is Right -> {
+                    logger.debug("Answering request: OK, {}", outcome.b)
+                    val response = eventToResponse(outcome.b)
+                    responseObserver.onNext(response)
+                    responseObserver.onCompleted()
+                }
+            }
+        }
+    }
+
+    private fun answerInternalError(t: Throwable, responseObserver: StreamObserver<*>) {
+        logger.warn("Internal error", t)
+        responseObserver.onError(Status.INTERNAL
+                .withCause(t)
+                .asRuntimeException()
+        )
+    }
+
+    private fun outcomeToResult(outcome: Either<CommandError, Option<Event>>): Command.PostCommandsResponse.Result {
+        val builder = Command.PostCommandsResponse.Result.newBuilder()
+        when (outcome) {
+            is Left -> {
+                val status = commandErrorToStatusRuntimeException(outcome.a).status
+                builder.failure = Command.PostCommandsResponse.Failure.newBuilder()
+                        .setCode(status.code.value())
+                        .setDescription(status.description ?: "")
+                        .build()
+            }
+            is Right -> builder.success = eventToResponse(outcome.b)
+        }
+        return builder.build()
+    }
+
+    private fun notExecutedResult(aggId: String): Command.PostCommandsResponse.Result =
+            Command.PostCommandsResponse.Result.newBuilder()
+                    .setFailure(Command.PostCommandsResponse.Failure.newBuilder()
+                            .setCode(Status.Code.ABORTED.value())
+                            .setDescription("Not executed, because a previous command for aggregate $aggId failed")
+                            .build())
+                    .build()
+
     private fun commandErrorToStatusRuntimeException(commandError: CommandError): StatusRuntimeException {
         return when (commandError) {
             is IllegalStateError -> Status.FAILED_PRECONDITION
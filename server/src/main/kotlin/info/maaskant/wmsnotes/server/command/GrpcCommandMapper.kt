@@ -9,11 +9,30 @@ import info.maaskant.wmsnotes.model.folder.FolderCommandRequest
 import info.maaskant.wmsnotes.model.note.*
 import info.maaskant.wmsnotes.server.command.grpc.Command
 import org.springframework.stereotype.Service
+import javax.inject.Inject
 import javax.inject.Singleton
 
 @Service
 @Singleton
-class GrpcCommandMapper {
+class GrpcCommandMapper @Inject constructor(private val attachmentStore: AttachmentStore) {
+    /**
+     * Maps the commands in a request to command requests. Consecutive commands for the same aggregate are combined into
+     * one command request, so that they are executed as a sequence.
+     */
+    fun toModelCommandRequests(request: Command.PostCommandsRequest): List<CommandRequest<info.maaskant.wmsnotes.model.Command>> {
+        val result = ArrayList<CommandRequest<info.maaskant.wmsnotes.model.Command>>()
+        for (commandRequest in request.commandsList.map(::toModelCommandRequest)) {
+            val previous = result.lastOrNull()
+            val combined = if (previous != null && previous.aggId == commandRequest.aggId) combine(previous, commandRequest) else null
+            if (combined != null) {
+                result[result.size - 1] = combined
+            } else {
+                result += commandRequest
+            }
+        }
+        return result
+    }
+
     fun toModelCommandRequest(request: Command.PostCommandRequest): CommandRequest<info.maaskant.wmsnotes.model.Command> {
         if (request.aggregateId.isEmpty()) throw InvalidRequestException("Field 'note_id' must not be empty")
         return when (request.commandCase!!) {
@@ -46,7 +65,7 @@ class GrpcCommandMapper {
                     command = AddAttachmentCommand(
                             aggId = request.aggregateId,
                             name = request.addAttachment.name.also { if (it.isEmpty()) throw InvalidRequestException("Field 'name' not set") },
-                            content = request.addAttachment.content.toByteArray()
+                            content = getAttachmentContent(request.addAttachment)
                     ),
                     lastRevision = request.lastRevision,
                     origin = REMOTE
@@ -67,6 +86,19 @@ class GrpcCommandMapper {
                     lastRevision = request.lastRevision,
                     origin = REMOTE
             )
+            Command.PostCommandRequest.CommandCase.PATCH_CONTENT -> NoteCommandRequest.of(
+                    command = PatchContentCommand(
+                            aggId = request.aggregateId,
+                            patch = ContentPatch(
+                                    start = request.patchContent.start.also { if (it < 0) throw InvalidRequestException("Field 'start' must not be negative") },
+                                    deletedLength = request.patchContent.deletedLength.also { if (it < 0) throw InvalidRequestException("Field 'deleted_length' must not be negative") },
+                                    insertedText = request.patchContent.insertedText,
+                                    baseHash = request.patchContent.baseHash
+                            )
+                    ),
+                    lastRevision = request.lastRevision,
+                    origin = REMOTE
+            )
             Command.PostCommandRequest.CommandCase.CHANGE_TITLE -> NoteCommandRequest.of(
                     command = ChangeTitleCommand(
                             aggId = request.aggregateId,
@@ -99,6 +131,22 @@ class GrpcCommandMapper {
             )
         }
     }
+
+    private fun getAttachmentContent(command: Command.PostCommandRequest.AddAttachmentCommand): ByteArray =
+            if (command.contentHash.isEmpty()) {
+                command.content.toByteArray()
+            } else {
+                if (!AttachmentStore.isValidHash(command.contentHash)) throw InvalidRequestException("Field 'content_hash' is invalid")
+                attachmentStore.get(command.contentHash)
+                        ?: throw InvalidRequestException("Attachment content ${command.contentHash} has not been uploaded")
+            }
+
+    private fun combine(first: CommandRequest<*>, second: CommandRequest<*>): CommandRequest<info.maaskant.wmsnotes.model.Command>? =
+            when {
+                first is NoteCommandRequest && second is NoteCommandRequest -> first.copy(commands = first.commands + second.commands)
+                first is FolderCommandRequest && second is FolderCommandRequest -> first.copy(commands = first.commands + second.commands)
+                else -> null
+            }
 }
 
 // TODO: Do not throw this class. Instead, validate the request and return a list of errors.
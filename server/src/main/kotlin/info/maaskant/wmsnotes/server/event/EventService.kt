@@ -1,28 +1,56 @@
 package info.maaskant.wmsnotes.server.event
 
 import info.maaskant.wmsnotes.model.eventstore.EventStore
+import info.maaskant.wmsnotes.server.FlowControlledSubscriber
 import info.maaskant.wmsnotes.server.command.grpc.Event
 import info.maaskant.wmsnotes.server.command.grpc.EventServiceGrpc
-import info.maaskant.wmsnotes.utilities.logger
+import io.grpc.Status
 import io.grpc.stub.StreamObserver
+import io.reactivex.Flowable
+import io.reactivex.processors.UnicastProcessor
 import org.lognet.springboot.grpc.GRpcService
+import org.springframework.beans.factory.annotation.Value
+import java.util.concurrent.atomic.AtomicInteger
 
 @GRpcService
-class EventService(private val eventStore: EventStore, private val grpcEventMapper: GrpcEventMapper) : EventServiceGrpc.EventServiceImplBase() {
-    private val logger by logger()
+class EventService(
+        private val eventStore: EventStore,
+        private val grpcEventMapper: GrpcEventMapper,
+        @Value("\${events.maxBufferedUpdates:10000}") private val maxBufferedUpdates: Int = 10000
+) : EventServiceGrpc.EventServiceImplBase() {
 
     override fun getEvents(
             request: Event.GetEventsRequest,
             responseObserver: StreamObserver<Event.GetEventsResponse>
     ) {
-        eventStore.getEvents(afterEventId = request.afterEventId).subscribe(
-                { responseObserver.onNext(grpcEventMapper.toGrpcGetEventsResponse(it)) },
-                {
-                    logger.warn("Internal error", it)
-                    responseObserver.onError(it)
-                },
-                { responseObserver.onCompleted() }
-        )
+        eventStore.getEventsFlowable(afterEventId = request.afterEventId)
+                .subscribe(FlowControlledSubscriber(responseObserver, grpcEventMapper::toGrpcGetEventsResponse))
+    }
 
+    override fun subscribeEvents(
+            request: Event.GetEventsRequest,
+            responseObserver: StreamObserver<Event.GetEventsResponse>
+    ) {
+        // Collect updates before reading the existing events, so that no event is missed in between. If the client
+        // does not keep up, the stream is closed instead of buffering updates without limit. The client can then
+        // subscribe again after the last event it received.
+        val updates = UnicastProcessor.create<info.maaskant.wmsnotes.model.Event>(Flowable.bufferSize(), {}, false)
+        val bufferedUpdates = AtomicInteger()
+        val updatesDisposable = eventStore.getEventUpdates().subscribe({
+            if (bufferedUpdates.incrementAndGet() > maxBufferedUpdates) {
+                updates.onError(Status.RESOURCE_EXHAUSTED.withDescription("Too many events have not been sent yet").asRuntimeException())
+            } else {
+                updates.onNext(it)
+            }
+        }, updates::onError)
+        var lastEventId = request.afterEventId
+        Flowable.concat(
+                eventStore.getEventsFlowable(afterEventId = request.afterEventId),
+                updates.doOnNext { bufferedUpdates.decrementAndGet() }
+        )
+                .filter { it.eventId > lastEventId }
+                .doOnNext { lastEventId = it.eventId }
+                .doFinally { updatesDisposable.dispose() }
+                .subscribe(FlowControlledSubscriber(responseObserver, grpcEventMapper::toGrpcGetEventsResponse))
     }
-}
\ No newline at end of file
+}
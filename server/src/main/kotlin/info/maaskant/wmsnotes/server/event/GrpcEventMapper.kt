@@ -1,6 +1,5 @@
 package info.maaskant.wmsnotes.server.event
 
-import com.google.protobuf.ByteString
 import info.maaskant.wmsnotes.model.folder.FolderCreatedEvent
 import info.maaskant.wmsnotes.model.folder.FolderDeletedEvent
 import info.maaskant.wmsnotes.model.note.*
@@ -36,7 +35,9 @@ class GrpcEventMapper @Inject constructor() {
             is AttachmentAddedEvent -> builder.apply {
                 attachmentAdded = Event.GetEventsResponse.AttachmentAddedEvent.newBuilder().apply {
                     name = event.name
-                    content = ByteString.copyFrom(event.content)
+                    // The content is not sent along, clients download it separately using the attachment service. It was
+                    // put in the attachment store when the event was appended (see AttachmentStoringEventStore).
+                    contentHash = Note.hash(event.content)
                 }.build()
             }
             is AttachmentDeletedEvent -> builder.apply {
@@ -49,6 +50,14 @@ class GrpcEventMapper @Inject constructor() {
                     content = event.content
                 }.build()
             }
+            is ContentPatchedEvent -> builder.apply {
+                contentPatched = Event.GetEventsResponse.ContentPatchedEvent.newBuilder().apply {
+                    start = event.patch.start
+                    deletedLength = event.patch.deletedLength
+                    insertedText = event.patch.insertedText
+                    baseHash = event.patch.baseHash
+                }.build()
+            }
             is TitleChangedEvent -> builder.apply {
                 titleChanged = Event.GetEventsResponse.TitleChangedEvent.newBuilder().apply {
                     title = event.title
@@ -0,0 +1,179 @@
+package info.maaskant.wmsnotes.server.attachment
+
+import info.maaskant.wmsnotes.client.api.AttachmentTransferClient
+import info.maaskant.wmsnotes.model.eventstore.InMemoryEventStore
+import info.maaskant.wmsnotes.model.note.AttachmentAddedEvent
+import info.maaskant.wmsnotes.model.note.AttachmentStore
+import info.maaskant.wmsnotes.model.note.InMemoryAttachmentStore
+import info.maaskant.wmsnotes.model.note.Note
+import info.maaskant.wmsnotes.server.command.grpc.Attachment
+import info.maaskant.wmsnotes.server.command.grpc.AttachmentServiceGrpc
+import io.grpc.ManagedChannel
+import io.grpc.Server
+import io.grpc.Status
+import io.grpc.StatusRuntimeException
+import io.grpc.inprocess.InProcessChannelBuilder
+import io.grpc.inprocess.InProcessServerBuilder
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.catchThrowable
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+
+internal class AttachmentServiceTest {
+    private val content = "0123456789abcdefghijklmnopqrstuvwxyz".toByteArray()
+    private val hash = Note.hash(content)
+
+    private lateinit var serverStore: AttachmentStore
+    private lateinit var clientStore: AttachmentStore
+    private lateinit var server: Server
+    private lateinit var channel: ManagedChannel
+
+    @BeforeEach
+    fun init() {
+        serverStore = InMemoryAttachmentStore()
+        clientStore = InMemoryAttachmentStore()
+        val serverName = InProcessServerBuilder.generateName()
+        server = InProcessServerBuilder.forName(serverName)
+                .addService(AttachmentService(serverStore, chunkSize = 5))
+                .build()
+                .start()
+        channel = InProcessChannelBuilder.forName(serverName).build()
+    }
+
+    @AfterEach
+    fun cleanUp() {
+        channel.shutdownNow()
+        server.shutdownNow()
+    }
+
+    @Test
+    fun upload() {
+        // Given
+        val client = createClient()
+
+        // When
+        val uploadedHash = client.upload(content)
+
+        // Then
+        assertThat(uploadedHash).isEqualTo(hash)
+        assertThat(serverStore.get(hash)).isEqualTo(content)
+    }
+
+    @Test
+    fun `upload, empty content`() {
+        // Given
+        val client = createClient()
+
+        // When
+        val uploadedHash = client.upload(ByteArray(0))
+
+        // Then
+        assertThat(serverStore.get(uploadedHash)).isEqualTo(ByteArray(0))
+    }
+
+    @Test
+    fun `upload, resume`() {
+        // Given
+        serverStore.append(hash, offset = 0, chunk = content.copyOfRange(0, 12))
+        val client = createClient()
+
+        // When
+        client.upload(content)
+
+        // Then
+        assertThat(serverStore.get(hash)).isEqualTo(content)
+    }
+
+    @Test
+    fun `upload, received chunks do not match`() {
+        // Given
+        serverStore.append(hash, offset = 0, chunk = "wrong".toByteArray())
+        val client = createClient()
+
+        // When
+        val thrown = catchThrowable { client.upload(content) }
+
+        // Then
+        assertThat((thrown as StatusRuntimeException).status.code).isEqualTo(Status.Code.INVALID_ARGUMENT)
+        assertThat(serverStore.get(hash)).isNull()
+        assertThat(serverStore.getReceivedSize(hash)).isEqualTo(0)
+    }
+
+    @Test
+    fun download() {
+        // Given
+        serverStore.put(content)
+        val client = createClient()
+
+        // When
+        val downloadedContent = client.download(hash)
+
+        // Then
+        assertThat(downloadedContent).isEqualTo(content)
+        assertThat(clientStore.get(hash)).isEqualTo(content)
+    }
+
+    @Test
+    fun `download, resume`() {
+        // Given
+        serverStore.put(content)
+        clientStore.append(hash, offset = 0, chunk = content.copyOfRange(0, 12))
+        val client = createClient()
+
+        // When
+        val downloadedContent = client.download(hash)
+
+        // Then
+        assertThat(downloadedContent).isEqualTo(content)
+    }
+
+    @Test
+    fun `download, content of an event that was stored before contents were stored at append time`() {
+        // Given
+        val eventStore = InMemoryEventStore()
+        eventStore.appendEvent(AttachmentAddedEvent(eventId = 0, aggId = "note", revision = 1, name = "att", content = content))
+        AttachmentStoringEventStore(eventStore, serverStore).storeExistingAttachments(marker = createTempDir(this::class.simpleName!!).resolve("marker"))
+        val client = createClient()
+
+        // When
+        val downloadedContent = client.download(hash)
+
+        // Then
+        assertThat(downloadedContent).isEqualTo(content)
+    }
+
+    @Test
+    fun `download, nonexistent`() {
+        // Given
+        val client = createClient()
+
+        // When
+        val thrown = catchThrowable { client.download(hash) }
+
+        // Then
+        assertThat((thrown as StatusRuntimeException).status.code).isEqualTo(Status.Code.NOT_FOUND)
+    }
+
+    @Test
+    fun `invalid hash`() {
+        // Given
+        val stub = AttachmentServiceGrpc.newBlockingStub(channel)
+
+        // When
+        val thrown = catchThrowable {
+            stub.getUploadStatus(Attachment.GetUploadStatusRequest.newBuilder().setHash("../file").build())
+        }
+
+        // Then
+        assertThat((thrown as StatusRuntimeException).status.code).isEqualTo(Status.Code.INVALID_ARGUMENT)
+    }
+
+    private fun createClient() =
+            AttachmentTransferClient(
+                    AttachmentServiceGrpc.newBlockingStub(channel),
+                    AttachmentServiceGrpc.newStub(channel),
+                    clientStore,
+                    chunkSize = 5
+            )
+}
@@ -0,0 +1,90 @@
+package info.maaskant.wmsnotes.server.attachment
+
+import info.maaskant.wmsnotes.model.eventstore.EventStore
+import info.maaskant.wmsnotes.model.eventstore.InMemoryEventStore
+import info.maaskant.wmsnotes.model.note.AttachmentAddedEvent
+import info.maaskant.wmsnotes.model.note.AttachmentStore
+import info.maaskant.wmsnotes.model.note.InMemoryAttachmentStore
+import info.maaskant.wmsnotes.model.note.Note
+import info.maaskant.wmsnotes.model.note.NoteDeletedEvent
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+
+internal class AttachmentStoringEventStoreTest {
+    private lateinit var attachmentStore: AttachmentStore
+    private lateinit var eventStore: AttachmentStoringEventStore
+
+    private lateinit var wrappedEventStore: EventStore
+    private lateinit var tempDir: File
+
+    @BeforeEach
+    fun init() {
+        attachmentStore = InMemoryAttachmentStore()
+        wrappedEventStore = InMemoryEventStore()
+        eventStore = AttachmentStoringEventStore(wrappedEventStore, attachmentStore)
+        tempDir = createTempDir(this::class.simpleName!!)
+    }
+
+    @Test
+    fun `appendEvent, attachment content stored`() {
+        // Given
+        val event = AttachmentAddedEvent(eventId = 0, aggId = "note", revision = 1, name = "att", content = "data".toByteArray())
+
+        // When
+        eventStore.appendEvent(event)
+
+        // Then
+        assertThat(attachmentStore.get(Note.hash("data".toByteArray()))).isEqualTo("data".toByteArray())
+        assertThat(eventStore.getEvents().toList().blockingGet()).hasSize(1)
+    }
+
+    @Test
+    fun `appendEvents, attachment contents stored`() {
+        // Given
+        val events = listOf(
+                AttachmentAddedEvent(eventId = 0, aggId = "note", revision = 1, name = "att1", content = "data1".toByteArray()),
+                NoteDeletedEvent(eventId = 0, aggId = "note", revision = 2),
+                AttachmentAddedEvent(eventId = 0, aggId = "note", revision = 3, name = "att2", content = "data2".toByteArray())
+        )
+
+        // When
+        eventStore.appendEvents(events)
+
+        // Then
+        assertThat(attachmentStore.get(Note.hash("data1".toByteArray()))).isEqualTo("data1".toByteArray())
+        assertThat(attachmentStore.get(Note.hash("data2".toByteArray()))).isEqualTo("data2".toByteArray())
+        assertThat(eventStore.getEvents().toList().blockingGet()).hasSize(3)
+    }
+
+    @Test
+    fun `storeExistingAttachments, contents of events appended before`() {
+        // Given
+        wrappedEventStore.appendEvent(AttachmentAddedEvent(eventId = 0, aggId = "note", revision = 1, name = "att1", content = "data1".toByteArray()))
+        wrappedEventStore.appendEvent(AttachmentAddedEvent(eventId = 0, aggId = "note", revision = 2, name = "att2", content = "data2".toByteArray()))
+        val marker = tempDir.resolve("marker")
+
+        // When
+        eventStore.storeExistingAttachments(marker)
+
+        // Then
+        assertThat(attachmentStore.get(Note.hash("data1".toByteArray()))).isEqualTo("data1".toByteArray())
+        assertThat(attachmentStore.get(Note.hash("data2".toByteArray()))).isEqualTo("data2".toByteArray())
+        assertThat(marker).exists()
+    }
+
+    @Test
+    fun `storeExistingAttachments, only once`() {
+        // Given
+        val marker = tempDir.resolve("marker")
+        eventStore.storeExistingAttachments(marker)
+        wrappedEventStore.appendEvent(AttachmentAddedEvent(eventId = 0, aggId = "note", revision = 1, name = "att", content = "data".toByteArray()))
+
+        // When
+        eventStore.storeExistingAttachments(marker)
+
+        // Then
+        assertThat(attachmentStore.get(Note.hash("data".toByteArray()))).isNull()
+    }
+}
@@ -0,0 +1,118 @@
+package info.maaskant.wmsnotes.server.command
+
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.util.Pool
+import info.maaskant.wmsnotes.model.CommandBus
+import info.maaskant.wmsnotes.model.CommandExecution
+import info.maaskant.wmsnotes.model.KryoEventSerializer
+import info.maaskant.wmsnotes.model.aggregaterepository.CachingAggregateRepository
+import info.maaskant.wmsnotes.model.aggregaterepository.NoopAggregateCache
+import info.maaskant.wmsnotes.model.eventstore.FileEventStore
+import info.maaskant.wmsnotes.model.note.InMemoryAttachmentStore
+import info.maaskant.wmsnotes.model.note.Note
+import info.maaskant.wmsnotes.model.note.NoteCommandExecutor
+import info.maaskant.wmsnotes.model.note.NoteCommandToEventMapper
+import info.maaskant.wmsnotes.server.command.grpc.Command
+import info.maaskant.wmsnotes.server.command.grpc.CommandServiceGrpc
+import io.grpc.ManagedChannel
+import io.grpc.Server
+import io.grpc.inprocess.InProcessChannelBuilder
+import io.grpc.inprocess.InProcessServerBuilder
+import io.reactivex.schedulers.Schedulers
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Tag
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures how many commands per second the [CommandService] handles for a growing number of concurrent clients.
+ *
+ * Run with `gradle :server:loadTest`.
+ */
+@Tag("load")
+internal class CommandServiceLoadTest {
+    private lateinit var tempDir: File
+    private lateinit var executor: NoteCommandExecutor
+    private lateinit var server: Server
+    private lateinit var channel: ManagedChannel
+
+    @BeforeEach
+    fun init() {
+        tempDir = createTempDir(this::class.simpleName!!)
+        val kryoPool = object : Pool<Kryo>(true, true) {
+            override fun create(): Kryo = Kryo()
+        }
+        val eventStore = FileEventStore(tempDir, KryoEventSerializer(kryoPool))
+        val commandBus = CommandBus()
+        executor = NoteCommandExecutor(
+                commandBus,
+                eventStore,
+                CachingAggregateRepository(eventStore, NoopAggregateCache(), Note()),
+                NoteCommandToEventMapper(),
+                Schedulers.io()
+        )
+        executor.start()
+        val serverName = InProcessServerBuilder.generateName()
+        server = InProcessServerBuilder.forName(serverName)
+                .addService(CommandService(GrpcCommandMapper(InMemoryAttachmentStore()), commandBus, CommandExecution.Duration(10, TimeUnit.SECONDS)))
+                .build()
+                .start()
+        channel = InProcessChannelBuilder.forName(serverName).build()
+    }
+
+    @AfterEach
+    fun cleanUp() {
+        channel.shutdownNow()
+        server.shutdownNow()
+        executor.shutdown()
+        tempDir.deleteRecursively()
+    }
+
+    @Test
+    fun `throughput scales with the number of clients`() {
+        // Given
+        measureThroughput(clients = 1) // Warm up
+
+        // When
+        val throughputs = clientCounts.associate { clients -> clients to measureThroughput(clients) }
+
+        // Then
+        throughputs.forEach { (clients, throughput) ->
+            println("%2d clients: %8.1f commands/s".format(Locale.ROOT, clients, throughput))
+        }
+        executor.getLaneMetrics().forEach { println(it) }
+        assertThat(throughputs.getValue(clientCounts.last())).isGreaterThan(throughputs.getValue(clientCounts.first()))
+    }
+
+    private fun measureThroughput(clients: Int): Double {
+        val threadPool = Executors.newFixedThreadPool(clients)
+        val stub = CommandServiceGrpc.newBlockingStub(channel)
+        val start = System.nanoTime()
+        val futures = (1..clients).map {
+            threadPool.submit {
+                for (i in 1..commandsPerClient) {
+                    stub.postCommand(Command.PostCommandRequest.newBuilder()
+                            .setAggregateId("n-${UUID.randomUUID()}")
+                            .setCreateNote(Command.PostCommandRequest.CreateNoteCommand.newBuilder()
+                                    .setTitle("Note $i")
+                                    .build())
+                            .build())
+                }
+            }
+        }
+        futures.forEach { it.get() }
+        val seconds = (System.nanoTime() - start) / 1_000_000_000.0
+        threadPool.shutdown()
+        return clients * commandsPerClient / seconds
+    }
+
+    companion object {
+        private const val commandsPerClient = 200
+        private val clientCounts = listOf(1, 2, 4, 8, 16)
+    }
+}
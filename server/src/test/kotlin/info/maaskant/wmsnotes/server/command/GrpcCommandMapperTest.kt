@@ -14,11 +14,52 @@ import org.junit.jupiter.api.*
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 internal class GrpcCommandMapperTest {
 
+    private lateinit var attachmentStore: AttachmentStore
     private lateinit var mapper: GrpcCommandMapper
 
     @BeforeEach
     fun init() {
-        mapper = GrpcCommandMapper()
+        attachmentStore = InMemoryAttachmentStore()
+        mapper = GrpcCommandMapper(attachmentStore)
+    }
+
+    @Test
+    fun `add attachment, content hash`() {
+        // Given
+        val hash = attachmentStore.put("data".toByteArray())
+        val request = Command.PostCommandRequest.newBuilder().apply {
+            aggregateId = "note"
+            lastRevision = 1
+            addAttachment = Command.PostCommandRequest.AddAttachmentCommand.newBuilder().apply {
+                name = "att"
+                contentHash = hash
+            }.build()
+        }.build()
+
+        // When
+        val commandRequest = mapper.toModelCommandRequest(request)
+
+        // Then
+        assertThat(commandRequest.commands).isEqualTo(listOf(AddAttachmentCommand(aggId = "note", name = "att", content = "data".toByteArray())))
+    }
+
+    @Test
+    fun `add attachment, content not uploaded`() {
+        // Given
+        val request = Command.PostCommandRequest.newBuilder().apply {
+            aggregateId = "note"
+            lastRevision = 1
+            addAttachment = Command.PostCommandRequest.AddAttachmentCommand.newBuilder().apply {
+                name = "att"
+                contentHash = Note.hash("data".toByteArray())
+            }.build()
+        }.build()
+
+        // When
+        val thrown = catchThrowable { mapper.toModelCommandRequest(request) }
+
+        // Then
+        assertThat(thrown).isInstanceOf(InvalidRequestException::class.java)
     }
 
     @Test
@@ -119,6 +160,16 @@ internal class GrpcCommandMapperTest {
                         content = "Text"
                     }.build()
                 }.build() to (ChangeContentCommand(aggId = "note", content = "Text") to lastRevisionValue),
+                Command.PostCommandRequest.newBuilder().apply {
+                    aggregateId = "note"
+                    lastRevision = lastRevisionValue
+                    patchContent = Command.PostCommandRequest.PatchContentCommand.newBuilder().apply {
+                        start = 1
+                        deletedLength = 2
+                        insertedText = "ext"
+                        baseHash = "hash"
+                    }.build()
+                }.build() to (PatchContentCommand(aggId = "note", patch = ContentPatch(start = 1, deletedLength = 2, insertedText = "ext", baseHash = "hash")) to lastRevisionValue),
                 Command.PostCommandRequest.newBuilder().apply {
                     aggregateId = "note"
                     lastRevision = lastRevisionValue
@@ -193,4 +244,49 @@ internal class GrpcCommandMapperTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `multiple commands`() {
+        // Given
+        val request = Command.PostCommandsRequest.newBuilder()
+                .addCommands(Command.PostCommandRequest.newBuilder().apply {
+                    aggregateId = "note-1"
+                    createNote = Command.PostCommandRequest.CreateNoteCommand.newBuilder().apply {
+                        title = "Title"
+                    }.build()
+                })
+                .addCommands(Command.PostCommandRequest.newBuilder().apply {
+                    aggregateId = "note-1"
+                    lastRevision = 1
+                    changeTitle = Command.PostCommandRequest.ChangeTitleCommand.newBuilder().apply {
+                        title = "Title 2"
+                    }.build()
+                })
+                .addCommands(Command.PostCommandRequest.newBuilder().apply {
+                    aggregateId = "note-2"
+                    lastRevision = 3
+                    deleteNote = Command.PostCommandRequest.DeleteNoteCommand.newBuilder().build()
+                })
+                .addCommands(Command.PostCommandRequest.newBuilder().apply {
+                    aggregateId = "note-1"
+                    lastRevision = 2
+                    deleteNote = Command.PostCommandRequest.DeleteNoteCommand.newBuilder().build()
+                })
+                .build()
+
+        // When
+        val commandRequests = mapper.toModelCommandRequests(request)
+
+        // Then
+        assertThat(commandRequests.map { it.aggId }).isEqualTo(listOf("note-1", "note-2", "note-1"))
+        assertThat(commandRequests[0].commands).isEqualTo(listOf(
+                CreateNoteCommand(aggId = "note-1", path = Path(), title = "Title", content = ""),
+                ChangeTitleCommand(aggId = "note-1", title = "Title 2")
+        ))
+        assertThat(commandRequests[0].lastRevision).isNull()
+        assertThat(commandRequests[1].commands).isEqualTo(listOf(DeleteNoteCommand(aggId = "note-2")))
+        assertThat(commandRequests[1].lastRevision).isEqualTo(3)
+        assertThat(commandRequests[2].commands).isEqualTo(listOf(DeleteNoteCommand(aggId = "note-1")))
+        assertThat(commandRequests[2].lastRevision).isEqualTo(2)
+    }
+}
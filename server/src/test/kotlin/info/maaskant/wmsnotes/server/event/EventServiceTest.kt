@@ -1,11 +1,16 @@
 package info.maaskant.wmsnotes.server.event
 
-import info.maaskant.wmsnotes.client.api.GrpcCommandMapper
 import info.maaskant.wmsnotes.model.eventstore.EventStore
+import info.maaskant.wmsnotes.model.note.NoteCreatedEvent
+import info.maaskant.wmsnotes.model.Path
 import info.maaskant.wmsnotes.server.command.grpc.Event
-import io.mockk.mockk
-import io.mockk.verifySequence
-import org.junit.jupiter.api.Assertions.*
+import io.grpc.Status
+import io.grpc.stub.ServerCallStreamObserver
+import io.grpc.stub.StreamObserver
+import io.mockk.*
+import io.reactivex.Flowable
+import io.reactivex.subjects.PublishSubject
+import org.assertj.core.api.Assertions.assertThat
 import org.junit.jupiter.api.Test
 
 internal class EventServiceTest {
@@ -25,7 +30,95 @@ internal class EventServiceTest {
 
         // Then
         verifySequence {
-            eventStore.getEvents(afterEventId = 10)
+            eventStore.getEventsFlowable(afterEventId = 10)
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `flow control`() {
+        // Given
+        val event1 = NoteCreatedEvent(eventId = 1, aggId = "note-1", revision = 1, path = Path("path"), title = "Title", content = "Text")
+        val event2 = NoteCreatedEvent(eventId = 2, aggId = "note-2", revision = 1, path = Path("path"), title = "Title", content = "Text")
+        val response1 = Event.GetEventsResponse.newBuilder().setEventId(1).build()
+        val response2 = Event.GetEventsResponse.newBuilder().setEventId(2).build()
+        every { eventStore.getEventsFlowable(afterEventId = 0) }.returns(Flowable.just(event1, event2))
+        every { grpcEventMapper.toGrpcGetEventsResponse(event1) }.returns(response1)
+        every { grpcEventMapper.toGrpcGetEventsResponse(event2) }.returns(response2)
+        val responseObserver: ServerCallStreamObserver<Event.GetEventsResponse> = mockk(relaxed = true)
+        val onReadyHandler = slot<Runnable>()
+        every { responseObserver.setOnReadyHandler(capture(onReadyHandler)) }.just(Runs)
+        every { responseObserver.isReady }.returns(false)
+        val service = EventService(eventStore, grpcEventMapper)
+        val request = Event.GetEventsRequest.newBuilder().build()
+
+        // When
+        service.getEvents(request, responseObserver)
+
+        // Then
+        verify(exactly = 0) { responseObserver.onNext(any()) }
+
+        // When
+        every { responseObserver.isReady }.returns(true)
+        onReadyHandler.captured.run()
+
+        // Then
+        verifyOrder {
+            responseObserver.onNext(response1)
+            responseObserver.onNext(response2)
+            responseObserver.onCompleted()
+        }
+    }
+
+    @Test
+    fun `subscribeEvents, existing and new events`() {
+        // Given
+        val event1 = NoteCreatedEvent(eventId = 1, aggId = "note-1", revision = 1, path = Path("path"), title = "Title", content = "Text")
+        val event2 = NoteCreatedEvent(eventId = 2, aggId = "note-2", revision = 1, path = Path("path"), title = "Title", content = "Text")
+        val event3 = NoteCreatedEvent(eventId = 3, aggId = "note-3", revision = 1, path = Path("path"), title = "Title", content = "Text")
+        val updates = PublishSubject.create<info.maaskant.wmsnotes.model.Event>()
+        every { eventStore.getEventUpdates() }.returns(updates)
+        every { eventStore.getEventsFlowable(afterEventId = 0) }.returns(Flowable.just<info.maaskant.wmsnotes.model.Event>(event1, event2).doOnComplete { updates.onNext(event2) })
+        listOf(event1, event2, event3).forEach {
+            every { grpcEventMapper.toGrpcGetEventsResponse(it) }.returns(Event.GetEventsResponse.newBuilder().setEventId(it.eventId).build())
+        }
+        val responseObserver: StreamObserver<Event.GetEventsResponse> = mockk(relaxed = true)
+        val service = EventService(eventStore, grpcEventMapper)
+
+        // When
+        service.subscribeEvents(Event.GetEventsRequest.newBuilder().build(), responseObserver)
+        updates.onNext(event3)
+
+        // Then
+        verifySequence {
+            responseObserver.onNext(Event.GetEventsResponse.newBuilder().setEventId(1).build())
+            responseObserver.onNext(Event.GetEventsResponse.newBuilder().setEventId(2).build())
+            responseObserver.onNext(Event.GetEventsResponse.newBuilder().setEventId(3).build())
+        }
+        assertThat(updates.hasObservers()).isTrue()
+    }
+
+    @Test
+    fun `subscribeEvents, too many updates are buffered`() {
+        // Given
+        val event1 = NoteCreatedEvent(eventId = 1, aggId = "note-1", revision = 1, path = Path("path"), title = "Title", content = "Text")
+        val event2 = NoteCreatedEvent(eventId = 2, aggId = "note-2", revision = 1, path = Path("path"), title = "Title", content = "Text")
+        val event3 = NoteCreatedEvent(eventId = 3, aggId = "note-3", revision = 1, path = Path("path"), title = "Title", content = "Text")
+        val updates = PublishSubject.create<info.maaskant.wmsnotes.model.Event>()
+        every { eventStore.getEventUpdates() }.returns(updates)
+        every { eventStore.getEventsFlowable(afterEventId = 0) }.returns(Flowable.empty())
+        val responseObserver: ServerCallStreamObserver<Event.GetEventsResponse> = mockk(relaxed = true)
+        every { responseObserver.isReady }.returns(false)
+        val service = EventService(eventStore, grpcEventMapper, maxBufferedUpdates = 2)
+        service.subscribeEvents(Event.GetEventsRequest.newBuilder().build(), responseObserver)
+
+        // When
+        listOf(event1, event2, event3).forEach { updates.onNext(it) }
+
+        // Then
+        val error = slot<Throwable>()
+        verify { responseObserver.onError(capture(error)) }
+        verify(exactly = 0) { responseObserver.onNext(any()) }
+        assertThat(Status.fromThrowable(error.captured).code).isEqualTo(Status.Code.RESOURCE_EXHAUSTED)
+        assertThat(updates.hasObservers()).isFalse()
+    }
+}
@@ -1,6 +1,5 @@
 package info.maaskant.wmsnotes.server.event
 
-import com.google.protobuf.ByteString
 import info.maaskant.wmsnotes.model.Path
 import info.maaskant.wmsnotes.model.folder.FolderCreatedEvent
 import info.maaskant.wmsnotes.model.folder.FolderDeletedEvent
@@ -57,7 +56,7 @@ internal class GrpcEventMapperTest {
                     revision = 1
                     attachmentAdded = Event.GetEventsResponse.AttachmentAddedEvent.newBuilder().apply {
                         name = "att"
-                        content = ByteString.copyFrom("data".toByteArray())
+                        contentHash = Note.hash("data".toByteArray())
                     }.build()
                 }.build(),
                 AttachmentDeletedEvent(eventId = 1, aggId = "note", revision = 1, name = "att")
@@ -78,6 +77,18 @@ internal class GrpcEventMapperTest {
                         content = "Text"
                     }.build()
                 }.build(),
+                ContentPatchedEvent(eventId = 1, aggId = "note", revision = 1, patch = ContentPatch(start = 1, deletedLength = 2, insertedText = "ext", baseHash = "hash"))
+                        to Event.GetEventsResponse.newBuilder().apply {
+                    eventId = 1
+                    aggregateId = "note"
+                    revision = 1
+                    contentPatched = Event.GetEventsResponse.ContentPatchedEvent.newBuilder().apply {
+                        start = 1
+                        deletedLength = 2
+                        insertedText = "ext"
+                        baseHash = "hash"
+                    }.build()
+                }.build(),
                 TitleChangedEvent(eventId = 1, aggId = "note", revision = 1, title = "Title")
                         to Event.GetEventsResponse.newBuilder().apply {
                     eventId = 1
@@ -122,5 +133,4 @@ internal class GrpcEventMapperTest {
             }
         }
     }
-
-}
\ No newline at end of file
+}
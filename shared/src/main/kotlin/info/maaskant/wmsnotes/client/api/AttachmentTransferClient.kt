@@ -0,0 +1,111 @@
+package info.maaskant.wmsnotes.client.api
+
+import com.google.protobuf.ByteString
+import info.maaskant.wmsnotes.model.note.AttachmentStore
+import info.maaskant.wmsnotes.model.note.Note
+import info.maaskant.wmsnotes.server.command.grpc.Attachment.*
+import info.maaskant.wmsnotes.server.command.grpc.AttachmentServiceGrpc
+import info.maaskant.wmsnotes.utilities.logger
+import io.grpc.Status
+import io.grpc.stub.ClientCallStreamObserver
+import io.grpc.stub.ClientResponseObserver
+import io.reactivex.Completable
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Uploads and downloads the contents of attachments using the attachment service of the server.
+ *
+ * Contents are transferred in chunks of at most [chunkSize] bytes, so no single message has to hold a complete content.
+ * Both directions can be resumed: an upload continues from the number of bytes that the server reports to have
+ * received, a download continues from the bytes that were kept in the local [AttachmentStore].
+ */
+@Singleton
+class AttachmentTransferClient @Inject constructor(
+        private val attachmentService: AttachmentServiceGrpc.AttachmentServiceBlockingStub,
+        private val asyncAttachmentService: AttachmentServiceGrpc.AttachmentServiceStub,
+        private val attachmentStore: AttachmentStore,
+        private val chunkSize: Int = defaultChunkSize
+) {
+    private val logger by logger()
+
+    /**
+     * Makes sure that the server has a content.
+     *
+     * @return The hash of the content.
+     * @throws io.grpc.StatusRuntimeException If the transfer fails.
+     */
+    fun upload(content: ByteArray): String {
+        val hash = Note.hash(content)
+        val status = attachmentService.getUploadStatus(GetUploadStatusRequest.newBuilder().setHash(hash).build())
+        if (!status.stored) {
+            val offset = minOf(status.receivedBytes, content.size.toLong()).toInt()
+            logger.debug("Uploading attachment content {}, starting at {} of {} bytes", hash, offset, content.size)
+            uploadChunks(hash, content, offset)
+        }
+        return hash
+    }
+
+    /**
+     * Returns a content, downloading it from the server if it is not in the local store.
+     *
+     * @throws io.grpc.StatusRuntimeException If the transfer fails.
+     */
+    fun download(hash: String): ByteArray {
+        attachmentStore.get(hash)?.let { return it }
+        val offset = attachmentStore.getReceivedSize(hash)
+        logger.debug("Downloading attachment content {}, starting at {}", hash, offset)
+        attachmentService
+                .downloadAttachment(DownloadAttachmentRequest.newBuilder().setHash(hash).setOffset(offset).build())
+                .forEach { attachmentStore.append(hash, it.offset, it.data.toByteArray()) }
+        if (!attachmentStore.complete(hash)) {
+            throw Status.DATA_LOSS.withDescription("Downloaded content does not match hash $hash").asRuntimeException()
+        }
+        return attachmentStore.get(hash)!!
+    }
+
+    private fun uploadChunks(hash: String, content: ByteArray, startOffset: Int) {
+        Completable.create { emitter ->
+            asyncAttachmentService.uploadAttachment(object : ClientResponseObserver<UploadAttachmentRequest, UploadAttachmentResponse> {
+                private var offset = startOffset
+                private var sentChunk = false
+                private var completed = false
+
+                override fun beforeStart(requestStream: ClientCallStreamObserver<UploadAttachmentRequest>) {
+                    // Only send a chunk when the previous ones have been sent, so they do not pile up in memory
+                    requestStream.setOnReadyHandler {
+                        // At least one chunk is sent, even if it is empty, so that the server knows the hash
+                        while (requestStream.isReady && (offset < content.size || !sentChunk)) {
+                            val length = minOf(chunkSize, content.size - offset)
+                            requestStream.onNext(UploadAttachmentRequest.newBuilder()
+                                    .setHash(hash)
+                                    .setOffset(offset.toLong())
+                                    .setData(ByteString.copyFrom(content, offset, length))
+                                    .build())
+                            offset += length
+                            sentChunk = true
+                        }
+                        if (offset == content.size && sentChunk && !completed) {
+                            completed = true
+                            requestStream.onCompleted()
+                        }
+                    }
+                }
+
+                override fun onNext(value: UploadAttachmentResponse) {}
+
+                override fun onError(t: Throwable) {
+                    emitter.tryOnError(t)
+                }
+
+                override fun onCompleted() {
+                    emitter.onComplete()
+                }
+            })
+        }.blockingAwait()
+    }
+
+    companion object {
+        const val defaultChunkSize = 256 * 1024
+    }
+}
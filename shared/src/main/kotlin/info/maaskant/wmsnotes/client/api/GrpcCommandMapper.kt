@@ -1,6 +1,5 @@
 package info.maaskant.wmsnotes.client.api
 
-import com.google.protobuf.ByteString
 import info.maaskant.wmsnotes.model.folder.CreateFolderCommand
 import info.maaskant.wmsnotes.model.folder.DeleteFolderCommand
 import info.maaskant.wmsnotes.model.folder.FolderCommand
@@ -44,6 +43,16 @@ class GrpcCommandMapper @Inject constructor() {
                     it2.content = command.content
                 }.build()
             }
+            is PatchContentCommand -> builder.also {
+                it.aggregateId = command.aggId
+                it.lastRevision = lastRevision
+                it.patchContent = Command.PostCommandRequest.PatchContentCommand.newBuilder().also { it2 ->
+                    it2.start = command.patch.start
+                    it2.deletedLength = command.patch.deletedLength
+                    it2.insertedText = command.patch.insertedText
+                    it2.baseHash = command.patch.baseHash
+                }.build()
+            }
             is DeleteNoteCommand -> builder.also {
                 it.aggregateId = command.aggId
                 it.lastRevision = lastRevision
@@ -59,7 +68,7 @@ class GrpcCommandMapper @Inject constructor() {
                 it.lastRevision = lastRevision
                 it.addAttachment = Command.PostCommandRequest.AddAttachmentCommand.newBuilder().also { it2 ->
                     it2.name = command.name
-                    it2.content = ByteString.copyFrom(command.content)
+                    it2.contentHash = Note.hash(command.content)
                 }.build()
             }
             is DeleteAttachmentCommand -> builder.also {
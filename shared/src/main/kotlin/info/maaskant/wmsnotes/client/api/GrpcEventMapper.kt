@@ -7,7 +7,7 @@ import info.maaskant.wmsnotes.model.note.*
 import info.maaskant.wmsnotes.server.command.grpc.Event
 import javax.inject.Inject
 
-class GrpcEventMapper @Inject constructor() {
+class GrpcEventMapper @Inject constructor(private val attachmentTransferClient: AttachmentTransferClient) {
     fun toModelClass(response: Event.GetEventsResponse): info.maaskant.wmsnotes.model.Event {
         with(response) {
             if (eventId == 0) throw IllegalArgumentException()
@@ -38,7 +38,11 @@ class GrpcEventMapper @Inject constructor() {
                         revision = revision,
                         aggId = aggregateId,
                         name = attachmentAdded.name,
-                        content = attachmentAdded.content.toByteArray()
+                        content = if (attachmentAdded.contentHash.isEmpty()) {
+                            attachmentAdded.content.toByteArray()
+                        } else {
+                            attachmentTransferClient.download(attachmentAdded.contentHash)
+                        }
                 )
                 Event.GetEventsResponse.EventCase.ATTACHMENT_DELETED -> AttachmentDeletedEvent(
                         eventId = eventId,
@@ -52,6 +56,17 @@ class GrpcEventMapper @Inject constructor() {
                         aggId = aggregateId,
                         content = contentChanged.content
                 )
+                Event.GetEventsResponse.EventCase.CONTENT_PATCHED -> ContentPatchedEvent(
+                        eventId = eventId,
+                        revision = revision,
+                        aggId = aggregateId,
+                        patch = ContentPatch(
+                                start = contentPatched.start,
+                                deletedLength = contentPatched.deletedLength,
+                                insertedText = contentPatched.insertedText,
+                                baseHash = contentPatched.baseHash
+                        )
+                )
                 Event.GetEventsResponse.EventCase.TITLE_CHANGED -> TitleChangedEvent(
                         eventId = eventId,
                         revision = revision,
@@ -0,0 +1,33 @@
+package info.maaskant.wmsnotes.client.synchronization
+
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * The ids of the aggregates that have new local or remote events since they were last synchronized.
+ *
+ * The event importers add an aggregate every time they store an event, and the [Synchronizer] takes all of them at the
+ * start of a synchronization.
+ */
+@Singleton
+class DirtyAggregates @Inject constructor() {
+    private val aggIds: MutableSet<String> = LinkedHashSet()
+
+    @Synchronized
+    fun add(aggId: String) {
+        aggIds += aggId
+    }
+
+    @Synchronized
+    fun addAll(aggIds: Collection<String>) {
+        this.aggIds += aggIds
+    }
+
+    /** Returns all aggregates and clears the set. */
+    @Synchronized
+    fun takeAll(): Set<String> {
+        val result = LinkedHashSet(aggIds)
+        aggIds.clear()
+        return result
+    }
+}
@@ -32,6 +32,7 @@ class EventToCommandMapper @Inject constructor() {
             is AttachmentAddedEvent -> AddAttachmentCommand(source.aggId, name = source.name, content = source.content)
             is AttachmentDeletedEvent -> DeleteAttachmentCommand(source.aggId, name = source.name)
             is ContentChangedEvent -> ChangeContentCommand(source.aggId, content = source.content)
+            is ContentPatchedEvent -> PatchContentCommand(source.aggId, patch = source.patch)
             is TitleChangedEvent -> ChangeTitleCommand(source.aggId, title = source.title)
             is MovedEvent -> MoveCommand(source.aggId, path = source.path)
         }
@@ -1,6 +1,7 @@
 package info.maaskant.wmsnotes.client.synchronization
 
 import info.maaskant.wmsnotes.client.synchronization.eventrepository.ModifiableEventRepository
+import info.maaskant.wmsnotes.model.Event
 import info.maaskant.wmsnotes.model.eventstore.EventStore
 import info.maaskant.wmsnotes.utilities.logger
 import info.maaskant.wmsnotes.utilities.persistence.StateProducer
@@ -10,31 +11,63 @@ import io.reactivex.subjects.Subject
 import javax.inject.Inject
 import javax.inject.Singleton
 
+/**
+ * Copies new events from the event store to the repository of local events.
+ *
+ * Events are stored in batches of up to [batchSize] events. The last event id in the state is advanced once per batch,
+ * after the batch has been stored. Because the state is saved asynchronously, the importer continues after the last
+ * event id recorded by the repository if that one is higher, so that no event is imported twice after a crash.
+ */
 @Singleton
 class LocalEventImporter @Inject constructor(
         private val eventStore: EventStore,
         private val eventRepository: ModifiableEventRepository,
-        initialState: EventImporterState?
+        initialState: EventImporterState?,
+        private val dirtyAggregates: DirtyAggregates? = null,
+        private val batchSize: Int = 1
 ) : StateProducer<EventImporterState> {
 
     private val logger by logger()
     private var state = initialState ?: EventImporterState(null)
     private val stateUpdates: Subject<EventImporterState> = BehaviorSubject.create<EventImporterState>().toSerialized()
 
+    init {
+        if (batchSize < 1) throw IllegalArgumentException("The batch size must be positive: $batchSize")
+        val lastAddedEventId = eventRepository.getLastAddedEventId()
+        if (lastAddedEventId != null && lastAddedEventId > (state.lastEventId ?: 0)) {
+            logger.info("Continuing after event {}, which was stored after the state was last saved", lastAddedEventId)
+            updateLastEventId(lastAddedEventId)
+        }
+    }
+
     fun loadAndStoreLocalEvents() {
         logger.debug("Retrieving new local events")
         var numberOfNewEvents = 0
+        val batch = ArrayList<Event>(batchSize)
         try {
             eventStore.getEvents(state.lastEventId).blockingSubscribe({
                 logger.debug("Storing new local event: {}", it)
-                eventRepository.addEvent(it)
-                updateLastEventId(it.eventId)
-                numberOfNewEvents++
+                batch += it
+                if (batch.size >= batchSize) numberOfNewEvents += storeEvents(batch)
             }, { logger.error("Error", it) })
         } finally {
+            numberOfNewEvents += storeEvents(batch)
             if (numberOfNewEvents > 0) logger.info("Added {} new local events", numberOfNewEvents)
         }
+    }
+
+    /** Returns a non-completing observable that emits every time a new local event is stored. */
+    fun getLocalEventUpdates(): Observable<Unit> = eventStore.getEventUpdates().map { Unit }
 
+    /** Stores the events as one unit and advances the last event id once. Clears [batch]. */
+    private fun storeEvents(batch: MutableList<Event>): Int {
+        if (batch.isEmpty()) return 0
+        val events = batch.toList()
+        batch.clear()
+        eventRepository.addEvents(events)
+        dirtyAggregates?.addAll(events.map { it.aggId })
+        updateLastEventId(events.last().eventId)
+        return events.size
     }
 
     private fun updateLastEventId(lastEventId: Int) {
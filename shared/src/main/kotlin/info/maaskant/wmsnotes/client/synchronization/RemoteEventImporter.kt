@@ -7,31 +7,58 @@ import info.maaskant.wmsnotes.server.command.grpc.Event
 import info.maaskant.wmsnotes.server.command.grpc.EventServiceGrpc
 import info.maaskant.wmsnotes.utilities.logger
 import info.maaskant.wmsnotes.utilities.persistence.StateProducer
+import io.grpc.Context
 import io.grpc.Deadline
 import io.grpc.Status
 import io.grpc.StatusRuntimeException
 import io.reactivex.Observable
+import io.reactivex.exceptions.MissingBackpressureException
 import io.reactivex.subjects.BehaviorSubject
 import io.reactivex.subjects.Subject
+import java.util.*
+import java.util.concurrent.LinkedBlockingQueue
 import javax.inject.Inject
 import javax.inject.Singleton
 
+/**
+ * Copies new events from the server to the repository of remote events.
+ *
+ * Events are stored in batches of up to [batchSize] events. The last event id in the state is advanced once per batch,
+ * after the batch has been stored. Because the state is saved asynchronously, the importer continues after the last
+ * event id recorded by the repository if that one is higher, so that no event is imported twice after a crash.
+ */
 @Singleton
 class RemoteEventImporter @Inject constructor(
         private val eventService: EventServiceGrpc.EventServiceBlockingStub,
         private val grpcDeadline: Deadline?,
         private val eventRepository: ModifiableEventRepository,
         private val grpcEventMapper: GrpcEventMapper,
-        initialState: EventImporterState?
+        initialState: EventImporterState?,
+        private val dirtyAggregates: DirtyAggregates? = null,
+        private val batchSize: Int = 1,
+        maxPushedEvents: Int = 10000
 ) : StateProducer<EventImporterState> {
 
     private val logger by logger()
     private var state = initialState ?: EventImporterState(null)
     private val stateUpdates: Subject<EventImporterState> = BehaviorSubject.create<EventImporterState>().toSerialized()
+    private val pushedEvents: Queue<info.maaskant.wmsnotes.model.Event> = LinkedBlockingQueue(maxPushedEvents)
+    @Volatile
+    private var lastPushedEventId: Int? = null
+
+    init {
+        if (batchSize < 1) throw IllegalArgumentException("The batch size must be positive: $batchSize")
+        val lastAddedEventId = eventRepository.getLastAddedEventId()
+        if (lastAddedEventId != null && lastAddedEventId > (state.lastEventId ?: 0)) {
+            logger.info("Continuing after event {}, which was stored after the state was last saved", lastAddedEventId)
+            updateLastEventId(lastAddedEventId)
+        }
+    }
 
     fun loadAndStoreRemoteEvents() {
         logger.debug("Retrieving new remote events")
         var numberOfNewEvents = 0
+        val batch = ArrayList<info.maaskant.wmsnotes.model.Event>(batchSize)
         try {
             val request = createGetEventsRequest()
             val response: Iterator<Event.GetEventsResponse> = eventService
@@ -40,9 +67,8 @@ class RemoteEventImporter @Inject constructor(
             response.forEach {
                 val event = grpcEventMapper.toModelClass(it)
                 logger.debug("Storing new remote event: {}", event)
-                eventRepository.addEvent(event)
-                updateLastEventId(event.eventId)
-                numberOfNewEvents++
+                batch += event
+                if (batch.size >= batchSize) numberOfNewEvents += storeEvents(batch)
             }
         } catch (e: StatusRuntimeException) {
             when (e.status.code) {
@@ -53,16 +79,87 @@ class RemoteEventImporter @Inject constructor(
         } catch (e: UnknownEventTypeException) {
             logger.warn("The server retrieved one or more unknown event types ($e). No further events will be imported.")
         } finally {
+            numberOfNewEvents += storeEvents(batch)
             if (numberOfNewEvents > 0) logger.info("Added {} new remote events", numberOfNewEvents)
         }
     }
 
-    private fun createGetEventsRequest(): Event.GetEventsRequest {
+    /**
+     * Returns an observable that opens a stream to the server, which sends new remote events as soon as they are
+     * stored. The events are kept in memory until [storePushedRemoteEvents] is called. The observable emits every time
+     * an event is received and blocks the thread it is subscribed on until the stream is closed.
+     *
+     * At most `maxPushedEvents` events are kept in memory. If more events are received, the stream is closed with an
+     * error. Subscribing again continues after the last event that was kept.
+     */
+    fun subscribeToRemoteEvents(): Observable<Unit> {
+        return Observable.create { emitter ->
+            logger.debug("Subscribing to new remote events")
+            val context = Context.current().withCancellation()
+            emitter.setCancellable { context.cancel(null) }
+            try {
+                context.run {
+                    eventService
+                            .subscribeEvents(createGetEventsRequest(afterEventId = lastPushedEventId ?: state.lastEventId))
+                            .forEach {
+                                val event = grpcEventMapper.toModelClass(it)
+                                if (!pushedEvents.offer(event)) throw MissingBackpressureException("Too many remote events have not been stored yet")
+                                lastPushedEventId = event.eventId
+                                emitter.onNext(Unit)
+                            }
+                }
+                emitter.onComplete()
+            } catch (e: StatusRuntimeException) {
+                when (e.status.code) {
+                    Status.Code.CANCELLED -> logger.debug("Stopped receiving remote events")
+                    Status.Code.UNAVAILABLE -> logger.debug("Could not receive events: server not available")
+                    else -> logger.warn("Error while receiving events: {}, {}", e.status.code, e.status.description)
+                }
+                emitter.tryOnError(e)
+            } catch (e: UnknownEventTypeException) {
+                logger.warn("The server sent one or more unknown event types ($e). No further events will be imported.")
+                emitter.tryOnError(e)
+            } catch (e: MissingBackpressureException) {
+                logger.info("Stopped receiving remote events: {}", e.message)
+                emitter.tryOnError(e)
+            }
+        }
+    }
+
+    /**
+     * Stores the remote events received by [subscribeToRemoteEvents]. Events are only removed from memory after they
+     * have been stored, so that they are stored again next time if storing fails.
+     */
+    fun storePushedRemoteEvents() {
+        var numberOfNewEvents = 0
+        while (true) {
+            val batch = pushedEvents.asSequence().take(batchSize).toMutableList()
+            if (batch.isEmpty()) break
+            batch.forEach { logger.debug("Storing new remote event: {}", it) }
+            val numberOfStoredEvents = storeEvents(batch)
+            repeat(numberOfStoredEvents) { pushedEvents.remove() }
+            numberOfNewEvents += numberOfStoredEvents
+        }
+        if (numberOfNewEvents > 0) logger.info("Added {} new remote events", numberOfNewEvents)
+    }
+
+    private fun createGetEventsRequest(afterEventId: Int? = state.lastEventId): Event.GetEventsRequest {
         return Event.GetEventsRequest.newBuilder()
-                .setAfterEventId(state.lastEventId ?: 0)
+                .setAfterEventId(afterEventId ?: 0)
                 .build()
     }
 
+    /** Stores the events as one unit and advances the last event id once. Clears [batch]. */
+    private fun storeEvents(batch: MutableList<info.maaskant.wmsnotes.model.Event>): Int {
+        if (batch.isEmpty()) return 0
+        val events = batch.toList()
+        batch.clear()
+        eventRepository.addEvents(events)
+        dirtyAggregates?.addAll(events.map { it.aggId })
+        updateLastEventId(events.last().eventId)
+        return events.size
+    }
+
     private fun updateLastEventId(lastEventId: Int) {
         state = state.copy(lastEventId = lastEventId)
         stateUpdates.onNext(state)
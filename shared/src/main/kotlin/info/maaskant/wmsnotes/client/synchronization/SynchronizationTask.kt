@@ -18,7 +18,8 @@ import javax.inject.Singleton
 class SynchronizationTask @Inject constructor(
         private val localEventImporter: LocalEventImporter,
         private val remoteEventImporter: RemoteEventImporter,
-        private val synchronizer: Synchronizer
+        private val synchronizer: Synchronizer,
+        private val mode: SynchronizationMode = SynchronizationMode.POLLING
 ) : ApplicationService {
 
     private val logger by logger()
@@ -30,7 +31,7 @@ class SynchronizationTask @Inject constructor(
 
     private fun connect(): Disposable {
         val disposable1 = Observables.combineLatest(
-                Observable.interval(0, 5, TimeUnit.SECONDS),
+                synchronizationTriggers(),
                 isPaused()
         )
                 .observeOn(Schedulers.io())
@@ -51,6 +52,18 @@ class SynchronizationTask @Inject constructor(
         return CompositeDisposable(disposable1, disposable2)
     }
 
+    private fun synchronizationTriggers(): Observable<out Any> = when (mode) {
+        SynchronizationMode.POLLING -> Observable.interval(0, 5, TimeUnit.SECONDS)
+        SynchronizationMode.PUSH -> Observable.merge(
+                Observable.just(Unit),
+                localEventImporter.getLocalEventUpdates(),
+                remoteEventImporter.subscribeToRemoteEvents()
+                        .subscribeOn(Schedulers.io())
+                        .retryWhen { it.delay(5, TimeUnit.SECONDS) }
+                        .repeatWhen { it.delay(5, TimeUnit.SECONDS) }
+        ).debounce(pushDebounceMillis, TimeUnit.MILLISECONDS)
+    }
+
     @Synchronized
     override fun start() {
         if (disposable == null) {
@@ -90,8 +103,24 @@ class SynchronizationTask @Inject constructor(
     fun synchronize() {
         logger.debug("Synchronizing")
         localEventImporter.loadAndStoreLocalEvents()
-        remoteEventImporter.loadAndStoreRemoteEvents()
+        when (mode) {
+            SynchronizationMode.POLLING -> remoteEventImporter.loadAndStoreRemoteEvents()
+            SynchronizationMode.PUSH -> remoteEventImporter.storePushedRemoteEvents()
+        }
         val result = synchronizer.synchronize()
         synchronizationResult.onNext(result)
     }
+
+    /** Determines when the task synchronizes. */
+    enum class SynchronizationMode {
+        /** Synchronize every 5 seconds. */
+        POLLING,
+
+        /** Synchronize as soon as a new local event is stored or the server sends a new remote event. */
+        PUSH
+    }
+
+    companion object {
+        private const val pushDebounceMillis = 500L
+    }
 }
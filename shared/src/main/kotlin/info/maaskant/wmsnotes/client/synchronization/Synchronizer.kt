@@ -3,22 +3,53 @@ package info.maaskant.wmsnotes.client.synchronization
 import arrow.core.Either
 import arrow.core.Either.Companion.left
 import arrow.core.Either.Companion.right
+import arrow.core.Some
+import arrow.core.nonFatalOrThrow
+import info.maaskant.wmsnotes.client.synchronization.SynchronizerState.Change
+import info.maaskant.wmsnotes.client.synchronization.commandexecutor.AsyncCommandExecutor
 import info.maaskant.wmsnotes.client.synchronization.commandexecutor.CommandExecutor
 import info.maaskant.wmsnotes.client.synchronization.eventrepository.ModifiableEventRepository
 import info.maaskant.wmsnotes.client.synchronization.strategy.SynchronizationStrategy
 import info.maaskant.wmsnotes.client.synchronization.strategy.SynchronizationStrategy.ResolutionResult.NoSolution
 import info.maaskant.wmsnotes.client.synchronization.strategy.SynchronizationStrategy.ResolutionResult.Solution
+import info.maaskant.wmsnotes.model.Command
 import info.maaskant.wmsnotes.model.CommandError
 import info.maaskant.wmsnotes.model.Event
 import info.maaskant.wmsnotes.utilities.logger
-import info.maaskant.wmsnotes.utilities.persistence.StateProducer
+import info.maaskant.wmsnotes.utilities.persistence.JournalingStateProducer
+import info.maaskant.wmsnotes.utilities.persistence.StateChanges
+import io.reactivex.Flowable
 import io.reactivex.Observable
+import io.reactivex.Scheduler
 import io.reactivex.rxkotlin.toObservable
+import io.reactivex.schedulers.Schedulers
 import io.reactivex.subjects.BehaviorSubject
+import io.reactivex.subjects.PublishSubject
 import io.reactivex.subjects.Subject
 import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.function.Function
 import javax.inject.Inject
 
+/**
+ * Synchronizes the local and remote events of every aggregate.
+ *
+ * If [dirtyAggregates] is given, only the first synchronization reads all events. After that, only the events of the
+ * aggregates that were marked as dirty by the event importers are read, so a synchronization without new events does
+ * not touch the event repositories at all. Aggregates for which a solution could not be executed are marked as dirty
+ * again, so that they are retried. Aggregates without a valid solution are retried as soon as new events arrive for
+ * them, and otherwise with a backoff: after 1, 2, 4, ... synchronizations, up to [maxRetryInterval].
+ *
+ * The aggregates are resolved on up to [parallelism] threads of [scheduler] first, because resolving is CPU-bound and
+ * independent per aggregate. If the remote command executor is an [AsyncCommandExecutor], the remote commands of up to
+ * [maxRemoteExecutionsInFlight] solutions are sent without waiting for each other's responses. The rest of every
+ * solution, including the updates to the state, is executed on the synchronizing thread as soon as its remote commands
+ * have completed. So are the later runs of remote commands of a solution, so that uploading their attachments never
+ * blocks the thread that completed a previous call.
+ */
 class Synchronizer @Inject constructor(
         private val localEvents: ModifiableEventRepository,
         private val remoteEvents: ModifiableEventRepository,
@@ -26,34 +57,32 @@ class Synchronizer @Inject constructor(
         private val eventToCommandMapper: EventToCommandMapper,
         private val localCommandExecutor: CommandExecutor,
         private val remoteCommandExecutor: CommandExecutor,
-        initialState: SynchronizerState?
-) : StateProducer<SynchronizerState> {
+        initialState: SynchronizerState?,
+        private val dirtyAggregates: DirtyAggregates? = null,
+        private val scheduler: Scheduler = Schedulers.computation(),
+        private val parallelism: Int = defaultParallelism,
+        private val maxRemoteExecutionsInFlight: Int = defaultMaxRemoteExecutionsInFlight
+) : JournalingStateProducer<SynchronizerState, Change> {
 
     private val logger by logger()
 
     private var state = initialState ?: SynchronizerState.create()
     private val stateUpdates: Subject<SynchronizerState> = BehaviorSubject.create<SynchronizerState>().toSerialized()
+    private val stateChanges: Subject<StateChanges<SynchronizerState, Change>> = PublishSubject.create<StateChanges<SynchronizerState, Change>>().toSerialized()
+    private var allEventsRead = false
+    private var synchronizations = 0L
+    private val aggregatesToRetry: MutableMap<String, Retry> = HashMap()
+
+    init {
+        if (maxRemoteExecutionsInFlight < 1) throw IllegalArgumentException("The maximum number of remote executions in flight must be positive: $maxRemoteExecutionsInFlight")
+    }
 
     @Synchronized
     fun synchronize(): SynchronizationResult {
-        val localEvents = localEvents.getEvents().publish().refCount()
-        val remoteEvents = remoteEvents.getEvents().publish().refCount()
-        val localEventsToSynchronize: List<Event> = localEvents
-                .filter { it.eventId !in state.localEventIdsToIgnore }
-                .toList()
-                .blockingGet()
-        val remoteEventsToSynchronize: List<Event> = remoteEvents
-                .filter { it.eventId !in state.remoteEventIdsToIgnore }
-                .toList()
-                .blockingGet()
-        val localEventsToIgnore: List<Event> = localEvents
-                .filter { it.eventId in state.localEventIdsToIgnore }
-                .toList()
-                .blockingGet()
-        val remoteEventsToIgnore: List<Event> = remoteEvents
-                .filter { it.eventId in state.remoteEventIdsToIgnore }
-                .toList()
-                .blockingGet()
+        synchronizations++
+        val (localEvents, remoteEvents) = readEvents() ?: return SynchronizationResult(errors = emptyList())
+        val (localEventsToIgnore, localEventsToSynchronize) = localEvents.partition { it.eventId in state.localEventIdsToIgnore }
+        val (remoteEventsToIgnore, remoteEventsToSynchronize) = remoteEvents.partition { it.eventId in state.remoteEventIdsToIgnore }
 
         val eventsToSynchronize: SortedMap<String, LocalAndRemoteEvents> = groupLocalAndRemoteEventsByNote(localEventsToSynchronize, remoteEventsToSynchronize)
         val eventsToIgnore = LocalAndRemoteEvents(localEventsToIgnore, remoteEventsToIgnore)
@@ -61,47 +90,77 @@ class Synchronizer @Inject constructor(
         updateLastRevisions(localEvents, remoteEvents)
         removeEventsToIgnore(eventsToIgnore)
         val errors = synchronizeEvents(eventsToSynchronize)
+        dirtyAggregates?.addAll(errors.map { (aggId, _) -> aggId })
+        aggregatesToRetry.values.removeIf { it.synchronization <= synchronizations } // Retried and no longer needed
         return SynchronizationResult(errors = errors)
     }
 
-    private fun updateLastRevisions(localEvents: Observable<Event>, remoteEvents: Observable<Event>) {
-        val state1 = localEvents.scan(state) { state, event ->
-            val oldRevision = state.lastKnownLocalRevisions[event.aggId] ?: 0
-            val newRevision = event.revision
+    /** Returns the events to process, or `null` if there is nothing to do. */
+    private fun readEvents(): LocalAndRemoteEvents? {
+        return if (dirtyAggregates == null || !allEventsRead) {
+            dirtyAggregates?.takeAll()
+            val result = LocalAndRemoteEvents(
+                    localEvents = localEvents.getEvents().toList().blockingGet(),
+                    remoteEvents = remoteEvents.getEvents().toList().blockingGet()
+            )
+            allEventsRead = true
+            result
+        } else {
+            val aggIds = dirtyAggregates.takeAll() + aggregatesToRetry.filterValues { it.synchronization <= synchronizations }.keys
+            if (aggIds.isEmpty()) {
+                null
+            } else {
+                logger.debug("Reading the events of {} changed aggregates", aggIds.size)
+                LocalAndRemoteEvents(
+                        localEvents = aggIds.flatMap { localEvents.getEventsOfAggregate(it).toList().blockingGet() },
+                        remoteEvents = aggIds.flatMap { remoteEvents.getEventsOfAggregate(it).toList().blockingGet() }
+                )
+            }
+        }
+    }
+
+    private fun updateLastRevisions(localEvents: List<Event>, remoteEvents: List<Event>) {
+        val localChanges = getLastRevisions(localEvents).mapNotNull { (aggId, newRevision) ->
+            val oldRevision = state.lastKnownLocalRevisions[aggId] ?: 0
             if (oldRevision < newRevision) {
-                logger.debug("Updating last known local revision of aggregate {} from {} to {}", event.aggId, oldRevision, newRevision)
-                state.updateLastKnownLocalRevision(event.aggId, newRevision)
+                logger.debug("Updating last known local revision of aggregate {} from {} to {}", aggId, oldRevision, newRevision)
+                Change.LastKnownLocalRevisionUpdated(aggId, newRevision)
             } else {
-                state
+                null
             }
         }
-                .last(state)
-                .blockingGet()
-        val state2 = remoteEvents.scan(state1) { state, event ->
-            val oldRevision = state.lastKnownRemoteRevisions[event.aggId] ?: 0
-            val newRevision = event.revision
+        val remoteChanges = getLastRevisions(remoteEvents).mapNotNull { (aggId, newRevision) ->
+            val oldRevision = state.lastKnownRemoteRevisions[aggId] ?: 0
             if (oldRevision < newRevision) {
-                logger.debug("Updating last known remote revision of aggregate {} from {} to {}", event.aggId, oldRevision, newRevision)
-                state.updateLastKnownRemoteRevision(event.aggId, newRevision)
+                logger.debug("Updating last known remote revision of aggregate {} from {} to {}", aggId, oldRevision, newRevision)
+                Change.LastKnownRemoteRevisionUpdated(aggId, newRevision)
             } else {
-                state
+                null
             }
         }
-                .last(state1)
-                .blockingGet()
-        if (state2 != state) {
-            updateState(state2)
+        if (localChanges.isNotEmpty() || remoteChanges.isNotEmpty()) {
+            updateState(localChanges + remoteChanges)
+        }
+    }
+
+    private fun getLastRevisions(events: List<Event>): Map<String, Int> {
+        val result = LinkedHashMap<String, Int>()
+        for (event in events) {
+            result.merge(event.aggId, event.revision, ::maxOf)
         }
+        return result
     }
 
     private fun synchronizeEvents(eventsToSynchronize: SortedMap<String, LocalAndRemoteEvents>): List<Pair<String, CommandError>> {
+        val resolutionResults = resolveAll(eventsToSynchronize)
         val r = eventsToSynchronize.asSequence().map { (aggId, aggregateEventsToSynchronize) ->
-            aggId to (aggregateEventsToSynchronize to resolve(aggregateEventsToSynchronize, aggId))
+            aggId to (aggregateEventsToSynchronize to resolutionResults.getValue(aggId))
         }.filter { (aggId, tmp) ->
             val (aggregateEventsToSynchronize: LocalAndRemoteEvents, resolutionResult: SynchronizationStrategy.ResolutionResult) = tmp
             when (resolutionResult) {
                 NoSolution -> {
                     logger.warn("The events for aggregate {} cannot be synchronized, because the program does not know how. Events: {}", aggId, aggregateEventsToSynchronize)
+                    scheduleRetry(aggId)
                     false
                 }
                 is Solution ->
@@ -109,31 +168,126 @@ class Synchronizer @Inject constructor(
                         true
                     } else {
                         logger.warn("The solution for aggregate {} are invalid: {}, {}, {}", aggId, aggregateEventsToSynchronize.localEvents, aggregateEventsToSynchronize.remoteEvents, resolutionResult)
+                        scheduleRetry(aggId)
                         false
                     }
             }
         }.map { (aggId, tmp) ->
             val (_, resolutionResult) = tmp
             aggId to (resolutionResult as Solution)
-        }.map { (aggId, solution) ->
-            aggId to executeSolution(solution, aggId)
-        }.toList() // Create a list first to ensure that all aggregates are processed.
+        }.toList()
 
-        return r.flatMap { (aggId, result) ->
+        return executeSolutions(r).flatMap { (aggId, result) ->
             result.fold({ listOf(aggId to it) }, { emptyList() })
         }
     }
 
+    /** Makes sure that an aggregate without a valid solution is resolved again later, waiting longer every time. */
+    private fun scheduleRetry(aggId: String) {
+        if (dirtyAggregates == null) return // All events are read every time anyway
+        val attempts = (aggregatesToRetry[aggId]?.attempts ?: 0) + 1
+        val interval = minOf(1L shl minOf(attempts - 1, 30), maxRetryInterval)
+        aggregatesToRetry[aggId] = Retry(attempts = attempts, synchronization = synchronizations + interval)
+    }
+
+    /**
+     * Executes the solutions, keeping the remote commands of up to [maxRemoteExecutionsInFlight] solutions in flight at
+     * the same time. Everything that happens after a remote call has completed is queued as a task and executed on this
+     * thread: the next run of remote commands of a solution and the rest of a solution.
+     */
+    private fun executeSolutions(solutions: List<Pair<String, Solution>>): List<Pair<String, Either<CommandError, Unit>>> {
+        val results = HashMap<String, Either<CommandError, Unit>>()
+        val tasks = LinkedBlockingQueue<Runnable>()
+        val executor = Executor { tasks.put(it) }
+        var inFlight = 0
+        for ((aggId, solution) in solutions) {
+            while (inFlight >= maxRemoteExecutionsInFlight) tasks.take().run()
+            logger.debug("Executing solution for aggregate {}: {}", aggId, solution)
+            val remoteExecutionResults = try {
+                executeRemotely(solution, executor)
+            } catch (t: Throwable) {
+                CompletableFuture<List<CommandExecutor.ExecutionResult>>().apply { completeExceptionally(t.nonFatalOrThrow()) }
+            }
+            val pendingSolution = PendingSolution(aggId, solution, remoteExecutionResults)
+            inFlight++
+            pendingSolution.remoteExecutionResults.whenComplete { _, _ ->
+                tasks.put(Runnable {
+                    results[aggId] = executeSolution(pendingSolution)
+                    inFlight--
+                })
+            }
+            while (true) (tasks.poll() ?: break).run()
+        }
+        while (inFlight > 0) tasks.take().run()
+        return solutions.map { (aggId, _) -> aggId to results.getValue(aggId) }
+    }
+
+    /**
+     * Sends the commands for the new remote events of a solution. Every run of events for the same aggregate is sent
+     * after the previous run was executed successfully. The returned future does not complete exceptionally: errors
+     * while executing the commands are turned into a failure, so that the results of the commands that were executed
+     * before are kept. Every run is started using [executor].
+     */
+    private fun executeRemotely(solution: Solution, executor: Executor): CompletableFuture<List<CommandExecutor.ExecutionResult>> {
+        val startState = state
+        val remoteRevisions = HashMap<String, Int>()
+        // Map all events before sending anything, so that mapping errors cannot occur halfway
+        val runs = groupConsecutiveEventsByAggregate(solution.newRemoteEvents).map { remoteEvents ->
+            remoteEvents to remoteEvents.map { eventToCommandMapper.map(it) }
+        }
+        var future = CompletableFuture.completedFuture(emptyList<CommandExecutor.ExecutionResult>())
+        for ((remoteEvents, commands) in runs) {
+            val aggId = remoteEvents.first().aggId
+            future = future.thenComposeAsync(Function { previousResults ->
+                if (previousResults.lastOrNull() is CommandExecutor.ExecutionResult.Failure) {
+                    CompletableFuture.completedFuture(previousResults)
+                } else {
+                    val lastRevision = remoteRevisions[aggId] ?: startState.lastKnownRemoteRevisions[aggId] ?: 0
+                    executeAllRemotely(commands, lastRevision).thenApply { executionResults ->
+                        logger.debug("Remote events {} -> commands {} + lastRevision {} -> {}", remoteEvents, commands, lastRevision, executionResults)
+                        executionResults.forEach { executionResult ->
+                            if (executionResult is CommandExecutor.ExecutionResult.Success && executionResult.newEventMetadata != null) {
+                                remoteRevisions[executionResult.newEventMetadata.aggId] = executionResult.newEventMetadata.revision
+                            }
+                        }
+                        if (executionResults.size != commands.size && executionResults.lastOrNull() !is CommandExecutor.ExecutionResult.Failure) {
+                            previousResults + executionResults + CommandExecutor.ExecutionResult.Failure(CommandError.OtherError("Executed ${executionResults.size} of ${commands.size} commands remotely"))
+                        } else {
+                            previousResults + executionResults
+                        }
+                    }
+                }
+            }, executor)
+        }
+        return future
+    }
+
+    private fun executeAllRemotely(commands: List<Command>, lastRevision: Int): CompletableFuture<List<CommandExecutor.ExecutionResult>> {
+        val future = try {
+            if (remoteCommandExecutor is AsyncCommandExecutor) {
+                remoteCommandExecutor.executeAllAsync(commands, lastRevision)
+            } else {
+                CompletableFuture.completedFuture(remoteCommandExecutor.executeAll(commands, lastRevision))
+            }
+        } catch (t: Throwable) {
+            CompletableFuture<List<CommandExecutor.ExecutionResult>>().apply { completeExceptionally(t.nonFatalOrThrow()) }
+        }
+        return future.exceptionally { t ->
+            val cause = if (t is CompletionException) t.cause ?: t else t
+            listOf(CommandExecutor.ExecutionResult.Failure(CommandError.OtherError("Unexpected error", cause = Some(cause))))
+        }
+    }
+
     private fun removeEventsToIgnore(eventsToIgnore: LocalAndRemoteEvents) {
         eventsToIgnore.remoteEvents.forEach {
             logger.debug("Ignoring remote event ${it.eventId}")
             remoteEvents.removeEvent(it)
-            updateState(state.removeRemoteEventToIgnore(it.eventId))
+            updateState(Change.RemoteEventToIgnoreRemoved(it.eventId))
         }
         eventsToIgnore.localEvents.forEach {
             logger.debug("Ignoring local event ${it.eventId}")
             localEvents.removeEvent(it)
-            updateState(state.removeLocalEventToIgnore(it.eventId))
+            updateState(Change.LocalEventToIgnoreRemoved(it.eventId))
         }
     }
 
@@ -155,9 +309,19 @@ class Synchronizer @Inject constructor(
         return localEventIdsToSynchronize == compensatedLocalEventIds && remoteEventIdsToSynchronize == compensatedRemoteEventIds
     }
 
-    private fun executeSolution(solution: Solution, aggId: String): Either<CommandError, Unit> {
-        logger.debug("Executing solution for aggregate {}: {}", aggId, solution)
-        return executeSolution2(solution, aggId).map {
+    /**
+     * Executes the rest of a solution after its remote commands have completed. An exception only fails this solution,
+     * so that the results of the other solutions in flight are still applied.
+     */
+    private fun executeSolution(pendingSolution: PendingSolution): Either<CommandError, Unit> {
+        val (aggId, solution) = pendingSolution
+        val result = try {
+            executeSolution2(solution, aggId, pendingSolution.remoteExecutionResults.join())
+        } catch (t: Throwable) {
+            val cause = if (t is CompletionException) t.cause ?: t else t
+            left(CommandError.OtherError("Unexpected error", cause = Some(cause.nonFatalOrThrow())))
+        }
+        return result.map {
             logger.debug("Successfully executed solution for aggregate {}: {}", aggId, solution)
         }.mapLeft {
             logger.warn("Failed to execute solution for aggregate {}: {}", aggId, solution)
@@ -165,19 +329,15 @@ class Synchronizer @Inject constructor(
         }
     }
 
-    private fun executeSolution2(solution: Solution, aggId: String): Either<CommandError, Unit> {
+    private fun executeSolution2(solution: Solution, aggId: String, remoteExecutionResults: List<CommandExecutor.ExecutionResult>): Either<CommandError, Unit> {
         if (solution.newRemoteEvents.isNotEmpty() || solution.newLocalEvents.isNotEmpty()) {
-            for (remoteEvent in solution.newRemoteEvents) {
-                val command = eventToCommandMapper.map(remoteEvent)
-                val lastRevision = state.lastKnownRemoteRevisions[remoteEvent.aggId] ?: 0
-                val executionResult = remoteCommandExecutor.execute(command, lastRevision)
-                logger.debug("Remote event {} -> command {} + lastRevision {} -> {}", remoteEvent, command, lastRevision, executionResult)
+            for (executionResult in remoteExecutionResults) {
                 when (executionResult) {
                     is CommandExecutor.ExecutionResult.Failure -> return left(executionResult.error)
                     is CommandExecutor.ExecutionResult.Success -> if (executionResult.newEventMetadata != null) {
-                        updateState(state
-                                .updateLastKnownRemoteRevision(executionResult.newEventMetadata.aggId, executionResult.newEventMetadata.revision)
-                                .ignoreRemoteEvent(executionResult.newEventMetadata.eventId)
+                        updateState(
+                                Change.LastKnownRemoteRevisionUpdated(executionResult.newEventMetadata.aggId, executionResult.newEventMetadata.revision),
+                                Change.RemoteEventIgnored(executionResult.newEventMetadata.eventId)
                         )
                     }
                 }
@@ -190,10 +350,10 @@ class Synchronizer @Inject constructor(
                 when (executionResult) {
                     is CommandExecutor.ExecutionResult.Failure -> return left(executionResult.error)
                     is CommandExecutor.ExecutionResult.Success -> if (executionResult.newEventMetadata != null) {
-                        updateState(state
-                                .updateLastKnownLocalRevision(executionResult.newEventMetadata.aggId, executionResult.newEventMetadata.revision)
-                                .updateLastSynchronizedLocalRevision(executionResult.newEventMetadata.aggId, executionResult.newEventMetadata.revision)
-                                .ignoreLocalEvent(executionResult.newEventMetadata.eventId)
+                        updateState(
+                                Change.LastKnownLocalRevisionUpdated(executionResult.newEventMetadata.aggId, executionResult.newEventMetadata.revision),
+                                Change.LastSynchronizedLocalRevisionUpdated(executionResult.newEventMetadata.aggId, executionResult.newEventMetadata.revision),
+                                Change.LocalEventIgnored(executionResult.newEventMetadata.eventId)
                         )
                     }
                 }
@@ -204,14 +364,38 @@ class Synchronizer @Inject constructor(
         if (solution.compensatedLocalEvents.isNotEmpty()) {
             val lastCompensatedLocalEventRevision = solution.compensatedLocalEvents.last().revision
             if (state.lastSynchronizedLocalRevisions[aggId] == null || lastCompensatedLocalEventRevision > state.lastSynchronizedLocalRevisions.getValue(aggId)!!) {
-                updateState(state
-                        .updateLastSynchronizedLocalRevision(aggId, lastCompensatedLocalEventRevision)
-                )
+                updateState(Change.LastSynchronizedLocalRevisionUpdated(aggId, lastCompensatedLocalEventRevision))
             }
         }
         return right(Unit)
     }
 
+    /**
+     * @property attempts The number of times the aggregate could not be resolved.
+     * @property synchronization The synchronization in which the aggregate is resolved again.
+     */
+    private data class Retry(val attempts: Int, val synchronization: Long)
+
+    private data class PendingSolution(
+            val aggId: String,
+            val solution: Solution,
+            val remoteExecutionResults: CompletableFuture<List<CommandExecutor.ExecutionResult>>
+    )
+
+    /** Splits events into runs of consecutive events for the same aggregate, so that every run can be sent at once. */
+    private fun groupConsecutiveEventsByAggregate(events: List<Event>): List<List<Event>> {
+        val result = ArrayList<MutableList<Event>>()
+        for (event in events) {
+            val last = result.lastOrNull()
+            if (last != null && last.first().aggId == event.aggId) {
+                last += event
+            } else {
+                result += mutableListOf(event)
+            }
+        }
+        return result
+    }
+
     private fun groupLocalAndRemoteEventsByNote(localEvents: List<Event>, remoteEvents: List<Event>): SortedMap<String, LocalAndRemoteEvents> {
         val localEventsByNote: Map<String, Collection<Event>> = localEvents.toObservable()
                 .toMultimap { it.aggId }
@@ -232,6 +416,19 @@ class Synchronizer @Inject constructor(
         return result
     }
 
+    private fun resolveAll(eventsToSynchronize: Map<String, LocalAndRemoteEvents>): Map<String, SynchronizationStrategy.ResolutionResult> =
+            if (eventsToSynchronize.size <= 1 || parallelism <= 1) {
+                eventsToSynchronize.mapValues { (aggId, aggregateEventsToSynchronize) -> resolve(aggregateEventsToSynchronize, aggId) }
+            } else {
+                Flowable.fromIterable(eventsToSynchronize.entries)
+                        .parallel(parallelism)
+                        .runOn(scheduler)
+                        .map { (aggId, aggregateEventsToSynchronize) -> aggId to resolve(aggregateEventsToSynchronize, aggId) }
+                        .sequential()
+                        .toMap({ it.first }, { it.second })
+                        .blockingGet()
+            }
+
     private fun resolve(aggregateEventsToSynchronize: LocalAndRemoteEvents, aggId: String): SynchronizationStrategy.ResolutionResult {
         logger.debug("Synchronizing events for aggregate {}: {}", aggId, aggregateEventsToSynchronize)
         val resolutionResult = synchronizationStrategy.resolve(aggId, aggregateEventsToSynchronize.localEvents, aggregateEventsToSynchronize.remoteEvents)
@@ -239,10 +436,24 @@ class Synchronizer @Inject constructor(
         return resolutionResult
     }
 
-    private fun updateState(state: SynchronizerState) {
-        this.state = state
+    private fun updateState(vararg changes: Change) =
+            updateState(changes.asList())
+
+    private fun updateState(changes: List<Change>) {
+        state = state.updateAll(changes)
         stateUpdates.onNext(state)
+        stateChanges.onNext(StateChanges(changes, state))
     }
 
     override fun getStateUpdates(): Observable<SynchronizerState> = stateUpdates
+
+    override fun getStateChanges(): Observable<StateChanges<SynchronizerState, Change>> = stateChanges
+
+    companion object {
+        val defaultParallelism = Runtime.getRuntime().availableProcessors()
+        const val defaultMaxRemoteExecutionsInFlight = 16
+
+        /** The maximum number of synchronizations after which an aggregate without a valid solution is retried. */
+        const val maxRetryInterval = 64L
+    }
 }
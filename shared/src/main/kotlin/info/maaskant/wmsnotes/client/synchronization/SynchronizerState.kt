@@ -7,35 +7,74 @@ import com.esotericsoftware.kryo.io.Input
 import com.esotericsoftware.kryo.io.Output
 import com.esotericsoftware.kryo.util.Pool
 import info.maaskant.wmsnotes.utilities.serialization.*
+import kotlinx.collections.immutable.PersistentMap
+import kotlinx.collections.immutable.PersistentSet
+import kotlinx.collections.immutable.toPersistentHashMap
+import kotlinx.collections.immutable.toPersistentHashSet
 import javax.inject.Inject
 
+/**
+ * The state of the [Synchronizer].
+ *
+ * The state is stored in persistent collections, so an update only copies a small part of the state. Every update is
+ * described by a [Change], which can be journaled instead of writing the whole state.
+ */
 data class SynchronizerState internal constructor(
-        val lastSynchronizedLocalRevisions: Map<String, Int?>,
-        val lastKnownLocalRevisions: Map<String, Int?>,
-        val lastKnownRemoteRevisions: Map<String, Int?>,
-        val localEventIdsToIgnore: Set<Int>,
-        val remoteEventIdsToIgnore: Set<Int>
+        val lastSynchronizedLocalRevisions: PersistentMap<String, Int?>,
+        val lastKnownLocalRevisions: PersistentMap<String, Int?>,
+        val lastKnownRemoteRevisions: PersistentMap<String, Int?>,
+        val localEventIdsToIgnore: PersistentSet<Int>,
+        val remoteEventIdsToIgnore: PersistentSet<Int>
 ) {
     fun ignoreLocalEvent(eventId: Int) =
-            this.copy(localEventIdsToIgnore = localEventIdsToIgnore + eventId)
+            update(Change.LocalEventIgnored(eventId))
 
     fun ignoreRemoteEvent(eventId: Int) =
-            this.copy(remoteEventIdsToIgnore = remoteEventIdsToIgnore + eventId)
+            update(Change.RemoteEventIgnored(eventId))
 
     fun removeLocalEventToIgnore(eventId: Int) =
-            this.copy(localEventIdsToIgnore = localEventIdsToIgnore - eventId)
+            update(Change.LocalEventToIgnoreRemoved(eventId))
 
     fun removeRemoteEventToIgnore(eventId: Int) =
-            this.copy(remoteEventIdsToIgnore = remoteEventIdsToIgnore - eventId)
+            update(Change.RemoteEventToIgnoreRemoved(eventId))
 
     fun updateLastSynchronizedLocalRevision(aggId: String, revision: Int) =
-            this.copy(lastSynchronizedLocalRevisions = lastSynchronizedLocalRevisions + (aggId to revision))
+            update(Change.LastSynchronizedLocalRevisionUpdated(aggId, revision))
 
     fun updateLastKnownLocalRevision(aggId: String, revision: Int) =
-            this.copy(lastKnownLocalRevisions = lastKnownLocalRevisions + (aggId to revision))
+            update(Change.LastKnownLocalRevisionUpdated(aggId, revision))
 
     fun updateLastKnownRemoteRevision(aggId: String, revision: Int) =
-            this.copy(lastKnownRemoteRevisions = lastKnownRemoteRevisions + (aggId to revision))
+            update(Change.LastKnownRemoteRevisionUpdated(aggId, revision))
+
+    fun update(change: Change): SynchronizerState = when (change) {
+        is Change.LocalEventIgnored -> copy(localEventIdsToIgnore = localEventIdsToIgnore.add(change.eventId))
+        is Change.RemoteEventIgnored -> copy(remoteEventIdsToIgnore = remoteEventIdsToIgnore.add(change.eventId))
+        is Change.LocalEventToIgnoreRemoved -> copy(localEventIdsToIgnore = localEventIdsToIgnore.remove(change.eventId))
+        is Change.RemoteEventToIgnoreRemoved -> copy(remoteEventIdsToIgnore = remoteEventIdsToIgnore.remove(change.eventId))
+        is Change.LastSynchronizedLocalRevisionUpdated -> copy(lastSynchronizedLocalRevisions = lastSynchronizedLocalRevisions.put(change.aggId, change.revision))
+        is Change.LastKnownLocalRevisionUpdated -> copy(lastKnownLocalRevisions = lastKnownLocalRevisions.put(change.aggId, change.revision))
+        is Change.LastKnownRemoteRevisionUpdated -> copy(lastKnownRemoteRevisions = lastKnownRemoteRevisions.put(change.aggId, change.revision))
+    }
+
+    fun updateAll(changes: Iterable<Change>): SynchronizerState =
+            changes.fold(this) { state, change -> state.update(change) }
+
+    /**
+     * A single update to the state.
+     *
+     * Every change sets a value instead of modifying it, so applying changes that are already part of the state again
+     * does not alter the state.
+     */
+    sealed class Change {
+        data class LocalEventIgnored(val eventId: Int) : Change()
+        data class RemoteEventIgnored(val eventId: Int) : Change()
+        data class LocalEventToIgnoreRemoved(val eventId: Int) : Change()
+        data class RemoteEventToIgnoreRemoved(val eventId: Int) : Change()
+        data class LastSynchronizedLocalRevisionUpdated(val aggId: String, val revision: Int) : Change()
+        data class LastKnownLocalRevisionUpdated(val aggId: String, val revision: Int) : Change()
+        data class LastKnownRemoteRevisionUpdated(val aggId: String, val revision: Int) : Change()
+    }
 
     companion object {
         fun create(
@@ -45,11 +84,11 @@ data class SynchronizerState internal constructor(
                 localEventIdsToIgnore: Set<Int> = emptySet(),
                 remoteEventIdsToIgnore: Set<Int> = emptySet()
         ) = SynchronizerState(
-                lastSynchronizedLocalRevisions = lastSynchronizedLocalRevisions.withDefault { null },
-                lastKnownLocalRevisions = lastKnownLocalRevisions.withDefault { null },
-                lastKnownRemoteRevisions = lastKnownRemoteRevisions.withDefault { null },
-                localEventIdsToIgnore = localEventIdsToIgnore,
-                remoteEventIdsToIgnore = remoteEventIdsToIgnore
+                lastSynchronizedLocalRevisions = lastSynchronizedLocalRevisions.toPersistentHashMap(),
+                lastKnownLocalRevisions = lastKnownLocalRevisions.toPersistentHashMap(),
+                lastKnownRemoteRevisions = lastKnownRemoteRevisions.toPersistentHashMap(),
+                localEventIdsToIgnore = localEventIdsToIgnore.toPersistentHashSet(),
+                remoteEventIdsToIgnore = remoteEventIdsToIgnore.toPersistentHashSet()
         )
     }
 }
@@ -107,3 +146,81 @@ class KryoSynchronizerStateSerializer @Inject constructor(kryoPool: Pool<Kryo>)
         }
     }
 }
+
+class KryoSynchronizerStateChangeSerializer @Inject constructor(kryoPool: Pool<Kryo>) : KryoSerializer<SynchronizerState.Change>(
+        kryoPool,
+        Registration(SynchronizerState.Change.LocalEventIgnored::class.java, LocalEventIgnoredSerializer(), 42),
+        Registration(SynchronizerState.Change.RemoteEventIgnored::class.java, RemoteEventIgnoredSerializer(), 43),
+        Registration(SynchronizerState.Change.LocalEventToIgnoreRemoved::class.java, LocalEventToIgnoreRemovedSerializer(), 44),
+        Registration(SynchronizerState.Change.RemoteEventToIgnoreRemoved::class.java, RemoteEventToIgnoreRemovedSerializer(), 45),
+        Registration(SynchronizerState.Change.LastSynchronizedLocalRevisionUpdated::class.java, LastSynchronizedLocalRevisionUpdatedSerializer(), 46),
+        Registration(SynchronizerState.Change.LastKnownLocalRevisionUpdated::class.java, LastKnownLocalRevisionUpdatedSerializer(), 47),
+        Registration(SynchronizerState.Change.LastKnownRemoteRevisionUpdated::class.java, LastKnownRemoteRevisionUpdatedSerializer(), 48)
+) {
+
+    private class LocalEventIgnoredSerializer : Serializer<SynchronizerState.Change.LocalEventIgnored>() {
+        override fun write(kryo: Kryo, output: Output, it: SynchronizerState.Change.LocalEventIgnored) {
+            output.writeInt(it.eventId, true)
+        }
+
+        override fun read(kryo: Kryo, input: Input, clazz: Class<out SynchronizerState.Change.LocalEventIgnored>) =
+                SynchronizerState.Change.LocalEventIgnored(eventId = input.readInt(true))
+    }
+
+    private class RemoteEventIgnoredSerializer : Serializer<SynchronizerState.Change.RemoteEventIgnored>() {
+        override fun write(kryo: Kryo, output: Output, it: SynchronizerState.Change.RemoteEventIgnored) {
+            output.writeInt(it.eventId, true)
+        }
+
+        override fun read(kryo: Kryo, input: Input, clazz: Class<out SynchronizerState.Change.RemoteEventIgnored>) =
+                SynchronizerState.Change.RemoteEventIgnored(eventId = input.readInt(true))
+    }
+
+    private class LocalEventToIgnoreRemovedSerializer : Serializer<SynchronizerState.Change.LocalEventToIgnoreRemoved>() {
+        override fun write(kryo: Kryo, output: Output, it: SynchronizerState.Change.LocalEventToIgnoreRemoved) {
+            output.writeInt(it.eventId, true)
+        }
+
+        override fun read(kryo: Kryo, input: Input, clazz: Class<out SynchronizerState.Change.LocalEventToIgnoreRemoved>) =
+                SynchronizerState.Change.LocalEventToIgnoreRemoved(eventId = input.readInt(true))
+    }
+
+    private class RemoteEventToIgnoreRemovedSerializer : Serializer<SynchronizerState.Change.RemoteEventToIgnoreRemoved>() {
+        override fun write(kryo: Kryo, output: Output, it: SynchronizerState.Change.RemoteEventToIgnoreRemoved) {
+            output.writeInt(it.eventId, true)
+        }
+
+        override fun read(kryo: Kryo, input: Input, clazz: Class<out SynchronizerState.Change.RemoteEventToIgnoreRemoved>) =
+                SynchronizerState.Change.RemoteEventToIgnoreRemoved(eventId = input.readInt(true))
+    }
+
+    private class LastSynchronizedLocalRevisionUpdatedSerializer : Serializer<SynchronizerState.Change.LastSynchronizedLocalRevisionUpdated>() {
+        override fun write(kryo: Kryo, output: Output, it: SynchronizerState.Change.LastSynchronizedLocalRevisionUpdated) {
+            output.writeString(it.aggId)
+            output.writeInt(it.revision, true)
+        }
+
+        override fun read(kryo: Kryo, input: Input, clazz: Class<out SynchronizerState.Change.LastSynchronizedLocalRevisionUpdated>) =
+                SynchronizerState.Change.LastSynchronizedLocalRevisionUpdated(aggId = input.readString(), revision = input.readInt(true))
+    }
+
+    private class LastKnownLocalRevisionUpdatedSerializer : Serializer<SynchronizerState.Change.LastKnownLocalRevisionUpdated>() {
+        override fun write(kryo: Kryo, output: Output, it: SynchronizerState.Change.LastKnownLocalRevisionUpdated) {
+            output.writeString(it.aggId)
+            output.writeInt(it.revision, true)
+        }
+
+        override fun read(kryo: Kryo, input: Input, clazz: Class<out SynchronizerState.Change.LastKnownLocalRevisionUpdated>) =
+                SynchronizerState.Change.LastKnownLocalRevisionUpdated(aggId = input.readString(), revision = input.readInt(true))
+    }
+
+    private class LastKnownRemoteRevisionUpdatedSerializer : Serializer<SynchronizerState.Change.LastKnownRemoteRevisionUpdated>() {
+        override fun write(kryo: Kryo, output: Output, it: SynchronizerState.Change.LastKnownRemoteRevisionUpdated) {
+            output.writeString(it.aggId)
+            output.writeInt(it.revision, true)
+        }
+
+        override fun read(kryo: Kryo, input: Input, clazz: Class<out SynchronizerState.Change.LastKnownRemoteRevisionUpdated>) =
+                SynchronizerState.Change.LastKnownRemoteRevisionUpdated(aggId = input.readString(), revision = input.readInt(true))
+    }
+}
@@ -0,0 +1,15 @@
+package info.maaskant.wmsnotes.client.synchronization.commandexecutor
+
+import info.maaskant.wmsnotes.client.synchronization.commandexecutor.CommandExecutor.ExecutionResult
+import info.maaskant.wmsnotes.model.Command
+import java.util.concurrent.CompletableFuture
+
+/** A [CommandExecutor] that can execute commands without blocking the calling thread. */
+interface AsyncCommandExecutor : CommandExecutor {
+    /**
+     * Executes commands for one aggregate in order, like [executeAll], and returns immediately.
+     *
+     * @return A future of the results of the executed commands. The future never completes exceptionally.
+     */
+    fun executeAllAsync(commands: List<Command>, lastRevision: Int): CompletableFuture<List<ExecutionResult>>
+}
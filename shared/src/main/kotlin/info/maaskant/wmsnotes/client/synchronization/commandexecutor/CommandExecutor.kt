@@ -7,6 +7,16 @@ import info.maaskant.wmsnotes.model.Event
 interface CommandExecutor {
     fun execute(command: Command, lastRevision: Int): ExecutionResult
 
+    /**
+     * Executes commands for one aggregate in order. [lastRevision] applies to the first command, every following command
+     * is executed against the revision produced by the commands before it.
+     *
+     * @return The results of the executed commands. Execution stops at the first failure, so the last result is the
+     * only one that can be a [ExecutionResult.Failure].
+     */
+    fun executeAll(commands: List<Command>, lastRevision: Int): List<ExecutionResult> =
+            executeOneByOne(this, commands, lastRevision)
+
     sealed class ExecutionResult {
         data class Failure(val error: CommandError) : ExecutionResult()
         data class Success(val newEventMetadata: EventMetadata?) : ExecutionResult()
@@ -15,4 +25,21 @@ interface CommandExecutor {
     data class EventMetadata(val eventId: Int, val aggId: String, val revision: Int) {
         constructor (event: Event) : this(event.eventId, event.aggId, event.revision)
     }
+
+    companion object {
+        /** Implements [executeAll] by calling [execute] for every command. */
+        fun executeOneByOne(executor: CommandExecutor, commands: List<Command>, lastRevision: Int): List<ExecutionResult> {
+            val results = ArrayList<ExecutionResult>(commands.size)
+            var revision = lastRevision
+            for (command in commands) {
+                val result = executor.execute(command, revision)
+                results += result
+                when (result) {
+                    is ExecutionResult.Failure -> return results
+                    is ExecutionResult.Success -> if (result.newEventMetadata != null) revision = result.newEventMetadata.revision
+                }
+            }
+            return results
+        }
+    }
 }
@@ -3,74 +3,72 @@ package info.maaskant.wmsnotes.client.synchronization.commandexecutor
 import arrow.core.Either
 import arrow.core.Either.Companion.left
 import arrow.core.Either.Companion.right
+import arrow.core.Option
 import arrow.core.Some
+import arrow.core.flatMap
 import arrow.core.nonFatalOrThrow
+import com.google.common.util.concurrent.FutureCallback
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.MoreExecutors
+import info.maaskant.wmsnotes.client.api.AttachmentTransferClient
 import info.maaskant.wmsnotes.client.api.GrpcCommandMapper
 import info.maaskant.wmsnotes.client.synchronization.commandexecutor.CommandExecutor.EventMetadata
 import info.maaskant.wmsnotes.client.synchronization.commandexecutor.CommandExecutor.ExecutionResult
 import info.maaskant.wmsnotes.model.Command
 import info.maaskant.wmsnotes.model.CommandError
+import info.maaskant.wmsnotes.model.note.AddAttachmentCommand
 import info.maaskant.wmsnotes.server.command.grpc.Command.PostCommandRequest
 import info.maaskant.wmsnotes.server.command.grpc.Command.PostCommandResponse
+import info.maaskant.wmsnotes.server.command.grpc.Command.PostCommandsRequest
+import info.maaskant.wmsnotes.server.command.grpc.Command.PostCommandsResponse
 import info.maaskant.wmsnotes.server.command.grpc.CommandServiceGrpc
 import info.maaskant.wmsnotes.utilities.logger
 import io.grpc.Deadline
 import io.grpc.Status
 import io.grpc.StatusRuntimeException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 
+/**
+ * Executes commands on the server.
+ *
+ * [executeAll] and [executeAllAsync] send the commands in batches of at most [batchSize] commands, which are all in
+ * flight at the same time. If [asyncGrpcCommandService] is given, [executeAllAsync] does not block while waiting for the
+ * server, so that commands for several aggregates can be in flight at the same time. Every asynchronous call fails if
+ * the server has not responded within [asyncCallTimeoutMillis].
+ */
 class RemoteCommandExecutor @Inject constructor(
         private val grpcCommandMapper: GrpcCommandMapper,
         grpcCommandService: CommandServiceGrpc.CommandServiceBlockingStub,
-        grpcDeadline: Deadline?
-) : CommandExecutor {
+        private val attachmentTransferClient: AttachmentTransferClient,
+        grpcDeadline: Deadline?,
+        private val asyncGrpcCommandService: CommandServiceGrpc.CommandServiceFutureStub? = null,
+        private val batchSize: Int = maxBatchSize,
+        private val asyncCallTimeoutMillis: Long = defaultAsyncCallTimeoutMillis
+) : AsyncCommandExecutor {
     private val logger by logger()
 
     private val grpcCommandService: CommandServiceGrpc.CommandServiceBlockingStub =
             grpcCommandService.apply { if (grpcDeadline != null) this.withDeadline(grpcDeadline) }
 
+    init {
+        if (batchSize < 1) throw IllegalArgumentException("The batch size must be positive: $batchSize")
+        if (asyncCallTimeoutMillis < 1) throw IllegalArgumentException("The call timeout must be positive: $asyncCallTimeoutMillis")
+    }
+
     override fun execute(command: Command, lastRevision: Int): ExecutionResult {
         val executionResult: ExecutionResult = try {
             logger.debug("Executing command remotely: $command, lastRevision=$lastRevision")
             val request = grpcCommandMapper.toGrpcPostCommandRequest(command, lastRevision)
-            val responseEither: Either<StatusRuntimeException, PostCommandResponse> = postCommand(request)
+            val responseEither: Either<StatusRuntimeException, PostCommandResponse> =
+                    uploadAttachments(listOf(command)).flatMap { postCommand(request) }
             responseEither.fold({ sre ->
                 // Failure
-                val commandError: CommandError = when (sre.status.code) {
-                    Status.Code.CANCELLED ->
-                        CommandError.NetworkError(sre.status.description ?: "Missing description")
-                    Status.Code.FAILED_PRECONDITION ->
-                        CommandError.IllegalStateError(sre.status.description ?: "Missing description")
-                    Status.Code.INVALID_ARGUMENT ->
-                        CommandError.InvalidCommandError(sre.status.description ?: "Missing description")
-                    Status.Code.DEADLINE_EXCEEDED ->
-                        CommandError.NetworkError("Server is taking too long to respond")
-                    Status.Code.UNAVAILABLE ->
-                        CommandError.NetworkError("Server not available")
-                    else -> CommandError.OtherError(
-                            message = "Error sending command to server: ${sre.status.code}, ${sre.status.description}",
-                            cause = Some(sre)
-                    )
-                }
-                ExecutionResult.Failure(commandError)
+                ExecutionResult.Failure(toCommandError(sre.status, sre))
             }, { response ->
                 // Success
-                val result: ExecutionResult = if (response.newEventId != 0) {
-                    if (response.aggregateId.isNotEmpty() && response.newRevision != 0) {
-                        ExecutionResult.Success(EventMetadata(
-                                eventId = response.newEventId,
-                                aggId = response.aggregateId,
-                                revision = response.newRevision
-                        ))
-                    } else {
-                        val message = "Server returned success, but response was incomplete: " +
-                                "${response.newEventId}, ${response.aggregateId}, ${response.newRevision}"
-                        ExecutionResult.Failure(CommandError.OtherError(message))
-                    }
-                } else {
-                    ExecutionResult.Success(newEventMetadata = null)
-                }
-                result
+                toExecutionResult(response)
             })
         } catch (t: Throwable) {
             ExecutionResult.Failure(CommandError.OtherError("Unexpected error", cause = Some(t.nonFatalOrThrow())))
@@ -82,10 +80,212 @@ class RemoteCommandExecutor @Inject constructor(
         return executionResult
     }
 
+    override fun executeAll(commands: List<Command>, lastRevision: Int): List<ExecutionResult> {
+        val results = ArrayList<ExecutionResult>(commands.size)
+        var revision = lastRevision
+        for (batch in commands.chunked(batchSize)) {
+            val batchResults = executeBatch(batch, revision)
+            results += batchResults
+            for (result in batchResults) {
+                when (result) {
+                    is ExecutionResult.Failure -> return results
+                    is ExecutionResult.Success -> if (result.newEventMetadata != null) revision = result.newEventMetadata.revision
+                }
+            }
+        }
+        return results
+    }
+
+    override fun executeAllAsync(commands: List<Command>, lastRevision: Int): CompletableFuture<List<ExecutionResult>> =
+            if (asyncGrpcCommandService == null) {
+                CompletableFuture.completedFuture(executeAll(commands, lastRevision))
+            } else {
+                // Uploading blocks, so all attachments are uploaded on the calling thread instead of on the thread that
+                // completes the previous batch
+                val uploadResult = try {
+                    uploadAttachments(commands).mapLeft { sre -> toCommandError(sre.status, sre) }
+                } catch (t: Throwable) {
+                    left(CommandError.OtherError("Unexpected error", cause = Some(t.nonFatalOrThrow())))
+                }
+                uploadResult.fold({ error ->
+                    CompletableFuture.completedFuture(listOf<ExecutionResult>(ExecutionResult.Failure(error)))
+                }, {
+                    executeBatchesAsync(asyncGrpcCommandService, commands.chunked(batchSize), lastRevision, emptyList())
+                })
+            }
+
+    private fun executeBatchesAsync(
+            asyncGrpcCommandService: CommandServiceGrpc.CommandServiceFutureStub,
+            batches: List<List<Command>>,
+            lastRevision: Int,
+            previousResults: List<ExecutionResult>
+    ): CompletableFuture<List<ExecutionResult>> {
+        if (batches.isEmpty()) return CompletableFuture.completedFuture(previousResults)
+        return executeBatchAsync(asyncGrpcCommandService, batches.first(), lastRevision).thenCompose { batchResults ->
+            val results = previousResults + batchResults
+            if (batchResults.last() is ExecutionResult.Failure) {
+                CompletableFuture.completedFuture(results)
+            } else {
+                val revision = batchResults.asSequence()
+                        .mapNotNull { (it as ExecutionResult.Success).newEventMetadata?.revision }
+                        .lastOrNull() ?: lastRevision
+                executeBatchesAsync(asyncGrpcCommandService, batches.drop(1), revision, results)
+            }
+        }
+    }
+
+    private fun executeBatchAsync(
+            asyncGrpcCommandService: CommandServiceGrpc.CommandServiceFutureStub,
+            commands: List<Command>,
+            lastRevision: Int
+    ): CompletableFuture<List<ExecutionResult>> {
+        val future = CompletableFuture<List<ExecutionResult>>()
+        try {
+            logger.debug("Executing {} commands remotely: {}, lastRevision={}", commands.size, commands, lastRevision)
+            val request = PostCommandsRequest.newBuilder()
+                    .addAllCommands(commands.map { grpcCommandMapper.toGrpcPostCommandRequest(it, lastRevision) })
+                    .build()
+            val response = asyncGrpcCommandService
+                    .withDeadlineAfter(asyncCallTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .postCommands(request)
+            Futures.addCallback(response, object : FutureCallback<PostCommandsResponse> {
+                override fun onSuccess(response: PostCommandsResponse?) {
+                    future.complete(if (response != null) {
+                        toExecutionResults(response, commands.size)
+                    } else {
+                        listOf(ExecutionResult.Failure(CommandError.OtherError("Server returned no response")))
+                    })
+                }
+
+                override fun onFailure(t: Throwable) {
+                    future.complete(listOf(ExecutionResult.Failure(when (t) {
+                        is StatusRuntimeException -> toCommandError(t.status, t)
+                        else -> CommandError.OtherError("Unexpected error", cause = Some(t))
+                    })))
+                }
+            }, MoreExecutors.directExecutor())
+        } catch (t: Throwable) {
+            future.complete(listOf(ExecutionResult.Failure(CommandError.OtherError("Unexpected error", cause = Some(t.nonFatalOrThrow())))))
+        }
+        return future.thenApply { executionResults ->
+            when (val lastResult = executionResults.last()) {
+                is ExecutionResult.Failure -> logger.debug("Executing commands remotely failed after {} of {}: {}, lastRevision={}, {}", executionResults.size - 1, commands.size, commands, lastRevision, lastResult.error)
+                is ExecutionResult.Success -> logger.debug("Commands executed remotely successfully: {}", commands)
+            }
+            executionResults
+        }
+    }
+
+    private fun executeBatch(commands: List<Command>, lastRevision: Int): List<ExecutionResult> {
+        val executionResults: List<ExecutionResult> = try {
+            logger.debug("Executing {} commands remotely: {}, lastRevision={}", commands.size, commands, lastRevision)
+            val request = PostCommandsRequest.newBuilder()
+                    .addAllCommands(commands.map { grpcCommandMapper.toGrpcPostCommandRequest(it, lastRevision) })
+                    .build()
+            val responseEither: Either<StatusRuntimeException, PostCommandsResponse> =
+                    uploadAttachments(commands).flatMap { postCommands(request) }
+            responseEither.fold({ sre ->
+                // Failure
+                listOf(ExecutionResult.Failure(toCommandError(sre.status, sre)))
+            }, { response ->
+                // Success
+                toExecutionResults(response, commands.size)
+            })
+        } catch (t: Throwable) {
+            listOf(ExecutionResult.Failure(CommandError.OtherError("Unexpected error", cause = Some(t.nonFatalOrThrow()))))
+        }
+        when (val lastResult = executionResults.last()) {
+            is ExecutionResult.Failure -> logger.debug("Executing commands remotely failed after {} of {}: {}, lastRevision={}, {}", executionResults.size - 1, commands.size, commands, lastRevision, lastResult.error)
+            is ExecutionResult.Success -> logger.debug("Commands executed remotely successfully: {}", commands)
+        }
+        return executionResults
+    }
+
+    private fun toExecutionResults(response: PostCommandsResponse, numberOfCommands: Int): List<ExecutionResult> {
+        if (response.resultsCount != numberOfCommands) {
+            val message = "Server returned ${response.resultsCount} results for $numberOfCommands commands"
+            return listOf(ExecutionResult.Failure(CommandError.OtherError(message)))
+        }
+        val results = ArrayList<ExecutionResult>(numberOfCommands)
+        for (result in response.resultsList) {
+            val executionResult = when (result.resultCase!!) {
+                PostCommandsResponse.Result.ResultCase.SUCCESS -> toExecutionResult(result.success)
+                PostCommandsResponse.Result.ResultCase.FAILURE -> ExecutionResult.Failure(toCommandError(
+                        Status.fromCodeValue(result.failure.code).withDescription(result.failure.description),
+                        cause = null
+                ))
+                PostCommandsResponse.Result.ResultCase.RESULT_NOT_SET ->
+                    ExecutionResult.Failure(CommandError.OtherError("Server returned a result without outcome"))
+            }
+            results += executionResult
+            if (executionResult is ExecutionResult.Failure) break
+        }
+        return results
+    }
+
+    private fun toExecutionResult(response: PostCommandResponse): ExecutionResult =
+            if (response.newEventId != 0) {
+                if (response.aggregateId.isNotEmpty() && response.newRevision != 0) {
+                    ExecutionResult.Success(EventMetadata(
+                            eventId = response.newEventId,
+                            aggId = response.aggregateId,
+                            revision = response.newRevision
+                    ))
+                } else {
+                    val message = "Server returned success, but response was incomplete: " +
+                            "${response.newEventId}, ${response.aggregateId}, ${response.newRevision}"
+                    ExecutionResult.Failure(CommandError.OtherError(message))
+                }
+            } else {
+                ExecutionResult.Success(newEventMetadata = null)
+            }
+
+    private fun toCommandError(status: Status, cause: Throwable?): CommandError =
+            when (status.code) {
+                Status.Code.CANCELLED ->
+                    CommandError.NetworkError(status.description ?: "Missing description")
+                Status.Code.FAILED_PRECONDITION ->
+                    CommandError.IllegalStateError(status.description ?: "Missing description")
+                Status.Code.INVALID_ARGUMENT ->
+                    CommandError.InvalidCommandError(status.description ?: "Missing description")
+                Status.Code.DEADLINE_EXCEEDED ->
+                    CommandError.NetworkError("Server is taking too long to respond")
+                Status.Code.UNAVAILABLE ->
+                    CommandError.NetworkError("Server not available")
+                else -> CommandError.OtherError(
+                        message = "Error sending command to server: ${status.code}, ${status.description}",
+                        cause = Option.fromNullable(cause)
+                )
+            }
+
+    /** Uploads the contents of new attachments, which the server needs before it can execute the commands. */
+    private fun uploadAttachments(commands: List<Command>): Either<StatusRuntimeException, Unit> =
+            try {
+                commands.filterIsInstance<AddAttachmentCommand>().forEach { attachmentTransferClient.upload(it.content) }
+                right(Unit)
+            } catch (e: StatusRuntimeException) {
+                left(e)
+            }
+
+    private fun postCommands(request: PostCommandsRequest): Either<StatusRuntimeException, PostCommandsResponse> =
+            try {
+                right(grpcCommandService.postCommands(request))
+            } catch (e: StatusRuntimeException) {
+                left(e)
+            }
+
     private fun postCommand(request: PostCommandRequest): Either<StatusRuntimeException, PostCommandResponse> =
             try {
                 right(grpcCommandService.postCommand(request))
             } catch (e: StatusRuntimeException) {
                 left(e)
             }
+
+    companion object {
+        /** The maximum number of commands to send to the server in one call. */
+        const val maxBatchSize = 100
+
+        /** The default time the server may take to respond to an asynchronous call. */
+        const val defaultAsyncCallTimeoutMillis = 30_000L
+    }
 }
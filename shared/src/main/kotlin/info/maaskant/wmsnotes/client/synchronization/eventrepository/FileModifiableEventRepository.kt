@@ -3,11 +3,44 @@ package info.maaskant.wmsnotes.client.synchronization.eventrepository
 import info.maaskant.wmsnotes.model.Event
 import info.maaskant.wmsnotes.utilities.serialization.Serializer
 import io.reactivex.Observable
-import java.io.File
+import io.reactivex.rxkotlin.toObservable
+import java.io.*
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.*
 import javax.inject.Inject
 
+/**
+ * Stores every event in a separate file. To read the events of a single aggregate, the repository keeps the event ids
+ * of every aggregate in memory. This index is built the first time it is needed.
+ *
+ * [addEvents] first writes all events to a single batch file, which is synced to disk and then renamed, and only then
+ * writes the separate files. If the application stops before the batch file is deleted, the remaining event files are
+ * written when the repository is created again. Either all or none of the events of a batch are therefore added.
+ *
+ * The batch file also contains the highest event id of the batch. It is recorded in a separate file before the batch
+ * file is deleted, so that [getLastAddedEventId] always matches the events that were added. The event files and the
+ * directory are synced to disk before that, so that the recorded event id never survives a crash of the operating
+ * system while the events themselves do not.
+ */
 class FileModifiableEventRepository @Inject constructor(private val directory: File, private val eventSerializer: Serializer<Event>) : ModifiableEventRepository {
 
+    private var eventIdsByAggregate: MutableMap<String, SortedSet<Int>>? = null
+    private val batchFile: File = directory.resolve(".batch")
+    private val tempBatchFile: File = directory.resolve(".batch.tmp")
+    private val lastAddedEventIdFile: File = directory.resolve(".last_added_event_id")
+    private val tempLastAddedEventIdFile: File = directory.resolve(".last_added_event_id.tmp")
+    private var lastAddedEventId: Int? = null
+
+    init {
+        if (lastAddedEventIdFile.exists()) {
+            lastAddedEventId = DataInputStream(FileInputStream(lastAddedEventIdFile)).use { it.readInt() }
+        }
+        completeBatch()
+    }
+
     override fun getEvent(eventId: Int): Event? {
         val eventPath = eventPath(eventId)
         return if (eventPath.exists()) {
@@ -32,19 +65,114 @@ class FileModifiableEventRepository @Inject constructor(private val directory: F
         }
     }
 
+    override fun getEventsOfAggregate(aggId: String): Observable<Event> {
+        return Observable.defer {
+            getEventIdsOfAggregate(aggId)
+                    .mapNotNull { getEvent(it) }
+                    .toObservable()
+        }
+    }
+
     @Synchronized
     override fun addEvent(event: Event) {
         val eventPath = eventPath(event)
         if (eventPath.exists()) throw IllegalArgumentException("Event ${event.eventId} already exists ($eventPath)")
         eventPath.parentFile.mkdirs()
         eventPath.writeBytes(eventSerializer.serialize(event))
+        eventIdsByAggregate?.getOrPut(event.aggId) { TreeSet() }?.add(event.eventId)
+    }
+
+    @Synchronized
+    override fun addEvents(events: List<Event>) {
+        if (events.isEmpty()) return
+        val batchLastEventId = events.fold(lastAddedEventId ?: 0) { eventId, event -> maxOf(eventId, event.eventId) }
+        val newEvents = events.filter { !eventPath(it).exists() }
+        directory.mkdirs()
+        FileOutputStream(tempBatchFile).use { fileOutput ->
+            val output = DataOutputStream(BufferedOutputStream(fileOutput))
+            output.writeInt(batchLastEventId)
+            output.writeInt(newEvents.size)
+            for (event in newEvents) {
+                val data = eventSerializer.serialize(event)
+                output.writeInt(data.size)
+                output.write(data)
+            }
+            output.flush()
+            fileOutput.fd.sync()
+        }
+        Files.move(tempBatchFile.toPath(), batchFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        completeBatch()
     }
 
+    @Synchronized
+    override fun getLastAddedEventId(): Int? = lastAddedEventId
+
     @Synchronized
     override fun removeEvent(event: Event) {
         val eventPath = eventPath(event)
         if (!eventPath.exists()) throw IllegalArgumentException("Event ${event.eventId} does not exist ($eventPath)")
         eventPath.delete()
+        eventIdsByAggregate?.let { index ->
+            index[event.aggId]?.let { eventIds ->
+                eventIds -= event.eventId
+                if (eventIds.isEmpty()) index -= event.aggId
+            }
+        }
+    }
+
+    @Synchronized
+    private fun getEventIdsOfAggregate(aggId: String): List<Int> {
+        val index = eventIdsByAggregate ?: createIndex().also { eventIdsByAggregate = it }
+        return index[aggId]?.toList() ?: emptyList()
+    }
+
+    /**
+     * Writes the events in the batch file, if any, to separate files and syncs them to disk, records the last event id
+     * of the batch and deletes the batch file.
+     */
+    private fun completeBatch() {
+        tempBatchFile.delete()
+        if (!batchFile.exists()) return
+        val batchLastEventId = DataInputStream(BufferedInputStream(FileInputStream(batchFile))).use { input ->
+            val batchLastEventId = input.readInt()
+            repeat(input.readInt()) {
+                val data = ByteArray(input.readInt()).also { input.readFully(it) }
+                val event = eventSerializer.deserialize(data)
+                FileOutputStream(eventPath(event)).use { fileOutput ->
+                    fileOutput.write(data)
+                    fileOutput.fd.sync()
+                }
+                eventIdsByAggregate?.getOrPut(event.aggId) { TreeSet() }?.add(event.eventId)
+            }
+            batchLastEventId
+        }
+        syncDirectory()
+        writeLastAddedEventId(batchLastEventId)
+        syncDirectory()
+        batchFile.delete()
+    }
+
+    private fun writeLastAddedEventId(eventId: Int) {
+        FileOutputStream(tempLastAddedEventIdFile).use { fileOutput ->
+            DataOutputStream(fileOutput).writeInt(eventId)
+            fileOutput.fd.sync()
+        }
+        Files.move(tempLastAddedEventIdFile.toPath(), lastAddedEventIdFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        lastAddedEventId = eventId
+    }
+
+    private fun syncDirectory() {
+        try {
+            FileChannel.open(directory.toPath(), StandardOpenOption.READ).use { it.force(true) }
+        } catch (e: IOException) {
+            // Some platforms do not support syncing directories
+        }
+    }
+
+    private fun createIndex(): MutableMap<String, SortedSet<Int>> {
+        val index = HashMap<String, SortedSet<Int>>()
+        getEvents().blockingForEach { index.getOrPut(it.aggId) { TreeSet() } += it.eventId }
+        return index
     }
 
     private fun eventPath(eventId: Int): File = directory.resolve("%010d".format(eventId))
@@ -7,6 +7,7 @@ import io.reactivex.rxkotlin.toObservable
 class InMemoryModifiableEventRepository : ModifiableEventRepository {
 
     private val events: MutableMap<Int, Event> = HashMap()
+    private var lastAddedEventId: Int? = null
 
     override fun getEvent(eventId: Int): Event? {
         return if (eventId in events) {
@@ -28,6 +29,15 @@ class InMemoryModifiableEventRepository : ModifiableEventRepository {
         }
     }
 
+    override fun addEvents(events: List<Event>) {
+        super.addEvents(events)
+        for (event in events) {
+            if (event.eventId > (lastAddedEventId ?: 0)) lastAddedEventId = event.eventId
+        }
+    }
+
+    override fun getLastAddedEventId(): Int? = lastAddedEventId
+
     override fun removeEvent(event: Event) {
         if (event.eventId in events) {
             events -= event.eventId
@@ -14,8 +14,29 @@ interface ModifiableEventRepository {
      */
     fun getEvents(): Observable<Event>
 
+    /**
+     * Returns a completing observable that streams all events of an aggregate currently in the repository, ordered by
+     * event id. Updates are not included.
+     */
+    fun getEventsOfAggregate(aggId: String): Observable<Event> =
+            getEvents().filter { it.aggId == aggId }
+
     fun addEvent(event: Event)
 
+    /**
+     * Adds several events at once. Events that are already in the repository are skipped, so that events can be added
+     * again if it is not known whether they were added before (for example after a crash).
+     */
+    fun addEvents(events: List<Event>) =
+            events.filter { getEvent(it.eventId) == null }.forEach { addEvent(it) }
+
+    /**
+     * Returns the highest event id that was added with [addEvents], even if that event was removed since, or null if it
+     * is not known. Repositories that record this id together with the events can be used to continue an import
+     * exactly where it stopped.
+     */
+    fun getLastAddedEventId(): Int? = null
+
     fun removeEvent(event: Event)
 }
 
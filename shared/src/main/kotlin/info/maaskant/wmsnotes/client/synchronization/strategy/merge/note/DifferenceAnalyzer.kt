@@ -19,11 +19,11 @@ class DifferenceAnalyzer {
 
     private fun compareAttachments(left: Note, right: Note): Set<Difference> {
         val differences: MutableSet<Difference> = mutableSetOf()
-        val leftAttachmentNames = left.attachments.keys
-        val rightAttachmentNames = right.attachments.keys
+        val leftAttachmentNames = left.attachmentHashes.keys
+        val rightAttachmentNames = right.attachmentHashes.keys
         for (name in (leftAttachmentNames + rightAttachmentNames)) {
             if (left.attachmentHashes[name] != right.attachmentHashes[name]) {
-                differences += AttachmentDifference(name, left.attachments[name], right.attachments[name])
+                differences += AttachmentDifference(name, left.attachmentHashes[name], right.attachmentHashes[name])
             }
         }
         return differences
@@ -93,24 +93,5 @@ data class TitleDifference(val left: String, val right: String) : Difference() {
 }
 
 data class ContentDifference(val left: String, val right: String) : Difference()
-data class AttachmentDifference(val name: String, val left: ByteArray?, val right: ByteArray?) : Difference() {
-    override fun equals(other: Any?): Boolean {
-        if (this === other) return true
-        if (javaClass != other?.javaClass) return false
-
-        other as AttachmentDifference
-
-        if (name != other.name) return false
-        if (!Arrays.equals(left, other.left)) return false
-        if (!Arrays.equals(right, other.right)) return false
-
-        return true
-    }
-
-    override fun hashCode(): Int {
-        var result = name.hashCode()
-        result = 31 * result + (left?.contentHashCode() ?: 0)
-        result = 31 * result + (right?.contentHashCode() ?: 0)
-        return result
-    }
-}
+/** A difference in the attachment with a name. [left] and [right] are the hashes of the contents. */
+data class AttachmentDifference(val name: String, val left: String?, val right: String?) : Difference()
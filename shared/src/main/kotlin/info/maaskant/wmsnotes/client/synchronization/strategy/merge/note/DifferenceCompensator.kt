@@ -9,9 +9,10 @@ class DifferenceCompensator {
     private val defaultPath = Path()
     private val defaultContent = ""
 
-    fun compensate(aggId: String, differences: Set<Difference>, target: Target): CompensatingEvents {
+    /** @param attachmentContent Returns the content of an attachment with a hash. */
+    fun compensate(aggId: String, differences: Set<Difference>, target: Target, attachmentContent: (hash: String) -> ByteArray): CompensatingEvents {
         return differences
-                .flatMap { createEventsForDifference(aggId, target, it) }
+                .flatMap { createEventsForDifference(aggId, target, it, attachmentContent) }
                 .sortedBy {
                     when (it) {
                         is NoteCreatedEvent -> -2
@@ -34,13 +35,13 @@ class DifferenceCompensator {
                 }
     }
 
-    private fun createEventsForDifference(aggId: String, target: Target, difference: Difference): List<Event> {
+    private fun createEventsForDifference(aggId: String, target: Target, difference: Difference, attachmentContent: (hash: String) -> ByteArray): List<Event> {
         return when (difference) {
             is ExistenceDifference -> eventsForExistenceDifference(aggId, difference, target)
             is PathDifference -> eventsForPathDifference(aggId, difference, target)
             is TitleDifference -> eventsForTitleDifference(aggId, difference, target)
             is ContentDifference -> eventsForContentDifference(aggId, difference, target)
-            is AttachmentDifference -> eventsForAttachmentDifference(aggId, difference, target)
+            is AttachmentDifference -> eventsForAttachmentDifference(aggId, difference, target, attachmentContent)
         }
     }
 
@@ -82,19 +83,19 @@ class DifferenceCompensator {
         }
     }
 
-    private fun eventsForAttachmentDifference(aggId: String, difference: AttachmentDifference, target: Target): List<Event> =
+    private fun eventsForAttachmentDifference(aggId: String, difference: AttachmentDifference, target: Target, attachmentContent: (hash: String) -> ByteArray): List<Event> =
             if (target == Target.LEFT && difference.left != null) {
                 if (difference.right != null) {
                     listOf(AttachmentDeletedEvent(eventId = 0, aggId = aggId, revision = 0, name = difference.name))
                 } else {
                     emptyList()
-                } + AttachmentAddedEvent(eventId = 0, aggId = aggId, revision = 0, name = difference.name, content = difference.left)
+                } + AttachmentAddedEvent(eventId = 0, aggId = aggId, revision = 0, name = difference.name, content = attachmentContent(difference.left))
             } else if (target == Target.RIGHT && difference.right != null) {
                 if (difference.left != null) {
                     listOf(AttachmentDeletedEvent(eventId = 0, aggId = aggId, revision = 0, name = difference.name))
                 } else {
                     emptyList()
-                } + AttachmentAddedEvent(eventId = 0, aggId = aggId, revision = 0, name = difference.name, content = difference.right)
+                } + AttachmentAddedEvent(eventId = 0, aggId = aggId, revision = 0, name = difference.name, content = attachmentContent(difference.right))
             } else {
                 listOf(AttachmentDeletedEvent(eventId = 0, aggId = aggId, revision = 0, name = difference.name))
             }
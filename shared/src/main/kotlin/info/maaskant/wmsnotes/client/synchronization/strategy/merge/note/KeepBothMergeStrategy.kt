@@ -3,6 +3,8 @@ package info.maaskant.wmsnotes.client.synchronization.strategy.merge.note
 import info.maaskant.wmsnotes.client.synchronization.strategy.merge.MergeStrategy
 import info.maaskant.wmsnotes.client.synchronization.strategy.merge.MergeStrategy.MergeResult
 import info.maaskant.wmsnotes.model.Event
+import info.maaskant.wmsnotes.model.note.AttachmentAddedEvent
+import info.maaskant.wmsnotes.model.note.AttachmentRepository
 import info.maaskant.wmsnotes.model.note.Note
 import info.maaskant.wmsnotes.model.note.TitleChangedEvent
 import info.maaskant.wmsnotes.utilities.logger
@@ -11,6 +13,7 @@ import javax.inject.Inject
 class KeepBothMergeStrategy @Inject constructor(
         private val differenceAnalyzer: DifferenceAnalyzer,
         private val differenceCompensator: DifferenceCompensator,
+        private val attachmentRepository: AttachmentRepository,
         private val aggregateIdGenerator: () -> String,
         private val conflictedNoteTitleSuffix: String
 ) : MergeStrategy<Note> {
@@ -23,8 +26,9 @@ class KeepBothMergeStrategy @Inject constructor(
             localAggregate: Note,
             remoteAggregate: Note
     ): MergeResult {
-        val compensatingLocalEvents = getCompensatingLocalEvents(baseAggregate, localAggregate, remoteAggregate)
-        val eventsForNewNote = getEventsForNewNote(localAggregate)
+        val attachmentContent = attachmentContent(baseAggregate.aggId, localEvents + remoteEvents)
+        val compensatingLocalEvents = getCompensatingLocalEvents(baseAggregate, localAggregate, remoteAggregate, attachmentContent)
+        val eventsForNewNote = getEventsForNewNote(localAggregate, attachmentContent)
         logger.debug("Changing aggregate {} to {}, creating new note {} ", baseAggregate.aggId, remoteAggregate, localAggregate)
         return MergeResult.Solution(
                 newLocalEvents = compensatingLocalEvents + eventsForNewNote,
@@ -32,21 +36,35 @@ class KeepBothMergeStrategy @Inject constructor(
         )
     }
 
-    private fun getCompensatingLocalEvents(baseNote: Note, localNote: Note, remoteNote: Note): List<Event> {
+    /** Returns the contents of attachments that were added by the given events or before. */
+    private fun attachmentContent(aggId: String, events: List<Event>): (String) -> ByteArray {
+        val contents = events
+                .filterIsInstance<AttachmentAddedEvent>()
+                .associate { Note.hash(it.content) to it.content }
+        return { hash ->
+            contents[hash]
+                    ?: attachmentRepository.getContent(aggId, hash)
+                    ?: throw IllegalStateException("Content of attachment $hash of aggregate $aggId not found")
+        }
+    }
+
+    private fun getCompensatingLocalEvents(baseNote: Note, localNote: Note, remoteNote: Note, attachmentContent: (String) -> ByteArray): List<Event> {
         val (compensatingLocalEvents, _) = differenceCompensator.compensate(
                 aggId = localNote.aggId,
                 differences = differenceAnalyzer.compare(left = localNote, right = remoteNote),
-                target = DifferenceCompensator.Target.RIGHT
+                target = DifferenceCompensator.Target.RIGHT,
+                attachmentContent = attachmentContent
         )
         return compensatingLocalEvents
     }
 
-    private fun getEventsForNewNote(localNote: Note): List<Event> {
+    private fun getEventsForNewNote(localNote: Note, attachmentContent: (String) -> ByteArray): List<Event> {
         val newAggregateId = aggregateIdGenerator()
         val (compensatingEvents, _) = differenceCompensator.compensate(
                 aggId = newAggregateId,
                 differences = differenceAnalyzer.compare(left = Note(), right = localNote),
-                target = DifferenceCompensator.Target.RIGHT
+                target = DifferenceCompensator.Target.RIGHT,
+                attachmentContent = attachmentContent
         )
         val titleChangedEvent = TitleChangedEvent(
                 eventId = 0,
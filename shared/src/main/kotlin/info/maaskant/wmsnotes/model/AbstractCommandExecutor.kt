@@ -16,6 +16,8 @@ import io.reactivex.rxkotlin.subscribeBy
 import kotlinx.collections.immutable.ImmutableList
 import kotlinx.collections.immutable.persistentListOf
 import kotlinx.collections.immutable.plus
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 import javax.inject.Inject
 import kotlin.reflect.KClass
 
@@ -31,13 +33,20 @@ abstract class AbstractCommandExecutor<
         private val eventStore: EventStore,
         private val repository: AggregateRepository<AggregateType>,
         private val commandToEventMapper: MapperType,
-        private val scheduler: Scheduler
+        private val scheduler: Scheduler,
+        numberOfLanes: Int = defaultNumberOfLanes
 ) : CommandExecutor<AggregateType, CommandType, RequestType, MapperType>, ApplicationService {
 
     private val logger by logger()
 
     private var disposable: Disposable? = null
 
+    private val lanes: List<Lane> = (0 until numberOfLanes).map { Lane() }
+
+    init {
+        if (numberOfLanes < 1) throw IllegalArgumentException("Number of lanes must be at least 1: $numberOfLanes")
+    }
+
     override fun canExecuteRequest(request: CommandRequest<*>): RequestType? {
         @Suppress("NO_REFLECTION_IN_CLASS_PATH")
         return if (commandRequestClass.isInstance(request)) {
@@ -47,9 +56,13 @@ abstract class AbstractCommandExecutor<
         }
     }
 
+    /**
+     * Executes the requests on the command bus. Every aggregate is assigned to one of a fixed number of lanes. The requests
+     * in a lane are executed one after another, in the order in which they were received, so requests for the same
+     * aggregate never overtake each other. Different lanes are executed concurrently.
+     */
     private fun connect(): Disposable {
         return commandBus.requests
-                .observeOn(scheduler)
                 .flatMap {
                     val typedRequest: RequestType? = canExecuteRequest(it)
                     if (typedRequest != null) {
@@ -58,7 +71,20 @@ abstract class AbstractCommandExecutor<
                         Observable.empty()
                     }
                 }
-                .map { execute(it) }
+                .groupBy { laneOf(it.aggId) }
+                .flatMap { requests ->
+                    val lane = lanes[requests.key!!]
+                    requests
+                            .doOnNext { lane.enqueued() }
+                            .observeOn(scheduler)
+                            .map { request ->
+                                try {
+                                    execute(request)
+                                } finally {
+                                    lane.executed()
+                                }
+                            }
+                }
                 .subscribeBy(
                         onNext = commandBus.results::onNext,
                         onError = { logger.error("Error", it) }
@@ -110,7 +136,7 @@ abstract class AbstractCommandExecutor<
     ): Either<CommandError, Pair<AggregateType, Option<Event>>> {
         return try {
             logger.debug("Executing command: {}", command)
-            val eventIn: Event = commandToEventMapper.map(command, lastRevision = lastRevision)
+            val eventIn: Event = commandToEventMapper.map(command, lastRevision = lastRevision, aggregate = aggregateBefore)
             val (aggregateAfter, appliedEvent) = aggregateBefore.apply(eventIn)
             val r = if (appliedEvent != null) {
                 logger.debug("Command {} produced event: {}, storing", command, appliedEvent)
@@ -129,6 +155,12 @@ abstract class AbstractCommandExecutor<
         }
     }
 
+    /** Returns the current state of every lane. */
+    fun getLaneMetrics(): List<LaneMetrics> =
+            lanes.mapIndexed { index, lane -> lane.metrics(index) }
+
+    private fun laneOf(aggId: String): Int = Math.floorMod(aggId.hashCode(), lanes.size)
+
     @Synchronized
     override fun start() {
         if (disposable == null) {
@@ -145,4 +177,34 @@ abstract class AbstractCommandExecutor<
         }
         disposable = null
     }
+
+    /**
+     * @property lane The number of the lane.
+     * @property queueDepth The number of requests that are waiting or being executed.
+     * @property maxQueueDepth The highest queue depth so far.
+     * @property executedRequests The number of requests that have been executed.
+     */
+    data class LaneMetrics(val lane: Int, val queueDepth: Int, val maxQueueDepth: Int, val executedRequests: Long)
+
+    private class Lane {
+        private val queueDepth = AtomicInteger()
+        private val maxQueueDepth = AtomicInteger()
+        private val executedRequests = AtomicLong()
+
+        fun enqueued() {
+            val depth = queueDepth.incrementAndGet()
+            maxQueueDepth.accumulateAndGet(depth) { a, b -> maxOf(a, b) }
+        }
+
+        fun executed() {
+            queueDepth.decrementAndGet()
+            executedRequests.incrementAndGet()
+        }
+
+        fun metrics(lane: Int) = LaneMetrics(lane, queueDepth.get(), maxQueueDepth.get(), executedRequests.get())
+    }
+
+    companion object {
+        const val defaultNumberOfLanes = 8
+    }
 }
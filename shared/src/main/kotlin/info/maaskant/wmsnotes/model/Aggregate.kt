@@ -1,18 +1,17 @@
 package info.maaskant.wmsnotes.model
 
-import io.reactivex.rxkotlin.toObservable
-
 interface Aggregate<T : Aggregate<T>> {
     val revision: Int
     val aggId: String
 
     fun apply(event: Event): Pair<T, Event?>
+
+    /** Returns whether an event is meant for this type of aggregate, regardless of whether it can be applied. */
+    fun isEventOfThisType(event: Event): Boolean
     fun equalsIgnoringRevision(other: Any?): Boolean
 
     companion object {
         fun <T : Aggregate<T>> apply(base: T, events: List<Event>): T =
-                events.toObservable()
-                        .reduceWith({ base }, { aggregate: T, event: Event -> aggregate.apply(event).component1() })
-                        .blockingGet()
+                events.fold(base) { aggregate: T, event: Event -> aggregate.apply(event).first }
     }
 }
@@ -1,9 +1,35 @@
 package info.maaskant.wmsnotes.model
 
+import io.reactivex.Single
 import io.reactivex.subjects.PublishSubject
+import io.reactivex.subjects.SingleSubject
 import io.reactivex.subjects.Subject
+import java.util.concurrent.ConcurrentHashMap
 
 class CommandBus {
     val requests: Subject<CommandRequest<Command>> = PublishSubject.create<CommandRequest<Command>>().toSerialized()
     val results: Subject<CommandResult> = PublishSubject.create<CommandResult>().toSerialized()
+
+    /** The requests sent using [execute] that are waiting for their result, by request id. */
+    private val pendingRequests: MutableMap<Int, SingleSubject<CommandResult>> = ConcurrentHashMap()
+
+    init {
+        results.subscribe { result -> pendingRequests.remove(result.requestId)?.onSuccess(result) }
+    }
+
+    /**
+     * Sends a request when subscribed to and emits its result. A request whose result is no longer needed, for example
+     * because of a timeout, is forgotten when the subscription is disposed.
+     */
+    fun execute(commandRequest: CommandRequest<Command>): Single<CommandResult> = Single.defer {
+        val subject: SingleSubject<CommandResult> = SingleSubject.create()
+        if (pendingRequests.putIfAbsent(commandRequest.requestId, subject) != null) {
+            Single.error<CommandResult>(IllegalStateException("Request id ${commandRequest.requestId} is already in use"))
+        } else {
+            requests.onNext(commandRequest)
+            subject.doOnDispose { pendingRequests.remove(commandRequest.requestId, subject) }
+        }
+    }
+
+    internal fun getNumberOfPendingRequests(): Int = pendingRequests.size
 }
@@ -1,28 +1,18 @@
 package info.maaskant.wmsnotes.model
 
-import info.maaskant.wmsnotes.utilities.logger
+import io.reactivex.Single
 import io.reactivex.SingleTransformer
-import io.reactivex.rxkotlin.subscribeBy
-import io.reactivex.subjects.SingleSubject
 import java.util.concurrent.TimeUnit
 
 object CommandExecution {
-    private val logger by logger()
+    /** Executes a request without blocking. The returned [Single] fails with a [java.util.concurrent.TimeoutException] on timeout. */
+    fun execute(commandBus: CommandBus, commandRequest: CommandRequest<Command>, timeout: Duration?): Single<CommandResult> =
+            commandBus.execute(commandRequest)
+                    .compose(withTimeout(timeout))
 
-    fun executeBlocking(commandBus: CommandBus, commandRequest: CommandRequest<Command>, timeout: Duration?): CommandResult {
-        val subject: SingleSubject<CommandResult> = SingleSubject.create()
-        commandBus.results
-                .filter { it.requestId == commandRequest.requestId }
-                .firstOrError()
-                .subscribeBy(
-                        onSuccess = subject::onSuccess,
-                        onError = { logger.error("Error", it) }
-                )
-        commandBus.requests.onNext(commandRequest)
-        return subject
-                .compose(withTimeout(timeout))
-                .blockingGet()
-    }
+    fun executeBlocking(commandBus: CommandBus, commandRequest: CommandRequest<Command>, timeout: Duration?): CommandResult =
+            execute(commandBus, commandRequest, timeout)
+                    .blockingGet()
 
     private fun withTimeout(duration: Duration?): SingleTransformer<CommandResult, CommandResult> {
         return SingleTransformer { it2 ->
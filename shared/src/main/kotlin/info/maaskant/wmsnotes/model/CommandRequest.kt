@@ -1,10 +1,11 @@
 package info.maaskant.wmsnotes.model
 
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.random.Random
 
 /** A request to sequentially execute commands all related to one aggregate. */
 interface CommandRequest<out CommandType : Command> {
-    /** An identifier to trace the request. */
+    /** An identifier to trace the request and to correlate it with its result. */
     val requestId: Int
 
     /** The id of the aggregate. */
@@ -20,6 +21,9 @@ interface CommandRequest<out CommandType : Command> {
     val origin: CommandOrigin
 
     companion object {
-        fun randomRequestId() = Random.Default.nextInt()
+        private val lastRequestId = AtomicInteger(Random.Default.nextInt())
+
+        /** Returns a request id that is unique within this process until the counter wraps around. */
+        fun nextRequestId() = lastRequestId.incrementAndGet()
     }
 }
\ No newline at end of file
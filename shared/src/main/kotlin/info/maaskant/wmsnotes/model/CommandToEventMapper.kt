@@ -1,5 +1,6 @@
 package info.maaskant.wmsnotes.model
 
 interface CommandToEventMapper<T : Aggregate<T>> {
-    fun map(source: Command, lastRevision: Int): Event
+    /** Maps a command to an event. [aggregate] is the state to which the event will be applied. */
+    fun map(source: Command, lastRevision: Int, aggregate: T): Event
 }
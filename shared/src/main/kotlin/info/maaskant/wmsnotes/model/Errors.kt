@@ -8,5 +8,9 @@ sealed class CommandError {
     data class InvalidCommandError(val message: String) : CommandError()
     data class NetworkError(val message: String, val cause: Option<Throwable> = None) : CommandError()
     data class OtherError(val message: String, val cause: Option<Throwable> = None) : CommandError()
-    data class StorageError(val message: String, val cause: Option<Throwable> = None) : CommandError()
+    /**
+     * @property writtenEvents Events that were written to storage but could not be synchronized to disk. They are part of
+     * the store and must not be appended again, but may be lost in a crash.
+     */
+    data class StorageError(val message: String, val cause: Option<Throwable> = None, val writtenEvents: List<Event> = emptyList()) : CommandError()
 }
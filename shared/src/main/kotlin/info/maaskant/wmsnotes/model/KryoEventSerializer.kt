@@ -21,5 +21,6 @@ class KryoEventSerializer(kryoPool: Pool<Kryo>) : KryoSerializer<Event>(
         Registration(TitleChangedEvent::class.java, TitleChangedEventSerializer(), 17),
         Registration(MovedEvent::class.java, MovedEventSerializer(), 18),
         Registration(FolderCreatedEvent::class.java, FolderCreatedEventSerializer(), 19),
-        Registration(FolderDeletedEvent::class.java, FolderDeletedEventSerializer(), 20)
+        Registration(FolderDeletedEvent::class.java, FolderDeletedEventSerializer(), 20),
+        Registration(ContentPatchedEvent::class.java, ContentPatchedEventSerializer(), 21)
 )
@@ -0,0 +1,52 @@
+package info.maaskant.wmsnotes.model.aggregaterepository
+
+import info.maaskant.wmsnotes.utilities.ApplicationService
+import info.maaskant.wmsnotes.utilities.logger
+import io.reactivex.Completable
+import io.reactivex.Scheduler
+import io.reactivex.disposables.Disposable
+import io.reactivex.rxkotlin.subscribeBy
+import java.io.File
+
+/** Removes the snapshots that [FileAggregateCache]s no longer need in the background, once after starting. */
+class AggregateCacheCompactor(
+        private val rootDirectories: List<File>,
+        private val snapshotPolicy: SnapshotPolicy,
+        private val scheduler: Scheduler
+) : ApplicationService {
+
+    private val logger by logger()
+
+    private var disposable: Disposable? = null
+
+    private fun connect(): Disposable {
+        return Completable
+                .fromAction {
+                    rootDirectories.forEach {
+                        val removed = FileAggregateCache.compact(it, snapshotPolicy)
+                        logger.debug("Removed {} snapshots from {}", removed, it)
+                    }
+                }
+                .subscribeOn(scheduler)
+                .subscribeBy(
+                        onError = { logger.warn("Error", it) }
+                )
+    }
+
+    @Synchronized
+    override fun start() {
+        if (disposable == null) {
+            logger.debug("Starting")
+            disposable = connect()
+        }
+    }
+
+    @Synchronized
+    override fun shutdown() {
+        disposable?.let {
+            logger.debug("Shutting down")
+            it.dispose()
+        }
+        disposable = null
+    }
+}
@@ -1,10 +1,24 @@
 package info.maaskant.wmsnotes.model.aggregaterepository
 
 import info.maaskant.wmsnotes.model.Aggregate
+import io.reactivex.Flowable
 import io.reactivex.Observable
 
 interface AggregateRepository<T : Aggregate<T>> {
     fun get(aggId: String, revision: Int): T
     fun getLatest(aggId: String): T
     fun getAndUpdate(aggId: String): Observable<T>
+
+    /**
+     * Returns a completing flowable that streams the latest state of the given aggregates. The aggregates are rehydrated
+     * in parallel, so they are not necessarily emitted in the order of [aggIds].
+     */
+    fun getLatestAll(aggIds: Iterable<String>): Flowable<T>
+
+    /**
+     * Returns a completing flowable that streams the latest state of every aggregate of this repository's type. All
+     * aggregates are rehydrated in one pass over the events in the event store, so this is faster than [getLatestAll]
+     * when most aggregates are needed. The order in which the aggregates are emitted is not defined.
+     */
+    fun streamAllLatest(): Flowable<T>
 }
@@ -3,7 +3,11 @@ package info.maaskant.wmsnotes.model.aggregaterepository
 import info.maaskant.wmsnotes.model.Aggregate
 import info.maaskant.wmsnotes.model.Event
 import info.maaskant.wmsnotes.model.eventstore.EventStore
+import io.reactivex.Flowable
 import io.reactivex.Observable
+import io.reactivex.Scheduler
+import io.reactivex.schedulers.Schedulers
+import io.reactivex.subjects.UnicastSubject
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -11,9 +15,14 @@ import javax.inject.Singleton
 class CachingAggregateRepository<T : Aggregate<T>> @Inject constructor(
         private val eventStore: EventStore,
         private val aggregateCache: AggregateCache<T>,
-        private val emptyAggregate: T
+        private val emptyAggregate: T,
+        private val scheduler: Scheduler = Schedulers.io(),
+        private val parallelism: Int = defaultParallelism
 ) : AggregateRepository<T> {
 
+    private val eventDispatcher = EventDispatcher(eventStore.getEventUpdates())
+    private val liveAggregates: MutableMap<String, Observable<T>> = HashMap()
+
     override fun get(aggId: String, revision: Int): T =
             getInternal(aggId = aggId, revision = revision)
 
@@ -22,28 +31,87 @@ class CachingAggregateRepository<T : Aggregate<T>> @Inject constructor(
 
     private fun getInternal(aggId: String, revision: Int?): T {
         val cached: T? = aggregateCache.getLatest(aggId, lastRevision = revision)
-        return eventStore
-                .getEventsOfAggregate(aggId, afterRevision = cached?.revision)
-                .filter { revision == null || it.revision <= revision }
-                .reduceWith({
-                    cached ?: emptyAggregate
-                }, { note: T, event: Event -> note.apply(event).component1() })
-                .blockingGet()
+        return replay(cached ?: emptyAggregate, eventStore.readEventsOfAggregate(aggId, afterRevision = cached?.revision), untilRevision = revision)
+                .also { if (revision == null && it.revision > (cached?.revision ?: 0)) aggregateCache.put(it) }
     }
 
-    override fun getAndUpdate(aggId: String): Observable<T> {
-        return Observable.defer {
+    /**
+     * Returns a stream of the aggregate that is shared by all subscribers. The stream is started by the first subscriber
+     * and stopped when the last subscriber disposes. New subscribers immediately receive the latest state.
+     */
+    override fun getAndUpdate(aggId: String): Observable<T> =
+            synchronized(liveAggregates) {
+                liveAggregates.getOrPut(aggId) { createLiveAggregate(aggId) }
+            }
+
+    private fun createLiveAggregate(aggId: String): Observable<T> {
+        lateinit var shared: Observable<T>
+        shared = Observable.defer {
+            // Register before reading the stored events, so that no event can be missed in between
+            val updates = UnicastSubject.create<Event>()
+            eventDispatcher.register(aggId, updates)
             val cached: T? = aggregateCache.getLatest(aggId, lastRevision = null)
-            val current: T = eventStore
-                    .getEventsOfAggregate(aggId, afterRevision = cached?.revision)
-                    .reduceWith({
-                        cached ?: emptyAggregate
-                    }, { note: T, event: Event -> note.apply(event).component1() })
-                    .blockingGet()
-            eventStore
-                    .getEventsOfAggregateWithUpdates(aggId, afterRevision = current.revision)
-                    .scan(current) { note: T, event: Event -> note.apply(event).component1() }
+            val current: T = replay(cached ?: emptyAggregate, eventStore.readEventsOfAggregate(aggId, afterRevision = cached?.revision))
+            updates
+                    .filter { it.revision > current.revision }
+                    .scan(current) { aggregate: T, event: Event -> aggregate.apply(event).first }
                     .doOnNext { aggregateCache.put(it) }
+                    .doFinally {
+                        eventDispatcher.unregister(aggId, updates)
+                        synchronized(liveAggregates) { liveAggregates.remove(aggId, shared) }
+                    }
+        }
+                .replay(1)
+                .refCount()
+        return shared
+    }
+
+    override fun getLatestAll(aggIds: Iterable<String>): Flowable<T> =
+            Flowable.fromIterable(aggIds)
+                    .parallel(parallelism)
+                    .runOn(scheduler)
+                    .map { getLatest(it) }
+                    .sequential()
+
+    /**
+     * Streams the events from the event store once and divides them over [parallelism] partitions by aggregate id. Each
+     * partition folds its events on its own thread. Events for other types of aggregates are skipped.
+     */
+    override fun streamAllLatest(): Flowable<T> =
+            eventStore.getEventsFlowable()
+                    .groupBy { Math.floorMod(it.aggId.hashCode(), parallelism) }
+                    .flatMap({ partition ->
+                        partition
+                                .observeOn(scheduler)
+                                .reduceWith({ Partition(emptyAggregate) }, { p: Partition<T>, event: Event -> p.apply(event) })
+                                .flattenAsFlowable { it.aggregates() }
+                    }, parallelism)
+
+    /** Applies events to an aggregate without an Rx pipeline. Events after [untilRevision] are ignored. */
+    private fun replay(base: T, events: List<Event>, untilRevision: Int? = null): T {
+        var aggregate = base
+        for (event in events) {
+            if (untilRevision != null && event.revision > untilRevision) break
+            aggregate = aggregate.apply(event).first
         }
+        return aggregate
+    }
+
+    private class Partition<T : Aggregate<T>>(private val emptyAggregate: T) {
+        private val aggregates: MutableMap<String, T> = LinkedHashMap()
+
+        fun apply(event: Event): Partition<T> {
+            if (emptyAggregate.isEventOfThisType(event)) {
+                val aggregate = aggregates[event.aggId] ?: emptyAggregate
+                aggregates[event.aggId] = aggregate.apply(event).component1()
+            }
+            return this
+        }
+
+        fun aggregates(): Collection<T> = aggregates.values
+    }
+
+    companion object {
+        val defaultParallelism = Runtime.getRuntime().availableProcessors()
     }
-}
\ No newline at end of file
+}
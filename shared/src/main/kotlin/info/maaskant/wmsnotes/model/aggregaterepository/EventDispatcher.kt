@@ -0,0 +1,43 @@
+package info.maaskant.wmsnotes.model.aggregaterepository
+
+import info.maaskant.wmsnotes.model.Event
+import io.reactivex.Observable
+import io.reactivex.Observer
+import io.reactivex.disposables.Disposable
+
+/**
+ * Dispatches events to the observers that are registered for their aggregate id.
+ *
+ * The dispatcher only subscribes to [events] while at least one observer is registered. Every event is looked up in a
+ * map, so the cost of dispatching does not depend on the number of aggregates that are being observed.
+ */
+internal class EventDispatcher(private val events: Observable<Event>) {
+    private val observers: MutableMap<String, List<Observer<in Event>>> = HashMap()
+    private var disposable: Disposable? = null
+
+    @Synchronized
+    fun register(aggId: String, observer: Observer<in Event>) {
+        observers[aggId] = (observers[aggId] ?: emptyList()) + observer
+        if (disposable == null) {
+            disposable = events.subscribe(::dispatch, ::dispatchError)
+        }
+    }
+
+    @Synchronized
+    fun unregister(aggId: String, observer: Observer<in Event>) {
+        val remaining = (observers[aggId] ?: emptyList()) - observer
+        if (remaining.isEmpty()) observers.remove(aggId) else observers[aggId] = remaining
+        if (observers.isEmpty()) {
+            disposable?.dispose()
+            disposable = null
+        }
+    }
+
+    private fun dispatch(event: Event) {
+        synchronized(this) { observers[event.aggId] }?.forEach { it.onNext(event) }
+    }
+
+    private fun dispatchError(t: Throwable) {
+        synchronized(this) { observers.values.flatten() }.forEach { it.onError(t) }
+    }
+}
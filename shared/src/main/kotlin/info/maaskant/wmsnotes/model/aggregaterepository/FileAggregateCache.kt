@@ -5,7 +5,11 @@ import info.maaskant.wmsnotes.utilities.logger
 import info.maaskant.wmsnotes.utilities.serialization.Serializer
 import java.io.File
 
-class FileAggregateCache<T : Aggregate<T>>(private val rootDirectory: File, private val serializer: Serializer<T>) : AggregateCache<T> {
+class FileAggregateCache<T : Aggregate<T>>(
+        private val rootDirectory: File,
+        private val serializer: Serializer<T>,
+        private val snapshotPolicy: SnapshotPolicy = SnapshotPolicy.everyRevision
+) : AggregateCache<T> {
     private val logger by logger()
 
     init {
@@ -15,7 +19,14 @@ class FileAggregateCache<T : Aggregate<T>>(private val rootDirectory: File, priv
     override fun get(aggId: String, revision: Int): T? {
         val noteFilePath = noteFilePath(aggId, revision)
         return if (noteFilePath.exists()) {
-            serializer.deserialize(noteFilePath.readBytes())
+            try {
+                serializer.deserialize(noteFilePath.readBytes())
+            } catch (e: Exception) {
+                // For example, because the snapshot was written in an older format. It can be rebuilt from the events.
+                logger.warn("Could not read note $aggId revision $revision from $noteFilePath, deleting it", e)
+                noteFilePath.delete()
+                null
+            }
         } else {
             null
         }
@@ -43,12 +54,16 @@ class FileAggregateCache<T : Aggregate<T>>(private val rootDirectory: File, priv
     }
 
     override fun put(note: T) {
+        if (!snapshotPolicy.shouldStore(note.revision)) return
         val noteFilePath = noteFilePath(note)
 
         if (!noteFilePath.exists()) {
             logger.debug("Storing note ${note.aggId} revision ${note.revision}, saving to $noteFilePath")
             noteFilePath.parentFile.mkdirs()
             noteFilePath.writeBytes(serializer.serialize(note))
+            if (snapshotPolicy.retainedSnapshots < Int.MAX_VALUE) {
+                removeOldSnapshots(noteDirectoryPath(note.aggId), snapshotPolicy)
+            }
         }
     }
 
@@ -64,4 +79,29 @@ class FileAggregateCache<T : Aggregate<T>>(private val rootDirectory: File, priv
     private fun noteFilePath(aggId: String, revision: Int): File = rootDirectory.resolve(aggId).resolve("%010d".format(revision))
     private fun noteFilePath(note: T): File = noteFilePath(aggId = note.aggId, revision = note.revision)
     private fun noteDirectoryPath(aggId: String) = rootDirectory.resolve(aggId)
+
+    companion object {
+        /**
+         * Removes the snapshots in a cache directory that would not have been kept under the given policy.
+         *
+         * @return The number of removed snapshots.
+         */
+        fun compact(rootDirectory: File, snapshotPolicy: SnapshotPolicy): Int =
+                (rootDirectory.listFiles() ?: emptyArray())
+                        .filter { it.isDirectory }
+                        .sumBy { removeOldSnapshots(it, snapshotPolicy) }
+
+        private fun removeOldSnapshots(noteDirectory: File, snapshotPolicy: SnapshotPolicy): Int {
+            val snapshots = (noteDirectory.listFiles() ?: emptyArray())
+                    .filter { it.isFile }
+                    .sortedBy { it.name }
+            val retained = snapshots
+                    .filter { snapshotPolicy.shouldStore(it.name.toInt()) }
+                    .takeLast(snapshotPolicy.retainedSnapshots)
+                    .toSet()
+            return snapshots
+                    .filter { it !in retained }
+                    .count { it.delete() }
+        }
+    }
 }
@@ -0,0 +1,122 @@
+package info.maaskant.wmsnotes.model.aggregaterepository
+
+import info.maaskant.wmsnotes.model.Aggregate
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * An in-memory tier in front of another [AggregateCache].
+ *
+ * The latest revision of recently used aggregates is kept in memory. When the total size of these aggregates exceeds
+ * [maximumSize] bytes, the least recently used aggregates are evicted. Writes go to both tiers. Reads that cannot be
+ * answered from memory go to the backing cache. An aggregate enters the memory tier when its latest revision is read
+ * from the backing cache, and is kept up to date by subsequent writes.
+ *
+ * @param weigher Returns the (estimated) size of an aggregate in bytes.
+ */
+class MemoryAggregateCache<T : Aggregate<T>>(
+        private val backingCache: AggregateCache<T>,
+        private val maximumSize: Long,
+        private val weigher: (T) -> Long
+) : AggregateCache<T> {
+
+    private val aggregates: LinkedHashMap<String, Entry<T>> = LinkedHashMap(16, 0.75f, true)
+    private var size: Long = 0
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+
+    init {
+        if (maximumSize < 0) throw IllegalArgumentException("The maximum size must not be negative: $maximumSize")
+    }
+
+    override fun get(aggId: String, revision: Int): T? {
+        val cached = getFromMemory(aggId)
+        return if (cached != null && cached.revision == revision) {
+            hits.incrementAndGet()
+            cached
+        } else {
+            misses.incrementAndGet()
+            backingCache.get(aggId, revision)
+        }
+    }
+
+    override fun getLatest(aggId: String, lastRevision: Int?): T? {
+        val cached = getFromMemory(aggId)
+        return if (cached != null && (lastRevision == null || cached.revision <= lastRevision)) {
+            hits.incrementAndGet()
+            cached
+        } else {
+            misses.incrementAndGet()
+            backingCache.getLatest(aggId, lastRevision)?.also { if (lastRevision == null) putInMemory(it, onlyIfPresent = false) }
+        }
+    }
+
+    override fun put(note: T) {
+        backingCache.put(note)
+        putInMemory(note, onlyIfPresent = true)
+    }
+
+    override fun remove(aggId: String, revision: Int) {
+        synchronized(aggregates) {
+            val entry = aggregates[aggId]
+            if (entry != null && entry.aggregate.revision == revision) {
+                aggregates.remove(aggId)
+                size -= entry.size
+            }
+        }
+        backingCache.remove(aggId, revision)
+    }
+
+    fun getMetrics(): Metrics = synchronized(aggregates) {
+        Metrics(
+                hits = hits.get(),
+                misses = misses.get(),
+                evictions = evictions.get(),
+                aggregates = aggregates.size,
+                size = size
+        )
+    }
+
+    private fun getFromMemory(aggId: String): T? = synchronized(aggregates) {
+        aggregates[aggId]?.aggregate
+    }
+
+    /**
+     * Keeps the latest revision of an aggregate in memory, unless a later revision is already there.
+     *
+     * @param onlyIfPresent Whether to only replace an earlier revision. Without an earlier revision in memory, it is
+     * unknown whether the aggregate is the latest revision in the backing cache.
+     */
+    private fun putInMemory(aggregate: T, onlyIfPresent: Boolean) {
+        synchronized(aggregates) {
+            val existing = aggregates[aggregate.aggId]
+            if (existing == null) {
+                if (onlyIfPresent) return
+            } else {
+                if (existing.aggregate.revision > aggregate.revision) return
+                aggregates.remove(aggregate.aggId)
+                size -= existing.size
+            }
+            val entrySize = weigher(aggregate)
+            if (entrySize <= maximumSize) {
+                aggregates[aggregate.aggId] = Entry(aggregate, entrySize)
+                size += entrySize
+                evict()
+            }
+        }
+    }
+
+    private fun evict() {
+        val iterator = aggregates.values.iterator()
+        while (size > maximumSize && iterator.hasNext()) {
+            size -= iterator.next().size
+            iterator.remove()
+            evictions.incrementAndGet()
+        }
+    }
+
+    private class Entry<T>(val aggregate: T, val size: Long)
+
+    data class Metrics(val hits: Long, val misses: Long, val evictions: Long, val aggregates: Int, val size: Long)
+}
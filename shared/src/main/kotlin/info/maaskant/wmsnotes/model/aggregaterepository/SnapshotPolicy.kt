@@ -0,0 +1,22 @@
+package info.maaskant.wmsnotes.model.aggregaterepository
+
+/**
+ * Determines which revisions of an aggregate are stored by a [FileAggregateCache].
+ *
+ * @param interval A snapshot is stored for every revision that is a multiple of this number. This bounds the number of
+ * events that must be replayed to rehydrate an aggregate to `interval - 1`.
+ * @param retainedSnapshots The number of snapshots to keep per aggregate. Older snapshots are removed.
+ */
+data class SnapshotPolicy(val interval: Int, val retainedSnapshots: Int) {
+    init {
+        if (interval < 1) throw IllegalArgumentException("The interval must be at least 1: $interval")
+        if (retainedSnapshots < 1) throw IllegalArgumentException("The number of retained snapshots must be at least 1: $retainedSnapshots")
+    }
+
+    fun shouldStore(revision: Int): Boolean = revision % interval == 0
+
+    companion object {
+        /** Stores every revision and never removes snapshots. */
+        val everyRevision = SnapshotPolicy(interval = 1, retainedSnapshots = Int.MAX_VALUE)
+    }
+}
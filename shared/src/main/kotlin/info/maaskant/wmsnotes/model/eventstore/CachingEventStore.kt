@@ -0,0 +1,198 @@
+package info.maaskant.wmsnotes.model.eventstore
+
+import arrow.core.Either
+import info.maaskant.wmsnotes.model.CommandError
+import info.maaskant.wmsnotes.model.Event
+import info.maaskant.wmsnotes.model.note.*
+import info.maaskant.wmsnotes.utilities.logger
+import io.reactivex.Flowable
+import io.reactivex.Observable
+import io.reactivex.disposables.Disposable
+import io.reactivex.rxkotlin.toFlowable
+import io.reactivex.rxkotlin.toObservable
+import java.io.Closeable
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.Singleton
+
+/**
+ * Keeps the most recent events of another [EventStore] in memory.
+ *
+ * The cache is fed by [EventStore.getEventUpdates] of the wrapped store, so it contains an uninterrupted window of the
+ * events that were added after the cache was created. When the total size of these events exceeds [maximumSize] bytes,
+ * the oldest events are evicted. Requests for events that all lie within the window, such as the last events of the
+ * store or the last events of an aggregate, are answered from memory. Other requests go to the wrapped store.
+ *
+ * If the updates of the wrapped store end, for example because an event could not be added to the cache, the window
+ * would no longer be up to date. The cache is then cleared and all requests go to the wrapped store.
+ *
+ * @param weigher Returns the (estimated) size of an event in bytes.
+ */
+@Singleton
+class CachingEventStore(
+        private val wrapped: EventStore,
+        private val maximumSize: Long,
+        private val weigher: (Event) -> Long = ::estimateSize
+) : EventStore, Closeable {
+
+    private val logger by logger()
+
+    private val window: Deque<Entry> = ArrayDeque()
+    private val windowsByAggregate: MutableMap<String, Deque<Event>> = HashMap()
+    private var size: Long = 0
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+
+    private val disposable: Disposable
+
+    init {
+        if (maximumSize < 0) throw IllegalArgumentException("The maximum size must not be negative: $maximumSize")
+        disposable = wrapped.getEventUpdates().subscribe(::add, {
+            logger.warn("Error while caching events, no longer using the cache", it)
+            clear()
+        }, {
+            logger.warn("The updates of the wrapped event store completed, no longer using the cache")
+            clear()
+        })
+    }
+
+    /** Stops caching new events and sends all requests to the wrapped store. */
+    override fun close() {
+        disposable.dispose()
+        clear()
+    }
+
+    override fun getEvents(afterEventId: Int?): Observable<Event> =
+            Observable.defer { getCachedEvents(afterEventId ?: 0)?.toObservable() ?: wrapped.getEvents(afterEventId) }
+
+    override fun getEventsFlowable(afterEventId: Int?): Flowable<Event> =
+            Flowable.defer { getCachedEvents(afterEventId ?: 0)?.toFlowable() ?: wrapped.getEventsFlowable(afterEventId) }
+
+    override fun getEventsOfAggregate(aggId: String, afterRevision: Int?): Observable<Event> =
+            Observable.defer { getCachedEventsOfAggregate(aggId, afterRevision ?: 0)?.toObservable() ?: wrapped.getEventsOfAggregate(aggId, afterRevision) }
+
+    override fun getEventsOfAggregateFlowable(aggId: String, afterRevision: Int?): Flowable<Event> =
+            Flowable.defer { getCachedEventsOfAggregate(aggId, afterRevision ?: 0)?.toFlowable() ?: wrapped.getEventsOfAggregateFlowable(aggId, afterRevision) }
+
+    override fun readEventsOfAggregate(aggId: String, afterRevision: Int?): List<Event> =
+            getCachedEventsOfAggregate(aggId, afterRevision ?: 0) ?: wrapped.readEventsOfAggregate(aggId, afterRevision)
+
+    override fun getEventUpdates(): Observable<Event> =
+            wrapped.getEventUpdates()
+
+    override fun appendEvent(event: Event): Either<CommandError.StorageError, Event> =
+            wrapped.appendEvent(event)
+
+    override fun appendEvents(events: List<Event>): Either<CommandError.StorageError, List<Event>> =
+            wrapped.appendEvents(events)
+
+    fun getMetrics(): Metrics = synchronized(this) {
+        Metrics(
+                hits = hits.get(),
+                misses = misses.get(),
+                evictions = evictions.get(),
+                events = window.size,
+                size = size
+        )
+    }
+
+    /** Returns the events after [afterEventId], or `null` if they are not all in memory. */
+    private fun getCachedEvents(afterEventId: Int): List<Event>? {
+        val events = synchronized(this) {
+            val first = window.peekFirst()
+            if (first == null || first.event.eventId > afterEventId + 1) {
+                null
+            } else {
+                window.descendingIterator().asSequence()
+                        .map { it.event }
+                        .takeWhile { it.eventId > afterEventId }
+                        .toList()
+                        .asReversed()
+            }
+        }
+        (if (events != null) hits else misses).incrementAndGet()
+        return events
+    }
+
+    /** Returns the events of an aggregate after [afterRevision], or `null` if they are not all in memory. */
+    private fun getCachedEventsOfAggregate(aggId: String, afterRevision: Int): List<Event>? {
+        val events = synchronized(this) {
+            val aggregateWindow = windowsByAggregate[aggId]
+            val first = aggregateWindow?.peekFirst()
+            if (first == null || first.revision > afterRevision + 1) {
+                null
+            } else {
+                aggregateWindow.descendingIterator().asSequence()
+                        .takeWhile { it.revision > afterRevision }
+                        .toList()
+                        .asReversed()
+            }
+        }
+        (if (events != null) hits else misses).incrementAndGet()
+        return events
+    }
+
+    @Synchronized
+    private fun add(event: Event) {
+        val last = window.peekLast()
+        if (last != null && event.eventId <= last.event.eventId) return
+        val aggregateWindow = windowsByAggregate[event.aggId]
+        if (aggregateWindow != null && aggregateWindow.peekLast().revision != event.revision - 1) {
+            // Should not happen, but an aggregate window must not contain gaps
+            windowsByAggregate.remove(event.aggId)
+        }
+        val entrySize = weigher(event)
+        window.addLast(Entry(event, entrySize))
+        windowsByAggregate.getOrPut(event.aggId) { ArrayDeque() }.addLast(event)
+        size += entrySize
+        evict()
+    }
+
+    @Synchronized
+    private fun clear() {
+        window.clear()
+        windowsByAggregate.clear()
+        size = 0
+    }
+
+    private fun evict() {
+        while (size > maximumSize) {
+            val entry = window.pollFirst() ?: return
+            size -= entry.size
+            val aggregateWindow = windowsByAggregate[entry.event.aggId]
+            if (aggregateWindow != null && aggregateWindow.peekFirst() == entry.event) {
+                aggregateWindow.pollFirst()
+                if (aggregateWindow.isEmpty()) windowsByAggregate.remove(entry.event.aggId)
+            }
+            evictions.incrementAndGet()
+        }
+    }
+
+    private class Entry(val event: Event, val size: Long)
+
+    data class Metrics(val hits: Long, val misses: Long, val evictions: Long, val events: Int, val size: Long) {
+        val hitRatio: Double
+            get() = if (hits + misses == 0L) 0.0 else hits.toDouble() / (hits + misses)
+    }
+
+    companion object {
+        private const val baseSize = 64L
+
+        /** Returns a rough estimate of the number of bytes an event occupies in memory. */
+        fun estimateSize(event: Event): Long = baseSize + 2L * event.aggId.length + when (event) {
+            is NoteEvent -> when (event) {
+                is NoteCreatedEvent -> 2L * (event.path.toString().length + event.title.length + event.content.length)
+                is AttachmentAddedEvent -> 2L * event.name.length + event.content.size
+                is AttachmentDeletedEvent -> 2L * event.name.length
+                is ContentChangedEvent -> 2L * event.content.length
+                is ContentPatchedEvent -> 2L * event.patch.insertedText.length
+                is TitleChangedEvent -> 2L * event.title.length
+                is MovedEvent -> 2L * event.path.toString().length
+                is NoteDeletedEvent, is NoteUndeletedEvent -> 0L
+            }
+            else -> 0L
+        }
+    }
+}
@@ -26,6 +26,10 @@ class DelayingEventStore @Inject constructor(private val wrapped: EventStore) :
         return wrapped.appendEvent(event)
     }
 
+    override fun appendEvents(events: List<Event>): Either<CommandError.StorageError, List<Event>> {
+        return wrapped.appendEvents(events)
+    }
+
     override fun getEventUpdates(): Observable<Event> {
         return wrapped.getEventUpdates()
     }
@@ -0,0 +1,30 @@
+package info.maaskant.wmsnotes.model.eventstore
+
+import java.util.concurrent.TimeUnit
+
+/** Determines when an event store synchronizes appended events to disk. */
+sealed class Durability {
+    /** Leaves synchronizing to disk to the operating system. */
+    object None : Durability()
+
+    /** Synchronizes to disk at a fixed interval. Events appended after the last synchronization may be lost in a crash. */
+    data class Batched(val interval: Long, val unit: TimeUnit) : Durability()
+
+    /** Synchronizes to disk before an append returns. Concurrent appends share a single synchronization. */
+    object PerEvent : Durability()
+
+    companion object {
+        /**
+         * Parses a durability setting.
+         *
+         * @param value `none`, `batched` or `per-event`.
+         * @param intervalMillis The synchronization interval for `batched`.
+         */
+        fun parse(value: String, intervalMillis: Long): Durability = when (value) {
+            "none" -> None
+            "batched" -> Batched(intervalMillis, TimeUnit.MILLISECONDS)
+            "per-event" -> PerEvent
+            else -> throw IllegalArgumentException("Unknown durability: $value")
+        }
+    }
+}
@@ -4,6 +4,8 @@ import arrow.core.Either
 import info.maaskant.wmsnotes.model.CommandError
 import info.maaskant.wmsnotes.model.CommandError.StorageError
 import info.maaskant.wmsnotes.model.Event
+import io.reactivex.BackpressureStrategy
+import io.reactivex.Flowable
 import io.reactivex.Observable
 
 interface EventStore {
@@ -14,6 +16,15 @@ interface EventStore {
      */
     fun getEvents(afterEventId: Int? = null): Observable<Event>
 
+    /**
+     * Returns a completing flowable that streams all events currently in the repository. Updates are not included.
+     * Events are read from storage as they are requested downstream.
+     *
+     * @param afterEventId If specified, only events with an id higher than the parameter will be returned.
+     */
+    fun getEventsFlowable(afterEventId: Int? = null): Flowable<Event> =
+            getEvents(afterEventId).toFlowable(BackpressureStrategy.BUFFER)
+
     /**
      * Returns a non-completing observable that streams new events as they are added to the store.
      */
@@ -27,6 +38,26 @@ interface EventStore {
      */
     fun getEventsOfAggregate(aggId: String, afterRevision: Int? = null): Observable<Event>
 
+    /**
+     * Returns a completing flowable that streams all events applicable to a given aggregate. Updates are not included.
+     * Events are read from storage as they are requested downstream.
+     *
+     * @param aggId The aggregate id.
+     * @param afterRevision If specified, only events with a revision higher than the parameter will be returned.
+     */
+    fun getEventsOfAggregateFlowable(aggId: String, afterRevision: Int? = null): Flowable<Event> =
+            getEventsOfAggregate(aggId, afterRevision).toFlowable(BackpressureStrategy.BUFFER)
+
+    /**
+     * Returns all events applicable to a given aggregate, read synchronously. Updates are not included. This avoids the
+     * overhead of an Rx pipeline when the events are folded into an aggregate right away.
+     *
+     * @param aggId The aggregate id.
+     * @param afterRevision If specified, only events with a revision higher than the parameter will be returned.
+     */
+    fun readEventsOfAggregate(aggId: String, afterRevision: Int? = null): List<Event> =
+            getEventsOfAggregate(aggId, afterRevision).toList().blockingGet()
+
     /**
      * Returns a non-completing observable that streams all events applicable to a given aggregate, including new events as they are added to the store.
      *
@@ -48,4 +79,12 @@ interface EventStore {
      * @return A copy of the event with its event id set.
      * */
     fun appendEvent(event: Event): Either<StorageError, Event>
+
+    /** Adds a number of new events to the repository. Either all events are added or none of them are.
+     *
+     * @param events The events to add. Their event ids must be 0. Within the list, the revisions of every aggregate must
+     * be consecutive.
+     * @return Copies of the events with their event ids set.
+     * */
+    fun appendEvents(events: List<Event>): Either<StorageError, List<Event>>
 }
@@ -4,17 +4,22 @@ import arrow.core.Either
 import arrow.core.Either.Companion.left
 import arrow.core.Either.Companion.right
 import arrow.core.Some
+import arrow.core.flatMap
 import arrow.core.nonFatalOrThrow
 import info.maaskant.wmsnotes.model.CommandError.StorageError
 import info.maaskant.wmsnotes.model.Event
 import info.maaskant.wmsnotes.utilities.logger
 import info.maaskant.wmsnotes.utilities.serialization.Serializer
+import io.reactivex.Flowable
 import io.reactivex.Observable
+import io.reactivex.functions.BiConsumer
 import io.reactivex.rxkotlin.toObservable
 import io.reactivex.subjects.PublishSubject
 import io.reactivex.subjects.Subject
+import java.io.Closeable
 import java.io.File
 import java.util.*
+import java.util.concurrent.Callable
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.system.measureNanoTime
@@ -22,115 +27,188 @@ import kotlin.system.measureNanoTime
 @Singleton
 class FileEventStore @Inject constructor(
         private val rootDirectory: File,
-        private val eventSerializer: Serializer<Event>
-) : EventStore {
+        private val eventSerializer: Serializer<Event>,
+        private val durability: Durability = Durability.None
+) : EventStore, Closeable {
 
     private val logger by logger()
 
-    private var lastEventId: Int = 0
+    private val index = FileEventStoreIndex(rootDirectory.resolve(".index"))
+
+    private val groupCommitter = GroupCommitter(durability, ::sync)
+    private val dirtyFiles: MutableSet<File> = LinkedHashSet()
 
     private val newEventSubject: Subject<Event> = PublishSubject.create<Event>().toSerialized()
 
     init {
         logger.debug("Event store directory: $rootDirectory")
-        // Replace with persisted index if too slow.
-        try {
+        val numberOfAggregates = rootDirectory.listFiles { file -> file.isDirectory && !file.name.startsWith('.') }?.size ?: 0
+        if (!index.open(eventFileExists = { aggId, revision -> eventFilePath(aggId, revision).exists() }, numberOfAggregates = numberOfAggregates)) {
+            logger.info("Event index is missing or out of date, rebuilding it")
             val time = measureNanoTime {
-                rootDirectory
+                index.rebuild(rootDirectory
                         .walkTopDown()
+                        .onEnter { it == rootDirectory || !it.name.startsWith('.') }
                         .filter { it.isFile && !it.name.startsWith('.') }
                         .map { eventSerializer.deserialize(it.readBytes()) }
-                        .forEach {
-                            if (it.eventId > lastEventId) {
-                                lastEventId = it.eventId
-                            }
-                        }
+                        .sortedBy { it.eventId })
             }
             logger.debug("Indexed all events in %.2f seconds".format(Locale.ROOT, time * 0.000000001))
-        } catch (e: NoSuchElementException) {
         }
     }
 
     fun getAggregateIds(): Observable<String> =
-            rootDirectory
-                    .walkTopDown()
-                    .filter { it.isDirectory && it != rootDirectory }
-                    .map { it.name }
-                    .toObservable()
-
-    override fun getEvents(afterEventId: Int?): Observable<Event> {
-        // TODO Use caching instead of reading all files
-        return Observable.create { emitter ->
-            try {
-                logger.debug("Loading all events after event id $afterEventId")
-                rootDirectory
-                        .walkTopDown()
-                        .filter { it.isFile }
-                        .map { eventSerializer.deserialize(it.readBytes()) }
-                        .filter { (afterEventId == null || it.eventId > afterEventId) }
-                        .sortedBy { it.eventId }
-                        .forEach { emitter.onNext(it) }
-                emitter.onComplete()
-            } catch (t: Throwable) {
-                emitter.onError(t)
-            }
-        }
+            index.getAggregateIds().toObservable()
+
+    override fun getEvents(afterEventId: Int?): Observable<Event> =
+            getEventsFlowable(afterEventId).toObservable()
+
+    override fun getEventsFlowable(afterEventId: Int?): Flowable<Event> {
+        return Flowable.generate<Event, PageReader>(
+                Callable {
+                    logger.debug("Loading all events after event id $afterEventId")
+                    PageReader(afterEventId = afterEventId ?: 0, untilEventId = index.lastEventId)
+                },
+                BiConsumer { reader, emitter ->
+                    if (reader.hasNext()) {
+                        val location = reader.next()
+                        emitter.onNext(eventSerializer.deserialize(eventFilePath(location.aggId, location.revision).readBytes()))
+                    }
+                    if (!reader.hasNext()) {
+                        emitter.onComplete()
+                    }
+                }
+        )
     }
 
-    override fun getEventsOfAggregate(aggId: String, afterRevision: Int?): Observable<Event> {
-        return Observable.create { emitter ->
+    override fun getEventsOfAggregate(aggId: String, afterRevision: Int?): Observable<Event> =
+            getEventsOfAggregateFlowable(aggId, afterRevision).toObservable()
+
+    override fun getEventsOfAggregateFlowable(aggId: String, afterRevision: Int?): Flowable<Event> {
+        return Flowable.defer {
             logger.debug("Loading all events of note $aggId")
-            try {
-                val afterRevisionFileName: String? = if (afterRevision != null) {
-                    "%010d".format(afterRevision)
-                } else {
-                    null
-                }
-                noteDirectoryPath(aggId)
-                        .walkTopDown()
-                        .filter { it.isFile }
-                        .sortedBy { it.name }
-                        .filter { afterRevisionFileName == null || it.name > afterRevisionFileName }
-                        .forEach { emitter.onNext(eventSerializer.deserialize(it.readBytes())) }
-                emitter.onComplete()
-            } catch (t: Throwable) {
-                emitter.onError(t)
-            }
+            val firstRevision = maxOf(1, (afterRevision ?: 0) + 1)
+            val lastRevision = index.getLastRevision(aggId) ?: 0
+            Flowable.range(firstRevision, maxOf(0, lastRevision - firstRevision + 1))
+                    .map { eventSerializer.deserialize(eventFilePath(aggId, it).readBytes()) }
         }
     }
 
+    override fun readEventsOfAggregate(aggId: String, afterRevision: Int?): List<Event> {
+        val firstRevision = maxOf(1, (afterRevision ?: 0) + 1)
+        val lastRevision = index.getLastRevision(aggId) ?: 0
+        return (firstRevision..lastRevision).map { eventSerializer.deserialize(eventFilePath(aggId, it).readBytes()) }
+    }
+
+    override fun appendEvent(event: Event): Either<StorageError, Event> =
+            appendEvents(listOf(event)).map { it.single() }
+
+    override fun appendEvents(events: List<Event>): Either<StorageError, List<Event>> =
+            store(events).flatMap { (eventsWithId, sequence) ->
+                try {
+                    groupCommitter.awaitDurable(sequence)
+                    right(eventsWithId)
+                } catch (t: Throwable) {
+                    left(StorageError("Events were written, but could not be synchronized to disk: $eventsWithId", cause = Some(t.nonFatalOrThrow()), writtenEvents = eventsWithId))
+                }
+            }
 
     @Synchronized
-    override fun appendEvent(event: Event): Either<StorageError, Event> {
+    private fun store(events: List<Event>): Either<StorageError, Pair<List<Event>, Long>> {
         return try {
-            if (event.eventId != 0) {
-                left(StorageError("Event id must be 0: $event"))
-            } else {
-                val eventWithId = event.copy(eventId = ++lastEventId)
-
+            val lastRevisions = HashMap<String, Int>()
+            val eventsWithId = ArrayList<Event>(events.size)
+            for (event in events) {
+                if (event.eventId != 0) {
+                    return left(StorageError("Event id must be 0: $event"))
+                }
+                val eventWithId = event.copy(eventId = index.lastEventId + eventsWithId.size + 1)
                 val eventFilePath = eventFilePath(eventWithId)
-                val previousEventFilePath = eventFilePath(eventWithId.aggId, eventWithId.revision - 1)
-                if (eventWithId.revision != 1 && !previousEventFilePath.exists()) {
-                    left(StorageError("Previous revision of note ${eventWithId.aggId} does not exist ($previousEventFilePath)"))
-                } else if (eventFilePath.exists()) {
-                    left(StorageError("Event $eventWithId already exists ($eventFilePath)"))
-                } else {
-                    logger.debug("Appending event $eventWithId, saving to $eventFilePath")
-                    eventFilePath.parentFile.mkdirs()
-                    eventFilePath.writeBytes(eventSerializer.serialize(eventWithId))
-                    newEventSubject.onNext(eventWithId)
-                    right(eventWithId)
+                val lastRevision = lastRevisions[event.aggId] ?: index.getLastRevision(event.aggId) ?: 0
+                if (eventWithId.revision <= lastRevision || eventFilePath.exists()) {
+                    return left(StorageError("Event $eventWithId already exists ($eventFilePath)"))
+                } else if (eventWithId.revision != lastRevision + 1) {
+                    return left(StorageError("Previous revision of note ${eventWithId.aggId} does not exist (last revision: $lastRevision)"))
+                }
+                lastRevisions[event.aggId] = eventWithId.revision
+                eventsWithId += eventWithId
+            }
+            write(eventsWithId)
+            right(eventsWithId to groupCommitter.written { eventsWithId.forEach { newEventSubject.onNext(it) } })
+        } catch (t: Throwable) {
+            left(StorageError("Failed to store events: $events", cause = Some(t.nonFatalOrThrow())))
+        }
+    }
+
+    private fun write(events: List<Event>) {
+        val writtenEvents = ArrayList<Event>(events.size)
+        try {
+            for (event in events) {
+                val eventFilePath = eventFilePath(event)
+                logger.debug("Appending event $event, saving to $eventFilePath")
+                index.beginAppend(event)
+                writtenEvents += event
+                eventFilePath.parentFile.mkdirs()
+                eventFilePath.writeBytes(eventSerializer.serialize(event))
+                index.commitAppend(event)
+                if (durability !is Durability.None) {
+                    dirtyFiles += listOf(eventFilePath, eventFilePath.parentFile, rootDirectory)
                 }
             }
         } catch (t: Throwable) {
-            left(StorageError("Failed to store event: $event", cause = Some(t.nonFatalOrThrow())))
+            writtenEvents.asReversed().forEach {
+                eventFilePath(it).delete()
+                index.abortAppend(it)
+            }
+            throw t
+        }
+    }
+
+    /** Synchronizes the index and the event files written since the previous call to disk. */
+    private fun sync() {
+        val files = synchronized(this) { dirtyFiles.toList().also { dirtyFiles.clear() } }
+        try {
+            index.sync()
+            files.forEach { GroupCommitter.fsync(it) }
+        } catch (t: Throwable) {
+            synchronized(this) { dirtyFiles += files }
+            throw t
         }
     }
 
     override fun getEventUpdates(): Observable<Event> = newEventSubject
 
+    /** Stops synchronizing at a fixed interval and synchronizes the remaining writes to disk. */
+    override fun close() {
+        groupCommitter.close()
+        if (durability !is Durability.None) {
+            sync()
+        }
+    }
+
+    /** Reads the locations of the events between two event ids from the index, one page at a time. */
+    private inner class PageReader(private var afterEventId: Int, private val untilEventId: Int) : Iterator<FileEventStoreIndex.EventLocation> {
+        private var page: Iterator<FileEventStoreIndex.EventLocation> = emptyList<FileEventStoreIndex.EventLocation>().iterator()
+
+        override fun hasNext(): Boolean {
+            while (!page.hasNext()) {
+                if (afterEventId >= untilEventId) return false
+                page = index.getEventsAfter(afterEventId, untilEventId, limit = pageSize).iterator()
+                afterEventId = minOf(untilEventId, afterEventId + pageSize)
+            }
+            return true
+        }
+
+        override fun next(): FileEventStoreIndex.EventLocation {
+            if (!hasNext()) throw NoSuchElementException()
+            return page.next()
+        }
+    }
+
     private fun eventFilePath(aggId: String, revision: Int): File = rootDirectory.resolve(aggId).resolve("%010d".format(revision))
     private fun eventFilePath(e: Event): File = eventFilePath(aggId = e.aggId, revision = e.revision)
-    private fun noteDirectoryPath(aggId: String) = rootDirectory.resolve(aggId)
 
+    companion object {
+        private const val pageSize = 1000
+    }
 }
\ No newline at end of file
@@ -0,0 +1,293 @@
+package info.maaskant.wmsnotes.model.eventstore
+
+import info.maaskant.wmsnotes.model.Event
+import info.maaskant.wmsnotes.utilities.logger
+import java.io.*
+import java.nio.ByteBuffer
+
+/**
+ * A persisted index of the events in a [FileEventStore].
+ *
+ * The index consists of three files:
+ * - `aggregates` lists all aggregate ids in the order in which they were first seen. The position of an aggregate id
+ *   in this list is its aggregate number.
+ * - `revisions` contains the last revision of every aggregate, stored as a fixed-width slot per aggregate number.
+ * - `events` contains the aggregate number and revision of every event, stored as a fixed-width slot per event id.
+ *
+ * Only the aggregate ids and revisions are loaded into memory, so opening the index does not depend on the number of
+ * events. The last event id follows from the length of the `events` file.
+ *
+ * Before an event file is written, its slot is added to `events` ([beginAppend]). After the event file has been
+ * written, the revision of the aggregate is updated ([commitAppend]). This allows [open] to detect and roll back an
+ * append that was interrupted by a crash by only looking at the last events.
+ */
+internal class FileEventStoreIndex(private val directory: File) {
+
+    private val logger by logger()
+
+    private val aggregatesFile = directory.resolve("aggregates")
+    private val revisionsFile = directory.resolve("revisions")
+    private val eventsFile = directory.resolve("events")
+
+    private val aggIds: MutableList<String> = ArrayList()
+    private val aggregateNumbers: MutableMap<String, Int> = HashMap()
+    private var revisions: IntArray = IntArray(initialCapacity)
+
+    var lastEventId: Int = 0
+        @Synchronized get
+        private set
+
+    /**
+     * Loads the index and checks that it matches the event files.
+     *
+     * @param eventFileExists Returns whether the event file for an aggregate id and revision exists.
+     * @param numberOfAggregates The number of aggregates that exist in the event store.
+     * @return Whether the index is consistent with the event store. If not, it must be rebuilt.
+     */
+    @Synchronized
+    fun open(eventFileExists: (String, Int) -> Boolean, numberOfAggregates: Int): Boolean {
+        clear()
+        if (!directory.exists()) {
+            return numberOfAggregates == 0
+        }
+        return try {
+            loadAggregates()
+            loadRevisions()
+            loadEvents(eventFileExists)
+            aggIds.size == numberOfAggregates
+        } catch (e: IOException) {
+            logger.warn("Could not read event index in $directory: $e")
+            false
+        }
+    }
+
+    /** Replaces the index with one that contains the given events. The events must be sorted by event id. */
+    @Synchronized
+    fun rebuild(events: Sequence<Event>) {
+        clear()
+        val temporaryDirectory = directory.resolveSibling(directory.name + ".tmp")
+        temporaryDirectory.deleteRecursively()
+        temporaryDirectory.mkdirs()
+        DataOutputStream(BufferedOutputStream(FileOutputStream(temporaryDirectory.resolve(aggregatesFile.name)))).use { aggregatesOutput ->
+            DataOutputStream(BufferedOutputStream(FileOutputStream(temporaryDirectory.resolve(eventsFile.name)))).use { eventsOutput ->
+                for (event in events) {
+                    val aggregateNumber = aggregateNumbers[event.aggId] ?: addAggregate(event.aggId).also {
+                        aggregatesOutput.write(aggregateEntry(event.aggId))
+                    }
+                    while (lastEventId < event.eventId - 1) {
+                        eventsOutput.write(emptyEventSlot)
+                        lastEventId++
+                    }
+                    eventsOutput.write(eventSlot(aggregateNumber, event.revision))
+                    lastEventId = event.eventId
+                    if (event.revision > revisions[aggregateNumber]) revisions[aggregateNumber] = event.revision
+                }
+            }
+        }
+        DataOutputStream(BufferedOutputStream(FileOutputStream(temporaryDirectory.resolve(revisionsFile.name)))).use { output ->
+            for (aggregateNumber in aggIds.indices) {
+                output.writeInt(revisions[aggregateNumber])
+            }
+        }
+        directory.deleteRecursively()
+        if (!temporaryDirectory.renameTo(directory)) throw IOException("Could not rename $temporaryDirectory to $directory")
+    }
+
+    @Synchronized
+    fun getAggregateIds(): List<String> = aggIds.toList()
+
+    /** Returns the last revision of an aggregate, or `null` if the aggregate does not exist. */
+    @Synchronized
+    fun getLastRevision(aggId: String): Int? =
+            aggregateNumbers[aggId]?.let { revisions[it] }
+
+    /**
+     * Returns the locations of the events with an event id higher than [afterEventId] and at most [untilEventId], sorted
+     * by event id.
+     *
+     * @param limit The maximum number of locations to return.
+     */
+    fun getEventsAfter(afterEventId: Int, untilEventId: Int = lastEventId, limit: Int = Int.MAX_VALUE): List<EventLocation> {
+        val aggIds = synchronized(this) { aggIds.toList() }
+        val lastEventId = minOf(untilEventId, afterEventId + minOf(limit, untilEventId - afterEventId))
+        if (afterEventId >= lastEventId) return emptyList()
+        val result = ArrayList<EventLocation>(lastEventId - afterEventId)
+        DataInputStream(BufferedInputStream(FileInputStream(eventsFile))).use { input ->
+            skipFully(input, afterEventId.toLong() * eventSlotSize)
+            for (eventId in afterEventId + 1..lastEventId) {
+                val aggregateNumber = input.readInt()
+                val revision = input.readInt()
+                if (aggregateNumber != 0) {
+                    result += EventLocation(eventId, aggIds[aggregateNumber - 1], revision)
+                }
+            }
+        }
+        return result
+    }
+
+    /** Records that an event is about to be stored. */
+    @Synchronized
+    fun beginAppend(event: Event) {
+        if (event.eventId != lastEventId + 1) throw IllegalArgumentException("Event id must be ${lastEventId + 1}: $event")
+        val aggregateNumber = aggregateNumbers[event.aggId] ?: run {
+            directory.mkdirs()
+            FileOutputStream(aggregatesFile, true).use { it.write(aggregateEntry(event.aggId)) }
+            addAggregate(event.aggId)
+        }
+        FileOutputStream(eventsFile, true).use { it.write(eventSlot(aggregateNumber, event.revision)) }
+        lastEventId = event.eventId
+    }
+
+    /** Records that an event has been stored successfully. */
+    @Synchronized
+    fun commitAppend(event: Event) {
+        val aggregateNumber = aggregateNumbers.getValue(event.aggId)
+        writeRevision(aggregateNumber, event.revision)
+        revisions[aggregateNumber] = event.revision
+    }
+
+    /** Removes the last event, which was recorded using [beginAppend] but could not be stored. */
+    @Synchronized
+    fun abortAppend(event: Event) {
+        if (event.eventId != lastEventId) throw IllegalArgumentException("Event id must be $lastEventId: $event")
+        truncate(eventsFile, (lastEventId - 1).toLong() * eventSlotSize)
+        lastEventId--
+        val aggregateNumber = aggregateNumbers.getValue(event.aggId)
+        if (revisions[aggregateNumber] >= event.revision) {
+            writeRevision(aggregateNumber, event.revision - 1)
+            revisions[aggregateNumber] = event.revision - 1
+        }
+    }
+
+    /** Synchronizes the index to disk. */
+    fun sync() {
+        listOf(aggregatesFile, eventsFile, revisionsFile, directory)
+                .filter { it.exists() }
+                .forEach { GroupCommitter.fsync(it) }
+    }
+
+    private fun clear() {
+        aggIds.clear()
+        aggregateNumbers.clear()
+        revisions = IntArray(initialCapacity)
+        lastEventId = 0
+    }
+
+    private fun addAggregate(aggId: String): Int {
+        val aggregateNumber = aggIds.size
+        aggIds += aggId
+        aggregateNumbers[aggId] = aggregateNumber
+        if (aggregateNumber == revisions.size) {
+            revisions = revisions.copyOf(revisions.size * 2)
+        }
+        return aggregateNumber
+    }
+
+    private fun loadAggregates() {
+        var validLength = 0L
+        DataInputStream(BufferedInputStream(FileInputStream(aggregatesFile))).use { input ->
+            while (true) {
+                val aggId = try {
+                    val bytes = ByteArray(input.readUnsignedShort())
+                    input.readFully(bytes)
+                    String(bytes, Charsets.UTF_8)
+                } catch (e: EOFException) {
+                    break
+                }
+                addAggregate(aggId)
+                validLength += 2 + aggId.toByteArray(Charsets.UTF_8).size
+            }
+        }
+        if (validLength < aggregatesFile.length()) {
+            logger.warn("Removing incomplete entry from $aggregatesFile")
+            truncate(aggregatesFile, validLength)
+        }
+    }
+
+    private fun loadRevisions() {
+        if (!revisionsFile.exists()) return
+        DataInputStream(BufferedInputStream(FileInputStream(revisionsFile))).use { input ->
+            val numberOfRevisions = minOf(revisionsFile.length() / 4, aggIds.size.toLong()).toInt()
+            for (aggregateNumber in 0 until numberOfRevisions) {
+                revisions[aggregateNumber] = input.readInt()
+            }
+        }
+    }
+
+    private fun loadEvents(eventFileExists: (String, Int) -> Boolean) {
+        if (!eventsFile.exists()) return
+        val validLength = eventsFile.length() - eventsFile.length() % eventSlotSize
+        if (validLength < eventsFile.length()) {
+            logger.warn("Removing incomplete entry from $eventsFile")
+            truncate(eventsFile, validLength)
+        }
+        lastEventId = (validLength / eventSlotSize).toInt()
+        while (true) {
+            val (aggregateNumber, revision) = readEventSlot(lastEventId) ?: break
+            if (!eventFileExists(aggIds[aggregateNumber], revision)) {
+                logger.warn("Event $lastEventId was not stored, removing it from the index")
+                truncate(eventsFile, (lastEventId - 1).toLong() * eventSlotSize)
+                lastEventId--
+                if (revisions[aggregateNumber] >= revision) {
+                    writeRevision(aggregateNumber, revision - 1)
+                    revisions[aggregateNumber] = revision - 1
+                }
+            } else {
+                if (revisions[aggregateNumber] < revision) {
+                    writeRevision(aggregateNumber, revision)
+                    revisions[aggregateNumber] = revision
+                }
+                break
+            }
+        }
+    }
+
+    private fun readEventSlot(eventId: Int): Pair<Int, Int>? {
+        if (eventId == 0) return null
+        return RandomAccessFile(eventsFile, "r").use {
+            it.seek((eventId - 1).toLong() * eventSlotSize)
+            val aggregateNumber = it.readInt()
+            val revision = it.readInt()
+            if (aggregateNumber != 0) aggregateNumber - 1 to revision else null
+        }
+    }
+
+    private fun writeRevision(aggregateNumber: Int, revision: Int) {
+        RandomAccessFile(revisionsFile, "rw").use {
+            if (it.length() < aggregateNumber * 4L) {
+                it.setLength(aggregateNumber * 4L)
+            }
+            it.seek(aggregateNumber * 4L)
+            it.writeInt(revision)
+        }
+    }
+
+    data class EventLocation(val eventId: Int, val aggId: String, val revision: Int)
+
+    companion object {
+        private const val initialCapacity = 1024
+        private const val eventSlotSize = 8
+        private val emptyEventSlot = ByteArray(eventSlotSize)
+
+        private fun aggregateEntry(aggId: String): ByteArray {
+            val bytes = aggId.toByteArray(Charsets.UTF_8)
+            return ByteBuffer.allocate(2 + bytes.size).putShort(bytes.size.toShort()).put(bytes).array()
+        }
+
+        private fun eventSlot(aggregateNumber: Int, revision: Int): ByteArray =
+                ByteBuffer.allocate(eventSlotSize).putInt(aggregateNumber + 1).putInt(revision).array()
+
+        private fun skipFully(input: InputStream, n: Long) {
+            var remaining = n
+            while (remaining > 0) {
+                val skipped = input.skip(remaining)
+                if (skipped <= 0) throw EOFException()
+                remaining -= skipped
+            }
+        }
+
+        private fun truncate(file: File, length: Long) {
+            RandomAccessFile(file, "rw").use { it.setLength(length) }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package info.maaskant.wmsnotes.model.eventstore
+
+import info.maaskant.wmsnotes.utilities.logger
+import io.reactivex.Observable
+import io.reactivex.Scheduler
+import io.reactivex.disposables.Disposable
+import io.reactivex.schedulers.Schedulers
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.*
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Synchronizes the writes of an event store to disk according to a [Durability].
+ *
+ * Writes are numbered using [written]. With [Durability.PerEvent], the first thread that calls [awaitDurable] calls
+ * [sync] for all writes so far, while other threads wait for it to finish. This way, the writes of concurrent appends
+ * are synchronized to disk together. With [Durability.Batched], [sync] is called at a fixed interval.
+ *
+ * Every write can be published, for example to the subscribers of an event store. Writes are published in the order in
+ * which they were registered, and with [Durability.PerEvent] only once they have been synchronized to disk. A write
+ * whose synchronization failed is published as soon as a later synchronization succeeds.
+ */
+internal class GroupCommitter(
+        private val durability: Durability,
+        private val sync: () -> Unit,
+        scheduler: Scheduler = Schedulers.io()
+) : Closeable {
+    private val logger by logger()
+
+    private val lock = ReentrantLock()
+    private val syncFinished = lock.newCondition()
+    private var writtenSequence = 0L
+    private var syncedSequence = 0L
+    private var syncing = false
+    private val unpublishedWrites: Queue<Pair<Long, () -> Unit>> = ArrayDeque()
+    private val publishLock = ReentrantLock()
+    private val disposable: Disposable?
+
+    init {
+        disposable = if (durability is Durability.Batched) {
+            Observable.interval(durability.interval, durability.interval, durability.unit, scheduler)
+                    .subscribe({
+                        try {
+                            syncWrites(waitForOtherSync = false)
+                        } catch (e: IOException) {
+                            logger.warn("Could not synchronize events to disk", e)
+                        }
+                    }, { logger.warn("Error", it) })
+        } else {
+            null
+        }
+    }
+
+    /**
+     * Registers a write. Must be called after the data has been written. Returns the number of the write.
+     *
+     * @param publish Called once the write may be published. See [awaitDurable].
+     */
+    fun written(publish: () -> Unit = {}): Long = lock.withLock {
+        val sequence = ++writtenSequence
+        unpublishedWrites += sequence to publish
+        sequence
+    }
+
+    /**
+     * Blocks until a write has been synchronized to disk, if the durability requires this, and publishes it and all
+     * earlier writes that have not been published yet.
+     */
+    fun awaitDurable(sequence: Long) {
+        if (durability is Durability.PerEvent) {
+            while (lock.withLock { syncedSequence < sequence }) {
+                syncWrites(waitForOtherSync = true)
+            }
+        }
+        publishWrites(until = sequence)
+    }
+
+    /** Stops synchronizing at a fixed interval. */
+    override fun close() {
+        disposable?.dispose()
+    }
+
+    private fun publishWrites(until: Long) {
+        publishLock.withLock {
+            while (true) {
+                val publish = lock.withLock {
+                    val next = unpublishedWrites.peek()
+                    if (next == null || next.first > until) return
+                    unpublishedWrites.remove().second
+                }
+                publish()
+            }
+        }
+    }
+
+    private fun syncWrites(waitForOtherSync: Boolean) {
+        val target = lock.withLock {
+            if (syncing) {
+                if (waitForOtherSync) syncFinished.await()
+                return
+            }
+            if (syncedSequence == writtenSequence) return
+            syncing = true
+            writtenSequence
+        }
+        var synced = false
+        try {
+            sync()
+            synced = true
+        } finally {
+            lock.withLock {
+                if (synced) syncedSequence = target
+                syncing = false
+                syncFinished.signalAll()
+            }
+        }
+    }
+
+    companion object {
+        /** Synchronizes a file or directory to disk. Directories are skipped on platforms that do not support this. */
+        fun fsync(file: File) {
+            try {
+                FileChannel.open(file.toPath(), if (file.isDirectory) StandardOpenOption.READ else StandardOpenOption.WRITE).use { it.force(true) }
+            } catch (e: IOException) {
+                if (!file.isDirectory) throw e
+            }
+        }
+    }
+}
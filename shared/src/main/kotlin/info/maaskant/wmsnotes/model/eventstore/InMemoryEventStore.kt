@@ -3,70 +3,126 @@ package info.maaskant.wmsnotes.model.eventstore
 import arrow.core.Either
 import arrow.core.Either.Companion.left
 import arrow.core.Either.Companion.right
-import info.maaskant.wmsnotes.model.CommandError
 import info.maaskant.wmsnotes.model.CommandError.StorageError
-import info.maaskant.wmsnotes.utilities.logger
 import info.maaskant.wmsnotes.model.Event
+import info.maaskant.wmsnotes.utilities.logger
 import io.reactivex.Observable
 import io.reactivex.rxkotlin.toObservable
 import io.reactivex.subjects.PublishSubject
 import io.reactivex.subjects.Subject
+import java.util.concurrent.locks.ReentrantReadWriteLock
 import javax.inject.Singleton
+import kotlin.concurrent.read
+import kotlin.concurrent.write
 
+/**
+ * An event store that keeps all events in memory.
+ *
+ * The events are kept in a list sorted by event id and in a list per aggregate sorted by revision, so appending an event
+ * takes constant time and reading the events of an aggregate only depends on the number of events of that aggregate.
+ * Any number of threads can read at the same time.
+ *
+ * If a [backingStore] is given, this store acts as a write-through cache in front of it: all events are loaded from the
+ * backing store when this store is created, and new events are appended to the backing store before they are added to
+ * memory. The backing store must not be modified in any other way.
+ */
 @Singleton
-class InMemoryEventStore : EventStore {
+class InMemoryEventStore(private val backingStore: EventStore? = null) : EventStore {
     private val logger by logger()
 
-    private val events: MutableMap<Int, Event> = HashMap()
-    private var lastEventId = 0
+    private val lock = ReentrantReadWriteLock()
+    private val events: MutableList<Event> = ArrayList()
+    private val eventsByAggregate: MutableMap<String, MutableList<Event>> = HashMap()
     private val newEventSubject: Subject<Event> = PublishSubject.create<Event>().toSerialized()
 
+    init {
+        if (backingStore != null) {
+            logger.debug("Loading all events from $backingStore")
+            backingStore.getEventsFlowable().blockingForEach(::add)
+        }
+    }
+
     override fun getEvents(afterEventId: Int?): Observable<Event> {
-        return events
-                .values
-                .filter { afterEventId == null || it.eventId > afterEventId }
-                .toObservable()
+        return Observable.defer {
+            lock.read {
+                events.subList(indexOfFirstEventAfter(afterEventId ?: 0), events.size).toList()
+            }.toObservable()
+        }
                 .doOnSubscribe { logger.debug("Loading all events after event id $afterEventId") }
     }
 
     override fun getEventsOfAggregate(aggId: String, afterRevision: Int?): Observable<Event> {
-        return events
-                .values
-                .filter { it.aggId == aggId }
-                .filter { afterRevision == null || it.revision > afterRevision }
-                .toObservable()
+        return Observable.defer { readEventsOfAggregate(aggId, afterRevision).toObservable() }
                 .doOnSubscribe { logger.debug("Loading all events of note $aggId") }
     }
 
-    override fun appendEvent(event: Event): Either<StorageError, Event> {
-        return if (event.eventId != 0) {
-            left(StorageError("Event id must be 0: $event"))
-        } else if (event.revision < 0) {
-            left(StorageError("Event revision must be greater or equal than 0: $event"))
+    override fun readEventsOfAggregate(aggId: String, afterRevision: Int?): List<Event> {
+        return lock.read {
+            val eventsOfAggregate = eventsByAggregate[aggId] ?: return emptyList()
+            val fromIndex = (afterRevision ?: 0).coerceIn(0, eventsOfAggregate.size)
+            eventsOfAggregate.subList(fromIndex, eventsOfAggregate.size).toList()
+        }
+    }
+
+    override fun appendEvent(event: Event): Either<StorageError, Event> =
+            appendEvents(listOf(event)).map { it.single() }
+
+    @Synchronized
+    override fun appendEvents(events: List<Event>): Either<StorageError, List<Event>> {
+        return if (backingStore != null) {
+            backingStore.appendEvents(events).map { storedEvents ->
+                storedEvents.also { publish(it) }
+            }
         } else {
-            val lastRevisionOfNote = getLastRevisionOfAggregate(event.aggId)
-            if (lastRevisionOfNote == null && event.revision != 1) {
-                left(StorageError("Event revision must be 0: $event, $lastRevisionOfNote"))
+            validate(events)?.let { return left(it) }
+            val lastEventId = lock.read { this.events.lastOrNull()?.eventId ?: 0 }
+            right(events.mapIndexed { i, event -> event.copy(eventId = lastEventId + i + 1) }.also { publish(it) })
+        }
+    }
+
+    override fun getEventUpdates(): Observable<Event> = newEventSubject
+
+    private fun validate(events: List<Event>): StorageError? {
+        val lastRevisions = HashMap<String, Int?>()
+        for (event in events) {
+            val lastRevisionOfNote = if (lastRevisions.containsKey(event.aggId)) lastRevisions[event.aggId] else getLastRevisionOfAggregate(event.aggId)
+            if (event.eventId != 0) {
+                return StorageError("Event id must be 0: $event")
+            } else if (event.revision < 0) {
+                return StorageError("Event revision must be greater or equal than 0: $event")
+            } else if (lastRevisionOfNote == null && event.revision != 1) {
+                return StorageError("Event revision must be 0: $event, $lastRevisionOfNote")
             } else if (lastRevisionOfNote != null && event.revision != lastRevisionOfNote + 1) {
-                left(StorageError("Event revision must be last revision + 1: $event, $lastRevisionOfNote"))
-            } else {
-                val eventWithId = event.copy(eventId = ++lastEventId)
-                events[eventWithId.eventId] = eventWithId
-                newEventSubject.onNext(eventWithId)
-                right(eventWithId)
+                return StorageError("Event revision must be last revision + 1: $event, $lastRevisionOfNote")
             }
+            lastRevisions[event.aggId] = event.revision
         }
+        return null
     }
 
-    override fun getEventUpdates(): Observable<Event> = newEventSubject
+    private fun publish(events: List<Event>) {
+        lock.write { events.forEach(::add) }
+        events.forEach { newEventSubject.onNext(it) }
+    }
 
-    private fun getLastRevisionOfAggregate(aggId: String): Int? {
-        return events
-                .values
-                .filter { it.aggId == aggId }
-                .sortedBy { it.revision }
-                .lastOrNull()
-                ?.revision
+    private fun add(event: Event) {
+        lock.write {
+            events += event
+            eventsByAggregate.getOrPut(event.aggId) { ArrayList() } += event
+        }
     }
 
-}
\ No newline at end of file
+    private fun getLastRevisionOfAggregate(aggId: String): Int? =
+            lock.read { eventsByAggregate[aggId]?.size }
+
+    /** Returns the index of the first event with an event id higher than [eventId]. Must be called holding the lock. */
+    private fun indexOfFirstEventAfter(eventId: Int): Int {
+        var low = 0
+        var high = events.size
+        while (low < high) {
+            val middle = (low + high) ushr 1
+            if (events[middle].eventId <= eventId) low = middle + 1 else high = middle
+        }
+        return low
+    }
+}
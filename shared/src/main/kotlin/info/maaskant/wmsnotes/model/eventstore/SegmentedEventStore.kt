@@ -0,0 +1,470 @@
+package info.maaskant.wmsnotes.model.eventstore
+
+import arrow.core.Either
+import arrow.core.Either.Companion.left
+import arrow.core.Either.Companion.right
+import arrow.core.Some
+import arrow.core.flatMap
+import arrow.core.nonFatalOrThrow
+import info.maaskant.wmsnotes.model.CommandError.StorageError
+import info.maaskant.wmsnotes.model.Event
+import info.maaskant.wmsnotes.utilities.logger
+import info.maaskant.wmsnotes.utilities.serialization.Serializer
+import io.reactivex.Emitter
+import io.reactivex.Flowable
+import io.reactivex.Observable
+import io.reactivex.functions.BiConsumer
+import io.reactivex.functions.Consumer
+import io.reactivex.rxkotlin.toObservable
+import io.reactivex.subjects.PublishSubject
+import io.reactivex.subjects.Subject
+import java.io.*
+import java.nio.ByteBuffer
+import java.util.*
+import java.util.concurrent.Callable
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.system.measureNanoTime
+
+/**
+ * An event store that appends all events to a small number of rolling segment files instead of writing one file per
+ * event.
+ *
+ * Every segment consists of two files, both named after the id of the first event in the segment:
+ * - `<id>.log` contains the events in event id order, each one stored as a length-prefixed serialized record.
+ * - `<id>.idx` is a sidecar index with one entry per event: the event id, the position and length of the record in
+ *   the log file, the revision and the aggregate id.
+ *
+ * Only the index files are read when the store is opened. Reading all events after a certain event id requires one
+ * seek followed by a sequential read.
+ *
+ * The events passed to [appendEvents] are written to the log and index files using a single write each, and a segment
+ * is never split in the middle of such a batch.
+ */
+@Singleton
+class SegmentedEventStore @Inject constructor(
+        private val rootDirectory: File,
+        private val eventSerializer: Serializer<Event>,
+        private val maxSegmentSize: Long = defaultMaxSegmentSize,
+        private val durability: Durability = Durability.None
+) : EventStore, Closeable {
+
+    private val logger by logger()
+
+    private val segments: MutableList<Segment> = ArrayList()
+    private val eventIdsByAggregate: MutableMap<String, MutableList<Int>> = HashMap()
+    private var lastEventId: Int = 0
+
+    /** Guards replacing the outputs, so that they can be synchronized to disk without blocking appends. */
+    private val outputLock = Any()
+    @Volatile
+    private var logOutput: FileOutputStream? = null
+    @Volatile
+    private var indexOutput: FileOutputStream? = null
+
+    private val groupCommitter = GroupCommitter(durability, ::sync)
+
+    private val newEventSubject: Subject<Event> = PublishSubject.create<Event>().toSerialized()
+
+    init {
+        logger.debug("Event store directory: $rootDirectory")
+        rootDirectory.mkdirs()
+        val time = measureNanoTime {
+            rootDirectory
+                    .listFiles { file -> file.isFile && file.name.endsWith(indexFileSuffix) }!!
+                    .map { it.name.removeSuffix(indexFileSuffix).toInt() }
+                    .sorted()
+                    .forEach { openSegment(it) }
+        }
+        logger.debug("Loaded index of {} segments with {} events in %.2f seconds".format(Locale.ROOT, time * 0.000000001), segments.size, lastEventId)
+    }
+
+    @Synchronized
+    fun getLastEventId(): Int = lastEventId
+
+    fun getAggregateIds(): Observable<String> =
+            synchronized(this) { eventIdsByAggregate.keys.toList() }.toObservable()
+
+    override fun getEvents(afterEventId: Int?): Observable<Event> =
+            getEventsFlowable(afterEventId).toObservable()
+
+    override fun getEventsFlowable(afterEventId: Int?): Flowable<Event> {
+        return Flowable.generate<Event, LogReader>(
+                Callable {
+                    logger.debug("Loading all events after event id $afterEventId")
+                    val segmentsToRead = synchronized(this) {
+                        segments.filter { it.size > 0 && it.lastEventId() > (afterEventId ?: 0) }.map { it.copy() }
+                    }
+                    LogReader(segmentsToRead, afterEventId ?: 0)
+                },
+                BiConsumer { reader, emitter -> emitNext(reader, emitter) },
+                Consumer { it.close() }
+        )
+    }
+
+    override fun getEventsOfAggregate(aggId: String, afterRevision: Int?): Observable<Event> =
+            getEventsOfAggregateFlowable(aggId, afterRevision).toObservable()
+
+    override fun getEventsOfAggregateFlowable(aggId: String, afterRevision: Int?): Flowable<Event> {
+        return Flowable.generate<Event, RecordReader>(
+                Callable {
+                    logger.debug("Loading all events of note $aggId")
+                    RecordReader(getLocationsOfAggregate(aggId, afterRevision))
+                },
+                BiConsumer { reader, emitter -> emitNext(reader, emitter) },
+                Consumer { it.close() }
+        )
+    }
+
+    override fun readEventsOfAggregate(aggId: String, afterRevision: Int?): List<Event> =
+            RecordReader(getLocationsOfAggregate(aggId, afterRevision)).use { it.asSequence().toList() }
+
+    @Synchronized
+    private fun getLocationsOfAggregate(aggId: String, afterRevision: Int?): List<Location> {
+        val eventIds = eventIdsByAggregate[aggId] ?: emptyList<Int>()
+        val fromIndex = (afterRevision ?: 0).coerceIn(0, eventIds.size)
+        return eventIds.subList(fromIndex, eventIds.size).map { findLocation(it) }
+    }
+
+    override fun appendEvent(event: Event): Either<StorageError, Event> =
+            appendEvents(listOf(event)).map { it.single() }
+
+    override fun appendEvents(events: List<Event>): Either<StorageError, List<Event>> {
+        val eventWithId = events.firstOrNull { it.eventId != 0 }
+        return if (eventWithId != null) {
+            left(StorageError("Event id must be 0: $eventWithId"))
+        } else {
+            store(events, assignEventIds = true)
+        }
+    }
+
+    /**
+     * Adds an event to the store while keeping its event id. Used to migrate events from another store.
+     *
+     * @param event The event to add. Its event id must be higher than the id of the last event in the store.
+     */
+    fun importEvent(event: Event): Either<StorageError, Event> =
+            store(listOf(event), assignEventIds = false).map { it.single() }
+
+    private fun store(events: List<Event>, assignEventIds: Boolean): Either<StorageError, List<Event>> =
+            append(events, assignEventIds).flatMap { (eventsWithId, sequence) ->
+                try {
+                    groupCommitter.awaitDurable(sequence)
+                    right(eventsWithId)
+                } catch (t: Throwable) {
+                    left(StorageError("Events were written, but could not be synchronized to disk: $eventsWithId", cause = Some(t.nonFatalOrThrow()), writtenEvents = eventsWithId))
+                }
+            }
+
+    @Synchronized
+    private fun append(events: List<Event>, assignEventIds: Boolean): Either<StorageError, Pair<List<Event>, Long>> {
+        return try {
+            val lastRevisions = HashMap<String, Int>()
+            val eventsWithId = ArrayList<Event>(events.size)
+            for (event in events) {
+                val previousEventId = eventsWithId.lastOrNull()?.eventId ?: lastEventId
+                val lastRevision = lastRevisions[event.aggId] ?: eventIdsByAggregate[event.aggId]?.size ?: 0
+                if (!assignEventIds && event.eventId <= previousEventId) {
+                    return left(StorageError("Event id must be higher than $previousEventId: $event"))
+                } else if (event.revision != lastRevision + 1) {
+                    return left(StorageError("Event revision must be last revision + 1: $event, $lastRevision"))
+                }
+                lastRevisions[event.aggId] = event.revision
+                eventsWithId += if (assignEventIds) event.copy(eventId = previousEventId + 1) else event
+            }
+            write(eventsWithId)
+            right(eventsWithId to groupCommitter.written { eventsWithId.forEach { newEventSubject.onNext(it) } })
+        } catch (t: Throwable) {
+            left(StorageError("Failed to store events: $events", cause = Some(t.nonFatalOrThrow())))
+        }
+    }
+
+    override fun getEventUpdates(): Observable<Event> = newEventSubject
+
+    /** Stops synchronizing at a fixed interval and closes the current segment. */
+    @Synchronized
+    override fun close() {
+        groupCommitter.close()
+        closeOutputs()
+    }
+
+    private fun write(events: List<Event>) {
+        if (events.isEmpty()) return
+        var segment = segments.lastOrNull()
+        if (segment == null || segment.length >= maxSegmentSize) {
+            segment = createSegment(firstEventId = events.first().eventId)
+        }
+        val log = ByteArrayOutputStream()
+        val logData = DataOutputStream(log)
+        val index = ByteArrayOutputStream()
+        val entries = ArrayList<IndexEntry>(events.size)
+        for (event in events) {
+            val payload = eventSerializer.serialize(event)
+            val entry = IndexEntry(eventId = event.eventId, offset = segment.length + log.size(), length = payload.size, revision = event.revision, aggId = event.aggId)
+            logData.writeInt(payload.size)
+            logData.write(payload)
+            index.write(entry.toByteArray())
+            entries += entry
+        }
+        logger.debug("Appending events ${events.first().eventId}-${events.last().eventId} to ${segment.logFile}")
+        try {
+            logOutput!!.write(log.toByteArray())
+            indexOutput!!.write(index.toByteArray())
+        } catch (t: Throwable) {
+            truncate(segment.logFile, segment.length)
+            truncate(segment.indexFile, segment.indexLength)
+            throw t
+        }
+        for (entry in entries) {
+            segment.add(entry.eventId, entry.offset, 4 + entry.length)
+            eventIdsByAggregate.getOrPut(entry.aggId) { ArrayList() } += entry.eventId
+            lastEventId = entry.eventId
+        }
+        segment.indexLength += index.size()
+    }
+
+    /**
+     * Synchronizes the log and index files of the current segment to disk. Earlier segments are synchronized when they
+     * are closed. Does not hold the lock of the store, so that events can be appended in the meantime.
+     */
+    private fun sync() {
+        synchronized(outputLock) {
+            logOutput?.fd?.sync()
+            indexOutput?.fd?.sync()
+        }
+    }
+
+    private fun createSegment(firstEventId: Int): Segment {
+        val segment = Segment(firstEventId, logFile(firstEventId), indexFile(firstEventId))
+        logger.debug("Starting new segment ${segment.logFile}")
+        segments += segment
+        openOutputs(segment)
+        if (durability !is Durability.None) {
+            GroupCommitter.fsync(rootDirectory)
+        }
+        return segment
+    }
+
+    private fun openSegment(firstEventId: Int) {
+        val segment = Segment(firstEventId, logFile(firstEventId), indexFile(firstEventId))
+        val logLength = segment.logFile.length()
+        var validIndexLength = 0L
+        DataInputStream(BufferedInputStream(FileInputStream(segment.indexFile))).use { input ->
+            while (true) {
+                val entry = IndexEntry.read(input) ?: break
+                if (entry.offset != segment.length || entry.offset + 4 + entry.length > logLength) break
+                segment.add(entry.eventId, entry.offset, 4 + entry.length)
+                eventIdsByAggregate.getOrPut(entry.aggId) { ArrayList() } += entry.eventId
+                lastEventId = entry.eventId
+                validIndexLength += entry.size()
+            }
+        }
+        if (validIndexLength < segment.indexFile.length() || segment.length < logLength) {
+            logger.warn("Segment ${segment.logFile} was not written completely, truncating it to ${segment.size} events")
+            truncate(segment.indexFile, validIndexLength)
+            truncate(segment.logFile, segment.length)
+        }
+        segment.indexLength = validIndexLength
+        segments += segment
+        openOutputs(segment)
+    }
+
+    private fun openOutputs(segment: Segment) {
+        synchronized(outputLock) {
+            closeOutputs()
+            logOutput = FileOutputStream(segment.logFile, true)
+            indexOutput = FileOutputStream(segment.indexFile, true)
+        }
+    }
+
+    private fun closeOutputs() {
+        synchronized(outputLock) {
+            if (durability !is Durability.None) {
+                sync()
+            }
+            logOutput?.close()
+            indexOutput?.close()
+            logOutput = null
+            indexOutput = null
+        }
+    }
+
+    private fun findLocation(eventId: Int): Location {
+        var low = 0
+        var high = segments.size - 1
+        while (low < high) {
+            val middle = (low + high + 1) ushr 1
+            if (segments[middle].firstEventId <= eventId) low = middle else high = middle - 1
+        }
+        val segment = segments[low]
+        val index = segment.indexOfFirstEventAfter(eventId - 1)
+        return Location(segment.logFile, segment.offsets[index])
+    }
+
+    private fun emitNext(reader: Iterator<Event>, emitter: Emitter<Event>) {
+        if (reader.hasNext()) {
+            emitter.onNext(reader.next())
+        }
+        if (!reader.hasNext()) {
+            emitter.onComplete()
+        }
+    }
+
+    /** Reads all events in a number of segments, starting after a certain event id. */
+    private inner class LogReader(private val segments: List<Segment>, private val afterEventId: Int) : Iterator<Event>, Closeable {
+        private var segmentIndex = -1
+        private var remaining = 0
+        private var input: DataInputStream? = null
+
+        override fun hasNext(): Boolean {
+            while (remaining == 0) {
+                close()
+                if (segmentIndex + 1 == segments.size) return false
+                val segment = segments[++segmentIndex]
+                val startIndex = segment.indexOfFirstEventAfter(afterEventId)
+                remaining = segment.size - startIndex
+                if (remaining > 0) {
+                    input = DataInputStream(BufferedInputStream(FileInputStream(segment.logFile), readBufferSize)).also {
+                        it.skipFully(segment.offsets[startIndex])
+                    }
+                }
+            }
+            return true
+        }
+
+        override fun next(): Event {
+            if (!hasNext()) throw NoSuchElementException()
+            remaining--
+            val bytes = ByteArray(input!!.readInt())
+            input!!.readFully(bytes)
+            return eventSerializer.deserialize(bytes)
+        }
+
+        override fun close() {
+            input?.close()
+            input = null
+        }
+    }
+
+    /** Reads the events at a number of locations. */
+    private inner class RecordReader(locations: List<Location>) : Iterator<Event>, Closeable {
+        private val locations = locations.iterator()
+        private var file: File? = null
+        private var input: RandomAccessFile? = null
+
+        override fun hasNext(): Boolean = locations.hasNext()
+
+        override fun next(): Event {
+            val location = locations.next()
+            if (location.logFile != file) {
+                close()
+                file = location.logFile
+                input = RandomAccessFile(location.logFile, "r")
+            }
+            input!!.seek(location.offset)
+            val bytes = ByteArray(input!!.readInt())
+            input!!.readFully(bytes)
+            return eventSerializer.deserialize(bytes)
+        }
+
+        override fun close() {
+            input?.close()
+            input = null
+            file = null
+        }
+    }
+
+    private fun logFile(firstEventId: Int) = rootDirectory.resolve("%010d".format(firstEventId) + logFileSuffix)
+    private fun indexFile(firstEventId: Int) = rootDirectory.resolve("%010d".format(firstEventId) + indexFileSuffix)
+
+    private class Segment(
+            val firstEventId: Int,
+            val logFile: File,
+            val indexFile: File,
+            var eventIds: IntArray = IntArray(initialCapacity),
+            var offsets: LongArray = LongArray(initialCapacity),
+            var size: Int = 0,
+            var length: Long = 0,
+            var indexLength: Long = 0
+    ) {
+        fun add(eventId: Int, offset: Long, recordLength: Int) {
+            if (size == eventIds.size) {
+                eventIds = eventIds.copyOf(size * 2)
+                offsets = offsets.copyOf(size * 2)
+            }
+            eventIds[size] = eventId
+            offsets[size] = offset
+            size++
+            length = offset + recordLength
+        }
+
+        fun lastEventId(): Int = eventIds[size - 1]
+
+        /** Returns the index of the first event with an id higher than the given one, or [size] if there is none. */
+        fun indexOfFirstEventAfter(eventId: Int): Int {
+            val index = Arrays.binarySearch(eventIds, 0, size, eventId + 1)
+            return if (index >= 0) index else -(index + 1)
+        }
+
+        /** Returns a copy that is not affected by later appends. */
+        fun copy() = Segment(firstEventId, logFile, indexFile, eventIds, offsets, size, length, indexLength)
+
+        companion object {
+            private const val initialCapacity = 1024
+        }
+    }
+
+    private data class Location(val logFile: File, val offset: Long)
+
+    private data class IndexEntry(val eventId: Int, val offset: Long, val length: Int, val revision: Int, val aggId: String) {
+        private val aggIdBytes = aggId.toByteArray(Charsets.UTF_8)
+
+        fun size(): Int = 4 + 8 + 4 + 4 + 2 + aggIdBytes.size
+
+        fun toByteArray(): ByteArray = ByteBuffer.allocate(size())
+                .putInt(eventId)
+                .putLong(offset)
+                .putInt(length)
+                .putInt(revision)
+                .putShort(aggIdBytes.size.toShort())
+                .put(aggIdBytes)
+                .array()
+
+        companion object {
+            /** Returns the next entry, or `null` if the end of the index has been reached or the entry is incomplete. */
+            fun read(input: DataInputStream): IndexEntry? {
+                return try {
+                    val eventId = input.readInt()
+                    val offset = input.readLong()
+                    val length = input.readInt()
+                    val revision = input.readInt()
+                    val aggIdBytes = ByteArray(input.readUnsignedShort())
+                    input.readFully(aggIdBytes)
+                    IndexEntry(eventId, offset, length, revision, String(aggIdBytes, Charsets.UTF_8))
+                } catch (e: EOFException) {
+                    null
+                }
+            }
+        }
+    }
+
+    companion object {
+        const val defaultMaxSegmentSize: Long = 64L * 1024 * 1024
+        private const val logFileSuffix = ".log"
+        private const val indexFileSuffix = ".idx"
+        private const val readBufferSize = 64 * 1024
+
+        private fun truncate(file: File, length: Long) {
+            RandomAccessFile(file, "rw").use { it.setLength(length) }
+        }
+
+        private fun DataInputStream.skipFully(n: Long) {
+            var remaining = n
+            while (remaining > 0) {
+                val skipped = skip(remaining)
+                if (skipped <= 0) throw EOFException()
+                remaining -= skipped
+            }
+        }
+    }
+}
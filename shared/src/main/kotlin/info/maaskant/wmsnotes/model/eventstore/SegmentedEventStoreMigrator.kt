@@ -0,0 +1,33 @@
+package info.maaskant.wmsnotes.model.eventstore
+
+import arrow.core.Either
+import info.maaskant.wmsnotes.utilities.logger
+import javax.inject.Inject
+
+/**
+ * Copies all events of a [FileEventStore] into a [SegmentedEventStore], keeping their event ids.
+ *
+ * Events that are already present in the target store are skipped, so an interrupted migration can simply be started
+ * again.
+ */
+class SegmentedEventStoreMigrator @Inject constructor(
+        private val source: FileEventStore,
+        private val target: SegmentedEventStore
+) {
+    private val logger by logger()
+
+    /** @return The number of migrated events. */
+    fun migrate(): Int {
+        val afterEventId = target.getLastEventId()
+        logger.info("Migrating events after event id {}", afterEventId)
+        var numberOfEvents = 0
+        source.getEvents(afterEventId = afterEventId).blockingForEach {
+            when (val result = target.importEvent(it)) {
+                is Either.Left -> throw IllegalStateException("Could not migrate event $it: ${result.a}")
+                is Either.Right -> numberOfEvents++
+            }
+        }
+        logger.info("Migrated {} events", numberOfEvents)
+        return numberOfEvents
+    }
+}
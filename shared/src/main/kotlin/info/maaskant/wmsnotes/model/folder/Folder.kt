@@ -29,6 +29,10 @@ class Folder private constructor(
     override fun hashCode() = Objects.hash(aggId, revision, exists, path)
     override fun toString() = kotlinToString(properties = arrayOf(Folder::path, Folder::aggId, Folder::revision, Folder::exists))
 
+    /** Returns a rough estimate of the number of bytes this folder occupies in memory. */
+    fun estimateSize(): Long =
+            baseSize + 2L * (aggId.length + path.toString().length)
+
     private fun copy(
             revision: Int = this.revision,
             exists: Boolean = this.exists,
@@ -43,6 +47,8 @@ class Folder private constructor(
         )
     }
 
+    override fun isEventOfThisType(event: Event): Boolean = event is FolderEvent
+
     override fun apply(event: Event): Pair<Folder, Event?> {
         if (revision != 0 && event.aggId != aggId) throw IllegalArgumentException("The aggregate id of $event must be $aggId")
         val expectedRevision = revision + 1
@@ -88,6 +94,8 @@ class Folder private constructor(
     }
 
     companion object {
+        private const val baseSize = 128L
+
         fun aggId(path: Path): String {
             return "f-" + String(Hex.encodeHex(DigestUtils.sha1(path.toString())))
         }
@@ -1,6 +1,7 @@
 package info.maaskant.wmsnotes.model.folder
 
 import info.maaskant.wmsnotes.model.AbstractCommandExecutor
+import info.maaskant.wmsnotes.model.AbstractCommandExecutor.Companion.defaultNumberOfLanes
 import info.maaskant.wmsnotes.model.CommandBus
 import info.maaskant.wmsnotes.model.aggregaterepository.AggregateRepository
 import info.maaskant.wmsnotes.model.eventstore.EventStore
@@ -14,5 +15,6 @@ class FolderCommandExecutor @Inject constructor(
         eventStore: EventStore,
         repository: AggregateRepository<Folder>,
         commandToEventMapper: FolderCommandToEventMapper,
-        scheduler: Scheduler
-) : AbstractCommandExecutor<Folder, FolderCommand, FolderCommandRequest, FolderCommandToEventMapper>(FolderCommandRequest::class, commandBus, eventStore, repository, commandToEventMapper, scheduler)
+        scheduler: Scheduler,
+        numberOfLanes: Int = defaultNumberOfLanes
+) : AbstractCommandExecutor<Folder, FolderCommand, FolderCommandRequest, FolderCommandToEventMapper>(FolderCommandRequest::class, commandBus, eventStore, repository, commandToEventMapper, scheduler, numberOfLanes)
@@ -7,7 +7,7 @@ import javax.inject.Singleton
 
 @Singleton
 class FolderCommandToEventMapper : CommandToEventMapper<Folder> {
-    override fun map(source: Command, lastRevision: Int): Event {
+    override fun map(source: Command, lastRevision: Int, aggregate: Folder): Event {
         return when (source) {
             is FolderCommand -> map(source, lastRevision)
             else -> throw IllegalArgumentException()
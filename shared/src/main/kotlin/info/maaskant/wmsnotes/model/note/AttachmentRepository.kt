@@ -0,0 +1,33 @@
+package info.maaskant.wmsnotes.model.note
+
+import info.maaskant.wmsnotes.model.eventstore.EventStore
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Provides the contents of the attachments of notes.
+ *
+ * Contents are read from an [AttachmentStore]. A content that is not in the store yet is looked up in the events of
+ * the note and then added to the store, so the events of a note are only read once per attachment.
+ */
+@Singleton
+class AttachmentRepository @Inject constructor(
+        private val eventStore: EventStore,
+        private val attachmentStore: AttachmentStore
+) {
+    /** Returns the content of an attachment of a note, or `null` if the note never had an attachment with that hash. */
+    fun getContent(aggId: String, hash: String): ByteArray? =
+            attachmentStore.get(hash) ?: eventStore.getEventsOfAggregate(aggId)
+                    .ofType(AttachmentAddedEvent::class.java)
+                    .map { it.content }
+                    .filter { Note.hash(it) == hash }
+                    .firstElement()
+                    .blockingGet()
+                    ?.also { attachmentStore.put(it) }
+
+    /** Returns the contents of all attachments of a note, by name. */
+    fun getContents(note: Note): Map<String, ByteArray> =
+            note.attachmentHashes.mapValues { (name, hash) ->
+                getContent(note.aggId, hash) ?: throw IllegalStateException("Content of attachment $name of $note not found")
+            }
+}
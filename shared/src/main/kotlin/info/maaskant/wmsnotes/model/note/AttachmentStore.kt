@@ -0,0 +1,98 @@
+package info.maaskant.wmsnotes.model.note
+
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Stores the contents of attachments, addressed by their hash (see [Note.hash]).
+ *
+ * Besides complete contents, the store keeps contents that are being received in chunks ([append]). Such a content is
+ * only stored once it has been [complete]d and found to match its hash. Until then, the chunks received so far are kept,
+ * so that an interrupted transfer can be resumed.
+ */
+interface AttachmentStore {
+    /** Returns the content with the given hash, or `null` if it is not stored. */
+    fun get(hash: String): ByteArray?
+
+    /** Stores a content and returns its hash. Storing the same content more than once has no effect. */
+    fun put(content: ByteArray): String
+
+    /** Returns the size of the content with the given hash, or `null` if it is not stored. */
+    fun size(hash: String): Long?
+
+    /**
+     * Returns at most [length] bytes of the content with the given hash, starting at [offset], or `null` if the content
+     * is not stored.
+     */
+    fun read(hash: String, offset: Long, length: Int): ByteArray?
+
+    /** Returns the number of bytes of a content that have been received using [append]. */
+    fun getReceivedSize(hash: String): Long
+
+    /**
+     * Appends a chunk to a content that is being received.
+     *
+     * @throws IllegalArgumentException If [offset] is not equal to the number of bytes received so far.
+     */
+    fun append(hash: String, offset: Long, chunk: ByteArray)
+
+    /**
+     * Stores a content that has been received using [append]. If the received bytes do not match the hash, they are
+     * discarded.
+     *
+     * @return Whether the content has been stored.
+     */
+    fun complete(hash: String): Boolean
+
+    companion object {
+        private val hashPattern = Regex("[0-9a-f]{32}")
+
+        /** Returns whether a string has the format of a hash, so it can safely be used to look up a content. */
+        fun isValidHash(hash: String): Boolean = hashPattern.matches(hash)
+    }
+}
+
+class InMemoryAttachmentStore : AttachmentStore {
+    private val contents: MutableMap<String, ByteArray> = ConcurrentHashMap()
+    private val receivedContents: MutableMap<String, ByteArrayOutputStream> = HashMap()
+
+    override fun get(hash: String): ByteArray? = contents[hash]
+
+    override fun put(content: ByteArray): String {
+        val hash = Note.hash(content)
+        contents.putIfAbsent(hash, content)
+        return hash
+    }
+
+    override fun size(hash: String): Long? = contents[hash]?.size?.toLong()
+
+    override fun read(hash: String, offset: Long, length: Int): ByteArray? =
+            contents[hash]?.let {
+                val from = minOf(offset, it.size.toLong()).toInt()
+                it.copyOfRange(from, minOf(from + length, it.size))
+            }
+
+    @Synchronized
+    override fun getReceivedSize(hash: String): Long =
+            receivedContents[hash]?.size()?.toLong() ?: 0
+
+    @Synchronized
+    override fun append(hash: String, offset: Long, chunk: ByteArray) {
+        val receivedContent = receivedContents.getOrPut(hash) { ByteArrayOutputStream() }
+        if (offset != receivedContent.size().toLong()) {
+            throw IllegalArgumentException("Chunk of $hash must start at ${receivedContent.size()}, not $offset")
+        }
+        receivedContent.write(chunk)
+    }
+
+    @Synchronized
+    override fun complete(hash: String): Boolean {
+        val content = receivedContents.remove(hash)?.toByteArray() ?: ByteArray(0)
+        return if (Note.hash(content) == hash) {
+            contents.putIfAbsent(hash, content)
+            true
+        } else {
+            false
+        }
+    }
+}
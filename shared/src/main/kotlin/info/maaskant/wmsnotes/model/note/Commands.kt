@@ -111,6 +111,20 @@ class ChangeContentCommand(aggId: String, val content: String) : NoteCommand(agg
     override fun hashCode() = Objects.hash(content, super.hashCode())
 }
 
+class PatchContentCommand(aggId: String, val patch: ContentPatch) : NoteCommand(aggId) {
+    override fun toString() = kotlinToString(properties = arrayOf(PatchContentCommand::aggId, PatchContentCommand::patch))
+
+    override fun canEqual(other: Any?) = other is PatchContentCommand
+
+    override fun equals(other: Any?) = kotlinEquals(
+            other = other,
+            properties = arrayOf(PatchContentCommand::patch),
+            superEquals = { super.equals(other) }
+    )
+
+    override fun hashCode() = Objects.hash(patch, super.hashCode())
+}
+
 class ChangeTitleCommand(aggId: String, val title: String) : NoteCommand(aggId) {
     override fun toString() = kotlinToString(properties = arrayOf(ChangeTitleCommand::aggId, ChangeTitleCommand::title))
 
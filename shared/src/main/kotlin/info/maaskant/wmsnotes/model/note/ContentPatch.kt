@@ -0,0 +1,45 @@
+package info.maaskant.wmsnotes.model.note
+
+/**
+ * A change to the content of a note: [deletedLength] characters starting at [start] are replaced by [insertedText].
+ *
+ * [baseHash] is the [hash] of the content the patch was made for, so that applying the patch to a different content is
+ * detected.
+ */
+data class ContentPatch(val start: Int, val deletedLength: Int, val insertedText: String, val baseHash: String) {
+
+    /** Returns the content after applying the patch. */
+    fun applyTo(content: String): String {
+        if (start + deletedLength > content.length || hash(content) != baseHash) {
+            throw IllegalStateException("$this does not apply to a content of length ${content.length}")
+        }
+        return content.substring(0, start) + insertedText + content.substring(start + deletedLength)
+    }
+
+    companion object {
+        /** Returns the hash of a content, in the same format as [Note.hash]. */
+        fun hash(content: String): String = Note.hash(content.toByteArray())
+
+        /**
+         * Returns a patch that changes [from] into [to]. The patch replaces everything between the common prefix and the
+         * common suffix of both contents, which keeps it small for the typical edit of a note.
+         */
+        fun between(from: String, to: String): ContentPatch {
+            val maximumCommonLength = minOf(from.length, to.length)
+            var prefixLength = 0
+            while (prefixLength < maximumCommonLength && from[prefixLength] == to[prefixLength]) prefixLength++
+            // Do not split surrogate pairs, so the inserted text is always valid UTF-16
+            if (prefixLength > 0 && from[prefixLength - 1].isHighSurrogate()) prefixLength--
+            var suffixLength = 0
+            while (suffixLength < maximumCommonLength - prefixLength
+                    && from[from.length - 1 - suffixLength] == to[to.length - 1 - suffixLength]) suffixLength++
+            if (suffixLength > 0 && to[to.length - suffixLength].isLowSurrogate()) suffixLength--
+            return ContentPatch(
+                    start = prefixLength,
+                    deletedLength = from.length - prefixLength - suffixLength,
+                    insertedText = to.substring(prefixLength, to.length - suffixLength),
+                    baseHash = hash(from)
+            )
+        }
+    }
+}
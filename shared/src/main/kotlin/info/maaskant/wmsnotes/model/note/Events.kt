@@ -126,6 +126,27 @@ class ContentChangedEvent(eventId: Int, aggId: String, revision: Int, val conten
     override fun hashCode() = Objects.hash(content, super.hashCode())
 }
 
+/**
+ * Changes the content of a note by applying a patch to the content of the previous revision. Used instead of
+ * [ContentChangedEvent] for small changes to large notes, see [NoteCommandToEventMapper].
+ */
+class ContentPatchedEvent(eventId: Int, aggId: String, revision: Int, val patch: ContentPatch) : NoteEvent(eventId, aggId, revision) {
+    override fun copy(eventId: Int, revision: Int): ContentPatchedEvent =
+            ContentPatchedEvent(eventId = eventId, aggId = aggId, revision = revision, patch = patch)
+
+    override fun toString() = kotlinToString(properties = arrayOf(ContentPatchedEvent::eventId, ContentPatchedEvent::aggId, ContentPatchedEvent::revision, ContentPatchedEvent::patch))
+
+    override fun canEqual(other: Any?) = other is ContentPatchedEvent
+
+    override fun equals(other: Any?) = kotlinEquals(
+            other = other,
+            properties = arrayOf(ContentPatchedEvent::patch),
+            superEquals = { super.equals(other) }
+    )
+
+    override fun hashCode() = Objects.hash(patch, super.hashCode())
+}
+
 class TitleChangedEvent(eventId: Int, aggId: String, revision: Int, val title: String) : NoteEvent(eventId, aggId, revision) {
     override fun copy(eventId: Int, revision: Int): TitleChangedEvent =
             TitleChangedEvent(eventId = eventId, aggId = aggId, revision = revision, title = title)
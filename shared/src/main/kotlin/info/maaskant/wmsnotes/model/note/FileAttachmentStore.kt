@@ -0,0 +1,105 @@
+package info.maaskant.wmsnotes.model.note
+
+import info.maaskant.wmsnotes.utilities.logger
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+
+/**
+ * Stores the contents of attachments in files named after their hash. The files are spread over subdirectories named
+ * after the first two characters of the hash. A content that is being received is kept in a file with the suffix
+ * `.partial` next to it.
+ */
+class FileAttachmentStore(private val rootDirectory: File) : AttachmentStore {
+    private val logger by logger()
+
+    init {
+        logger.debug("Attachment store directory: $rootDirectory")
+    }
+
+    override fun get(hash: String): ByteArray? {
+        val file = contentFilePath(hash)
+        return if (file.exists()) file.readBytes() else null
+    }
+
+    override fun put(content: ByteArray): String {
+        val hash = Note.hash(content)
+        val file = contentFilePath(hash)
+        if (!file.exists()) {
+            logger.debug("Storing attachment content $hash, saving to $file")
+            file.parentFile.mkdirs()
+            val temporaryFile = file.resolveSibling(file.name + ".tmp")
+            temporaryFile.writeBytes(content)
+            moveIntoPlace(temporaryFile, file)
+        }
+        return hash
+    }
+
+    override fun size(hash: String): Long? {
+        val file = contentFilePath(hash)
+        return if (file.exists()) file.length() else null
+    }
+
+    override fun read(hash: String, offset: Long, length: Int): ByteArray? {
+        val file = contentFilePath(hash)
+        if (!file.exists()) return null
+        return RandomAccessFile(file, "r").use {
+            val from = minOf(offset, it.length())
+            val chunk = ByteArray(minOf(length.toLong(), it.length() - from).toInt())
+            it.seek(from)
+            it.readFully(chunk)
+            chunk
+        }
+    }
+
+    @Synchronized
+    override fun getReceivedSize(hash: String): Long =
+            partialFilePath(hash).length()
+
+    @Synchronized
+    override fun append(hash: String, offset: Long, chunk: ByteArray) {
+        val file = partialFilePath(hash)
+        if (offset != file.length()) {
+            throw IllegalArgumentException("Chunk of $hash must start at ${file.length()}, not $offset")
+        }
+        file.parentFile.mkdirs()
+        FileOutputStream(file, true).use { it.write(chunk) }
+    }
+
+    @Synchronized
+    override fun complete(hash: String): Boolean {
+        val partialFile = partialFilePath(hash)
+        if (!partialFile.exists()) {
+            if (Note.hash(ByteArray(0)) != hash) return false
+            put(ByteArray(0))
+            return true
+        }
+        val receivedHash = FileInputStream(partialFile).use { Note.hash(it) }
+        return if (receivedHash == hash) {
+            logger.debug("Storing received attachment content $hash, saving to ${contentFilePath(hash)}")
+            moveIntoPlace(partialFile, contentFilePath(hash))
+            true
+        } else {
+            logger.info("Received attachment content does not match hash $hash, discarding it")
+            partialFile.delete()
+            false
+        }
+    }
+
+    private fun moveIntoPlace(source: File, destination: File) {
+        if (!source.renameTo(destination)) {
+            source.delete()
+            if (!destination.exists()) throw IOException("Could not rename $source to $destination")
+        }
+    }
+
+    private fun contentFilePath(hash: String): File {
+        if (!AttachmentStore.isValidHash(hash)) throw IllegalArgumentException("Invalid hash: $hash")
+        return rootDirectory.resolve(hash.take(2)).resolve(hash)
+    }
+
+    private fun partialFilePath(hash: String): File =
+            contentFilePath(hash).let { it.resolveSibling(it.name + ".partial") }
+}
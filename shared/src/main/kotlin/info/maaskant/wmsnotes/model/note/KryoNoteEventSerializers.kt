@@ -115,6 +115,29 @@ class ContentChangedEventSerializer : Serializer<ContentChangedEvent>() {
     }
 }
 
+class ContentPatchedEventSerializer : Serializer<ContentPatchedEvent>() {
+    override fun write(kryo: Kryo, output: Output, it: ContentPatchedEvent) {
+        output.writeInt(it.eventId, true)
+        output.writeString(it.aggId)
+        output.writeInt(it.revision, true)
+        output.writeInt(it.patch.start, true)
+        output.writeInt(it.patch.deletedLength, true)
+        output.writeString(it.patch.insertedText)
+        output.writeString(it.patch.baseHash)
+    }
+
+    override fun read(kryo: Kryo, input: Input, clazz: Class<out ContentPatchedEvent>): ContentPatchedEvent {
+        val eventId = input.readInt(true)
+        val aggId = input.readString()
+        val revision = input.readInt(true)
+        val start = input.readInt(true)
+        val deletedLength = input.readInt(true)
+        val insertedText = input.readString()
+        val baseHash = input.readString()
+        return ContentPatchedEvent(eventId = eventId, aggId = aggId, revision = revision, patch = ContentPatch(start = start, deletedLength = deletedLength, insertedText = insertedText, baseHash = baseHash))
+    }
+}
+
 class TitleChangedEventSerializer : Serializer<TitleChangedEvent>() {
     override fun write(kryo: Kryo, output: Output, it: TitleChangedEvent) {
         output.writeInt(it.eventId, true)
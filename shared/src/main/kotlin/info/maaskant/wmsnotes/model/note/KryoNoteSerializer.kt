@@ -8,11 +8,12 @@ import com.esotericsoftware.kryo.io.Output
 import com.esotericsoftware.kryo.util.Pool
 import info.maaskant.wmsnotes.model.Path
 import info.maaskant.wmsnotes.utilities.serialization.KryoSerializer
+import info.maaskant.wmsnotes.utilities.serialization.readMap
 import info.maaskant.wmsnotes.utilities.serialization.writeMap
 
 class KryoNoteSerializer(kryoPool: Pool<Kryo>) : KryoSerializer<Note>(
         kryoPool,
-        Registration(Note::class.java, KryoNoteSerializer(), 51)
+        Registration(Note::class.java, KryoNoteSerializer(), 53)
 ) {
     private class KryoNoteSerializer : Serializer<Note>() {
 
@@ -23,12 +24,11 @@ class KryoNoteSerializer(kryoPool: Pool<Kryo>) : KryoSerializer<Note>(
             output.writeString(it.path.toString())
             output.writeString(it.title)
             output.writeString(it.content)
-            output.writeMap(it.attachments) { name, content ->
+            output.writeMap(it.attachmentHashes) { name, hash ->
                 output.writeString(name)
-                output.writeInt(content.size, true)
-                output.writeBytes(content)
-                output.writeString(it.attachmentHashes[name])
+                output.writeString(hash)
             }
+            output.writeInt(it.contentPatches, true)
         }
 
         override fun read(kryo: Kryo, input: Input, clazz: Class<out Note>): Note {
@@ -38,17 +38,12 @@ class KryoNoteSerializer(kryoPool: Pool<Kryo>) : KryoSerializer<Note>(
             val path = Path.from(input.readString())
             val title = input.readString()
             val content = input.readString()
-            val numberOfAttachments = input.readInt()
-            val attachments = HashMap<String, ByteArray>(numberOfAttachments)
-            val attachmentHashes = HashMap<String, String>(numberOfAttachments)
-            for (i in 1..numberOfAttachments) {
+            val attachmentHashes = input.readMap {
                 val name = input.readString()
-                val length = input.readInt(true)
-                val content2 = input.readBytes(length)
                 val hash = input.readString()
-                attachments[name] = content2
-                attachmentHashes[name] = hash
+                name to hash
             }
+            val contentPatches = input.readInt(true)
             return Note.deserialize(
                     revision = revision,
                     exists = exists,
@@ -56,8 +51,8 @@ class KryoNoteSerializer(kryoPool: Pool<Kryo>) : KryoSerializer<Note>(
                     path = path,
                     title = title,
                     content = content,
-                    attachments = attachments,
-                    attachmentHashes = attachmentHashes
+                    attachmentHashes = attachmentHashes,
+                    contentPatches = contentPatches
             )
         }
     }
@@ -7,6 +7,7 @@ import info.maaskant.wmsnotes.model.Event
 import info.maaskant.wmsnotes.model.Path
 import org.apache.commons.codec.binary.Hex
 import org.apache.commons.codec.digest.DigestUtils
+import java.io.InputStream
 import java.util.*
 
 class Note private constructor(
@@ -16,8 +17,10 @@ class Note private constructor(
         val path: Path,
         val title: String,
         val content: String,
-        val attachments: Map<String, ByteArray>,
-        val attachmentHashes: Map<String, String>
+        /** The attachments of the note, by name. The values are the hashes of the contents, which are stored in an [AttachmentStore]. */
+        val attachmentHashes: Map<String, String>,
+        /** The number of patches applied to the content since the content was last stored in full. */
+        val contentPatches: Int
 ) : Aggregate<Note> {
 
     private val contentLength: Int = content.length
@@ -29,8 +32,8 @@ class Note private constructor(
             title = "",
             path = Path(),
             content = "",
-            attachments = emptyMap(),
-            attachmentHashes = emptyMap()
+            attachmentHashes = emptyMap(),
+            contentPatches = 0
     )
 
     override fun equals(other: Any?) = kotlinEquals(other = other, properties = arrayOf(Note::aggId, Note::revision, Note::exists, Note::path, Note::title, Note::content, Note::attachmentHashes))
@@ -38,6 +41,11 @@ class Note private constructor(
     override fun hashCode() = Objects.hash(aggId, revision, exists, path, title, content, attachmentHashes)
     override fun toString() = kotlinToString(properties = arrayOf(Note::aggId, Note::revision, Note::exists, Note::path, Note::title, Note::contentLength, Note::attachmentHashes))
 
+    /** Returns a rough estimate of the number of bytes this note occupies in memory. */
+    fun estimateSize(): Long =
+            baseSize + 2L * (aggId.length + path.toString().length + title.length + content.length) +
+                    attachmentHashes.keys.sumBy { 2 * it.length + attachmentSize }
+
     private fun copy(
             revision: Int = this.revision,
             exists: Boolean = this.exists,
@@ -45,8 +53,8 @@ class Note private constructor(
             path: Path = this.path,
             title: String = this.title,
             content: String = this.content,
-            attachments: Map<String, ByteArray> = this.attachments,
-            attachmentHashes: Map<String, String> = this.attachmentHashes
+            attachmentHashes: Map<String, String> = this.attachmentHashes,
+            contentPatches: Int = this.contentPatches
     ): Note {
         return Note(
                 revision = revision,
@@ -55,11 +63,13 @@ class Note private constructor(
                 path = path,
                 title = title,
                 content = content,
-                attachments = attachments,
-                attachmentHashes = attachmentHashes
+                attachmentHashes = attachmentHashes,
+                contentPatches = contentPatches
         )
     }
 
+    override fun isEventOfThisType(event: Event): Boolean = event is NoteEvent
+
     override fun apply(event: Event): Pair<Note, Event?> {
         val expectedRevision = revision + 1
         if (revision == 0) {
@@ -77,6 +87,7 @@ class Note private constructor(
                 is AttachmentAddedEvent -> applyAttachmentAdded(event)
                 is AttachmentDeletedEvent -> applyAttachmentDeleted(event)
                 is ContentChangedEvent -> applyContentChanged(event)
+                is ContentPatchedEvent -> applyContentPatched(event)
                 is TitleChangedEvent -> applyTitleChanged(event)
                 is MovedEvent -> applyMoved(event)
             }
@@ -87,23 +98,22 @@ class Note private constructor(
     private fun applyAttachmentAdded(event: AttachmentAddedEvent): Pair<Note, NoteEvent?> {
         if (event.name.isEmpty()) throw IllegalArgumentException("An attachment name must not be empty ($event)")
         val sanitizedName = event.name.replace(nameReplacementPattern, "_")
-        return if (sanitizedName in attachments) {
-            if (!Arrays.equals(attachments[sanitizedName], event.content)) throw IllegalStateException("An attachment named $sanitizedName already exists but with different data ($event)")
+        val hash = hash(event.content)
+        return if (sanitizedName in attachmentHashes) {
+            if (attachmentHashes[sanitizedName] != hash) throw IllegalStateException("An attachment named $sanitizedName already exists but with different data ($event)")
             noChanges()
         } else {
             copy(
                     revision = event.revision,
-                    attachments = attachments + (sanitizedName to event.content),
-                    attachmentHashes = attachmentHashes + (sanitizedName to hash(event.content))
+                    attachmentHashes = attachmentHashes + (sanitizedName to hash)
             ) to event
         }
     }
 
     private fun applyAttachmentDeleted(event: AttachmentDeletedEvent): Pair<Note, NoteEvent?> {
-        return if (event.name in attachments) {
+        return if (event.name in attachmentHashes) {
             copy(
                     revision = event.revision,
-                    attachments = attachments - event.name,
                     attachmentHashes = attachmentHashes - event.name
             ) to event
         } else {
@@ -114,7 +124,17 @@ class Note private constructor(
     private fun applyContentChanged(event: ContentChangedEvent): Pair<Note, NoteEvent?> {
         return if (content == event.content) noChanges() else copy(
                 revision = event.revision,
-                content = event.content
+                content = event.content,
+                contentPatches = 0
+        ) to event
+    }
+
+    private fun applyContentPatched(event: ContentPatchedEvent): Pair<Note, NoteEvent?> {
+        val newContent = event.patch.applyTo(content)
+        return if (content == newContent) noChanges() else copy(
+                revision = event.revision,
+                content = newContent,
+                contentPatches = contentPatches + 1
         ) to event
     }
 
@@ -130,6 +150,7 @@ class Note private constructor(
                 path = event.path,
                 title = event.title,
                 content = event.content,
+                contentPatches = 0,
                 exists = true
         ) to event
     }
@@ -175,6 +196,8 @@ class Note private constructor(
     }
 
     companion object {
+        private const val baseSize = 256L
+        private const val attachmentSize = 256
         private val aggIdPattern = Regex("""^n-[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$""")
         private val nameReplacementPattern = Regex("""[\\\t /&]""")
 
@@ -185,8 +208,8 @@ class Note private constructor(
                 path: Path,
                 title: String,
                 content: String,
-                attachments: Map<String, ByteArray>,
-                attachmentHashes: Map<String, String>
+                attachmentHashes: Map<String, String>,
+                contentPatches: Int = 0
         ): Note {
             return Note(
                     revision = revision,
@@ -195,18 +218,23 @@ class Note private constructor(
                     path = path,
                     title = title,
                     content = content,
-                    attachments = attachments,
-                    attachmentHashes = attachmentHashes
+                    attachmentHashes = attachmentHashes,
+                    contentPatches = contentPatches
             )
         }
 
-        private fun hash(content: ByteArray): String {
+        /** Returns the hash of the content of an attachment. */
+        fun hash(content: ByteArray): String {
             // The following does not work on Android:
             // return DigestUtils.md5Hex(content)
             // Source: https://stackoverflow.com/a/9284092
             return String(Hex.encodeHex(DigestUtils.md5(content)))
         }
 
+        /** Returns the hash of the content of an attachment that is read from a stream. */
+        fun hash(content: InputStream): String =
+                String(Hex.encodeHex(DigestUtils.md5(content)))
+
         fun randomAggId(): String =
                 "n-" + UUID.randomUUID().toString()
     }
@@ -1,6 +1,7 @@
 package info.maaskant.wmsnotes.model.note
 
 import info.maaskant.wmsnotes.model.AbstractCommandExecutor
+import info.maaskant.wmsnotes.model.AbstractCommandExecutor.Companion.defaultNumberOfLanes
 import info.maaskant.wmsnotes.model.CommandBus
 import info.maaskant.wmsnotes.model.aggregaterepository.AggregateRepository
 import info.maaskant.wmsnotes.model.eventstore.EventStore
@@ -14,5 +15,6 @@ class NoteCommandExecutor @Inject constructor(
         eventStore: EventStore,
         repository: AggregateRepository<Note>,
         commandToEventMapper: NoteCommandToEventMapper,
-        scheduler: Scheduler
-) : AbstractCommandExecutor<Note, NoteCommand, NoteCommandRequest, NoteCommandToEventMapper>(NoteCommandRequest::class, commandBus, eventStore, repository, commandToEventMapper, scheduler)
+        scheduler: Scheduler,
+        numberOfLanes: Int = defaultNumberOfLanes
+) : AbstractCommandExecutor<Note, NoteCommand, NoteCommandRequest, NoteCommandToEventMapper>(NoteCommandRequest::class, commandBus, eventStore, repository, commandToEventMapper, scheduler, numberOfLanes)
@@ -5,25 +5,48 @@ import info.maaskant.wmsnotes.model.CommandToEventMapper
 import info.maaskant.wmsnotes.model.Event
 import javax.inject.Singleton
 
+/**
+ * Maps note commands to events.
+ *
+ * A change of the content is stored as a [ContentPatchedEvent] if the patch is less than half the size of the new
+ * content. Otherwise, and after [contentCheckpointInterval] consecutive patches, the full content is stored as a
+ * [ContentChangedEvent], so that reading a note never requires applying a long chain of patches.
+ */
 @Singleton
-class NoteCommandToEventMapper : CommandToEventMapper<Note> {
-    override fun map(source: Command, lastRevision: Int): Event {
+class NoteCommandToEventMapper(
+        private val contentCheckpointInterval: Int = defaultContentCheckpointInterval
+) : CommandToEventMapper<Note> {
+    override fun map(source: Command, lastRevision: Int, aggregate: Note): Event {
         return when (source) {
-            is NoteCommand -> map(source, lastRevision)
+            is NoteCommand -> map(source, lastRevision, aggregate)
             else -> throw IllegalArgumentException()
         }
     }
 
-    private fun map(source: NoteCommand, lastRevision: Int): NoteEvent {
+    private fun map(source: NoteCommand, lastRevision: Int, note: Note): NoteEvent {
         return when (source) {
             is CreateNoteCommand -> NoteCreatedEvent(eventId = 0, aggId = source.aggId, revision = 1, path = source.path, title = source.title, content = source.content)
             is DeleteNoteCommand -> NoteDeletedEvent(eventId = 0, aggId = source.aggId, revision = lastRevision + 1)
             is UndeleteNoteCommand -> NoteUndeletedEvent(eventId = 0, aggId = source.aggId, revision = lastRevision + 1)
             is AddAttachmentCommand -> AttachmentAddedEvent(eventId = 0, aggId = source.aggId, revision = lastRevision + 1, name = source.name, content = source.content)
             is DeleteAttachmentCommand -> AttachmentDeletedEvent(eventId = 0, aggId = source.aggId, revision = lastRevision + 1, name = source.name)
-            is ChangeContentCommand -> ContentChangedEvent(eventId = 0, aggId = source.aggId, revision = lastRevision + 1, content = source.content)
+            is ChangeContentCommand -> mapContentChange(source.aggId, lastRevision, note, source.content)
+            is PatchContentCommand -> mapContentChange(source.aggId, lastRevision, note, source.patch.applyTo(note.content))
             is ChangeTitleCommand -> TitleChangedEvent(eventId = 0, aggId = source.aggId, revision = lastRevision + 1, title = source.title)
             is MoveCommand -> MovedEvent(eventId = 0, aggId = source.aggId, revision = lastRevision + 1, path = source.path)
         }
     }
+
+    private fun mapContentChange(aggId: String, lastRevision: Int, note: Note, content: String): NoteEvent {
+        val patch = ContentPatch.between(note.content, content)
+        return if (note.contentPatches + 1 < contentCheckpointInterval && patch.insertedText.length * 2 < content.length) {
+            ContentPatchedEvent(eventId = 0, aggId = aggId, revision = lastRevision + 1, patch = patch)
+        } else {
+            ContentChangedEvent(eventId = 0, aggId = aggId, revision = lastRevision + 1, content = content)
+        }
+    }
+
+    companion object {
+        const val defaultContentCheckpointInterval = 50
+    }
 }
@@ -3,10 +3,9 @@ package info.maaskant.wmsnotes.model.note.policy
 import info.maaskant.wmsnotes.model.CommandBus
 import info.maaskant.wmsnotes.model.CommandOrigin
 import info.maaskant.wmsnotes.model.CommandOrigin.*
+import info.maaskant.wmsnotes.model.aggregaterepository.AggregateRepository
 import info.maaskant.wmsnotes.model.eventstore.EventStore
-import info.maaskant.wmsnotes.model.note.ChangeTitleCommand
-import info.maaskant.wmsnotes.model.note.ContentChangedEvent
-import info.maaskant.wmsnotes.model.note.NoteCommandRequest
+import info.maaskant.wmsnotes.model.note.*
 import info.maaskant.wmsnotes.utilities.ApplicationService
 import info.maaskant.wmsnotes.utilities.logger
 import io.reactivex.Scheduler
@@ -19,6 +18,7 @@ import javax.inject.Singleton
 @Singleton
 class NoteTitlePolicy @Inject constructor(
         private val commandBus: CommandBus,
+        private val noteRepository: AggregateRepository<Note>,
         private val scheduler: Scheduler,
         private val titleExtractor: (content: String) -> String?
 ) : ApplicationService {
@@ -32,9 +32,8 @@ class NoteTitlePolicy @Inject constructor(
                 .observeOn(scheduler)
                 .filter { it.origin == LOCAL }
                 .flatMap { it.newEvents.toObservable() }
-                .filter { it is ContentChangedEvent }
-                .map { it as ContentChangedEvent }
-                .map { it to titleExtractor(it.content) }
+                .filter { it is ContentChangedEvent || it is ContentPatchedEvent }
+                .map { it to titleExtractor(getContent(it as NoteEvent)) }
                 .filter { (_, title) -> title != null }
                 .map { (event, title) ->
                     logger.debug("Changing title of aggregate {} to {}", event.aggId, title)
@@ -53,6 +52,11 @@ class NoteTitlePolicy @Inject constructor(
                 )
     }
 
+    private fun getContent(event: NoteEvent): String = when (event) {
+        is ContentChangedEvent -> event.content
+        else -> noteRepository.get(event.aggId, event.revision).content
+    }
+
     @Synchronized
     override fun start() {
         if (disposable == null) {
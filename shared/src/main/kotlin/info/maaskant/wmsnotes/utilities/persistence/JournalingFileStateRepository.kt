@@ -0,0 +1,123 @@
+package info.maaskant.wmsnotes.utilities.persistence
+
+import info.maaskant.wmsnotes.utilities.logger
+import info.maaskant.wmsnotes.utilities.serialization.Serializer
+import io.reactivex.Scheduler
+import java.io.*
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.TimeUnit
+
+/**
+ * Stores a state as a snapshot file and a journal of the changes since that snapshot.
+ *
+ * Every change is appended to the journal. After [snapshotInterval] changes, the current state is written to the
+ * snapshot file and the journal is started anew. Loading the state replays the journal on top of the snapshot. Changes
+ * must set values instead of modifying them, so that replaying a journal that is already part of the snapshot (for
+ * example after a crash while writing a snapshot) does not alter the state.
+ *
+ * @param emptyState Returns the state to replay the journal on if there is no snapshot yet.
+ */
+class JournalingFileStateRepository<T, C>(
+        private val stateSerializer: Serializer<T>,
+        private val changeSerializer: Serializer<C>,
+        private val file: File,
+        private val emptyState: () -> T,
+        private val applyChange: (T, C) -> T,
+        private val scheduler: Scheduler,
+        private val timeout: Long,
+        private val unit: TimeUnit,
+        private val snapshotInterval: Int = defaultSnapshotInterval
+) {
+    private val logger by logger()
+
+    private val journalFile: File = file.resolveSibling(file.name + ".journal")
+    private var changesSinceSnapshot = 0
+
+    init {
+        if (snapshotInterval < 1) throw IllegalArgumentException("The snapshot interval must be positive: $snapshotInterval")
+    }
+
+    fun load(): T? {
+        if (!file.exists() && !journalFile.exists()) return null
+        var state = if (file.exists()) stateSerializer.deserialize(file.readBytes()) else emptyState()
+        val (changes, complete) = readJournal()
+        for (change in changes) {
+            state = applyChange(state, change)
+        }
+        changesSinceSnapshot = changes.size
+        if (!complete) {
+            logger.warn("The last change in {} is incomplete and was skipped", journalFile.path)
+            writeSnapshot(state) // New changes must not be appended to an incomplete change
+        }
+        return state
+    }
+
+    fun connect(stateProducer: JournalingStateProducer<T, C>) {
+        stateProducer.getStateChanges()
+                .subscribeOn(scheduler)
+                .let {
+                    if (timeout > 0) {
+                        it.buffer(timeout, unit, scheduler).filter { buffer -> buffer.isNotEmpty() }
+                    } else {
+                        it.map { stateChanges -> listOf(stateChanges) }
+                    }
+                }
+                .subscribe { buffer ->
+                    appendToJournal(buffer.flatMap { it.changes })
+                    if (changesSinceSnapshot >= snapshotInterval) {
+                        writeSnapshot(buffer.last().state)
+                    }
+                }
+    }
+
+    /** Returns the changes in the journal and whether the last change is complete. */
+    private fun readJournal(): Pair<List<C>, Boolean> {
+        if (!journalFile.exists()) return emptyList<C>() to true
+        val changes = ArrayList<C>()
+        DataInputStream(BufferedInputStream(FileInputStream(journalFile))).use { input ->
+            while (input.available() > 0) {
+                val bytes = try {
+                    ByteArray(input.readInt()).also { input.readFully(it) }
+                } catch (e: EOFException) {
+                    return changes to false
+                }
+                changes += changeSerializer.deserialize(bytes)
+            }
+        }
+        return changes to true
+    }
+
+    private fun appendToJournal(changes: List<C>) {
+        if (changes.isEmpty()) return
+        if (!journalFile.exists()) {
+            journalFile.parentFile.mkdirs()
+        }
+        DataOutputStream(BufferedOutputStream(FileOutputStream(journalFile, true))).use { output ->
+            for (change in changes) {
+                val data = changeSerializer.serialize(change)
+                output.writeInt(data.size)
+                output.write(data)
+            }
+        }
+        changesSinceSnapshot += changes.size
+        logger.debug("Appended {} changes to {}", changes.size, journalFile.path)
+    }
+
+    private fun writeSnapshot(state: T) {
+        val data: ByteArray = stateSerializer.serialize(state)
+        val tempFile = file.resolveSibling(file.name + ".tmp")
+        FileOutputStream(tempFile).use {
+            it.write(data)
+            it.fd.sync() // The snapshot must be on disk before the journal that could restore it is deleted
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        journalFile.delete()
+        changesSinceSnapshot = 0
+        logger.debug("Wrote {} bytes to {}", data.size, file.path)
+    }
+
+    companion object {
+        private const val defaultSnapshotInterval = 1000
+    }
+}
@@ -0,0 +1,14 @@
+package info.maaskant.wmsnotes.utilities.persistence
+
+import io.reactivex.Observable
+
+/** A [StateProducer] that also describes every update to its state as a list of changes. */
+interface JournalingStateProducer<T, C> : StateProducer<T> {
+    /**
+     * Returns an observable that emits the changes of every further update to the state, together with the state after
+     * the update.
+     */
+    fun getStateChanges(): Observable<StateChanges<T, C>>
+}
+
+data class StateChanges<T, C>(val changes: List<C>, val state: T)
@@ -1,6 +1,5 @@
 package info.maaskant.wmsnotes.client.api
 
-import com.google.protobuf.ByteString
 import info.maaskant.wmsnotes.model.Path
 import info.maaskant.wmsnotes.model.folder.CreateFolderCommand
 import info.maaskant.wmsnotes.model.folder.DeleteFolderCommand
@@ -50,7 +49,7 @@ internal class GrpcCommandMapperTest {
                     lastRevision = lastRevisionValue
                     addAttachment = Command.PostCommandRequest.AddAttachmentCommand.newBuilder().apply {
                         name = "att"
-                        content = ByteString.copyFrom("data".toByteArray())
+                        contentHash = Note.hash("data".toByteArray())
                     }.build()
                 }.build(),
                 DeleteAttachmentCommand(aggId = "note", name = "att") to Command.PostCommandRequest.newBuilder().apply {
@@ -67,6 +66,16 @@ internal class GrpcCommandMapperTest {
                         content = "Text"
                     }.build()
                 }.build(),
+                PatchContentCommand(aggId = "note", patch = ContentPatch(start = 1, deletedLength = 2, insertedText = "ext", baseHash = "hash")) to Command.PostCommandRequest.newBuilder().apply {
+                    aggregateId = "note"
+                    lastRevision = lastRevisionValue
+                    patchContent = Command.PostCommandRequest.PatchContentCommand.newBuilder().apply {
+                        start = 1
+                        deletedLength = 2
+                        insertedText = "ext"
+                        baseHash = "hash"
+                    }.build()
+                }.build(),
                 ChangeTitleCommand(aggId = "note", title = "Title") to Command.PostCommandRequest.newBuilder().apply {
                     aggregateId = "note"
                     lastRevision = lastRevisionValue
@@ -8,19 +8,49 @@ import info.maaskant.wmsnotes.model.note.*
 import info.maaskant.wmsnotes.server.command.grpc.Event
 import assertk.assertThat
 import assertk.assertions.*
+import io.mockk.clearMocks
+import io.mockk.every
+import io.mockk.mockk
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.DynamicTest
+import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.TestFactory
 import org.junit.jupiter.api.TestInstance
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 internal class GrpcEventMapperTest {
 
+    private val attachmentTransferClient: AttachmentTransferClient = mockk()
+
     private lateinit var mapper: GrpcEventMapper
 
     @BeforeEach
     fun init() {
-        mapper = GrpcEventMapper()
+        clearMocks(attachmentTransferClient)
+        mapper = GrpcEventMapper(attachmentTransferClient)
+    }
+
+    @Test
+    fun `attachment added, content hash`() {
+        // Given
+        val content = "data".toByteArray()
+        val hash = Note.hash(content)
+        every { attachmentTransferClient.download(hash) }.returns(content)
+        val response = Event.GetEventsResponse.newBuilder().apply {
+            eventId = 1
+            aggregateId = "note"
+            revision = 1
+            attachmentAdded = Event.GetEventsResponse.AttachmentAddedEvent.newBuilder().apply {
+                name = "att"
+                contentHash = hash
+            }.build()
+        }.build()
+
+        // When
+        val event = mapper.toModelClass(response)
+
+        // Then
+        assertThat(event).isEqualTo(AttachmentAddedEvent(eventId = 1, aggId = "note", revision = 1, name = "att", content = content))
     }
 
     @TestFactory
@@ -74,6 +104,17 @@ internal class GrpcEventMapperTest {
                         content = "Text"
                     }.build()
                 }.build() to ContentChangedEvent(eventId = 1, aggId = "note", revision = 1, content = "Text"),
+                Event.GetEventsResponse.newBuilder().apply {
+                    eventId = 1
+                    aggregateId = "note"
+                    revision = 1
+                    contentPatched = Event.GetEventsResponse.ContentPatchedEvent.newBuilder().apply {
+                        start = 1
+                        deletedLength = 2
+                        insertedText = "ext"
+                        baseHash = "hash"
+                    }.build()
+                }.build() to ContentPatchedEvent(eventId = 1, aggId = "note", revision = 1, patch = ContentPatch(start = 1, deletedLength = 2, insertedText = "ext", baseHash = "hash")),
                 Event.GetEventsResponse.newBuilder().apply {
                     eventId = 1
                     aggregateId = "note"
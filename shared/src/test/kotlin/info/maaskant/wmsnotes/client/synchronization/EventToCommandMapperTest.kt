@@ -24,6 +24,7 @@ internal class EventToCommandMapperTest {
                 AttachmentAddedEvent(eventId = 0, aggId = aggId, revision = eventRevision, name = "att", content = "data".toByteArray()) to AddAttachmentCommand(aggId = aggId, name = "att", content = "data".toByteArray()),
                 AttachmentDeletedEvent(eventId = 0, aggId = aggId, revision = eventRevision, name = "att") to DeleteAttachmentCommand(aggId = aggId, name = "att"),
                 ContentChangedEvent(eventId = 0, aggId = aggId, revision = eventRevision, content = "Text") to ChangeContentCommand(aggId = aggId, content = "Text"),
+                ContentPatchedEvent(eventId = 0, aggId = aggId, revision = eventRevision, patch = ContentPatch(start = 1, deletedLength = 2, insertedText = "ext", baseHash = "hash")) to PatchContentCommand(aggId = aggId, patch = ContentPatch(start = 1, deletedLength = 2, insertedText = "ext", baseHash = "hash")),
                 TitleChangedEvent(eventId = 0, aggId = aggId, revision = eventRevision, title = "Title") to ChangeTitleCommand(aggId = aggId, title = "Title"),
                 MovedEvent(eventId = 0, aggId = aggId, revision = eventRevision, path = Path("el1", "el2")) to MoveCommand(aggId = aggId, path = Path("el1", "el2")),
                 FolderCreatedEvent(eventId = 1, revision = eventRevision, path = Path("el1", "el2")) to CreateFolderCommand(path = Path("el1", "el2")),
@@ -0,0 +1,19 @@
+package info.maaskant.wmsnotes.client.synchronization
+
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.util.Pool
+import info.maaskant.wmsnotes.utilities.serialization.KryoSerializerTest
+
+internal class KryoSynchronizerStateChangeSerializerTest : KryoSerializerTest<SynchronizerState.Change>() {
+    override val items: List<SynchronizerState.Change> = listOf(
+            SynchronizerState.Change.LocalEventIgnored(eventId = 1),
+            SynchronizerState.Change.RemoteEventIgnored(eventId = 2),
+            SynchronizerState.Change.LocalEventToIgnoreRemoved(eventId = 3),
+            SynchronizerState.Change.RemoteEventToIgnoreRemoved(eventId = 4),
+            SynchronizerState.Change.LastSynchronizedLocalRevisionUpdated(aggId = "note-1", revision = 5),
+            SynchronizerState.Change.LastKnownLocalRevisionUpdated(aggId = "note-2", revision = 6),
+            SynchronizerState.Change.LastKnownRemoteRevisionUpdated(aggId = "note-3", revision = 7)
+    )
+
+    override fun createInstance(kryoPool: Pool<Kryo>) = KryoSynchronizerStateChangeSerializer(kryoPool)
+}
@@ -1,5 +1,7 @@
 package info.maaskant.wmsnotes.client.synchronization
 
+import assertk.assertThat
+import assertk.assertions.isEqualTo
 import info.maaskant.wmsnotes.model.Event
 import info.maaskant.wmsnotes.model.eventstore.EventStore
 import info.maaskant.wmsnotes.model.note.NoteCreatedEvent
@@ -21,7 +23,8 @@ internal class LocalEventImporterTest {
     @BeforeEach
     fun init() {
         clearMocks(eventStore, eventRepository)
-        every { eventRepository.addEvent(any()) }.answers {}
+        every { eventRepository.addEvents(any()) }.answers {}
+        every { eventRepository.getLastAddedEventId() }.returns(null)
     }
 
     @Test
@@ -37,9 +40,10 @@ internal class LocalEventImporterTest {
 
         // Then
         verifySequence {
+            eventRepository.getLastAddedEventId()
             eventStore.getEvents(afterEventId = null)
-            eventRepository.addEvent(event1)
-            eventRepository.addEvent(event2)
+            eventRepository.addEvents(listOf(event1))
+            eventRepository.addEvents(listOf(event2))
         }
     }
 
@@ -66,10 +70,89 @@ internal class LocalEventImporterTest {
 
         // Then
         verifySequence {
+            eventRepository.getLastAddedEventId()
             eventStore.getEvents(afterEventId = null)
-            eventRepository.addEvent(event1)
+            eventRepository.addEvents(listOf(event1))
+            eventRepository.getLastAddedEventId()
             eventStore.getEvents(afterEventId = 1)
-            eventRepository.addEvent(event2)
+            eventRepository.addEvents(listOf(event2))
+        }
+    }
+
+    @Test
+    fun `mark aggregates of stored events as dirty`() {
+        // Given
+        val event1 = modelEvent(i = 1)
+        val event2 = modelEvent(i = 2)
+        every { eventStore.getEvents(any()) }.returns(Observable.just(event1, event2))
+        val dirtyAggregates = DirtyAggregates()
+        val importer = LocalEventImporter(eventStore, eventRepository, EventImporterState(null), dirtyAggregates)
+
+        // When
+        importer.loadAndStoreLocalEvents()
+
+        // Then
+        assertThat(dirtyAggregates.takeAll()).isEqualTo(setOf(event1.aggId, event2.aggId))
+    }
+
+    @Test
+    fun `store events in batches`() {
+        // Given
+        val event1 = modelEvent(i = 1)
+        val event2 = modelEvent(i = 2)
+        val event3 = modelEvent(i = 3)
+        every { eventStore.getEvents(any()) }.returns(Observable.just(event1, event2, event3))
+        val importer = LocalEventImporter(eventStore, eventRepository, EventImporterState(null), batchSize = 2)
+        val stateObserver = importer.getStateUpdates().test()
+
+        // When
+        importer.loadAndStoreLocalEvents()
+
+        // Then
+        verifySequence {
+            eventRepository.getLastAddedEventId()
+            eventStore.getEvents(afterEventId = null)
+            eventRepository.addEvents(listOf(event1, event2))
+            eventRepository.addEvents(listOf(event3))
+        }
+        assertThat(stateObserver.values().toList()).isEqualTo(listOf(EventImporterState(2), EventImporterState(3)))
+    }
+
+    @Test
+    fun `continue after the last event id recorded by the repository`() {
+        // Given
+        val event3 = modelEvent(i = 3)
+        every { eventRepository.getLastAddedEventId() }.returns(2)
+        every { eventStore.getEvents(afterEventId = 2) }.returns(Observable.just(event3))
+        val importer = LocalEventImporter(eventStore, eventRepository, EventImporterState(1))
+        val stateObserver = importer.getStateUpdates().test()
+
+        // When
+        importer.loadAndStoreLocalEvents()
+
+        // Then
+        verifySequence {
+            eventRepository.getLastAddedEventId()
+            eventStore.getEvents(afterEventId = 2)
+            eventRepository.addEvents(listOf(event3))
+        }
+        assertThat(stateObserver.values().toList()).isEqualTo(listOf(EventImporterState(2), EventImporterState(3)))
+    }
+
+    @Test
+    fun `keep the last event id of the state if the repository does not record a higher one`() {
+        // Given
+        every { eventRepository.getLastAddedEventId() }.returns(1)
+        every { eventStore.getEvents(afterEventId = 2) }.returns(Observable.empty())
+        val importer = LocalEventImporter(eventStore, eventRepository, EventImporterState(2))
+
+        // When
+        importer.loadAndStoreLocalEvents()
+
+        // Then
+        verifySequence {
+            eventRepository.getLastAddedEventId()
+            eventStore.getEvents(afterEventId = 2)
         }
     }
 
@@ -1,5 +1,7 @@
 package info.maaskant.wmsnotes.client.synchronization
 
+import assertk.assertThat
+import assertk.assertions.isEqualTo
 import info.maaskant.wmsnotes.model.note.NoteCreatedEvent
 import info.maaskant.wmsnotes.client.synchronization.eventrepository.ModifiableEventRepository
 import info.maaskant.wmsnotes.client.api.GrpcEventMapper
@@ -11,20 +13,23 @@ import io.mockk.clearMocks
 import io.mockk.every
 import io.mockk.mockk
 import io.mockk.verifySequence
+import io.reactivex.exceptions.MissingBackpressureException
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
 
 internal class RemoteEventImporterTest {
 
     private val eventService: EventServiceGrpc.EventServiceBlockingStub = mockk()
     private val grpcDeadline: Deadline? = null
     private val eventRepository: ModifiableEventRepository = mockk()
-    private val grpcEventMapper: GrpcEventMapper = GrpcEventMapper()
+    private val grpcEventMapper: GrpcEventMapper = GrpcEventMapper(mockk())
 
     @BeforeEach
     fun init() {
         clearMocks(eventService, eventRepository)
-        every { eventRepository.addEvent(any()) }.answers {}
+        every { eventRepository.addEvents(any()) }.answers {}
+        every { eventRepository.getLastAddedEventId() }.returns(null)
     }
 
     @Test
@@ -40,12 +45,52 @@ internal class RemoteEventImporterTest {
 
         // Then
         verifySequence {
+            eventRepository.getLastAddedEventId()
             eventService.getEvents(remoteEventServiceRequest())
-            eventRepository.addEvent(event1.second)
-            eventRepository.addEvent(event2.second)
+            eventRepository.addEvents(listOf(event1.second))
+            eventRepository.addEvents(listOf(event2.second))
         }
     }
 
+    @Test
+    fun `mark aggregates of stored events as dirty`() {
+        // Given
+        val event1 = remoteNoteEvent(i = 1) to modelEvent(i = 1)
+        val event2 = remoteNoteEvent(i = 2) to modelEvent(i = 2)
+        every { eventService.getEvents(any()) }.returns(listOf(event1.first, event2.first).iterator())
+        val dirtyAggregates = DirtyAggregates()
+        val importer = RemoteEventImporter(eventService, grpcDeadline, eventRepository, grpcEventMapper, EventImporterState(null), dirtyAggregates)
+
+        // When
+        importer.loadAndStoreRemoteEvents()
+
+        // Then
+        assertThat(dirtyAggregates.takeAll()).isEqualTo(setOf(event1.second.aggId, event2.second.aggId))
+    }
+
+    @Test
+    fun `store events in batches`() {
+        // Given
+        val event1 = remoteNoteEvent(i = 1) to modelEvent(i = 1)
+        val event2 = remoteNoteEvent(i = 2) to modelEvent(i = 2)
+        val event3 = remoteNoteEvent(i = 3) to modelEvent(i = 3)
+        every { eventService.getEvents(any()) }.returns(listOf(event1.first, event2.first, event3.first).iterator())
+        val importer = RemoteEventImporter(eventService, grpcDeadline, eventRepository, grpcEventMapper, EventImporterState(null), batchSize = 2)
+        val stateObserver = importer.getStateUpdates().test()
+
+        // When
+        importer.loadAndStoreRemoteEvents()
+
+        // Then
+        verifySequence {
+            eventRepository.getLastAddedEventId()
+            eventService.getEvents(remoteEventServiceRequest())
+            eventRepository.addEvents(listOf(event1.second, event2.second))
+            eventRepository.addEvents(listOf(event3.second))
+        }
+        assertThat(stateObserver.values().toList()).isEqualTo(listOf(EventImporterState(2), EventImporterState(3)))
+    }
+
     @Test
     fun `only load new events`() {
         // Given
@@ -69,11 +114,136 @@ internal class RemoteEventImporterTest {
 
         // Then
         verifySequence {
+            eventRepository.getLastAddedEventId()
             eventService.getEvents(remoteEventServiceRequest())
-            eventRepository.addEvent(event1.second)
+            eventRepository.addEvents(listOf(event1.second))
+            eventRepository.getLastAddedEventId()
             eventService.getEvents(remoteEventServiceRequest(1))
-            eventRepository.addEvent(event2.second)
+            eventRepository.addEvents(listOf(event2.second))
+        }
+    }
+
+    @Test
+    fun `store pushed events`() {
+        // Given
+        val event1 = remoteNoteEvent(i = 1) to modelEvent(i = 1)
+        val event2 = remoteNoteEvent(i = 2) to modelEvent(i = 2)
+        every { eventService.subscribeEvents(any()) }.returns(listOf(event1.first, event2.first).iterator())
+        val importer = RemoteEventImporter(eventService, grpcDeadline, eventRepository, grpcEventMapper, EventImporterState(null))
+        val observer = importer.subscribeToRemoteEvents().test()
+
+        // When
+        importer.storePushedRemoteEvents()
+
+        // Then
+        observer.assertValueCount(2)
+        observer.assertComplete()
+        verifySequence {
+            eventRepository.getLastAddedEventId()
+            eventService.subscribeEvents(remoteEventServiceRequest())
+            eventRepository.addEvents(listOf(event1.second))
+            eventRepository.addEvents(listOf(event2.second))
+        }
+    }
+
+    @Test
+    fun `resubscribe after last pushed event`() {
+        // Given
+        val event1 = remoteNoteEvent(i = 1) to modelEvent(i = 1)
+        val event2 = remoteNoteEvent(i = 2) to modelEvent(i = 2)
+        every { eventService.subscribeEvents(remoteEventServiceRequest()) }.returns(listOf(event1.first).iterator())
+        every { eventService.subscribeEvents(remoteEventServiceRequest(1)) }.returns(listOf(event2.first).iterator())
+        val importer = RemoteEventImporter(eventService, grpcDeadline, eventRepository, grpcEventMapper, EventImporterState(null))
+        importer.subscribeToRemoteEvents().test()
+
+        // When
+        importer.subscribeToRemoteEvents().test()
+        importer.storePushedRemoteEvents()
+
+        // Then
+        verifySequence {
+            eventRepository.getLastAddedEventId()
+            eventService.subscribeEvents(remoteEventServiceRequest())
+            eventService.subscribeEvents(remoteEventServiceRequest(1))
+            eventRepository.addEvents(listOf(event1.second))
+            eventRepository.addEvents(listOf(event2.second))
+        }
+    }
+
+    @Test
+    fun `close the stream if too many pushed events are kept`() {
+        // Given
+        val event1 = remoteNoteEvent(i = 1) to modelEvent(i = 1)
+        val event2 = remoteNoteEvent(i = 2) to modelEvent(i = 2)
+        every { eventService.subscribeEvents(remoteEventServiceRequest()) }.returns(listOf(event1.first, event2.first).iterator())
+        every { eventService.subscribeEvents(remoteEventServiceRequest(1)) }.returns(listOf(event2.first).iterator())
+        val importer = RemoteEventImporter(eventService, grpcDeadline, eventRepository, grpcEventMapper, EventImporterState(null), maxPushedEvents = 1)
+        val observer1 = importer.subscribeToRemoteEvents().test()
+        importer.storePushedRemoteEvents()
+
+        // When
+        val observer2 = importer.subscribeToRemoteEvents().test()
+        importer.storePushedRemoteEvents()
+
+        // Then
+        observer1.assertValueCount(1)
+        observer1.assertError(MissingBackpressureException::class.java)
+        observer2.assertValueCount(1)
+        observer2.assertComplete()
+        verifySequence {
+            eventRepository.getLastAddedEventId()
+            eventService.subscribeEvents(remoteEventServiceRequest())
+            eventRepository.addEvents(listOf(event1.second))
+            eventService.subscribeEvents(remoteEventServiceRequest(1))
+            eventRepository.addEvents(listOf(event2.second))
+        }
+    }
+
+    @Test
+    fun `keep pushed events if storing them fails`() {
+        // Given
+        val event1 = remoteNoteEvent(i = 1) to modelEvent(i = 1)
+        val event2 = remoteNoteEvent(i = 2) to modelEvent(i = 2)
+        every { eventService.subscribeEvents(any()) }.returns(listOf(event1.first, event2.first).iterator())
+        every { eventRepository.addEvents(listOf(event1.second, event2.second)) }.throws(RuntimeException()).andThen(Unit)
+        val importer = RemoteEventImporter(eventService, grpcDeadline, eventRepository, grpcEventMapper, EventImporterState(null), batchSize = 2)
+        val stateObserver = importer.getStateUpdates().test()
+        importer.subscribeToRemoteEvents().test()
+
+        // When
+        assertThrows<RuntimeException> { importer.storePushedRemoteEvents() }
+        importer.storePushedRemoteEvents()
+        importer.storePushedRemoteEvents()
+
+        // Then
+        verifySequence {
+            eventRepository.getLastAddedEventId()
+            eventService.subscribeEvents(remoteEventServiceRequest())
+            eventRepository.addEvents(listOf(event1.second, event2.second))
+            eventRepository.addEvents(listOf(event1.second, event2.second))
+        }
+        assertThat(stateObserver.values().toList()).isEqualTo(listOf(EventImporterState(2)))
+    }
+
+    @Test
+    fun `continue after the last event id recorded by the repository`() {
+        // Given
+        val event3 = remoteNoteEvent(i = 3) to modelEvent(i = 3)
+        every { eventRepository.getLastAddedEventId() }.returns(2)
+        every { eventService.getEvents(any()) }.returns(listOf(event3.first).iterator())
+        val importer = RemoteEventImporter(eventService, grpcDeadline, eventRepository, grpcEventMapper, EventImporterState(1))
+        val stateObserver = importer.getStateUpdates().test()
+
+        // When
+        importer.loadAndStoreRemoteEvents()
+
+        // Then
+        verifySequence {
+            eventRepository.getLastAddedEventId()
+            eventService.getEvents(remoteEventServiceRequest(2))
+            eventRepository.addEvents(listOf(event3.second))
         }
+        assertThat(stateObserver.values().toList()).isEqualTo(listOf(EventImporterState(2), EventImporterState(3)))
     }
 
     companion object {
@@ -51,6 +51,7 @@ internal class SynchronizationIT {
                         mergeStrategy = KeepBothMergeStrategy(
                                 differenceAnalyzer = DifferenceAnalyzer(),
                                 differenceCompensator = DifferenceCompensator(),
+                                attachmentRepository = AttachmentRepository(eventStore, InMemoryAttachmentStore()),
                                 aggregateIdGenerator = { newAggId },
                                 conflictedNoteTitleSuffix = " (conflict)"
                         ),
@@ -71,6 +72,8 @@ internal class SynchronizationIT {
         every { remoteCommandExecutor.execute(any(), any()) }.returns(CommandExecutor.ExecutionResult.Success(
                 newEventMetadata = null
         ))
+        every { localCommandExecutor.executeAll(any(), any()) }.answers { CommandExecutor.executeOneByOne(localCommandExecutor, firstArg(), secondArg()) }
+        every { remoteCommandExecutor.executeAll(any(), any()) }.answers { CommandExecutor.executeOneByOne(remoteCommandExecutor, firstArg(), secondArg()) }
         initialState = SynchronizerState.create()
     }
 
@@ -117,6 +120,7 @@ internal class SynchronizationIT {
 
         // Then
         verifySequence {
+            remoteCommandExecutor.executeAll(listOf(newNoteCommand1.first, newNoteCommand2.first, newNoteCommand3.first, newNoteCommand4.first, newNoteCommand5.first), newNoteCommand1.second)
             remoteCommandExecutor.execute(newNoteCommand1.first, newNoteCommand1.second)
             remoteCommandExecutor.execute(newNoteCommand2.first, newNoteCommand2.second)
             remoteCommandExecutor.execute(newNoteCommand3.first, newNoteCommand3.second)
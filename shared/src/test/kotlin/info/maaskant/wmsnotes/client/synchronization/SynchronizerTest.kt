@@ -4,7 +4,10 @@ import assertk.assertThat
 import assertk.assertions.doesNotContain
 import assertk.assertions.isEmpty
 import assertk.assertions.isEqualTo
+import assertk.assertions.isInstanceOf
 import assertk.assertions.isNull
+import assertk.assertions.isTrue
+import info.maaskant.wmsnotes.client.synchronization.commandexecutor.AsyncCommandExecutor
 import info.maaskant.wmsnotes.client.synchronization.commandexecutor.CommandExecutor
 import info.maaskant.wmsnotes.client.synchronization.eventrepository.ModifiableEventRepository
 import info.maaskant.wmsnotes.client.synchronization.strategy.SynchronizationStrategy
@@ -20,8 +23,16 @@ import io.mockk.*
 import io.reactivex.Observable
 import io.reactivex.observers.TestObserver
 import io.reactivex.rxkotlin.toObservable
+import io.reactivex.schedulers.Schedulers
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
 
 internal class SynchronizerTest {
     private val aggId1 = "n-10000000-0000-0000-0000-000000000000"
@@ -48,6 +59,8 @@ internal class SynchronizerTest {
         )
         every { localCommandExecutor.execute(any(), any()) }.returns(CommandExecutor.ExecutionResult.Failure(CommandError.OtherError("Test")))
         every { remoteCommandExecutor.execute(any(), any()) }.returns(CommandExecutor.ExecutionResult.Failure(CommandError.OtherError("Test")))
+        every { localCommandExecutor.executeAll(any(), any()) }.answers { CommandExecutor.executeOneByOne(localCommandExecutor, firstArg(), secondArg()) }
+        every { remoteCommandExecutor.executeAll(any(), any()) }.answers { CommandExecutor.executeOneByOne(remoteCommandExecutor, firstArg(), secondArg()) }
         every { localEvents.removeEvent(any()) }.just(Runs)
         every { remoteEvents.removeEvent(any()) }.just(Runs)
         initialState = SynchronizerState.create()
@@ -102,6 +115,32 @@ internal class SynchronizerTest {
         assertThat(finalState.lastSynchronizedLocalRevisions[aggId1]).isNull()
     }
 
+    @Test
+    fun `state changes`() {
+        // Given
+        val localEvent: Event = modelEvent(eventId = 11, aggId = aggId1, revision = 1)
+        val remoteEvent: Event = modelEvent(eventId = 1, aggId = aggId1, revision = 11)
+        every { localEvents.getEvents() }.returns(Observable.just(localEvent))
+        every { remoteEvents.getEvents() }.returns(Observable.just(remoteEvent))
+        every { synchronizationStrategy.resolve(any(), any(), any()) }.returns(NoSolution)
+        val s = createSynchronizer()
+        val changesObserver = s.getStateChanges().test()
+
+        // When
+        s.synchronize()
+
+        // Then
+        val stateChanges = changesObserver.values().single()
+        assertThat(stateChanges.changes).isEqualTo(listOf(
+                SynchronizerState.Change.LastKnownLocalRevisionUpdated(aggId1, localEvent.revision),
+                SynchronizerState.Change.LastKnownRemoteRevisionUpdated(aggId1, remoteEvent.revision)
+        ))
+        assertThat(stateChanges.state).isEqualTo(initialState
+                .updateLastKnownLocalRevision(aggId1, localEvent.revision)
+                .updateLastKnownRemoteRevision(aggId1, remoteEvent.revision)
+        )
+    }
+
     @Test
     fun `one note, only local events`() {
         // Given
@@ -150,6 +189,7 @@ internal class SynchronizerTest {
         verifySequence {
             localEvents.getEvents()
             remoteEvents.getEvents()
+            remoteCommandExecutor.executeAll(any(), any())
             remoteCommandExecutor.execute(commandForLocalEvent1.first, lastRevision = commandForLocalEvent1.second)
             remoteCommandExecutor.execute(commandForLocalEvent2.first, lastRevision = commandForLocalEvent2.second)
             localEvents.removeEvent(compensatedLocalEvent1)
@@ -287,6 +327,7 @@ internal class SynchronizerTest {
         verifySequence {
             localEvents.getEvents()
             remoteEvents.getEvents()
+            remoteCommandExecutor.executeAll(any(), any())
             remoteCommandExecutor.execute(commandForLocalEvent1.first, lastRevision = commandForLocalEvent1.second)
             remoteCommandExecutor.execute(commandForLocalEvent2.first, lastRevision = commandForLocalEvent2.second)
             localCommandExecutor.execute(commandForRemoteEvent1.first, lastRevision = commandForRemoteEvent1.second)
@@ -368,6 +409,7 @@ internal class SynchronizerTest {
         verifySequence {
             localEvents.getEvents()
             remoteEvents.getEvents()
+            remoteCommandExecutor.executeAll(any(), any())
             remoteCommandExecutor.execute(commandForLocalEvent1.first, lastRevision = commandForLocalEvent1.second)
             remoteCommandExecutor.execute(commandForLocalEvent2.first, lastRevision = commandForLocalEvent2.second)
             localCommandExecutor.execute(commandForRemoteEvent1.first, lastRevision = commandForRemoteEvent1.second)
@@ -451,6 +493,7 @@ internal class SynchronizerTest {
         verifySequence {
             localEvents.getEvents()
             remoteEvents.getEvents()
+            remoteCommandExecutor.executeAll(any(), any())
             remoteCommandExecutor.execute(commandForLocalEvent1.first, lastRevision = commandForLocalEvent1.second)
         }
         verify(exactly = 0) {
@@ -618,10 +661,12 @@ internal class SynchronizerTest {
         verifySequence {
             localEvents.getEvents()
             remoteEvents.getEvents()
+            remoteCommandExecutor.executeAll(any(), any())
             remoteCommandExecutor.execute(commandForLocalEvent1.first, lastRevision = commandForLocalEvent1.second)
             localCommandExecutor.execute(commandForRemoteEvent1.first, lastRevision = commandForRemoteEvent1.second)
             remoteEvents.removeEvent(compensatedRemoteEvent1)
             localEvents.removeEvent(compensatedLocalEvent1)
+            remoteCommandExecutor.executeAll(any(), any())
             remoteCommandExecutor.execute(commandForLocalEvent2.first, lastRevision = commandForLocalEvent2.second)
             localCommandExecutor.execute(commandForRemoteEvent2.first, lastRevision = commandForRemoteEvent2.second)
             remoteEvents.removeEvent(compensatedRemoteEvent2)
@@ -715,8 +760,10 @@ internal class SynchronizerTest {
         verifySequence {
             localEvents.getEvents()
             remoteEvents.getEvents()
+            remoteCommandExecutor.executeAll(any(), any())
             remoteCommandExecutor.execute(commandForLocalEvent1.first, lastRevision = commandForLocalEvent1.second)
             localCommandExecutor.execute(commandForRemoteEvent1.first, lastRevision = commandForRemoteEvent1.second)
+            remoteCommandExecutor.executeAll(any(), any())
             remoteCommandExecutor.execute(commandForLocalEvent2.first, lastRevision = commandForLocalEvent2.second)
             localCommandExecutor.execute(commandForRemoteEvent2.first, lastRevision = commandForRemoteEvent2.second)
             remoteEvents.removeEvent(compensatedRemoteEvent2)
@@ -814,7 +861,9 @@ internal class SynchronizerTest {
         verifySequence {
             localEvents.getEvents()
             remoteEvents.getEvents()
+            remoteCommandExecutor.executeAll(any(), any())
             remoteCommandExecutor.execute(commandForLocalEvent1.first, lastRevision = commandForLocalEvent1.second)
+            remoteCommandExecutor.executeAll(any(), any())
             remoteCommandExecutor.execute(commandForLocalEvent2.first, lastRevision = commandForLocalEvent2.second)
             localCommandExecutor.execute(commandForRemoteEvent2.first, lastRevision = commandForRemoteEvent2.second)
             remoteEvents.removeEvent(compensatedRemoteEvent2)
@@ -886,6 +935,7 @@ internal class SynchronizerTest {
         verifySequence {
             localEvents.getEvents()
             remoteEvents.getEvents()
+            remoteCommandExecutor.executeAll(any(), any())
             remoteCommandExecutor.execute(commandForLocalEvent1.first, lastRevision = commandForLocalEvent1.second)
             localCommandExecutor.execute(commandForRemoteEvent1.first, lastRevision = commandForRemoteEvent1.second)
             remoteEvents.removeEvent(compensatedRemoteEvent1)
@@ -900,9 +950,383 @@ internal class SynchronizerTest {
         assertThat(finalState.remoteEventIdsToIgnore).doesNotContain(newRemoteEventForLocalEvent1.eventId)
     }
 
+    @Test
+    fun `multiple notes, resolved in parallel`() {
+        // Given
+        val localEvent1: Event = modelEvent(eventId = 11, aggId = aggId1, revision = 1)
+        val localEvent2: Event = modelEvent(eventId = 12, aggId = aggId2, revision = 1)
+        givenLocalEvents(localEvent1, localEvent2)
+        givenRemoteEvents()
+        val resolving = CountDownLatch(2)
+        val resolvedConcurrently = AtomicInteger()
+        every { synchronizationStrategy.resolve(any(), any(), any()) }.answers {
+            resolving.countDown()
+            if (resolving.await(5, TimeUnit.SECONDS)) resolvedConcurrently.incrementAndGet()
+            NoSolution
+        }
+        val s = Synchronizer(
+                localEvents,
+                remoteEvents,
+                synchronizationStrategy,
+                eventToCommandMapper,
+                localCommandExecutor,
+                remoteCommandExecutor,
+                initialState,
+                scheduler = Schedulers.io(),
+                parallelism = 2
+        )
+
+        // When
+        s.synchronize()
+
+        // Then
+        assertThat(resolvedConcurrently.get()).isEqualTo(2)
+        verify {
+            synchronizationStrategy.resolve(aggId1, listOf(localEvent1), emptyList())
+            synchronizationStrategy.resolve(aggId2, listOf(localEvent2), emptyList())
+        }
+    }
+
+    @Test
+    fun `multiple notes, remote commands pipelined`() {
+        // Given
+        val compensatedLocalEvent1 = modelEvent(eventId = 11, aggId = aggId1, revision = 1)
+        val compensatedLocalEvent2 = modelEvent(eventId = 12, aggId = aggId2, revision = 1)
+        val compensatingEventForLocalEvent1 = modelEvent(eventId = -1, aggId = aggId1, revision = 0)
+        val compensatingEventForLocalEvent2 = modelEvent(eventId = -2, aggId = aggId2, revision = 0)
+        val newRemoteEventForLocalEvent1 = modelEvent(eventId = 3, aggId = aggId1, revision = 1)
+        val newRemoteEventForLocalEvent2 = modelEvent(eventId = 4, aggId = aggId2, revision = 1)
+        givenLocalEvents(compensatedLocalEvent1, compensatedLocalEvent2)
+        givenRemoteEvents()
+        every { synchronizationStrategy.resolve(aggId1, any(), any()) }.returns(Solution(
+                compensatedLocalEvents = listOf(compensatedLocalEvent1),
+                compensatedRemoteEvents = emptyList(),
+                newLocalEvents = emptyList(),
+                newRemoteEvents = listOf(compensatingEventForLocalEvent1)
+        ))
+        every { synchronizationStrategy.resolve(aggId2, any(), any()) }.returns(Solution(
+                compensatedLocalEvents = listOf(compensatedLocalEvent2),
+                compensatedRemoteEvents = emptyList(),
+                newLocalEvents = emptyList(),
+                newRemoteEvents = listOf(compensatingEventForLocalEvent2)
+        ))
+        val command1 = modelCommand(aggId1)
+        val command2 = modelCommand(aggId2)
+        every { eventToCommandMapper.map(compensatingEventForLocalEvent1) }.returns(command1)
+        every { eventToCommandMapper.map(compensatingEventForLocalEvent2) }.returns(command2)
+        val asyncRemoteCommandExecutor: AsyncCommandExecutor = mockk()
+        val pendingResults = mapOf(
+                command1 to CompletableFuture<List<CommandExecutor.ExecutionResult>>(),
+                command2 to CompletableFuture<List<CommandExecutor.ExecutionResult>>()
+        )
+        val submitted = CountDownLatch(2)
+        every { asyncRemoteCommandExecutor.executeAllAsync(any(), 0) }.answers {
+            submitted.countDown()
+            pendingResults.getValue(firstArg<List<Command>>().single())
+        }
+        val submittedConcurrently = AtomicBoolean()
+        thread {
+            submittedConcurrently.set(submitted.await(5, TimeUnit.SECONDS))
+            pendingResults.getValue(command2).complete(listOf(CommandExecutor.ExecutionResult.Success(CommandExecutor.EventMetadata(newRemoteEventForLocalEvent2))))
+            pendingResults.getValue(command1).complete(listOf(CommandExecutor.ExecutionResult.Success(CommandExecutor.EventMetadata(newRemoteEventForLocalEvent1))))
+        }
+        val s = Synchronizer(
+                localEvents,
+                remoteEvents,
+                synchronizationStrategy,
+                eventToCommandMapper,
+                localCommandExecutor,
+                asyncRemoteCommandExecutor,
+                initialState,
+                maxRemoteExecutionsInFlight = 2
+        )
+        val stateObserver = s.getStateUpdates().test()
+
+        // When
+        val result = s.synchronize()
+
+        // Then
+        assertThat(result).isEqualTo(SynchronizationResult(emptyList()))
+        assertThat(submittedConcurrently.get()).isTrue()
+        verify {
+            localEvents.removeEvent(compensatedLocalEvent1)
+            localEvents.removeEvent(compensatedLocalEvent2)
+        }
+        val finalState = stateObserver.values().last()
+        assertThat(finalState.lastKnownRemoteRevisions[aggId1]).isEqualTo(newRemoteEventForLocalEvent1.revision)
+        assertThat(finalState.lastKnownRemoteRevisions[aggId2]).isEqualTo(newRemoteEventForLocalEvent2.revision)
+        assertThat(finalState.lastSynchronizedLocalRevisions[aggId1]).isEqualTo(compensatedLocalEvent1.revision)
+        assertThat(finalState.lastSynchronizedLocalRevisions[aggId2]).isEqualTo(compensatedLocalEvent2.revision)
+    }
+
+    @Test
+    fun `multiple notes, remote commands pipelined, one solution throws`() {
+        // Given
+        val compensatedLocalEvent1 = modelEvent(eventId = 11, aggId = aggId1, revision = 1)
+        val compensatedLocalEvent2 = modelEvent(eventId = 12, aggId = aggId2, revision = 1)
+        val compensatingEventForLocalEvent1 = modelEvent(eventId = -1, aggId = aggId1, revision = 0)
+        val compensatingEventForLocalEvent2 = modelEvent(eventId = -2, aggId = aggId2, revision = 0)
+        val newRemoteEventForLocalEvent2 = modelEvent(eventId = 4, aggId = aggId2, revision = 1)
+        givenLocalEvents(compensatedLocalEvent1, compensatedLocalEvent2)
+        givenRemoteEvents()
+        every { synchronizationStrategy.resolve(aggId1, any(), any()) }.returns(Solution(
+                compensatedLocalEvents = listOf(compensatedLocalEvent1),
+                compensatedRemoteEvents = emptyList(),
+                newLocalEvents = emptyList(),
+                newRemoteEvents = listOf(compensatingEventForLocalEvent1)
+        ))
+        every { synchronizationStrategy.resolve(aggId2, any(), any()) }.returns(Solution(
+                compensatedLocalEvents = listOf(compensatedLocalEvent2),
+                compensatedRemoteEvents = emptyList(),
+                newLocalEvents = emptyList(),
+                newRemoteEvents = listOf(compensatingEventForLocalEvent2)
+        ))
+        val command1 = modelCommand(aggId1)
+        val command2 = modelCommand(aggId2)
+        every { eventToCommandMapper.map(compensatingEventForLocalEvent1) }.returns(command1)
+        every { eventToCommandMapper.map(compensatingEventForLocalEvent2) }.returns(command2)
+        val asyncRemoteCommandExecutor: AsyncCommandExecutor = mockk()
+        val pendingResults = mapOf(
+                command1 to CompletableFuture<List<CommandExecutor.ExecutionResult>>(),
+                command2 to CompletableFuture<List<CommandExecutor.ExecutionResult>>()
+        )
+        val submitted = CountDownLatch(2)
+        every { asyncRemoteCommandExecutor.executeAllAsync(any(), 0) }.answers {
+            submitted.countDown()
+            pendingResults.getValue(firstArg<List<Command>>().single())
+        }
+        thread {
+            submitted.await(5, TimeUnit.SECONDS)
+            pendingResults.getValue(command1).completeExceptionally(RuntimeException("Test"))
+            pendingResults.getValue(command2).complete(listOf(CommandExecutor.ExecutionResult.Success(CommandExecutor.EventMetadata(newRemoteEventForLocalEvent2))))
+        }
+        val s = Synchronizer(
+                localEvents,
+                remoteEvents,
+                synchronizationStrategy,
+                eventToCommandMapper,
+                localCommandExecutor,
+                asyncRemoteCommandExecutor,
+                initialState,
+                maxRemoteExecutionsInFlight = 2
+        )
+        val stateObserver = s.getStateUpdates().test()
+
+        // When
+        val result = s.synchronize()
+
+        // Then
+        assertThat(result.errors.map { it.first }).isEqualTo(listOf(aggId1))
+        assertThat(result.errors.single().second).isInstanceOf(CommandError.OtherError::class)
+        verify(exactly = 0) { localEvents.removeEvent(compensatedLocalEvent1) }
+        verify { localEvents.removeEvent(compensatedLocalEvent2) }
+        val finalState = stateObserver.values().last()
+        assertThat(finalState.lastKnownRemoteRevisions[aggId1]).isNull()
+        assertThat(finalState.lastKnownRemoteRevisions[aggId2]).isEqualTo(newRemoteEventForLocalEvent2.revision)
+        assertThat(finalState.remoteEventIdsToIgnore).isEqualTo(setOf(newRemoteEventForLocalEvent2.eventId))
+    }
+
+    @Test
+    fun `one note, later remote command runs started on synchronizing thread`() {
+        // Given
+        val compensatedLocalEvent1 = modelEvent(eventId = 11, aggId = aggId1, revision = 1)
+        val compensatingEventForLocalEvent1 = modelEvent(eventId = -1, aggId = aggId1, revision = 0)
+        val compensatingEventForLocalEvent2 = modelEvent(eventId = -2, aggId = aggId2, revision = 0)
+        val newRemoteEventForLocalEvent1 = modelEvent(eventId = 3, aggId = aggId1, revision = 1)
+        val newRemoteEventForLocalEvent2 = modelEvent(eventId = 4, aggId = aggId2, revision = 1)
+        givenLocalEvents(compensatedLocalEvent1)
+        givenRemoteEvents()
+        every { synchronizationStrategy.resolve(aggId1, any(), any()) }.returns(Solution(
+                compensatedLocalEvents = listOf(compensatedLocalEvent1),
+                compensatedRemoteEvents = emptyList(),
+                newLocalEvents = emptyList(),
+                newRemoteEvents = listOf(compensatingEventForLocalEvent1, compensatingEventForLocalEvent2)
+        ))
+        val command1 = modelCommand(aggId1)
+        val command2 = modelCommand(aggId2)
+        every { eventToCommandMapper.map(compensatingEventForLocalEvent1) }.returns(command1)
+        every { eventToCommandMapper.map(compensatingEventForLocalEvent2) }.returns(command2)
+        val asyncRemoteCommandExecutor: AsyncCommandExecutor = mockk()
+        val callingThreads = mutableListOf<Thread>()
+        every { asyncRemoteCommandExecutor.executeAllAsync(listOf(command1), 0) }.answers {
+            callingThreads += Thread.currentThread()
+            CompletableFuture<List<CommandExecutor.ExecutionResult>>().also {
+                thread { it.complete(listOf(CommandExecutor.ExecutionResult.Success(CommandExecutor.EventMetadata(newRemoteEventForLocalEvent1)))) }
+            }
+        }
+        every { asyncRemoteCommandExecutor.executeAllAsync(listOf(command2), 0) }.answers {
+            callingThreads += Thread.currentThread()
+            CompletableFuture.completedFuture(listOf(CommandExecutor.ExecutionResult.Success(CommandExecutor.EventMetadata(newRemoteEventForLocalEvent2))))
+        }
+        val s = Synchronizer(
+                localEvents,
+                remoteEvents,
+                synchronizationStrategy,
+                eventToCommandMapper,
+                localCommandExecutor,
+                asyncRemoteCommandExecutor,
+                initialState
+        )
+
+        // When
+        val result = s.synchronize()
+
+        // Then
+        assertThat(result).isEqualTo(SynchronizationResult(emptyList()))
+        assertThat(callingThreads).isEqualTo(listOf(Thread.currentThread(), Thread.currentThread()))
+    }
+
+    @Test
+    fun `maximum number of remote executions in flight must be positive`() {
+        assertThrows<IllegalArgumentException> {
+            Synchronizer(
+                    localEvents,
+                    remoteEvents,
+                    synchronizationStrategy,
+                    eventToCommandMapper,
+                    localCommandExecutor,
+                    remoteCommandExecutor,
+                    initialState,
+                    maxRemoteExecutionsInFlight = 0
+            )
+        }
+    }
+
+    @Test
+    fun `incremental, synchronization without new events does not read events`() {
+        // Given
+        givenLocalEvents()
+        givenRemoteEvents()
+        val s = createSynchronizer(dirtyAggregates = DirtyAggregates())
+        s.synchronize()
+
+        // When
+        val result = s.synchronize()
+
+        // Then
+        assertThat(result).isEqualTo(SynchronizationResult(emptyList()))
+        verify(exactly = 1) {
+            localEvents.getEvents()
+            remoteEvents.getEvents()
+        }
+        verify(exactly = 0) {
+            localEvents.getEventsOfAggregate(any())
+            remoteEvents.getEventsOfAggregate(any())
+        }
+    }
+
+    @Test
+    fun `incremental, only read events of dirty aggregates`() {
+        // Given
+        val localEvent: Event = modelEvent(eventId = 11, aggId = aggId1, revision = 1)
+        val remoteEvent: Event = modelEvent(eventId = 1, aggId = aggId1, revision = 11)
+        givenLocalEvents()
+        givenRemoteEvents()
+        every { localEvents.getEventsOfAggregate(aggId1) }.returns(Observable.just(localEvent))
+        every { remoteEvents.getEventsOfAggregate(aggId1) }.returns(Observable.just(remoteEvent))
+        every { synchronizationStrategy.resolve(any(), any(), any()) }.returns(NoSolution)
+        val dirtyAggregates = DirtyAggregates()
+        val s = createSynchronizer(dirtyAggregates = dirtyAggregates)
+        s.synchronize()
+        dirtyAggregates.add(aggId1)
+
+        // When
+        s.synchronize()
+
+        // Then
+        verifySequence {
+            localEvents.getEvents()
+            remoteEvents.getEvents()
+            localEvents.getEventsOfAggregate(aggId1)
+            remoteEvents.getEventsOfAggregate(aggId1)
+        }
+        verify {
+            synchronizationStrategy.resolve(aggId1, listOf(localEvent), listOf(remoteEvent))
+        }
+        assertThat(dirtyAggregates.takeAll()).isEmpty()
+    }
+
+    @Test
+    fun `incremental, aggregates are dirty again if executing a command fails`() {
+        // Given
+        val compensatedLocalEvent = modelEvent(eventId = 11, aggId = aggId1, revision = 1)
+        val compensatingEventForLocalEvent = modelEvent(eventId = -1, aggId = aggId1, revision = 0)
+        givenLocalEvents(compensatedLocalEvent)
+        givenRemoteEvents()
+        every {
+            synchronizationStrategy.resolve(
+                    aggId = aggId1,
+                    localEvents = listOf(compensatedLocalEvent),
+                    remoteEvents = emptyList()
+            )
+        }.returns(Solution(
+                compensatedLocalEvents = listOf(compensatedLocalEvent),
+                compensatedRemoteEvents = emptyList(),
+                newLocalEvents = emptyList(),
+                newRemoteEvents = listOf(compensatingEventForLocalEvent)
+        ))
+        givenTheFailedExecutionOfACompensatingEvent(
+                compensatingEvent = compensatingEventForLocalEvent,
+                lastRevision = 0,
+                commandExecutor = remoteCommandExecutor
+        )
+        val dirtyAggregates = DirtyAggregates()
+        val s = createSynchronizer(dirtyAggregates = dirtyAggregates)
+
+        // When
+        val result = s.synchronize()
+
+        // Then
+        assertThat(result).isEqualTo(SynchronizationResult(listOf(aggId1 to commandError)))
+        assertThat(dirtyAggregates.takeAll()).isEqualTo(setOf(aggId1))
+    }
+
+    @Test
+    fun `incremental, aggregates without a valid solution are retried with a backoff`() {
+        // Given
+        val localEvent1 = modelEvent(eventId = 11, aggId = aggId1, revision = 1)
+        val localEvent2 = modelEvent(eventId = 12, aggId = aggId2, revision = 1)
+        givenLocalEvents(localEvent1, localEvent2)
+        givenRemoteEvents()
+        every { localEvents.getEventsOfAggregate(aggId1) }.returns(Observable.just(localEvent1))
+        every { localEvents.getEventsOfAggregate(aggId2) }.returns(Observable.just(localEvent2))
+        every { remoteEvents.getEventsOfAggregate(any()) }.returns(Observable.empty())
+        every { synchronizationStrategy.resolve(aggId1, any(), any()) }.returns(NoSolution)
+        every { synchronizationStrategy.resolve(aggId2, any(), any()) }.returns(Solution(
+                compensatedLocalEvents = emptyList(),
+                compensatedRemoteEvents = emptyList(),
+                newLocalEvents = emptyList(),
+                newRemoteEvents = emptyList()
+        ))
+        val dirtyAggregates = DirtyAggregates()
+        val s = createSynchronizer(dirtyAggregates = dirtyAggregates)
+
+        // When
+        val results = (1..4).map { s.synchronize() } // Retried in the second and fourth synchronization
+
+        // Then
+        assertThat(results).isEqualTo(List(4) { SynchronizationResult(emptyList()) })
+        verify(exactly = 1) {
+            localEvents.getEvents()
+            remoteEvents.getEvents()
+        }
+        verify(exactly = 2) {
+            localEvents.getEventsOfAggregate(aggId1)
+            localEvents.getEventsOfAggregate(aggId2)
+            remoteEvents.getEventsOfAggregate(aggId1)
+            remoteEvents.getEventsOfAggregate(aggId2)
+        }
+        verify(exactly = 3) {
+            synchronizationStrategy.resolve(aggId1, any(), any())
+            synchronizationStrategy.resolve(aggId2, any(), any())
+        }
+        assertThat(dirtyAggregates.takeAll()).isEmpty()
+    }
+
     private fun createSynchronizer(
             localEvents: ModifiableEventRepository = this.localEvents,
-            remoteEvents: ModifiableEventRepository = this.remoteEvents
+            remoteEvents: ModifiableEventRepository = this.remoteEvents,
+            dirtyAggregates: DirtyAggregates? = null
     ) =
             Synchronizer(
                     localEvents,
@@ -911,7 +1335,8 @@ internal class SynchronizerTest {
                     eventToCommandMapper,
                     localCommandExecutor,
                     remoteCommandExecutor,
-                    initialState
+                    initialState,
+                    dirtyAggregates
             )
 
     private fun givenLocalEvents(vararg events: Event) {
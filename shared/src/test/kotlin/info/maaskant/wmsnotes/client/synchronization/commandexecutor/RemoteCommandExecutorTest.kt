@@ -2,14 +2,22 @@ package info.maaskant.wmsnotes.client.synchronization.commandexecutor
 
 import assertk.assertThat
 import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
 import assertk.assertions.isInstanceOf
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.SettableFuture
+import info.maaskant.wmsnotes.client.api.AttachmentTransferClient
 import info.maaskant.wmsnotes.client.api.GrpcCommandMapper
 import info.maaskant.wmsnotes.model.Command
 import info.maaskant.wmsnotes.model.CommandError
 import info.maaskant.wmsnotes.model.Event
 import info.maaskant.wmsnotes.model.Path
+import info.maaskant.wmsnotes.model.note.AddAttachmentCommand
 import info.maaskant.wmsnotes.model.note.CreateNoteCommand
 import info.maaskant.wmsnotes.model.note.NoteCreatedEvent
+import info.maaskant.wmsnotes.server.command.grpc.Command.PostCommandsRequest
+import info.maaskant.wmsnotes.server.command.grpc.Command.PostCommandsResponse
 import info.maaskant.wmsnotes.server.command.grpc.CommandServiceGrpc
 import info.maaskant.wmsnotes.testutilities.ExecutionResultAssertions.asFailure
 import info.maaskant.wmsnotes.testutilities.ExecutionResultAssertions.isFailure
@@ -18,6 +26,7 @@ import io.grpc.Status
 import io.mockk.clearMocks
 import io.mockk.every
 import io.mockk.mockk
+import io.mockk.verify
 import io.mockk.verifySequence
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.DynamicTest
@@ -28,16 +37,21 @@ import java.util.concurrent.TimeUnit
 @Suppress("SameParameterValue")
 internal class RemoteCommandExecutorTest {
     private val grpcCommandService: CommandServiceGrpc.CommandServiceBlockingStub = mockk()
+    private val asyncGrpcCommandService: CommandServiceGrpc.CommandServiceFutureStub = mockk()
     private val grpcCommandMapper: GrpcCommandMapper = mockk()
+    private val attachmentTransferClient: AttachmentTransferClient = mockk()
     private val grpcDeadline = Deadline.after(1, TimeUnit.SECONDS)
 
     @BeforeEach
     fun init() {
         clearMocks(
                 grpcCommandService,
-                grpcCommandMapper
+                asyncGrpcCommandService,
+                grpcCommandMapper,
+                attachmentTransferClient
         )
         every { grpcCommandService.withDeadline(any()) }.returns(grpcCommandService)
+        every { asyncGrpcCommandService.withDeadlineAfter(any(), any()) }.returns(asyncGrpcCommandService)
     }
 
     @Test
@@ -83,6 +97,44 @@ internal class RemoteCommandExecutorTest {
         }
     }
 
+    @Test
+    fun `add attachment, upload content first`() {
+        // Given
+        val lastRevision = 10
+        val command = AddAttachmentCommand(aggId = "note-1", name = "att", content = "data".toByteArray())
+        val remoteRequest = givenACommandIsSuccessful(command, lastRevision, null)
+        every { attachmentTransferClient.upload(command.content) }.returns("hash")
+        val executor = createExecutor()
+
+        // When
+        val result = executor.execute(command, lastRevision)
+
+        // Then
+        assertThat(result).isEqualTo(CommandExecutor.ExecutionResult.Success(newEventMetadata = null))
+        verifySequence {
+            grpcCommandService.withDeadline(grpcDeadline)
+            attachmentTransferClient.upload(command.content)
+            grpcCommandService.postCommand(remoteRequest)
+        }
+    }
+
+    @Test
+    fun `add attachment, upload fails`() {
+        // Given
+        val lastRevision = 10
+        val command = AddAttachmentCommand(aggId = "note-1", name = "att", content = "data".toByteArray())
+        givenACommandIsSuccessful(command, lastRevision, null)
+        every { attachmentTransferClient.upload(command.content) }.throws(Status.UNAVAILABLE.asRuntimeException())
+        val executor = createExecutor()
+
+        // When
+        val result = executor.execute(command, lastRevision)
+
+        // Then
+        assertThat(result).isFailure()
+        verify(exactly = 0) { grpcCommandService.postCommand(any()) }
+    }
+
     @Test
     fun `success, but missing aggregate id`() {
         // Given
@@ -170,11 +222,219 @@ internal class RemoteCommandExecutorTest {
         assertThat(result).asFailure().isInstanceOf(CommandError.OtherError::class)
     }
 
-    private fun createExecutor() =
+    @Test
+    fun `execute all, success`() {
+        // Given
+        val lastRevision = 10
+        val command1 = modelCommand(aggId = 1)
+        val command2 = modelCommand(aggId = 1)
+        val event1 = modelEvent(eventId = 5, aggId = 1, revision = 11)
+        val remoteRequest = givenCommandsResponse(listOf(command1, command2), lastRevision, listOf(
+                remoteResult(remoteSuccess(event1)),
+                remoteResult(remoteSuccess(null))
+        ))
+        val executor = createExecutor()
+
+        // When
+        val results = executor.executeAll(listOf(command1, command2), lastRevision)
+
+        // Then
+        assertThat(results).isEqualTo(listOf(
+                CommandExecutor.ExecutionResult.Success(newEventMetadata = CommandExecutor.EventMetadata(event1)),
+                CommandExecutor.ExecutionResult.Success(newEventMetadata = null)
+        ))
+        verifySequence {
+            grpcCommandService.withDeadline(grpcDeadline)
+            grpcCommandService.postCommands(remoteRequest)
+        }
+    }
+
+    @Test
+    fun `execute all, stop at first failure`() {
+        // Given
+        val lastRevision = 10
+        val command1 = modelCommand(aggId = 1)
+        val command2 = modelCommand(aggId = 1)
+        val command3 = modelCommand(aggId = 1)
+        val event1 = modelEvent(eventId = 5, aggId = 1, revision = 11)
+        givenCommandsResponse(listOf(command1, command2, command3), lastRevision, listOf(
+                remoteResult(remoteSuccess(event1)),
+                remoteResult(remoteFailure(Status.FAILED_PRECONDITION)),
+                remoteResult(remoteFailure(Status.ABORTED))
+        ))
+        val executor = createExecutor()
+
+        // When
+        val results = executor.executeAll(listOf(command1, command2, command3), lastRevision)
+
+        // Then
+        assertThat(results.size).isEqualTo(2)
+        assertThat(results[0]).isEqualTo(CommandExecutor.ExecutionResult.Success(newEventMetadata = CommandExecutor.EventMetadata(event1)))
+        assertThat(results[1]).asFailure().isInstanceOf(CommandError.IllegalStateError::class)
+    }
+
+    @Test
+    fun `execute all, multiple batches`() {
+        // Given
+        val lastRevision = 10
+        val commands = (1..RemoteCommandExecutor.maxBatchSize + 1).map { modelCommand(aggId = it) }
+        val events = commands.indices.map { modelEvent(eventId = it + 1, aggId = it + 1, revision = lastRevision + it + 1) }
+        val remoteRequest1 = givenCommandsResponse(commands.take(RemoteCommandExecutor.maxBatchSize), lastRevision,
+                events.take(RemoteCommandExecutor.maxBatchSize).map { remoteResult(remoteSuccess(it)) })
+        val remoteRequest2 = givenCommandsResponse(commands.drop(RemoteCommandExecutor.maxBatchSize), lastRevision + RemoteCommandExecutor.maxBatchSize,
+                events.drop(RemoteCommandExecutor.maxBatchSize).map { remoteResult(remoteSuccess(it)) })
+        val executor = createExecutor()
+
+        // When
+        val results = executor.executeAll(commands, lastRevision)
+
+        // Then
+        assertThat(results).isEqualTo(events.map { CommandExecutor.ExecutionResult.Success(newEventMetadata = CommandExecutor.EventMetadata(it)) })
+        verifySequence {
+            grpcCommandService.withDeadline(grpcDeadline)
+            grpcCommandService.postCommands(remoteRequest1)
+            grpcCommandService.postCommands(remoteRequest2)
+        }
+    }
+
+    @Test
+    fun `execute all, failure, remote`() {
+        // Given
+        val lastRevision = 10
+        val command = modelCommand(aggId = 1)
+        every { grpcCommandMapper.toGrpcPostCommandRequest(command, lastRevision) }.returns(remoteRequest(command))
+        every { grpcCommandService.postCommands(any()) }.throws(Status.UNAVAILABLE.asRuntimeException())
+        val executor = createExecutor()
+
+        // When
+        val results = executor.executeAll(listOf(command, command), lastRevision)
+
+        // Then
+        assertThat(results.size).isEqualTo(1)
+        assertThat(results[0]).asFailure().isInstanceOf(CommandError.NetworkError::class)
+    }
+
+    @Test
+    fun `execute all async, multiple batches`() {
+        // Given
+        val lastRevision = 10
+        val commands = (1..3).map { modelCommand(aggId = it) }
+        val events = commands.indices.map { modelEvent(eventId = it + 1, aggId = it + 1, revision = lastRevision + it + 1) }
+        val response1 = SettableFuture.create<PostCommandsResponse>()
+        val response2 = SettableFuture.create<PostCommandsResponse>()
+        val remoteRequest1 = givenAsyncCommandsResponse(commands.take(2), lastRevision, response1)
+        val remoteRequest2 = givenAsyncCommandsResponse(commands.drop(2), lastRevision + 2, response2)
+        val executor = createExecutor(asyncGrpcCommandService = asyncGrpcCommandService, batchSize = 2)
+
+        // When
+        val future = executor.executeAllAsync(commands, lastRevision)
+        val doneBeforeResponse = future.isDone
+        response1.set(PostCommandsResponse.newBuilder().addAllResults(events.take(2).map { remoteResult(remoteSuccess(it)) }).build())
+        response2.set(PostCommandsResponse.newBuilder().addAllResults(events.drop(2).map { remoteResult(remoteSuccess(it)) }).build())
+
+        // Then
+        assertThat(doneBeforeResponse).isFalse()
+        assertThat(future.get()).isEqualTo(events.map { CommandExecutor.ExecutionResult.Success(newEventMetadata = CommandExecutor.EventMetadata(it)) })
+        verifySequence {
+            asyncGrpcCommandService.withDeadlineAfter(any(), any())
+            asyncGrpcCommandService.postCommands(remoteRequest1)
+            asyncGrpcCommandService.withDeadlineAfter(any(), any())
+            asyncGrpcCommandService.postCommands(remoteRequest2)
+        }
+    }
+
+    @Test
+    fun `execute all async, deadline per call`() {
+        // Given
+        val lastRevision = 10
+        val commands = (1..2).map { modelCommand(aggId = it) }
+        val events = commands.indices.map { modelEvent(eventId = it + 1, aggId = it + 1, revision = lastRevision + it + 1) }
+        commands.zip(events).forEachIndexed { index, (command, event) ->
+            givenAsyncCommandsResponse(listOf(command), lastRevision + index, Futures.immediateFuture(PostCommandsResponse.newBuilder().addResults(remoteResult(remoteSuccess(event))).build()))
+        }
+        val executor = createExecutor(asyncGrpcCommandService = asyncGrpcCommandService, batchSize = 1, asyncCallTimeoutMillis = 1234)
+
+        // When
+        executor.executeAllAsync(commands, lastRevision).get()
+
+        // Then
+        verify(exactly = 2) { asyncGrpcCommandService.withDeadlineAfter(1234, TimeUnit.MILLISECONDS) }
+    }
+
+    @Test
+    fun `execute all async, failure, remote`() {
+        // Given
+        val lastRevision = 10
+        val command = modelCommand(aggId = 1)
+        every { grpcCommandMapper.toGrpcPostCommandRequest(command, lastRevision) }.returns(remoteRequest(command))
+        every { asyncGrpcCommandService.postCommands(any()) }.returns(Futures.immediateFailedFuture(Status.UNAVAILABLE.asRuntimeException()))
+        val executor = createExecutor(asyncGrpcCommandService = asyncGrpcCommandService, batchSize = 1)
+
+        // When
+        val results = executor.executeAllAsync(listOf(command, command), lastRevision).get()
+
+        // Then
+        assertThat(results.size).isEqualTo(1)
+        assertThat(results[0]).asFailure().isInstanceOf(CommandError.NetworkError::class)
+        verify(exactly = 1) { asyncGrpcCommandService.postCommands(any()) }
+    }
+
+    @Test
+    fun `execute all async, attachments uploaded before sending`() {
+        // Given
+        val lastRevision = 10
+        val command1 = AddAttachmentCommand(aggId = "note-1", name = "att", content = "data1".toByteArray())
+        val command2 = AddAttachmentCommand(aggId = "note-2", name = "att", content = "data2".toByteArray())
+        val event1 = modelEvent(eventId = 1, aggId = 1, revision = lastRevision + 1)
+        val event2 = modelEvent(eventId = 2, aggId = 2, revision = lastRevision + 2)
+        every { attachmentTransferClient.upload(any()) }.returns("hash")
+        val response1 = SettableFuture.create<PostCommandsResponse>()
+        givenAsyncCommandsResponse(listOf(command1), lastRevision, response1)
+        givenAsyncCommandsResponse(listOf(command2), lastRevision + 1, Futures.immediateFuture(PostCommandsResponse.newBuilder().addResults(remoteResult(remoteSuccess(event2))).build()))
+        val executor = createExecutor(asyncGrpcCommandService = asyncGrpcCommandService, batchSize = 1)
+
+        // When
+        val future = executor.executeAllAsync(listOf(command1, command2), lastRevision)
+        verify {
+            attachmentTransferClient.upload(command1.content)
+            attachmentTransferClient.upload(command2.content)
+        }
+        response1.set(PostCommandsResponse.newBuilder().addResults(remoteResult(remoteSuccess(event1))).build())
+
+        // Then
+        assertThat(future.get()).isEqualTo(listOf(event1, event2).map { CommandExecutor.ExecutionResult.Success(newEventMetadata = CommandExecutor.EventMetadata(it)) })
+    }
+
+    @Test
+    fun `execute all async, no async stub`() {
+        // Given
+        val lastRevision = 10
+        val command = modelCommand(aggId = 1)
+        val event = modelEvent(eventId = 5, aggId = 1, revision = 11)
+        val remoteRequest = givenCommandsResponse(listOf(command), lastRevision, listOf(remoteResult(remoteSuccess(event))))
+        val executor = createExecutor()
+
+        // When
+        val results = executor.executeAllAsync(listOf(command), lastRevision).get()
+
+        // Then
+        assertThat(results).isEqualTo(listOf(CommandExecutor.ExecutionResult.Success(newEventMetadata = CommandExecutor.EventMetadata(event))))
+        verify { grpcCommandService.postCommands(remoteRequest) }
+    }
+
+    private fun createExecutor(
+            asyncGrpcCommandService: CommandServiceGrpc.CommandServiceFutureStub? = null,
+            batchSize: Int = RemoteCommandExecutor.maxBatchSize,
+            asyncCallTimeoutMillis: Long = RemoteCommandExecutor.defaultAsyncCallTimeoutMillis
+    ) =
             RemoteCommandExecutor(
                     grpcCommandMapper,
                     grpcCommandService,
-                    grpcDeadline
+                    attachmentTransferClient,
+                    grpcDeadline,
+                    asyncGrpcCommandService,
+                    batchSize,
+                    asyncCallTimeoutMillis
             )
 
     private fun givenACommandFails(command: Command, lastRevision: Int, grpcStatus: Status): info.maaskant.wmsnotes.server.command.grpc.Command.PostCommandRequest {
@@ -194,6 +454,24 @@ internal class RemoteCommandExecutorTest {
         return remoteRequest
     }
 
+    private fun givenCommandsResponse(commands: List<Command>, lastRevision: Int, results: List<PostCommandsResponse.Result>): PostCommandsRequest {
+        val remoteRequests = commands.map { command ->
+            remoteRequest(command).also { every { grpcCommandMapper.toGrpcPostCommandRequest(command, lastRevision) }.returns(it) }
+        }
+        val remoteRequest = PostCommandsRequest.newBuilder().addAllCommands(remoteRequests).build()
+        every { grpcCommandService.postCommands(remoteRequest) }.returns(PostCommandsResponse.newBuilder().addAllResults(results).build())
+        return remoteRequest
+    }
+
+    private fun givenAsyncCommandsResponse(commands: List<Command>, lastRevision: Int, response: ListenableFuture<PostCommandsResponse>): PostCommandsRequest {
+        val remoteRequests = commands.map { command ->
+            remoteRequest(command).also { every { grpcCommandMapper.toGrpcPostCommandRequest(command, lastRevision) }.returns(it) }
+        }
+        val remoteRequest = PostCommandsRequest.newBuilder().addAllCommands(remoteRequests).build()
+        every { asyncGrpcCommandService.postCommands(remoteRequest) }.returns(response)
+        return remoteRequest
+    }
+
     companion object {
         internal fun modelCommand(aggId: Int): Command =
                 CreateNoteCommand("note-$aggId", path = Path("path-$aggId"), title = "Title $aggId", content = "Text $aggId")
@@ -217,5 +495,20 @@ internal class RemoteCommandExecutorTest {
                     }
                     .build()
         }
+
+        internal fun remoteRequest(command: Command): info.maaskant.wmsnotes.server.command.grpc.Command.PostCommandRequest =
+                info.maaskant.wmsnotes.server.command.grpc.Command.PostCommandRequest
+                        .newBuilder()
+                        .setAggregateId(command.aggId)
+                        .build()
+
+        internal fun remoteResult(response: info.maaskant.wmsnotes.server.command.grpc.Command.PostCommandResponse): PostCommandsResponse.Result =
+                PostCommandsResponse.Result.newBuilder().setSuccess(response).build()
+
+        internal fun remoteResult(failure: PostCommandsResponse.Failure): PostCommandsResponse.Result =
+                PostCommandsResponse.Result.newBuilder().setFailure(failure).build()
+
+        internal fun remoteFailure(status: Status): PostCommandsResponse.Failure =
+                PostCommandsResponse.Failure.newBuilder().setCode(status.code.value()).build()
     }
 }
@@ -12,7 +12,9 @@ import io.mockk.every
 import io.mockk.mockk
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import java.io.DataOutputStream
 import java.io.File
+import java.io.FileOutputStream
 
 internal class FileModifiableEventRepositoryTest : ModifiableEventRepositoryTest() {
 
@@ -23,7 +25,7 @@ internal class FileModifiableEventRepositoryTest : ModifiableEventRepositoryTest
     @BeforeEach
     fun init() {
         clearMocks(eventSerializer)
-        events.forEach {
+        (events + laterEventOfFirstNote).forEach {
             every { eventSerializer.serialize(it.first) }.returns(it.second.toByteArray())
             every { eventSerializer.deserialize(it.second.toByteArray()) }.returns(it.first)
         }
@@ -57,6 +59,55 @@ internal class FileModifiableEventRepositoryTest : ModifiableEventRepositoryTest
     }
 
 
+    @Test
+    fun `addEvents, check files`() {
+        // Given
+        val r = createInstance()
+
+        // When
+        r.addEvents(listOf(events[0].first, events[1].first))
+
+        // Then
+        assertThat(tempDir.resolve("0000000001").readBytes()).isEqualTo("DATA1".toByteArray())
+        assertThat(tempDir.resolve("0000000002").readBytes()).isEqualTo("DATA2".toByteArray())
+        assertThat(tempDir.resolve(".batch")).doesNotExist()
+    }
+
+    @Test
+    fun `addEvents, complete interrupted batch`() {
+        // Given
+        DataOutputStream(FileOutputStream(tempDir.resolve(".batch"))).use { output ->
+            output.writeInt(2)
+            output.writeInt(2)
+            listOf("DATA1", "DATA2").forEach {
+                output.writeInt(it.length)
+                output.write(it.toByteArray())
+            }
+        }
+        tempDir.resolve("0000000001").writeBytes("DATA1".toByteArray())
+
+        // When
+        val r = createInstance()
+
+        // Then
+        assertThat(r.getEvents().toList().blockingGet()).isEqualTo(listOf(events[0].first, events[1].first))
+        assertThat(r.getLastAddedEventId()).isEqualTo(2)
+        assertThat(tempDir.resolve(".batch")).doesNotExist()
+    }
+
+    @Test
+    fun `getLastAddedEventId, after restart`() {
+        // Given
+        val r1 = createInstance()
+        r1.addEvents(listOf(events[0].first, events[1].first))
+
+        // When
+        val r2 = createInstance()
+
+        // Then
+        assertThat(r2.getLastAddedEventId()).isEqualTo(2)
+    }
+
     @Test
     fun `removeEvent, check file`() {
         // Given
@@ -14,6 +14,7 @@ internal abstract class ModifiableEventRepositoryTest {
             NoteCreatedEvent(eventId = 2, aggId = "note-2", revision = 2, path = Path("p2"), title = "Title 2", content = "Text 2") to "DATA2",
             NoteCreatedEvent(eventId = 3, aggId = "note-3", revision = 3, path = Path("p3"), title = "Title 3", content = "Text 3") to "DATA3"
     )
+    protected val laterEventOfFirstNote = NoteCreatedEvent(eventId = 4, aggId = "note-1", revision = 2, path = Path("p4"), title = "Title 4", content = "Text 4") to "DATA4"
 
     @Test
     fun `addEvent, duplicate`() {
@@ -27,6 +28,70 @@ internal abstract class ModifiableEventRepositoryTest {
         }
     }
 
+    @Test
+    fun addEvents() {
+        // Given
+        val r = createInstance()
+
+        // When
+        r.addEvents(events.map { it.first })
+
+        // Then
+        assertThat(r.getEvents().toList().blockingGet()).isEqualTo(listOf(events[0].first, events[1].first, events[2].first))
+    }
+
+    @Test
+    fun `addEvents, skip events that were already added`() {
+        // Given
+        val r = createInstance()
+        r.addEvent(events[0].first)
+
+        // When
+        r.addEvents(events.map { it.first })
+
+        // Then
+        assertThat(r.getEvents().toList().blockingGet()).isEqualTo(listOf(events[0].first, events[1].first, events[2].first))
+    }
+
+    @Test
+    fun `getLastAddedEventId, initial`() {
+        // Given
+        val r = createInstance()
+
+        // When
+        val eventId = r.getLastAddedEventId()
+
+        // Then
+        assertThat(eventId).isNull()
+    }
+
+    @Test
+    fun `getLastAddedEventId, after events were added and removed`() {
+        // Given
+        val r = createInstance()
+        r.addEvents(events.map { it.first })
+
+        // When
+        r.removeEvent(events[2].first)
+
+        // Then
+        assertThat(r.getLastAddedEventId()).isEqualTo(3)
+    }
+
+    @Test
+    fun `getLastAddedEventId, events that were already added`() {
+        // Given
+        val r = createInstance()
+        r.addEvents(events.map { it.first })
+        r.addEvents(listOf(laterEventOfFirstNote.first))
+
+        // When
+        r.addEvents(listOf(events[0].first))
+
+        // Then
+        assertThat(r.getLastAddedEventId()).isEqualTo(4)
+    }
+
     @Test
     fun getEvent() {
         // Given
@@ -57,6 +122,42 @@ internal abstract class ModifiableEventRepositoryTest {
         assertThat(observer.values().toList()).isEqualTo(listOf(events[0].first, events[1].first, events[2].first))
     }
 
+    @Test
+    fun getEventsOfAggregate() {
+        // Given
+        val r = createInstance()
+        events.forEach {
+            r.addEvent(it.first)
+        }
+        r.addEvent(laterEventOfFirstNote.first)
+
+        // When
+        val observer = r.getEventsOfAggregate(events[0].first.aggId).test()
+
+        // Then
+        observer.assertComplete()
+        observer.assertNoErrors()
+        assertThat(observer.values().toList()).isEqualTo(listOf(events[0].first, laterEventOfFirstNote.first))
+    }
+
+    @Test
+    fun `getEventsOfAggregate, after adding and removing events`() {
+        // Given
+        val r = createInstance()
+        r.addEvent(events[0].first)
+        r.getEventsOfAggregate(events[0].first.aggId).test()
+        r.addEvent(laterEventOfFirstNote.first)
+        r.removeEvent(events[0].first)
+
+        // When
+        val observer = r.getEventsOfAggregate(events[0].first.aggId).test()
+
+        // Then
+        observer.assertComplete()
+        observer.assertNoErrors()
+        assertThat(observer.values().toList()).isEqualTo(listOf(laterEventOfFirstNote.first))
+    }
+
     @Test
     fun removeEvent() {
         // Given
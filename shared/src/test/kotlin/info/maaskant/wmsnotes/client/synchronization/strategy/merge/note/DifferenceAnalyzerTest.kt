@@ -135,7 +135,7 @@ internal class DifferenceAnalyzerTest {
 
         // Then
         assertThat(differences).isEqualTo(setOf(
-                AttachmentDifference(attachmentName, null, attachmentContent)
+                AttachmentDifference(attachmentName, null, Note.hash(attachmentContent))
         ))
     }
 
@@ -153,7 +153,7 @@ internal class DifferenceAnalyzerTest {
 
         // Then
         assertThat(differences).isEqualTo(setOf(
-                AttachmentDifference("att", attachmentContent, null)
+                AttachmentDifference("att", Note.hash(attachmentContent), null)
         ))
     }
 
@@ -174,7 +174,7 @@ internal class DifferenceAnalyzerTest {
 
         // Then
         assertThat(differences).isEqualTo(setOf(
-                AttachmentDifference("att", attachmentContent, differentContent)
+                AttachmentDifference("att", Note.hash(attachmentContent), Note.hash(differentContent))
         ))
     }
 
@@ -14,6 +14,8 @@ internal class DifferenceCompensatorTest {
     private val attachmentName = "att"
     private val attachmentContent1 = "data".toByteArray()
     private val attachmentContent2 = "different".toByteArray()
+    private val attachmentHash1 = Note.hash(attachmentContent1)
+    private val attachmentHash2 = Note.hash(attachmentContent2)
 
     @TestFactory
     fun existence(): List<DynamicTest> {
@@ -68,7 +70,7 @@ internal class DifferenceCompensatorTest {
                 val compensator = DifferenceCompensator()
 
                 // When
-                val events = compensator.compensate(aggId = aggId, differences = setOf(difference), target = target)
+                val events = compensator.compensate(aggId = aggId, differences = setOf(difference), target = target, attachmentContent = ::attachmentContent)
 
                 // Then
                 assertThat(events).isEqualTo(DifferenceCompensator.CompensatingEvents(
@@ -115,27 +117,27 @@ internal class DifferenceCompensatorTest {
                         listOf(TitleChangedEvent(eventId = 0, aggId = aggId, revision = 0, title = "right"))
                 ),
                 Triple(
-                        AttachmentDifference(attachmentName, attachmentContent1, null),
+                        AttachmentDifference(attachmentName, attachmentHash1, null),
                         DifferenceCompensator.Target.LEFT,
                         listOf(attachmentAddedEvent)
                 ),
                 Triple(
-                        AttachmentDifference(attachmentName, attachmentContent1, null),
+                        AttachmentDifference(attachmentName, attachmentHash1, null),
                         DifferenceCompensator.Target.RIGHT,
                         listOf(attachmentDeletedEvent)
                 ),
                 Triple(
-                        AttachmentDifference(attachmentName, null, attachmentContent1),
+                        AttachmentDifference(attachmentName, null, attachmentHash1),
                         DifferenceCompensator.Target.LEFT,
                         listOf(attachmentDeletedEvent)
                 ),
                 Triple(
-                        AttachmentDifference(attachmentName, null, attachmentContent1),
+                        AttachmentDifference(attachmentName, null, attachmentHash1),
                         DifferenceCompensator.Target.RIGHT,
                         listOf(attachmentAddedEvent)
                 ),
                 Triple(
-                        AttachmentDifference(attachmentName, attachmentContent1, attachmentContent2),
+                        AttachmentDifference(attachmentName, attachmentHash1, attachmentHash2),
                         DifferenceCompensator.Target.LEFT,
                         listOf(
                                 AttachmentDeletedEvent(eventId = 0, aggId = aggId, revision = 0, name = attachmentName),
@@ -143,7 +145,7 @@ internal class DifferenceCompensatorTest {
                         )
                 ),
                 Triple(
-                        AttachmentDifference(attachmentName, attachmentContent1, attachmentContent2),
+                        AttachmentDifference(attachmentName, attachmentHash1, attachmentHash2),
                         DifferenceCompensator.Target.RIGHT,
                         listOf(
                                 AttachmentDeletedEvent(eventId = 0, aggId = aggId, revision = 0, name = attachmentName),
@@ -157,7 +159,7 @@ internal class DifferenceCompensatorTest {
                 val compensator = DifferenceCompensator()
 
                 // When
-                val events = compensator.compensate(aggId = aggId, differences = setOf(difference), target = target)
+                val events = compensator.compensate(aggId = aggId, differences = setOf(difference), target = target, attachmentContent = ::attachmentContent)
 
                 // Then
                 assertThat(events).isEqualTo(DifferenceCompensator.CompensatingEvents(
@@ -175,7 +177,7 @@ internal class DifferenceCompensatorTest {
         val compensator = DifferenceCompensator()
 
         // When
-        val events = compensator.compensate(aggId = aggId, differences = differences, target = DifferenceCompensator.Target.RIGHT)
+        val events = compensator.compensate(aggId = aggId, differences = differences, target = DifferenceCompensator.Target.RIGHT, attachmentContent = ::attachmentContent)
 
         // Then
         val eventClasses = events.leftEvents.map { it::class }
@@ -188,11 +190,11 @@ internal class DifferenceCompensatorTest {
     @Test
     fun `attachment event order`() {
         // Given
-        val differences = setOf(AttachmentDifference(attachmentName, attachmentContent1, attachmentContent2))
+        val differences = setOf(AttachmentDifference(attachmentName, attachmentHash1, attachmentHash2))
         val compensator = DifferenceCompensator()
 
         // When
-        val events = compensator.compensate(aggId = aggId, differences = differences, target = DifferenceCompensator.Target.RIGHT)
+        val events = compensator.compensate(aggId = aggId, differences = differences, target = DifferenceCompensator.Target.RIGHT, attachmentContent = ::attachmentContent)
 
         // Then
         val eventClasses = events.leftEvents.map { it::class }
@@ -212,7 +214,7 @@ internal class DifferenceCompensatorTest {
         val compensator = DifferenceCompensator()
 
         // When
-        val events = compensator.compensate(aggId = aggId, differences = differences, target = DifferenceCompensator.Target.LEFT)
+        val events = compensator.compensate(aggId = aggId, differences = differences, target = DifferenceCompensator.Target.LEFT, attachmentContent = ::attachmentContent)
 
         // Then
         val eventClasses = events.rightEvents.map { it::class }
@@ -233,7 +235,7 @@ internal class DifferenceCompensatorTest {
         val compensator = DifferenceCompensator()
 
         // When
-        val events = compensator.compensate(aggId = aggId, differences = differences, target = DifferenceCompensator.Target.LEFT)
+        val events = compensator.compensate(aggId = aggId, differences = differences, target = DifferenceCompensator.Target.LEFT, attachmentContent = ::attachmentContent)
 
         // Then
         val eventClasses = events.rightEvents.map { it::class }
@@ -254,7 +256,7 @@ internal class DifferenceCompensatorTest {
         val compensator = DifferenceCompensator()
 
         // When
-        val events = compensator.compensate(aggId = aggId, differences = differences, target = DifferenceCompensator.Target.RIGHT)
+        val events = compensator.compensate(aggId = aggId, differences = differences, target = DifferenceCompensator.Target.RIGHT, attachmentContent = ::attachmentContent)
 
         // Then
         assertThat(events.leftEvents).isEqualTo(listOf(
@@ -263,4 +265,7 @@ internal class DifferenceCompensatorTest {
                 TitleChangedEvent(eventId = 0, aggId = aggId, revision = 0, title = "title")
         ))
     }
-}
\ No newline at end of file
+
+    private fun attachmentContent(hash: String): ByteArray =
+            mapOf(attachmentHash1 to attachmentContent1, attachmentHash2 to attachmentContent2).getValue(hash)
+}
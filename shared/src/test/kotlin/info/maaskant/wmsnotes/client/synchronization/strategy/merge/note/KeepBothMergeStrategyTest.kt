@@ -3,6 +3,8 @@ package info.maaskant.wmsnotes.client.synchronization.strategy.merge.note
 import info.maaskant.wmsnotes.client.synchronization.strategy.merge.note.DifferenceCompensator.CompensatingEvents
 import info.maaskant.wmsnotes.client.synchronization.strategy.merge.MergeStrategy.MergeResult.Solution
 import info.maaskant.wmsnotes.model.Event
+import info.maaskant.wmsnotes.model.note.AttachmentAddedEvent
+import info.maaskant.wmsnotes.model.note.AttachmentRepository
 import info.maaskant.wmsnotes.model.note.Note
 import info.maaskant.wmsnotes.model.note.TitleChangedEvent
 import io.mockk.clearMocks
@@ -20,12 +22,14 @@ internal class KeepBothMergeStrategyTest {
 
     private val differenceAnalyzer: DifferenceAnalyzer = mockk()
     private val differenceCompensator: DifferenceCompensator = mockk()
+    private val attachmentRepository: AttachmentRepository = mockk()
 
     @BeforeEach
     fun init() {
         clearMocks(
                 differenceAnalyzer,
-                differenceCompensator
+                differenceCompensator,
+                attachmentRepository
         )
     }
 
@@ -103,6 +107,34 @@ internal class KeepBothMergeStrategyTest {
         ))
     }
 
+    @Test
+    fun `resolve, attachment contents`() {
+        // Given
+        val localEvents = listOf(createMockedEvent(aggId = aggId, revision = 1))
+        val remoteContent = "remote".toByteArray()
+        val remoteEvents = listOf(AttachmentAddedEvent(eventId = 0, aggId = aggId, revision = 1, name = "att-1", content = remoteContent))
+        val baseContent = "base".toByteArray()
+        val baseNote: Note = createExistingNote(aggId)
+        val localNote: Note = createExistingNote(aggId)
+        val remoteNote: Note = createExistingNote(aggId)
+        every { attachmentRepository.getContent(aggId, Note.hash(baseContent)) }.returns(baseContent)
+        val attachmentContents = mutableListOf<(String) -> ByteArray>()
+        every { differenceAnalyzer.compare(any(), any()) }.returns(emptySet())
+        every { differenceCompensator.compensate(any(), any(), any(), capture(attachmentContents)) }.returns(CompensatingEvents(
+                leftEvents = listOf(createMockedEvent(aggId = newAggId, revision = 1)),
+                rightEvents = emptyList()
+        ))
+        val strategy = createStrategy()
+
+        // When
+        strategy.merge(localEvents, remoteEvents, baseNote, localNote, remoteNote)
+
+        // Then
+        val attachmentContent = attachmentContents.first()
+        assertThat(attachmentContent(Note.hash(remoteContent))).isEqualTo(remoteContent)
+        assertThat(attachmentContent(Note.hash(baseContent))).isEqualTo(baseContent)
+    }
+
     private fun createMockedEvent(aggId: String, revision: Int): Event {
         val event: Event = mockk()
         every { event.aggId }.returns(aggId)
@@ -110,10 +142,10 @@ internal class KeepBothMergeStrategyTest {
         return event
     }
 
-    private fun createStrategy() = KeepBothMergeStrategy(differenceAnalyzer, differenceCompensator, { newAggId }, conflictedNoteTitleSuffix)
+    private fun createStrategy() = KeepBothMergeStrategy(differenceAnalyzer, differenceCompensator, attachmentRepository, { newAggId }, conflictedNoteTitleSuffix)
 
     private fun givenCompensatingEvents(aggId: String, differences: Set<Difference>, target: DifferenceCompensator.Target, compensatingEvents: CompensatingEvents): CompensatingEvents {
-        every { differenceCompensator.compensate(aggId, differences, target = target) }.returns(compensatingEvents)
+        every { differenceCompensator.compensate(aggId, differences, target = target, attachmentContent = any()) }.returns(compensatingEvents)
         return compensatingEvents
     }
 
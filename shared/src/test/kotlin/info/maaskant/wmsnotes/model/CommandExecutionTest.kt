@@ -2,6 +2,7 @@ package info.maaskant.wmsnotes.model
 
 import io.mockk.every
 import io.mockk.mockk
+import io.reactivex.schedulers.TestScheduler
 import kotlinx.collections.immutable.persistentListOf
 import assertk.assertThat
 import assertk.assertions.*
@@ -60,6 +61,69 @@ internal class CommandExecutionTest {
         }
     }
 
+    @Test
+    fun `execute, result arrives later`() {
+        // Given
+        val request = commandRequest(1)
+        val result = commandResult(1)
+
+        // When
+        val observer = CommandExecution.execute(commandBus, request, timeout).test()
+        commandBus.results.onNext(commandResult(2))
+        commandBus.results.onNext(result)
+
+        // Then
+        observer.assertValue(result)
+        assertThat(commandBus.getNumberOfPendingRequests()).isEqualTo(0)
+    }
+
+    @Test
+    fun `execute, request is only sent when subscribed to`() {
+        // Given
+        val request = commandRequest(1)
+        val commandRequestObserver = commandBus.requests.test()
+
+        // When
+        val single = CommandExecution.execute(commandBus, request, timeout)
+
+        // Then
+        assertThat(commandRequestObserver.values().toList()).isEqualTo(emptyList<CommandRequest<Command>>())
+        single.test()
+        assertThat(commandRequestObserver.values().toList()).isEqualTo(listOf(request))
+    }
+
+    @Test
+    fun `execute, timeout`() {
+        // Given
+        val request = commandRequest(1)
+        val scheduler = TestScheduler()
+        val observer = commandBus.execute(request).timeout(100, TimeUnit.MILLISECONDS, scheduler).test()
+
+        // When
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS)
+
+        // Then
+        observer.assertError(TimeoutException::class.java)
+        assertThat(commandBus.getNumberOfPendingRequests()).isEqualTo(0)
+    }
+
+    @Test
+    fun `execute, request id already in use`() {
+        // Given
+        val request1 = commandRequest(1)
+        val request2 = commandRequest(1)
+        val commandRequestObserver = commandBus.requests.test()
+        CommandExecution.execute(commandBus, request1, timeout).test()
+
+        // When
+        val observer = CommandExecution.execute(commandBus, request2, timeout).test()
+
+        // Then
+        observer.assertError(IllegalStateException::class.java)
+        assertThat(commandRequestObserver.values().toList()).isEqualTo(listOf(request1))
+        assertThat(commandBus.getNumberOfPendingRequests()).isEqualTo(1)
+    }
+
     private fun commandResult(requestId: Int) =
             CommandResult(requestId = requestId, outcome = persistentListOf(), origin = randomOrigin())
 
@@ -9,7 +9,7 @@ import assertk.assertions.hasSize
 import assertk.assertions.isEqualTo
 import assertk.assertions.isTrue
 import info.maaskant.wmsnotes.model.CommandOrigin.LOCAL
-import info.maaskant.wmsnotes.model.CommandRequest.Companion.randomRequestId
+import info.maaskant.wmsnotes.model.CommandRequest.Companion.nextRequestId
 import info.maaskant.wmsnotes.model.aggregaterepository.AggregateRepository
 import info.maaskant.wmsnotes.model.eventstore.EventStore
 import io.mockk.*
@@ -18,6 +18,8 @@ import io.reactivex.schedulers.Schedulers
 import kotlinx.collections.immutable.persistentListOf
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 import kotlin.random.Random
 
 @Suppress("LocalVariableName", "RemoveRedundantBackticks")
@@ -50,7 +52,7 @@ internal abstract class CommandExecutorTest<
         val aggId = getAggId1()
         val command1 = createMockedCommand()
         val origin = randomOrigin()
-        val request = createCommandRequest(aggId, listOf(command1), lastRevision = null, requestId = randomRequestId(), origin = origin)
+        val request = createCommandRequest(aggId, listOf(command1), lastRevision = null, requestId = nextRequestId(), origin = origin)
         val agg1 = getInitialAggregate(aggId)
         val (event1Before, _, event1Applied) = createEventThatChangesAggregate(agg1)
         givenAStoredAggregate(aggId, agg1)
@@ -74,7 +76,7 @@ internal abstract class CommandExecutorTest<
         // Given
         val aggId = getAggId1()
         val command1 = createMockedCommand()
-        val request = createCommandRequest(aggId, listOf(command1), lastRevision = null, requestId = randomRequestId(), origin = LOCAL)
+        val request = createCommandRequest(aggId, listOf(command1), lastRevision = null, requestId = nextRequestId(), origin = LOCAL)
         val agg1 = getInitialAggregate(aggId)
         val event1Before = createEventThatDoesNotChangeAggregate(agg1)
         givenAStoredAggregate(aggId, agg1)
@@ -99,7 +101,7 @@ internal abstract class CommandExecutorTest<
         val aggId = getAggId1()
         val command1 = createMockedCommand()
         val command2 = createMockedCommand()
-        val request = createCommandRequest(aggId, listOf(command1, command2), lastRevision = null, requestId = randomRequestId(), origin = LOCAL)
+        val request = createCommandRequest(aggId, listOf(command1, command2), lastRevision = null, requestId = nextRequestId(), origin = LOCAL)
         val agg1 = getInitialAggregate(aggId)
         val (event1Before, agg2, event1Applied) = createEventThatChangesAggregate(agg1)
         val (event2Before, _, event2Applied) = createEventThatChangesAggregate(agg2)
@@ -133,7 +135,7 @@ internal abstract class CommandExecutorTest<
         val aggId = getAggId1()
         val command1 = createMockedCommand()
         val command2 = createMockedCommand()
-        val request = createCommandRequest(aggId, listOf(command1, command2), lastRevision = null, requestId = randomRequestId(), origin = LOCAL)
+        val request = createCommandRequest(aggId, listOf(command1, command2), lastRevision = null, requestId = nextRequestId(), origin = LOCAL)
         val agg1 = getInitialAggregate(aggId)
         val (event1Before, agg2, event1Applied) = createEventThatChangesAggregate(agg1)
         val (event2Before, _, event2Applied) = createEventThatChangesAggregate(agg2)
@@ -160,7 +162,7 @@ internal abstract class CommandExecutorTest<
         // Given
         val aggId = getAggId1()
         val command1 = createMockedCommand()
-        val request = createCommandRequest(aggId, listOf(command1), lastRevision = 15, requestId = randomRequestId(), origin = LOCAL)
+        val request = createCommandRequest(aggId, listOf(command1), lastRevision = 15, requestId = nextRequestId(), origin = LOCAL)
         val agg1 = getInitialAggregate(aggId)
         val (event1Before, _, event1Applied) = createEventThatChangesAggregate(agg1, lastRevision = 15)
         givenAStoredAggregate(aggId, agg1)
@@ -184,7 +186,7 @@ internal abstract class CommandExecutorTest<
     fun `canExecuteRequestType`() {
         // Given
         val aggId = getAggId1()
-        val request: RequestType = createCommandRequest(aggId, emptyList(), lastRevision = null, requestId = randomRequestId(), origin = LOCAL)
+        val request: RequestType = createCommandRequest(aggId, emptyList(), lastRevision = null, requestId = nextRequestId(), origin = LOCAL)
 
         // When
         val result: RequestType? = executor.canExecuteRequest(request)
@@ -205,6 +207,93 @@ internal abstract class CommandExecutorTest<
         assertThat(result).isEqualTo(null)
     }
 
+    @Test
+    fun `requests in different lanes are executed concurrently`() {
+        // Given
+        val commandBus = CommandBus()
+        val aggId1 = getAggId1()
+        val aggId2 = getAggId2()
+        val numberOfLanes = (2..100).first { Math.floorMod(aggId1.hashCode(), it) != Math.floorMod(aggId2.hashCode(), it) }
+        val request1 = createCommandRequest(aggId1, emptyList(), lastRevision = null, requestId = nextRequestId(), origin = LOCAL)
+        val request2 = createCommandRequest(aggId2, emptyList(), lastRevision = null, requestId = nextRequestId(), origin = LOCAL)
+        val agg = getInitialAggregate(aggId1) // The requests do not contain commands, so the aggregate is not used
+        val request2Executed = CountDownLatch(1)
+        every { repository.getLatest(aggId1) }.answers {
+            request2Executed.await(5, TimeUnit.SECONDS)
+            agg
+        }
+        every { repository.getLatest(aggId2) }.returns(agg)
+        val executor = createInstance(commandBus, eventStore, repository, commandToEventMapper, Schedulers.io(), numberOfLanes)
+        val resultObserver = commandBus.results
+                .doOnNext { if (it.requestId == request2.requestId) request2Executed.countDown() }
+                .take(2)
+                .test()
+        executor.start()
+
+        // When
+        commandBus.requests.onNext(request1)
+        commandBus.requests.onNext(request2)
+
+        // Then
+        resultObserver.awaitTerminalEvent(10, TimeUnit.SECONDS)
+        executor.shutdown()
+        assertThat(resultObserver.values().map { it.requestId }).isEqualTo(listOf(request2.requestId, request1.requestId))
+    }
+
+    @Test
+    fun `requests in the same lane are executed in order`() {
+        // Given
+        val commandBus = CommandBus()
+        val aggIds = listOf(getAggId1(), getAggId2())
+        val requests = (1..10).map { createCommandRequest(aggIds[it % 2], emptyList(), lastRevision = null, requestId = it, origin = LOCAL) }
+        val agg = getInitialAggregate(getAggId1())
+        every { repository.getLatest(any()) }.answers {
+            Thread.sleep(Random.nextLong(5))
+            agg
+        }
+        val executor = createInstance(commandBus, eventStore, repository, commandToEventMapper, Schedulers.io(), numberOfLanes = 1)
+        val resultObserver = commandBus.results.take(requests.size.toLong()).test()
+        executor.start()
+
+        // When
+        requests.forEach { commandBus.requests.onNext(it) }
+
+        // Then
+        resultObserver.awaitTerminalEvent(10, TimeUnit.SECONDS)
+        executor.shutdown()
+        assertThat(resultObserver.values().map { it.requestId }).isEqualTo(requests.map { it.requestId })
+    }
+
+    @Test
+    fun `lane metrics`() {
+        // Given
+        val commandBus = CommandBus()
+        val aggId = getAggId1()
+        val agg = getInitialAggregate(aggId)
+        val executionAllowed = CountDownLatch(1)
+        every { repository.getLatest(aggId) }.answers {
+            executionAllowed.await(5, TimeUnit.SECONDS)
+            agg
+        }
+        val executor = createInstance(commandBus, eventStore, repository, commandToEventMapper, Schedulers.io(), numberOfLanes = 1)
+        val resultObserver = commandBus.results.take(3).test()
+        executor.start()
+
+        // When
+        repeat(3) { commandBus.requests.onNext(createCommandRequest(aggId, emptyList(), lastRevision = null, requestId = nextRequestId(), origin = LOCAL)) }
+
+        // Then
+        assertThat(executor.getLaneMetrics()).isEqualTo(listOf(AbstractCommandExecutor.LaneMetrics(lane = 0, queueDepth = 3, maxQueueDepth = 3, executedRequests = 0)))
+
+        // When
+        executionAllowed.countDown()
+        resultObserver.awaitTerminalEvent(10, TimeUnit.SECONDS)
+        executor.shutdown()
+
+        // Then
+        assertThat(executor.getLaneMetrics()).isEqualTo(listOf(AbstractCommandExecutor.LaneMetrics(lane = 0, queueDepth = 0, maxQueueDepth = 3, executedRequests = 3)))
+    }
+
     private fun givenAnEventCanBeStored(eventIn: Event): Event {
         val eventOut: Event = mockk()
         every { eventStore.appendEvent(eventIn) }.returns(right(eventOut))
@@ -220,7 +309,7 @@ internal abstract class CommandExecutorTest<
     }
 
     private fun givenACommandCanBeMappedToAnEvent(command: CommandType, lastRevision: Int, event: Event) {
-        every { commandToEventMapper.map(command, lastRevision = lastRevision) }.returns(event)
+        every { commandToEventMapper.map(command, lastRevision = lastRevision, aggregate = anyAggregate()) }.returns(event)
     }
 
     private fun givenAStoredAggregate(aggId: String, agg: AggregateType) {
@@ -233,7 +322,7 @@ internal abstract class CommandExecutorTest<
     }
 
     protected abstract fun createMockedCommandToEventMapper(): MapperType
-    protected abstract fun createInstance(commandBus: CommandBus, eventStore: EventStore, repository: AggregateRepository<AggregateType>, commandToEventMapper: MapperType, scheduler: Scheduler): CommandExecutor<AggregateType, CommandType, RequestType, MapperType>
+    protected abstract fun createInstance(commandBus: CommandBus, eventStore: EventStore, repository: AggregateRepository<AggregateType>, commandToEventMapper: MapperType, scheduler: Scheduler, numberOfLanes: Int = AbstractCommandExecutor.defaultNumberOfLanes): AbstractCommandExecutor<AggregateType, CommandType, RequestType, MapperType>
     protected abstract fun createMockedCommand(): CommandType
     protected abstract fun createCommandRequest(aggId: String, commands: List<CommandType>, lastRevision: Int?, requestId: Int, origin: CommandOrigin): RequestType
     protected abstract fun createEventThatChangesAggregate(agg: AggregateType): Triple<Event, AggregateType, Event>
@@ -243,6 +332,8 @@ internal abstract class CommandExecutorTest<
     }
 
     protected abstract fun createEventThatDoesNotChangeAggregate(agg: AggregateType): Event
+    protected abstract fun MockKMatcherScope.anyAggregate(): AggregateType
     protected abstract fun getInitialAggregate(aggId: String): AggregateType
     protected abstract fun getAggId1(): String
+    protected abstract fun getAggId2(): String
 }
\ No newline at end of file
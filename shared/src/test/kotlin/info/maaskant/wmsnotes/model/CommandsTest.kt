@@ -74,6 +74,13 @@ internal class CommandsTest {
                                 ChangeContentCommand(aggId = aggId, content = "Different")
                         )
                 ),
+                Item(
+                        o = PatchContentCommand(aggId = aggId, patch = ContentPatch(start = 0, deletedLength = 0, insertedText = content, baseHash = "hash")),
+                        sameButCopy = PatchContentCommand(aggId = aggId, patch = ContentPatch(start = 0, deletedLength = 0, insertedText = content, baseHash = "hash")),
+                        differents = listOf(
+                                PatchContentCommand(aggId = aggId, patch = ContentPatch(start = 0, deletedLength = 0, insertedText = "Different", baseHash = "hash"))
+                        )
+                ),
                 Item(
                         o = ChangeTitleCommand(aggId = aggId, title = title),
                         sameButCopy = ChangeTitleCommand(aggId = aggId, title = title),
@@ -41,6 +41,7 @@ internal class EventsTest {
                 AttachmentAddedEvent(eventId = 0, aggId = aggId, revision = 1, name = "att-1", content = "data".toByteArray()),
                 AttachmentDeletedEvent(eventId = 0, aggId = aggId, revision = 1, name = "att-1"),
                 ContentChangedEvent(eventId = 0, aggId = aggId, revision = 1, content = content),
+                ContentPatchedEvent(eventId = 0, aggId = aggId, revision = 1, patch = ContentPatch(start = 0, deletedLength = 0, insertedText = content, baseHash = "hash")),
                 TitleChangedEvent(eventId = 0, aggId = aggId, revision = 1, title = title),
                 MovedEvent(eventId = 0, aggId = aggId, revision = 1, path = path),
                 FolderCreatedEvent(eventId = 0, revision = 1, path = path),
@@ -66,6 +67,7 @@ internal class EventsTest {
                 AttachmentAddedEvent(eventId = 0, aggId = aggId, revision = 1, name = "att-1", content = "data".toByteArray()),
                 AttachmentDeletedEvent(eventId = 0, aggId = aggId, revision = 1, name = "att-1"),
                 ContentChangedEvent(eventId = 0, aggId = aggId, revision = 1, content = "data"),
+                ContentPatchedEvent(eventId = 0, aggId = aggId, revision = 1, patch = ContentPatch(start = 0, deletedLength = 0, insertedText = content, baseHash = "hash")),
                 TitleChangedEvent(eventId = 0, aggId = aggId, revision = 1, title = title),
                 FolderCreatedEvent(eventId = 0, revision = 1, path = path),
                 FolderDeletedEvent(eventId = 0, revision = 1, path = path)
@@ -121,6 +123,11 @@ internal class EventsTest {
                         sameButCopy = ContentChangedEvent(eventId = 1, aggId = aggId, revision = 1, content = content),
                         differents = listOf(ContentChangedEvent(eventId = 1, aggId = aggId, revision = 1, content = "Different"))
                 ),
+                Item(
+                        o = ContentPatchedEvent(eventId = 1, aggId = aggId, revision = 1, patch = ContentPatch(start = 0, deletedLength = 0, insertedText = content, baseHash = "hash")),
+                        sameButCopy = ContentPatchedEvent(eventId = 1, aggId = aggId, revision = 1, patch = ContentPatch(start = 0, deletedLength = 0, insertedText = content, baseHash = "hash")),
+                        differents = listOf(ContentPatchedEvent(eventId = 1, aggId = aggId, revision = 1, patch = ContentPatch(start = 0, deletedLength = 0, insertedText = "Different", baseHash = "hash")))
+                ),
                 Item(
                         o = TitleChangedEvent(eventId = 1, aggId = aggId, revision = 1, title = title),
                         sameButCopy = TitleChangedEvent(eventId = 1, aggId = aggId, revision = 1, title = title),
@@ -3,12 +3,17 @@ package info.maaskant.wmsnotes.model.aggregaterepository
 import info.maaskant.wmsnotes.model.Event
 import info.maaskant.wmsnotes.model.Path
 import info.maaskant.wmsnotes.model.eventstore.EventStore
+import info.maaskant.wmsnotes.model.folder.Folder
+import info.maaskant.wmsnotes.model.folder.FolderCreatedEvent
 import info.maaskant.wmsnotes.model.note.AttachmentAddedEvent
+import info.maaskant.wmsnotes.model.note.ContentChangedEvent
 import info.maaskant.wmsnotes.model.note.Note
 import info.maaskant.wmsnotes.model.note.NoteCreatedEvent
 import io.mockk.*
+import io.reactivex.Flowable
 import io.reactivex.Observable
-import io.reactivex.subjects.ReplaySubject
+import io.reactivex.schedulers.Schedulers
+import io.reactivex.subjects.PublishSubject
 import io.reactivex.subjects.Subject
 import assertk.assertThat
 import assertk.assertions.*
@@ -29,6 +34,7 @@ internal class CachingAggregateRepositoryTest {
 
     private val aggregateCache: AggregateCache<Note> = mockk()
     private val eventStore: EventStore = mockk()
+    private lateinit var eventUpdates: Subject<Event>
 
     @BeforeEach
     fun init() {
@@ -37,6 +43,8 @@ internal class CachingAggregateRepositoryTest {
                 aggregateCache
         )
         every { aggregateCache.put(any()) } just Runs
+        eventUpdates = PublishSubject.create()
+        every { eventStore.getEventUpdates() }.returns(eventUpdates)
     }
 
     @Test
@@ -45,7 +53,7 @@ internal class CachingAggregateRepositoryTest {
         every { aggregateCache.get(aggId, noteAfterEvent1.revision) }.returns(null)
         every { aggregateCache.get(aggId, noteAfterEvent2.revision) }.returns(null)
         every { aggregateCache.getLatest(aggId, noteAfterEvent2.revision) }.returns(null)
-        every { eventStore.getEventsOfAggregate(aggId, afterRevision = null) }.returns(Observable.just(event1, event2, event3))
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = null) }.returns(listOf(event1, event2, event3))
         val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
 
         // When
@@ -61,7 +69,7 @@ internal class CachingAggregateRepositoryTest {
         every { aggregateCache.get(aggId, noteAfterEvent1.revision) }.returns(noteAfterEvent1)
         every { aggregateCache.get(aggId, noteAfterEvent2.revision) }.returns(null)
         every { aggregateCache.getLatest(aggId, noteAfterEvent2.revision) }.returns(noteAfterEvent1)
-        every { eventStore.getEventsOfAggregate(aggId, afterRevision = noteAfterEvent1.revision) }.returns(Observable.just(event2, event3))
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = noteAfterEvent1.revision) }.returns(listOf(event2, event3))
         val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
 
         // When
@@ -79,8 +87,8 @@ internal class CachingAggregateRepositoryTest {
         every { aggregateCache.get(aggId, noteAfterEvent3.revision) }.returns(noteAfterEvent3)
         every { aggregateCache.getLatest(aggId, lastRevision = null) }.returns(noteAfterEvent3)
         every { aggregateCache.getLatest(aggId, lastRevision = noteAfterEvent2.revision) }.returns(noteAfterEvent2)
-        every { eventStore.getEventsOfAggregate(aggId, afterRevision = noteAfterEvent2.revision) }.returns(Observable.just(event3))
-        every { eventStore.getEventsOfAggregate(aggId, afterRevision = noteAfterEvent3.revision) }.returns(Observable.empty())
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = noteAfterEvent2.revision) }.returns(listOf(event3))
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = noteAfterEvent3.revision) }.returns(emptyList())
         val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
 
         // When
@@ -96,7 +104,7 @@ internal class CachingAggregateRepositoryTest {
         every { aggregateCache.get(aggId, noteAfterEvent1.revision) }.returns(null)
         every { aggregateCache.get(aggId, noteAfterEvent2.revision) }.returns(null)
         every { aggregateCache.getLatest(aggId, lastRevision = null) }.returns(null)
-        every { eventStore.getEventsOfAggregate(aggId, afterRevision = null) }.returns(Observable.just(event1, event2))
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = null) }.returns(listOf(event1, event2))
         val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
 
         // When
@@ -112,7 +120,7 @@ internal class CachingAggregateRepositoryTest {
         every { aggregateCache.get(aggId, noteAfterEvent1.revision) }.returns(noteAfterEvent1)
         every { aggregateCache.get(aggId, noteAfterEvent2.revision) }.returns(null)
         every { aggregateCache.getLatest(aggId) }.returns(noteAfterEvent1)
-        every { eventStore.getEventsOfAggregate(aggId, afterRevision = noteAfterEvent1.revision) }.returns(Observable.just(event2))
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = noteAfterEvent1.revision) }.returns(listOf(event2))
         val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
 
         // When
@@ -120,6 +128,7 @@ internal class CachingAggregateRepositoryTest {
 
         // Then
         assertThat(note).isEqualTo(noteAfterEvent2)
+        verify { aggregateCache.put(noteAfterEvent2) }
     }
 
     @Test
@@ -128,7 +137,7 @@ internal class CachingAggregateRepositoryTest {
         every { aggregateCache.get(aggId, noteAfterEvent1.revision) }.returns(noteAfterEvent1)
         every { aggregateCache.get(aggId, noteAfterEvent2.revision) }.returns(noteAfterEvent2)
         every { aggregateCache.getLatest(aggId) }.returns(noteAfterEvent2)
-        every { eventStore.getEventsOfAggregate(aggId, afterRevision = noteAfterEvent2.revision) }.returns(Observable.empty())
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = noteAfterEvent2.revision) }.returns(emptyList())
         val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
 
         // When
@@ -136,20 +145,19 @@ internal class CachingAggregateRepositoryTest {
 
         // Then
         assertThat(note).isEqualTo(noteAfterEvent2)
+        verify(exactly = 0) { aggregateCache.put(any()) }
     }
 
     @Test
     fun `get with updates, nothing present in cache`() {
         // Given
-        val events = createHotObservable()
         every { aggregateCache.getLatest(aggId, lastRevision = null) }.returns(null)
-        every { eventStore.getEventsOfAggregate(aggId, afterRevision = null) }.returns(Observable.just(event1, event2))
-        every { eventStore.getEventsOfAggregateWithUpdates(aggId, afterRevision = noteAfterEvent2.revision) }.returns(events)
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = null) }.returns(listOf(event1, event2))
         val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
 
         // When
         val observer = p.getAndUpdate(aggId).test()
-        events.onNext(event3)
+        eventUpdates.onNext(event3)
 
         // Then
         observer.assertNotComplete()
@@ -164,15 +172,13 @@ internal class CachingAggregateRepositoryTest {
     @Test
     fun `get with updates, old version present in cache`() {
         // Given
-        val events = createHotObservable()
         every { aggregateCache.getLatest(aggId, lastRevision = null) }.returns(noteAfterEvent1)
-        every { eventStore.getEventsOfAggregate(aggId, afterRevision = noteAfterEvent1.revision) }.returns(Observable.just(event2))
-        every { eventStore.getEventsOfAggregateWithUpdates(aggId, afterRevision = noteAfterEvent2.revision) }.returns(events)
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = noteAfterEvent1.revision) }.returns(listOf(event2))
         val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
 
         // When
         val observer = p.getAndUpdate(aggId).test()
-        events.onNext(event3)
+        eventUpdates.onNext(event3)
 
         // Then
         observer.assertNotComplete()
@@ -183,15 +189,13 @@ internal class CachingAggregateRepositoryTest {
     @Test
     fun `get with updates, latest version present in cache`() {
         // Given
-        val events = createHotObservable()
         every { aggregateCache.getLatest(aggId, lastRevision = null) }.returns(noteAfterEvent2)
-        every { eventStore.getEventsOfAggregate(aggId, afterRevision = noteAfterEvent2.revision) }.returns(Observable.empty())
-        every { eventStore.getEventsOfAggregateWithUpdates(aggId, afterRevision = noteAfterEvent2.revision) }.returns(events)
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = noteAfterEvent2.revision) }.returns(emptyList())
         val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
 
         // When
         val observer = p.getAndUpdate(aggId).test()
-        events.onNext(event3)
+        eventUpdates.onNext(event3)
 
         // Then
         observer.assertNotComplete()
@@ -199,12 +203,141 @@ internal class CachingAggregateRepositoryTest {
         assertThat(observer.values()).isEqualTo(listOf(noteAfterEvent2, noteAfterEvent3))
     }
 
-    private fun createHotObservable(vararg events: Event): Subject<Event> {
-        val subject = ReplaySubject.create<Event>()
-        for (event in events) {
-            subject.onNext(event)
+    @Test
+    fun `get latest of multiple aggregates`() {
+        // Given
+        val aggId2 = "n-20000000-0000-0000-0000-000000000000"
+        val otherEvent1 = NoteCreatedEvent(eventId = 4, aggId = aggId2, revision = 1, path = Path("path"), title = "Title", content = "Text")
+        every { aggregateCache.getLatest(aggId, lastRevision = null) }.returns(noteAfterEvent1)
+        every { aggregateCache.getLatest(aggId2, lastRevision = null) }.returns(null)
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = noteAfterEvent1.revision) }.returns(listOf(event2))
+        every { eventStore.readEventsOfAggregate(aggId2, afterRevision = null) }.returns(listOf(otherEvent1))
+        val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote, Schedulers.io(), parallelism = 2)
+
+        // When
+        val notes = p.getLatestAll(listOf(aggId, aggId2)).toList().blockingGet()
+
+        // Then
+        assertThat(notes.toSet()).isEqualTo(setOf(noteAfterEvent2, emptyNote.apply(otherEvent1).component1()))
+    }
+
+    @Test
+    fun `stream all latest`() {
+        // Given
+        val aggId2 = "n-20000000-0000-0000-0000-000000000000"
+        val otherEvent1 = NoteCreatedEvent(eventId = 4, aggId = aggId2, revision = 1, path = Path("path"), title = "Title", content = "Text")
+        val folderEvent = FolderCreatedEvent(eventId = 5, revision = 1, path = Path("path"))
+        every { eventStore.getEventsFlowable(afterEventId = null) }.returns(Flowable.just(event1, otherEvent1, event2, folderEvent, event3))
+        val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote, Schedulers.io(), parallelism = 2)
+
+        // When
+        val notes = p.streamAllLatest().toList().blockingGet()
+
+        // Then
+        assertThat(notes).hasSize(2)
+        assertThat(notes.toSet()).isEqualTo(setOf(noteAfterEvent3, emptyNote.apply(otherEvent1).component1()))
+    }
+
+    @Test
+    fun `stream all latest, other aggregate type`() {
+        // Given
+        val folderEvent = FolderCreatedEvent(eventId = 5, revision = 1, path = Path("path"))
+        every { eventStore.getEventsFlowable(afterEventId = null) }.returns(Flowable.just(event1, folderEvent))
+        val p = CachingAggregateRepository(eventStore, mockk<AggregateCache<Folder>>(), Folder(), Schedulers.io(), parallelism = 2)
+
+        // When
+        val folders = p.streamAllLatest().toList().blockingGet()
+
+        // Then
+        assertThat(folders).isEqualTo(listOf(Folder().apply(folderEvent).component1()))
+    }
+
+    @Test
+    fun `stream all latest, event that cannot be applied`() {
+        // Given
+        val aggId2 = "n-20000000-0000-0000-0000-000000000000"
+        val invalidEvent = ContentChangedEvent(eventId = 4, aggId = aggId2, revision = 1, content = "Text")
+        every { eventStore.getEventsFlowable(afterEventId = null) }.returns(Flowable.just(event1, invalidEvent))
+        val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote, Schedulers.io(), parallelism = 2)
+
+        // When
+        val observer = p.streamAllLatest().test()
+
+        // Then
+        observer.awaitTerminalEvent()
+        observer.assertError(IllegalArgumentException::class.java)
+    }
+
+    @Test
+    fun `get with updates, shared by subscribers`() {
+        // Given
+        every { aggregateCache.getLatest(aggId, lastRevision = null) }.returns(null)
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = null) }.returns(listOf(event1))
+        val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
+        val observer1 = p.getAndUpdate(aggId).test()
+        eventUpdates.onNext(event2)
+
+        // When
+        val observer2 = p.getAndUpdate(aggId).test()
+        eventUpdates.onNext(event3)
+
+        // Then
+        assertThat(observer1.values()).isEqualTo(listOf(noteAfterEvent1, noteAfterEvent2, noteAfterEvent3))
+        assertThat(observer2.values()).isEqualTo(listOf(noteAfterEvent2, noteAfterEvent3))
+        verify(exactly = 1) { eventStore.readEventsOfAggregate(aggId, afterRevision = null) }
+    }
+
+    @Test
+    fun `get with updates, event stored while loading`() {
+        // Given
+        every { aggregateCache.getLatest(aggId, lastRevision = null) }.returns(null)
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = null) }.answers {
+            eventUpdates.onNext(event2)
+            listOf(event1, event2)
         }
-        return subject
+        val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
+
+        // When
+        val observer = p.getAndUpdate(aggId).test()
+        eventUpdates.onNext(event3)
+
+        // Then
+        observer.assertNoErrors()
+        assertThat(observer.values()).isEqualTo(listOf(noteAfterEvent2, noteAfterEvent3))
+    }
+
+    @Test
+    fun `get with updates, events of other aggregates`() {
+        // Given
+        val otherEvent = NoteCreatedEvent(eventId = 4, aggId = "n-20000000-0000-0000-0000-000000000000", revision = 1, path = Path("path"), title = "Title", content = "Text")
+        every { aggregateCache.getLatest(aggId, lastRevision = null) }.returns(noteAfterEvent1)
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = noteAfterEvent1.revision) }.returns(emptyList())
+        val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
+
+        // When
+        val observer = p.getAndUpdate(aggId).test()
+        eventUpdates.onNext(otherEvent)
+
+        // Then
+        assertThat(observer.values()).isEqualTo(listOf(noteAfterEvent1))
     }
 
-}
\ No newline at end of file
+    @Test
+    fun `get with updates, dispose`() {
+        // Given
+        every { aggregateCache.getLatest(aggId, lastRevision = null) }.returns(noteAfterEvent1)
+        every { eventStore.readEventsOfAggregate(aggId, afterRevision = noteAfterEvent1.revision) }.returns(emptyList())
+        val p = CachingAggregateRepository(eventStore, aggregateCache, emptyNote)
+        val observer1 = p.getAndUpdate(aggId).test()
+        val observer2 = p.getAndUpdate(aggId).test()
+
+        // When
+        observer1.dispose()
+        val updatesObservedAfterFirstDispose = eventUpdates.hasObservers()
+        observer2.dispose()
+
+        // Then
+        assertThat(updatesObservedAfterFirstDispose).isTrue()
+        assertThat(eventUpdates.hasObservers()).isFalse()
+    }
+}
@@ -78,6 +78,55 @@ internal class FileAggregateCacheTest : AggregateCacheTest() {
         assertThat(expectedFile).doesNotExist()
     }
 
+    @Test
+    fun `put, snapshot policy`() {
+        // Given
+        val c = FileAggregateCache(tempDir, noteSerializer, SnapshotPolicy(interval = 2, retainedSnapshots = 1))
+
+        // When
+        c.put(noteAfterEvent1)
+        c.put(noteAfterEvent2)
+        c.put(noteAfterEvent3)
+
+        // Then
+        assertThat(tempDir.resolve(aggId).list()!!.sorted()).isEqualTo(listOf("0000000002"))
+        assertThat(c.getLatest(aggId, lastRevision = null)).isEqualTo(noteAfterEvent2)
+    }
+
+    @Test
+    fun `put, remove old snapshots`() {
+        // Given
+        val c = FileAggregateCache(tempDir, noteSerializer, SnapshotPolicy(interval = 1, retainedSnapshots = 2))
+
+        // When
+        c.put(noteAfterEvent1)
+        c.put(noteAfterEvent2)
+        c.put(noteAfterEvent3)
+
+        // Then
+        assertThat(tempDir.resolve(aggId).list()!!.sorted()).isEqualTo(listOf("0000000002", "0000000003"))
+    }
+
+    @Test
+    fun compact() {
+        // Given
+        val c = createInstance()
+        c.put(noteAfterEvent1)
+        c.put(noteAfterEvent2)
+        c.put(noteAfterEvent3)
+        val otherAggregateDir = tempDir.resolve("n-20000000-0000-0000-0000-000000000000")
+        otherAggregateDir.mkdirs()
+        otherAggregateDir.resolve("0000000001").writeBytes(data)
+
+        // When
+        val removed = FileAggregateCache.compact(tempDir, SnapshotPolicy(interval = 1, retainedSnapshots = 1))
+
+        // Then
+        assertThat(removed).isEqualTo(2)
+        assertThat(tempDir.resolve(aggId).list()!!.sorted()).isEqualTo(listOf("0000000003"))
+        assertThat(otherAggregateDir.list()!!.sorted()).isEqualTo(listOf("0000000001"))
+    }
+
     override fun createInstance(): AggregateCache<Note> {
         return FileAggregateCache(tempDir, noteSerializer)
     }
@@ -0,0 +1,163 @@
+package info.maaskant.wmsnotes.model.aggregaterepository
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isNull
+import info.maaskant.wmsnotes.model.Path
+import info.maaskant.wmsnotes.model.note.Note
+import info.maaskant.wmsnotes.model.note.NoteCreatedEvent
+import info.maaskant.wmsnotes.utilities.serialization.Serializer
+import io.mockk.clearMocks
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.spyk
+import io.mockk.verify
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.util.*
+
+internal class MemoryAggregateCacheTest : AggregateCacheTest() {
+    private lateinit var tempDir: File
+
+    private val noteSerializer: Serializer<Note> = mockk()
+
+    @BeforeEach
+    override fun init() {
+        tempDir = createTempDir(this::class.simpleName!!)
+        clearMocks(
+                noteSerializer
+        )
+        super.init()
+    }
+
+    @Test
+    fun `get latest, served from memory`() {
+        // Given
+        val backingCache = spyk(FileAggregateCache(tempDir, noteSerializer))
+        val c = MemoryAggregateCache(backingCache, maximumSize = 1000, weigher = { 1L })
+        c.put(noteAfterEvent1)
+        c.getLatest(aggId, lastRevision = null)
+        c.put(noteAfterEvent2)
+
+        // When
+        val noteOut1 = c.getLatest(aggId, lastRevision = null)
+        val noteOut2 = c.get(aggId, noteAfterEvent2.revision)
+
+        // Then
+        assertThat(noteOut1).isEqualTo(noteAfterEvent2)
+        assertThat(noteOut2).isEqualTo(noteAfterEvent2)
+        verify(exactly = 1) { backingCache.getLatest(any(), any()) }
+        verify(exactly = 0) { backingCache.get(aggId, noteAfterEvent2.revision) }
+        assertThat(c.getMetrics()).isEqualTo(MemoryAggregateCache.Metrics(hits = 2, misses = 1, evictions = 0, aggregates = 1, size = 1))
+    }
+
+    @Test
+    fun `get latest, earlier revision in backing cache only`() {
+        // Given
+        val c = createInstance()
+        c.put(noteAfterEvent1)
+        c.put(noteAfterEvent3)
+        c.getLatest(aggId, lastRevision = null)
+
+        // When
+        val noteOut = c.getLatest(aggId, lastRevision = noteAfterEvent2.revision)
+
+        // Then
+        assertThat(noteOut).isEqualTo(noteAfterEvent1)
+    }
+
+    @Test
+    fun `put, do not keep an aggregate that is not known to be the latest`() {
+        // Given
+        val c = createInstance()
+        FileAggregateCache(tempDir, noteSerializer).put(noteAfterEvent3)
+        c.put(noteAfterEvent2)
+
+        // When
+        val noteOut = c.getLatest(aggId, lastRevision = null)
+
+        // Then
+        assertThat(noteOut).isEqualTo(noteAfterEvent3)
+    }
+
+    @Test
+    fun `remove, latest revision`() {
+        // Given
+        val c = createInstance()
+        c.put(noteAfterEvent1)
+        c.put(noteAfterEvent2)
+        c.getLatest(aggId, lastRevision = null)
+
+        // When
+        c.remove(aggId, noteAfterEvent2.revision)
+        val noteOut = c.getLatest(aggId, lastRevision = null)
+
+        // Then
+        assertThat(noteOut).isEqualTo(noteAfterEvent1)
+    }
+
+    @Test
+    fun `evict least recently used aggregates`() {
+        // Given
+        val note1 = givenANote(note(1))
+        val note2 = givenANote(note(2))
+        val note3 = givenANote(note(3))
+        val backingCache = spyk(FileAggregateCache(tempDir, noteSerializer))
+        val c = MemoryAggregateCache(backingCache, maximumSize = 250, weigher = { 100L })
+        listOf(note1, note2, note3).forEach { c.put(it) }
+        c.getLatest(note1.aggId, lastRevision = null)
+        c.getLatest(note2.aggId, lastRevision = null)
+        c.getLatest(note1.aggId, lastRevision = null)
+
+        // When
+        c.getLatest(note3.aggId, lastRevision = null)
+
+        // Then
+        assertThat(c.getMetrics()).isEqualTo(MemoryAggregateCache.Metrics(hits = 1, misses = 3, evictions = 1, aggregates = 2, size = 200))
+        assertThat(c.getLatest(note1.aggId, lastRevision = null)).isEqualTo(note1)
+        assertThat(c.getLatest(note2.aggId, lastRevision = null)).isEqualTo(note2)
+        verify(exactly = 2) { backingCache.getLatest(note2.aggId, any()) }
+    }
+
+    @Test
+    fun `do not keep aggregates larger than the maximum size`() {
+        // Given
+        val c = MemoryAggregateCache(FileAggregateCache(tempDir, noteSerializer), maximumSize = 99, weigher = { 100L })
+        c.put(noteAfterEvent1)
+
+        // When
+        c.getLatest(aggId, lastRevision = null)
+
+        // Then
+        assertThat(c.getMetrics()).isEqualTo(MemoryAggregateCache.Metrics(hits = 0, misses = 1, evictions = 0, aggregates = 0, size = 0))
+    }
+
+    @Test
+    fun `get, nonexistent in both tiers`() {
+        // Given
+        val c = createInstance()
+
+        // When
+        val noteOut = c.get(aggId, 1)
+
+        // Then
+        assertThat(noteOut).isNull()
+        assertThat(c.getMetrics().misses).isEqualTo(1L)
+    }
+
+    override fun createInstance(): MemoryAggregateCache<Note> =
+            MemoryAggregateCache(FileAggregateCache(tempDir, noteSerializer), maximumSize = 1_000_000, weigher = Note::estimateSize)
+
+    override fun givenANote(note: Note): Note {
+        val content = UUID.randomUUID().toString().toByteArray()
+        every { noteSerializer.serialize(note) }.returns(content)
+        every { noteSerializer.deserialize(content) }.returns(note)
+        return note
+    }
+
+    private fun note(i: Int): Note {
+        val aggId = "n-${i}0000000-0000-0000-0000-000000000000"
+        return Note().apply(NoteCreatedEvent(eventId = i, aggId = aggId, revision = 1, path = Path("path"), title = "Title", content = "Text")).component1()
+    }
+}
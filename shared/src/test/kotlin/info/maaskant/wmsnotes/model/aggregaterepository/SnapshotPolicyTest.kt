@@ -0,0 +1,35 @@
+package info.maaskant.wmsnotes.model.aggregaterepository
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+
+internal class SnapshotPolicyTest {
+    @Test
+    fun `should store`() {
+        // Given
+        val policy = SnapshotPolicy(interval = 3, retainedSnapshots = 1)
+
+        // When
+        val revisions = (1..10).filter { policy.shouldStore(it) }
+
+        // Then
+        assertThat(revisions).isEqualTo(listOf(3, 6, 9))
+    }
+
+    @Test
+    fun `every revision`() {
+        // When
+        val revisions = (1..3).filter { SnapshotPolicy.everyRevision.shouldStore(it) }
+
+        // Then
+        assertThat(revisions).isEqualTo(listOf(1, 2, 3))
+    }
+
+    @Test
+    fun `invalid values`() {
+        assertThrows<IllegalArgumentException> { SnapshotPolicy(interval = 0, retainedSnapshots = 1) }
+        assertThrows<IllegalArgumentException> { SnapshotPolicy(interval = 1, retainedSnapshots = 0) }
+    }
+}
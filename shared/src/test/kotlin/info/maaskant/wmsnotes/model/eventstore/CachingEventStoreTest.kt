@@ -0,0 +1,119 @@
+package info.maaskant.wmsnotes.model.eventstore
+
+import arrow.core.Either
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import info.maaskant.wmsnotes.model.Event
+import io.mockk.spyk
+import io.mockk.verify
+import org.junit.jupiter.api.Test
+
+internal class CachingEventStoreTest : EventStoreTest() {
+    private val wrapped = spyk(InMemoryEventStore())
+
+    @Test
+    fun `get events, served from memory`() {
+        // Given
+        val r = CachingEventStore(wrapped, maximumSize = 1000, weigher = { 1L })
+        val events = (1..3).map { r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = it)).getOrThrow() }
+
+        // When
+        val eventsOut = r.getEvents(afterEventId = 1).toList().blockingGet()
+
+        // Then
+        assertThat(eventsOut).isEqualTo(events.subList(1, 3))
+        assertThat(r.getMetrics().hits).isEqualTo(1L)
+        verify(exactly = 0) { wrapped.getEvents(any()) }
+    }
+
+    @Test
+    fun `get events, events from before the cache was created`() {
+        // Given
+        val event1 = wrapped.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 1)).getOrThrow()
+        val r = CachingEventStore(wrapped, maximumSize = 1000, weigher = { 1L })
+        val event2 = r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 2)).getOrThrow()
+
+        // When
+        val eventsOut = r.getEvents().toList().blockingGet()
+
+        // Then
+        assertThat(eventsOut).isEqualTo(listOf(event1, event2))
+        assertThat(r.getMetrics().misses).isEqualTo(1L)
+    }
+
+    @Test
+    fun `get events, evicted`() {
+        // Given
+        val r = CachingEventStore(wrapped, maximumSize = 2, weigher = { 1L })
+        val events = (1..3).map { r.appendEvent(modelEvent(eventId = 0, aggId = it, revision = 1)).getOrThrow() }
+
+        // When
+        val eventsOut1 = r.getEvents(afterEventId = 1).toList().blockingGet()
+        val eventsOut2 = r.getEvents(afterEventId = 0).toList().blockingGet()
+
+        // Then
+        assertThat(eventsOut1).isEqualTo(events.subList(1, 3))
+        assertThat(eventsOut2).isEqualTo(events)
+        assertThat(r.getMetrics()).isEqualTo(CachingEventStore.Metrics(hits = 1, misses = 1, evictions = 1, events = 2, size = 2))
+    }
+
+    @Test
+    fun `get events, caching an event fails`() {
+        // Given
+        val r = CachingEventStore(wrapped, maximumSize = 1000, weigher = { if (it.revision == 3) throw RuntimeException() else 1L })
+        val events = (1..4).map { r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = it)).getOrThrow() }
+
+        // When
+        val eventsOut = r.getEvents(afterEventId = 1).toList().blockingGet()
+        val eventsOfAggregateOut = r.readEventsOfAggregate("note-1", afterRevision = 1)
+
+        // Then
+        assertThat(eventsOut).isEqualTo(events.subList(1, 4))
+        assertThat(eventsOfAggregateOut).isEqualTo(events.subList(1, 4))
+        assertThat(r.getMetrics()).isEqualTo(CachingEventStore.Metrics(hits = 0, misses = 2, evictions = 0, events = 0, size = 0))
+    }
+
+    @Test
+    fun `get events, closed`() {
+        // Given
+        val r = CachingEventStore(wrapped, maximumSize = 1000, weigher = { 1L })
+        val event1 = r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 1)).getOrThrow()
+        r.close()
+        val event2 = r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 2)).getOrThrow()
+
+        // When
+        val eventsOut = r.getEvents().toList().blockingGet()
+
+        // Then
+        assertThat(eventsOut).isEqualTo(listOf(event1, event2))
+        assertThat(r.getMetrics().misses).isEqualTo(1L)
+    }
+
+    @Test
+    fun `read events of aggregate, served from memory`() {
+        // Given
+        val event1 = wrapped.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 1)).getOrThrow()
+        val r = CachingEventStore(wrapped, maximumSize = 1000, weigher = { 1L })
+        val event2 = r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 2)).getOrThrow()
+        r.appendEvent(modelEvent(eventId = 0, aggId = 2, revision = 1))
+
+        // When
+        val eventsOut1 = r.readEventsOfAggregate("note-1", afterRevision = 1)
+        val eventsOut2 = r.readEventsOfAggregate("note-1")
+
+        // Then
+        assertThat(eventsOut1).isEqualTo(listOf(event2))
+        assertThat(eventsOut2).isEqualTo(listOf(event1, event2))
+        assertThat(r.getMetrics().hitRatio).isEqualTo(0.5)
+    }
+
+    override fun createInstance(): EventStore {
+        return CachingEventStore(wrapped, maximumSize = 1000)
+    }
+
+    override fun <T : Event> givenAnEvent(eventId: Int, event: T): T {
+        return event
+    }
+
+    private fun <T> Either<*, T>.getOrThrow(): T = (this as Either.Right).b
+}
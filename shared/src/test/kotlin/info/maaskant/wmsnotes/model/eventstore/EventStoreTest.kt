@@ -113,6 +113,132 @@ internal abstract class EventStoreTest {
         assertThat(result).isLeft()
     }
 
+    @Test
+    fun `appendEvents and getEvents`() {
+        // Given
+        val eventsIn = listOf(
+                givenAnEvent(1, modelEvent(eventId = 0, aggId = 1, revision = 1)),
+                givenAnEvent(2, modelEvent(eventId = 0, aggId = 2, revision = 1)),
+                givenAnEvent(3, modelEvent(eventId = 0, aggId = 1, revision = 2))
+        )
+        val eventsOut = eventsIn.mapIndexed { i, it -> it.copy(eventId = i + 1) }
+        val r = createInstance()
+
+        // When
+        val result = r.appendEvents(eventsIn)
+
+        // Then
+        assertThat(result).isEqualTo(Either.right(eventsOut))
+        val observer = r.getEvents().test()
+        observer.assertComplete()
+        observer.assertNoErrors()
+        assertThat(observer.values().toList()).isEqualTo(eventsOut)
+    }
+
+    @Test
+    fun `appendEvents, revision not sequential within batch`() {
+        // Given
+        val eventsIn = listOf(
+                givenAnEvent(1, modelEvent(eventId = 0, aggId = 1, revision = 1)),
+                givenAnEvent(2, modelEvent(eventId = 0, aggId = 2, revision = 1)),
+                givenAnEvent(3, modelEvent(eventId = 0, aggId = 1, revision = 3))
+        )
+        val r = createInstance()
+        val observer = r.getEventUpdates().test()
+
+        // When
+        val result = r.appendEvents(eventsIn)
+
+        // Then
+        assertThat(result).isLeft()
+        assertThat(r.getEvents().toList().blockingGet()).isEqualTo(emptyList<Event>())
+        observer.assertNoValues()
+    }
+
+    @Test
+    fun `appendEvents, revision already exists`() {
+        // Given
+        val event1 = givenAnEvent(1, modelEvent(eventId = 0, aggId = 1, revision = 1))
+        val event2 = givenAnEvent(2, modelEvent(eventId = 0, aggId = 2, revision = 1))
+        val event3 = givenAnEvent(2, modelEvent(eventId = 0, aggId = 1, revision = 1))
+        var r = createInstance()
+        r.appendEvent(event1)
+        r = createInstance()
+
+        // When
+        val result = r.appendEvents(listOf(event2, event3))
+
+        // Then
+        assertThat(result).isLeft()
+        assertThat(r.getEvents().toList().blockingGet()).isEqualTo(listOf<Event>(event1.copy(eventId = 1)))
+    }
+
+    @Test
+    fun `appendEvents, non-zero event id`() {
+        // Given
+        val eventsIn = listOf(
+                givenAnEvent(1, modelEvent(eventId = 0, aggId = 1, revision = 1)),
+                modelEvent(eventId = 2, aggId = 2, revision = 1)
+        )
+        val r = createInstance()
+
+        // When
+        val result = r.appendEvents(eventsIn)
+
+        // Then
+        assertThat(result).isLeft()
+        assertThat(r.getEvents().toList().blockingGet()).isEqualTo(emptyList<Event>())
+    }
+
+    @Test
+    fun `getEventsFlowable, respects demand`() {
+        // Given
+        val eventsIn = listOf(
+                givenAnEvent(1, modelEvent(eventId = 0, aggId = 1, revision = 1)),
+                givenAnEvent(2, modelEvent(eventId = 0, aggId = 2, revision = 1)),
+                givenAnEvent(3, modelEvent(eventId = 0, aggId = 1, revision = 2))
+        )
+        val eventsOut = eventsIn.mapIndexed { i, it -> it.copy(eventId = i + 1) }
+        val r = createInstance()
+        eventsIn.forEach { r.appendEvent(it) }
+
+        // When
+        val subscriber = r.getEventsFlowable().test(2)
+
+        // Then
+        subscriber.assertValues(eventsOut[0], eventsOut[1])
+        subscriber.assertNotComplete()
+        subscriber.requestMore(1)
+        subscriber.assertValues(*eventsOut.toTypedArray())
+        subscriber.assertComplete()
+        subscriber.assertNoErrors()
+    }
+
+    @Test
+    fun `getEventsOfAggregateFlowable, respects demand`() {
+        // Given
+        val eventsIn = listOf(
+                givenAnEvent(1, modelEvent(eventId = 0, aggId = 1, revision = 1)),
+                givenAnEvent(2, modelEvent(eventId = 0, aggId = 2, revision = 1)),
+                givenAnEvent(3, modelEvent(eventId = 0, aggId = 1, revision = 2)),
+                givenAnEvent(4, modelEvent(eventId = 0, aggId = 1, revision = 3))
+        )
+        val eventsOut = listOf(eventsIn[2].copy(eventId = 3), eventsIn[3].copy(eventId = 4))
+        val r = createInstance()
+        eventsIn.forEach { r.appendEvent(it) }
+
+        // When
+        val subscriber = r.getEventsOfAggregateFlowable("note-1", afterRevision = 1).test(1)
+
+        // Then
+        subscriber.assertValues(eventsOut[0])
+        subscriber.assertNotComplete()
+        subscriber.requestMore(1)
+        subscriber.assertValues(*eventsOut.toTypedArray())
+        subscriber.assertComplete()
+        subscriber.assertNoErrors()
+    }
+
     @Test
     fun `get note events, without updates, no filtering`() {
         // Given
@@ -170,6 +296,31 @@ internal abstract class EventStoreTest {
         assertThat(observer.values().toList()).isEqualTo(eventsOut)
     }
 
+    @Test
+    fun `read note events, filter by revision`() {
+        // Given
+        val eventsIn = listOf(
+                givenAnEvent(1, modelEvent(eventId = 0, aggId = 3, revision = 1)),
+                givenAnEvent(2, modelEvent(eventId = 0, aggId = 1, revision = 1)),
+                givenAnEvent(3, modelEvent(eventId = 0, aggId = 1, revision = 2)),
+                givenAnEvent(4, modelEvent(eventId = 0, aggId = 1, revision = 3))
+        )
+        var r: EventStore = createInstance()
+        eventsIn.forEach {
+            r.appendEvent(it)
+            r = createInstance()
+        }
+
+        // When
+        val all = r.readEventsOfAggregate("note-1")
+        val filtered = r.readEventsOfAggregate("note-1", afterRevision = 1)
+
+        // Then
+        assertThat(all).isEqualTo(listOf(eventsIn[1].copy(eventId = 2), eventsIn[2].copy(eventId = 3), eventsIn[3].copy(eventId = 4)))
+        assertThat(filtered).isEqualTo(listOf(eventsIn[2].copy(eventId = 3), eventsIn[3].copy(eventId = 4)))
+        assertThat(r.readEventsOfAggregate("note-2")).isEqualTo(emptyList<Event>())
+    }
+
 
     @Test
     fun `get note events, with updates, no filtering`() {
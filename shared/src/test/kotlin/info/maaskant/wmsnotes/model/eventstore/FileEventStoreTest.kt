@@ -1,5 +1,6 @@
 package info.maaskant.wmsnotes.model.eventstore
 
+import arrow.core.Either
 import info.maaskant.wmsnotes.model.Event
 import info.maaskant.wmsnotes.model.note.NoteCreatedEvent
 import info.maaskant.wmsnotes.model.Path
@@ -64,6 +65,106 @@ internal class FileEventStoreTest : EventStoreTest() {
         assertThat(observer.values().toSet()).isEqualTo(setOf(event1.aggId, event2.aggId))
     }
 
+    @Test
+    fun `appendEvent, event ids continue after restart without reading events`() {
+        // Given
+        var r = createInstance()
+        r.appendEvent(NoteCreatedEvent(eventId = 0, aggId = "note-1", revision = 1, path = Path("path"), title = "Title", content = "Text"))
+        r.appendEvent(NoteCreatedEvent(eventId = 0, aggId = "note-2", revision = 1, path = Path("path"), title = "Title", content = "Text"))
+        r = createInstance()
+
+        // When
+        val result = r.appendEvent(NoteCreatedEvent(eventId = 0, aggId = "note-3", revision = 1, path = Path("path"), title = "Title", content = "Text"))
+
+        // Then
+        assertThat(result.map { it.eventId }).isEqualTo(Either.right(3))
+    }
+
+    @Test
+    fun `index is rebuilt if missing`() {
+        // Given
+        val eventsIn = listOf(
+                givenAnEvent(1, modelEvent(eventId = 0, aggId = 1, revision = 1)),
+                givenAnEvent(2, modelEvent(eventId = 0, aggId = 2, revision = 1)),
+                givenAnEvent(3, modelEvent(eventId = 0, aggId = 1, revision = 2))
+        )
+        var r = createInstance()
+        eventsIn.forEach { r.appendEvent(it) }
+        tempDir.resolve(".index").deleteRecursively()
+        r = createInstance()
+
+        // When
+        val observer = r.getEvents().test()
+        val result = r.appendEvent(modelEvent(eventId = 0, aggId = 2, revision = 2))
+
+        // Then
+        observer.assertComplete()
+        observer.assertNoErrors()
+        assertThat(observer.values().toList()).isEqualTo(eventsIn.mapIndexed { i, it -> it.copy(eventId = i + 1) })
+        assertThat(result.map { it.eventId to it.revision }).isEqualTo(Either.right(4 to 2))
+    }
+
+    @Test
+    fun `index is rebuilt if an aggregate is missing`() {
+        // Given
+        val event1 = givenAnEvent(1, modelEvent(eventId = 0, aggId = 1, revision = 1))
+        val event2 = givenAnEvent(2, modelEvent(eventId = 0, aggId = 2, revision = 1))
+        var r = createInstance()
+        r.appendEvent(event1)
+        tempDir.resolve(".index").copyRecursively(tempDir.resolveSibling("index-copy"))
+        r.appendEvent(event2)
+        tempDir.resolve(".index").deleteRecursively()
+        tempDir.resolveSibling("index-copy").copyRecursively(tempDir.resolve(".index"))
+        r = createInstance()
+
+        // When
+        val observer = r.getAggregateIds().test()
+
+        // Then
+        assertThat(observer.values().toSet()).isEqualTo(setOf(event1.aggId, event2.aggId))
+    }
+
+    @Test
+    fun `interrupted append is rolled back on open`() {
+        // Given
+        val event1 = givenAnEvent(1, modelEvent(eventId = 0, aggId = 1, revision = 1))
+        val event2 = givenAnEvent(2, modelEvent(eventId = 0, aggId = 1, revision = 2))
+        var r = createInstance()
+        r.appendEvent(event1)
+        r.appendEvent(event2)
+        tempDir.resolve("note-1").resolve("0000000002").delete()
+        r = createInstance()
+
+        // When
+        val observer = r.getEvents().test()
+        val result = r.appendEvent(event2)
+
+        // Then
+        assertThat(observer.values().toList()).isEqualTo(listOf(event1.copy(eventId = 1)))
+        assertThat(result.map { it.eventId to it.revision }).isEqualTo(Either.right(2 to 2))
+    }
+
+    @Test
+    fun `getEventsOfAggregate, only reads events after revision`() {
+        // Given
+        val eventsIn = listOf(
+                givenAnEvent(1, modelEvent(eventId = 0, aggId = 1, revision = 1)),
+                givenAnEvent(2, modelEvent(eventId = 0, aggId = 1, revision = 2)),
+                givenAnEvent(3, modelEvent(eventId = 0, aggId = 1, revision = 3))
+        )
+        val r = createInstance()
+        eventsIn.forEach { r.appendEvent(it) }
+        tempDir.resolve("note-1").resolve("0000000001").delete()
+
+        // When
+        val observer = r.getEventsOfAggregate("note-1", afterRevision = 1).test()
+
+        // Then
+        observer.assertComplete()
+        observer.assertNoErrors()
+        assertThat(observer.values().toList()).isEqualTo(listOf(eventsIn[1].copy(eventId = 2), eventsIn[2].copy(eventId = 3)))
+    }
+
     override fun createInstance(): FileEventStore {
         return FileEventStore(tempDir, eventSerializer)
     }
@@ -0,0 +1,187 @@
+package info.maaskant.wmsnotes.model.eventstore
+
+import assertk.assertThat
+import assertk.assertions.isBetween
+import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
+import io.reactivex.schedulers.TestScheduler
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+internal class GroupCommitterTest {
+    private val syncs = AtomicInteger()
+    private val scheduler = TestScheduler()
+
+    @BeforeEach
+    fun init() {
+        syncs.set(0)
+    }
+
+    @Test
+    fun `none, never syncs`() {
+        // Given
+        val committer = GroupCommitter(Durability.None, { syncs.incrementAndGet() }, scheduler)
+
+        // When
+        committer.awaitDurable(committer.written())
+        scheduler.advanceTimeBy(1, TimeUnit.HOURS)
+
+        // Then
+        assertThat(syncs.get()).isEqualTo(0)
+    }
+
+    @Test
+    fun `per event, syncs before returning`() {
+        // Given
+        val committer = GroupCommitter(Durability.PerEvent, { syncs.incrementAndGet() }, scheduler)
+
+        // When
+        committer.awaitDurable(committer.written())
+
+        // Then
+        assertThat(syncs.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun `per event, does not sync twice`() {
+        // Given
+        val committer = GroupCommitter(Durability.PerEvent, { syncs.incrementAndGet() }, scheduler)
+        val sequence = committer.written()
+        committer.awaitDurable(sequence)
+
+        // When
+        committer.awaitDurable(sequence)
+
+        // Then
+        assertThat(syncs.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun `per event, concurrent writes share a sync`() {
+        // Given
+        val numberOfWriters = 20
+        val committer = GroupCommitter(Durability.PerEvent, {
+            syncs.incrementAndGet()
+            Thread.sleep(50)
+        }, scheduler)
+        val start = CountDownLatch(1)
+        val executor = Executors.newFixedThreadPool(numberOfWriters)
+
+        // When
+        val futures = (1..numberOfWriters).map {
+            executor.submit {
+                start.await()
+                committer.awaitDurable(committer.written())
+            }
+        }
+        start.countDown()
+        futures.forEach { it.get() }
+        executor.shutdown()
+
+        // Then
+        assertThat(syncs.get()).isBetween(1, numberOfWriters - 1)
+    }
+
+    @Test
+    fun `per event, sync fails`() {
+        // Given
+        var fail = true
+        val committer = GroupCommitter(Durability.PerEvent, {
+            syncs.incrementAndGet()
+            if (fail) throw IOException()
+        }, scheduler)
+        val sequence = committer.written()
+        assertThrows<IOException> { committer.awaitDurable(sequence) }
+        fail = false
+
+        // When
+        committer.awaitDurable(sequence)
+
+        // Then
+        assertThat(syncs.get()).isEqualTo(2)
+    }
+
+    @Test
+    fun `per event, publishes writes after syncing`() {
+        // Given
+        val published = ArrayList<String>()
+        val committer = GroupCommitter(Durability.PerEvent, { published += "sync" }, scheduler)
+        val sequence1 = committer.written { published += "write 1" }
+        val sequence2 = committer.written { published += "write 2" }
+
+        // When
+        committer.awaitDurable(sequence2)
+        committer.awaitDurable(sequence1)
+
+        // Then
+        assertThat(published).isEqualTo(listOf("sync", "write 1", "write 2"))
+    }
+
+    @Test
+    fun `per event, publishes writes after a later sync if sync fails`() {
+        // Given
+        var fail = true
+        val published = ArrayList<String>()
+        val committer = GroupCommitter(Durability.PerEvent, { if (fail) throw IOException() }, scheduler)
+        val sequence1 = committer.written { published += "write 1" }
+        assertThrows<IOException> { committer.awaitDurable(sequence1) }
+        assertThat(published).isEmpty()
+        fail = false
+
+        // When
+        committer.awaitDurable(committer.written { published += "write 2" })
+
+        // Then
+        assertThat(published).isEqualTo(listOf("write 1", "write 2"))
+    }
+
+    @Test
+    fun `batched, publishes writes without waiting for a sync`() {
+        // Given
+        val published = ArrayList<String>()
+        val committer = GroupCommitter(Durability.Batched(100, TimeUnit.MILLISECONDS), { syncs.incrementAndGet() }, scheduler)
+
+        // When
+        committer.awaitDurable(committer.written { published += "write 1" })
+
+        // Then
+        assertThat(published).isEqualTo(listOf("write 1"))
+        assertThat(syncs.get()).isEqualTo(0)
+    }
+
+    @Test
+    fun `batched, stops syncing when closed`() {
+        // Given
+        val committer = GroupCommitter(Durability.Batched(100, TimeUnit.MILLISECONDS), { syncs.incrementAndGet() }, scheduler)
+        committer.awaitDurable(committer.written())
+
+        // When
+        committer.close()
+        scheduler.advanceTimeBy(1, TimeUnit.HOURS)
+
+        // Then
+        assertThat(syncs.get()).isEqualTo(0)
+    }
+
+    @Test
+    fun `batched, syncs at interval`() {
+        // Given
+        val committer = GroupCommitter(Durability.Batched(100, TimeUnit.MILLISECONDS), { syncs.incrementAndGet() }, scheduler)
+        committer.awaitDurable(committer.written())
+        committer.awaitDurable(committer.written())
+        assertThat(syncs.get()).isEqualTo(0)
+
+        // When
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS)
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS)
+
+        // Then
+        assertThat(syncs.get()).isEqualTo(1)
+    }
+}
@@ -0,0 +1,56 @@
+package info.maaskant.wmsnotes.model.eventstore
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.util.Pool
+import info.maaskant.wmsnotes.model.KryoEventSerializer
+import info.maaskant.wmsnotes.model.eventstore.EventStoreTest.Companion.modelEvent
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+
+internal class SegmentedEventStoreMigratorTest {
+    private lateinit var tempDir: File
+    private val eventSerializer = KryoEventSerializer(object : Pool<Kryo>(true, true) {
+        override fun create(): Kryo = Kryo()
+    })
+
+    @BeforeEach
+    fun init() {
+        tempDir = createTempDir(this::class.simpleName!!)
+    }
+
+    @Test
+    fun migrate() {
+        // Given
+        val source = FileEventStore(tempDir.resolve("source"), eventSerializer)
+        source.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 1))
+        source.appendEvent(modelEvent(eventId = 0, aggId = 2, revision = 1))
+        val target = SegmentedEventStore(tempDir.resolve("target"), eventSerializer)
+
+        // When
+        val numberOfEvents = SegmentedEventStoreMigrator(source, target).migrate()
+
+        // Then
+        assertThat(numberOfEvents).isEqualTo(2)
+        assertThat(target.getEvents().test().values().toList()).isEqualTo(source.getEvents().test().values().toList())
+    }
+
+    @Test
+    fun `migrate, resume`() {
+        // Given
+        val source = FileEventStore(tempDir.resolve("source"), eventSerializer)
+        source.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 1))
+        val target = SegmentedEventStore(tempDir.resolve("target"), eventSerializer)
+        SegmentedEventStoreMigrator(source, target).migrate()
+        source.appendEvent(modelEvent(eventId = 0, aggId = 2, revision = 1))
+
+        // When
+        val numberOfEvents = SegmentedEventStoreMigrator(source, target).migrate()
+
+        // Then
+        assertThat(numberOfEvents).isEqualTo(1)
+        assertThat(target.getEvents().test().values().toList()).isEqualTo(source.getEvents().test().values().toList())
+    }
+}
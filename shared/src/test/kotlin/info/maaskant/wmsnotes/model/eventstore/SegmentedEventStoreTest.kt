@@ -0,0 +1,183 @@
+package info.maaskant.wmsnotes.model.eventstore
+
+import assertk.assertThat
+import assertk.assertions.*
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.util.Pool
+import info.maaskant.wmsnotes.model.Event
+import info.maaskant.wmsnotes.model.KryoEventSerializer
+import info.maaskant.wmsnotes.testutilities.EitherAssertions.isLeft
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.io.RandomAccessFile
+
+internal class SegmentedEventStoreTest : EventStoreTest() {
+    private lateinit var tempDir: File
+    private val eventSerializer = KryoEventSerializer(object : Pool<Kryo>(true, true) {
+        override fun create(): Kryo = Kryo()
+    })
+    private var maxSegmentSize: Long = SegmentedEventStore.defaultMaxSegmentSize
+
+    @BeforeEach
+    fun init() {
+        tempDir = createTempDir(this::class.simpleName!!).resolve("events")
+        maxSegmentSize = SegmentedEventStore.defaultMaxSegmentSize
+    }
+
+    @Test
+    fun `appendEvent, check files`() {
+        // Given
+        val r = createInstance()
+
+        // When
+        r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 1))
+
+        // Then
+        assertThat(tempDir.resolve("0000000001.log").length()).isGreaterThan(0L)
+        assertThat(tempDir.resolve("0000000001.idx").length()).isGreaterThan(0L)
+    }
+
+    @Test
+    fun `getEvents, multiple segments`() {
+        // Given
+        maxSegmentSize = 1
+        val eventsIn = (1..5).map { modelEvent(eventId = 0, aggId = it, revision = 1) }
+        var r = createInstance()
+        eventsIn.forEach { r.appendEvent(it) }
+        r = createInstance()
+
+        // When
+        val observer = r.getEvents(afterEventId = 2).test()
+
+        // Then
+        assertThat(tempDir.listFiles()!!.filter { it.name.endsWith(".log") }.size).isEqualTo(5)
+        observer.assertComplete()
+        observer.assertNoErrors()
+        assertThat(observer.values().toList()).isEqualTo(eventsIn.subList(2, 5).mapIndexed { i, it -> it.copy(eventId = i + 3) })
+    }
+
+    @Test
+    fun `getEventsOfAggregate, multiple segments`() {
+        // Given
+        maxSegmentSize = 1
+        var r = createInstance()
+        r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 1))
+        r.appendEvent(modelEvent(eventId = 0, aggId = 2, revision = 1))
+        r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 2))
+        r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 3))
+        r = createInstance()
+
+        // When
+        val observer = r.getEventsOfAggregate("note-1", afterRevision = 1).test()
+
+        // Then
+        observer.assertComplete()
+        observer.assertNoErrors()
+        assertThat(observer.values().toList()).isEqualTo(listOf(
+                modelEvent(eventId = 3, aggId = 1, revision = 2),
+                modelEvent(eventId = 4, aggId = 1, revision = 3)
+        ))
+    }
+
+    @Test
+    fun `open, incompletely written event`() {
+        // Given
+        var r = createInstance()
+        r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 1))
+        r.appendEvent(modelEvent(eventId = 0, aggId = 2, revision = 1))
+        val logFile = tempDir.resolve("0000000001.log")
+        RandomAccessFile(logFile, "rw").use { it.setLength(it.length() - 1) }
+
+        // When
+        r = createInstance()
+        val result = r.appendEvent(modelEvent(eventId = 0, aggId = 3, revision = 1))
+
+        // Then
+        assertThat(r.getEvents().test().values().toList()).isEqualTo(listOf(
+                modelEvent(eventId = 1, aggId = 1, revision = 1),
+                modelEvent(eventId = 2, aggId = 3, revision = 1)
+        ))
+        assertThat(result.isRight()).isTrue()
+    }
+
+    @Test
+    fun `importEvent, keeps event id`() {
+        // Given
+        var r = createInstance()
+        r.importEvent(modelEvent(eventId = 5, aggId = 1, revision = 1))
+        r = createInstance()
+
+        // When
+        r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 2))
+
+        // Then
+        assertThat(r.getEvents().test().values().map { it.eventId }).isEqualTo(listOf(5, 6))
+    }
+
+    @Test
+    fun `importEvent, event id not higher than last event id`() {
+        // Given
+        val r = createInstance()
+        r.importEvent(modelEvent(eventId = 5, aggId = 1, revision = 1))
+
+        // When
+        val result = r.importEvent(modelEvent(eventId = 5, aggId = 2, revision = 1))
+
+        // Then
+        assertThat(result).isLeft()
+    }
+
+    @Test
+    fun `appendEvents, batch is not split across segments`() {
+        // Given
+        maxSegmentSize = 1
+        val eventsIn = (1..3).map { modelEvent(eventId = 0, aggId = it, revision = 1) }
+        val r = createInstance()
+
+        // When
+        r.appendEvents(eventsIn)
+
+        // Then
+        assertThat(tempDir.listFiles()!!.filter { it.name.endsWith(".log") }.size).isEqualTo(1)
+        assertThat(createInstance().getEvents().toList().blockingGet()).isEqualTo(eventsIn.mapIndexed { i, it -> it.copy(eventId = i + 1) })
+    }
+
+    @Test
+    fun `appendEvent, durability per event`() {
+        // Given
+        val eventsIn = (1..3).map { modelEvent(eventId = 0, aggId = it, revision = 1) }
+        val r = SegmentedEventStore(tempDir, eventSerializer, maxSegmentSize, Durability.PerEvent)
+
+        // When
+        eventsIn.forEach { r.appendEvent(it) }
+
+        // Then
+        assertThat(createInstance().getEvents().toList().blockingGet()).isEqualTo(eventsIn.mapIndexed { i, it -> it.copy(eventId = i + 1) })
+    }
+
+    @Test
+    fun `appendEvents, durability per event, events are published in order`() {
+        // Given
+        maxSegmentSize = 1
+        val eventsIn = (1..3).map { modelEvent(eventId = 0, aggId = it, revision = 1) }
+        val r = SegmentedEventStore(tempDir, eventSerializer, maxSegmentSize, Durability.PerEvent)
+        val observer = r.getEventUpdates().test()
+
+        // When
+        eventsIn.forEach { r.appendEvent(it) }
+        r.close()
+
+        // Then
+        observer.assertValues(*eventsIn.mapIndexed { i, it -> it.copy(eventId = i + 1) }.toTypedArray())
+        assertThat(createInstance().getEvents().toList().blockingGet()).isEqualTo(eventsIn.mapIndexed { i, it -> it.copy(eventId = i + 1) })
+    }
+
+    override fun createInstance(): SegmentedEventStore {
+        return SegmentedEventStore(tempDir, eventSerializer, maxSegmentSize)
+    }
+
+    override fun <T : Event> givenAnEvent(eventId: Int, event: T): T {
+        return event
+    }
+}
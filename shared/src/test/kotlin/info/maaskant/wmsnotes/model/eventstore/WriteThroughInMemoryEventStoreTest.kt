@@ -0,0 +1,43 @@
+package info.maaskant.wmsnotes.model.eventstore
+
+import arrow.core.Either
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import info.maaskant.wmsnotes.model.Event
+import org.junit.jupiter.api.Test
+
+internal class WriteThroughInMemoryEventStoreTest : EventStoreTest() {
+    private val backingStore = InMemoryEventStore()
+
+    @Test
+    fun `events are written to the backing store`() {
+        // Given
+        val r = createInstance()
+
+        // When
+        val eventOut = r.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 1))
+
+        // Then
+        assertThat(backingStore.getEvents().toList().blockingGet()).isEqualTo(listOf((eventOut as Either.Right).b))
+    }
+
+    @Test
+    fun `events are loaded from the backing store`() {
+        // Given
+        val eventIn = backingStore.appendEvent(modelEvent(eventId = 0, aggId = 1, revision = 1)).let { (it as Either.Right).b }
+
+        // When
+        val r = createInstance()
+
+        // Then
+        assertThat(r.readEventsOfAggregate("note-1")).isEqualTo(listOf(eventIn))
+    }
+
+    override fun createInstance(): EventStore {
+        return InMemoryEventStore(backingStore)
+    }
+
+    override fun <T : Event> givenAnEvent(eventId: Int, event: T): T {
+        return event
+    }
+}
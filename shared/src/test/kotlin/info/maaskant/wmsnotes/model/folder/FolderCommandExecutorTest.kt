@@ -3,6 +3,7 @@ package info.maaskant.wmsnotes.model.folder
 import info.maaskant.wmsnotes.model.*
 import info.maaskant.wmsnotes.model.aggregaterepository.AggregateRepository
 import info.maaskant.wmsnotes.model.eventstore.EventStore
+import io.mockk.MockKMatcherScope
 import io.mockk.mockk
 import io.reactivex.Scheduler
 
@@ -12,8 +13,8 @@ internal class FolderCommandExecutorTest : CommandExecutorTest<Folder, FolderCom
     override fun createMockedCommandToEventMapper(): FolderCommandToEventMapper =
             mockk()
 
-    override fun createInstance(commandBus: CommandBus, eventStore: EventStore, repository: AggregateRepository<Folder>, commandToEventMapper: FolderCommandToEventMapper, scheduler: Scheduler): CommandExecutor<Folder, FolderCommand, FolderCommandRequest, FolderCommandToEventMapper> =
-            FolderCommandExecutor(commandBus, eventStore, repository, commandToEventMapper, scheduler)
+    override fun createInstance(commandBus: CommandBus, eventStore: EventStore, repository: AggregateRepository<Folder>, commandToEventMapper: FolderCommandToEventMapper, scheduler: Scheduler, numberOfLanes: Int): AbstractCommandExecutor<Folder, FolderCommand, FolderCommandRequest, FolderCommandToEventMapper> =
+            FolderCommandExecutor(commandBus, eventStore, repository, commandToEventMapper, scheduler, numberOfLanes)
 
     override fun createMockedCommand(): FolderCommand = mockk()
 
@@ -30,6 +31,8 @@ internal class FolderCommandExecutorTest : CommandExecutorTest<Folder, FolderCom
         return Triple(eventIn, new, eventOut!!)
     }
 
+    override fun MockKMatcherScope.anyAggregate(): Folder = any()
+
     override fun createEventThatDoesNotChangeAggregate(agg: Folder): Event =
             if (agg.exists) {
                 FolderCreatedEvent(eventId = 0, aggId = agg.aggId, path = agg.path, revision = agg.revision + 1)
@@ -41,6 +44,10 @@ internal class FolderCommandExecutorTest : CommandExecutorTest<Folder, FolderCom
         return Folder.aggId(path)
     }
 
+    override fun getAggId2(): String {
+        return Folder.aggId(Path("el2"))
+    }
+
     override fun getInitialAggregate(aggId: String): Folder = Folder()
             .apply(FolderCreatedEvent(eventId = 0, aggId = aggId, revision = 1, path = path)).component1()
 }
\ No newline at end of file
@@ -21,7 +21,7 @@ internal class FolderCommandToEventMapperTest {
         )
         return pairs.map { (command, expectedEvent) ->
             DynamicTest.dynamicTest("${command::class.simpleName} to ${expectedEvent::class.simpleName}") {
-                assertThat(FolderCommandToEventMapper().map(command, lastRevision)).isEqualTo(expectedEvent)
+                assertThat(FolderCommandToEventMapper().map(command, lastRevision, Folder())).isEqualTo(expectedEvent)
             }
         }
     }
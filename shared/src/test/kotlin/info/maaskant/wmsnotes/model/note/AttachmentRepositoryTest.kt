@@ -0,0 +1,93 @@
+package info.maaskant.wmsnotes.model.note
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isNull
+import info.maaskant.wmsnotes.model.Path
+import info.maaskant.wmsnotes.model.eventstore.EventStore
+import info.maaskant.wmsnotes.model.eventstore.InMemoryEventStore
+import io.mockk.spyk
+import io.mockk.verify
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+
+internal class AttachmentRepositoryTest {
+    private val aggId = "n-10000000-0000-0000-0000-000000000000"
+    private val content1 = "data1".toByteArray()
+    private val content2 = "data2".toByteArray()
+
+    private lateinit var eventStore: EventStore
+    private lateinit var attachmentStore: AttachmentStore
+
+    @BeforeEach
+    fun init() {
+        eventStore = spyk(InMemoryEventStore())
+        attachmentStore = InMemoryAttachmentStore()
+        eventStore.appendEvent(NoteCreatedEvent(eventId = 0, aggId = aggId, revision = 1, path = Path("path"), title = "Title", content = "Text"))
+        eventStore.appendEvent(AttachmentAddedEvent(eventId = 0, aggId = aggId, revision = 2, name = "att-1", content = content1))
+        eventStore.appendEvent(AttachmentAddedEvent(eventId = 0, aggId = aggId, revision = 3, name = "att-2", content = content2))
+    }
+
+    @Test
+    fun `get content, not in attachment store`() {
+        // Given
+        val r = AttachmentRepository(eventStore, attachmentStore)
+
+        // When
+        val content = r.getContent(aggId, Note.hash(content2))
+
+        // Then
+        assertThat(content?.toList()).isEqualTo(content2.toList())
+        assertThat(attachmentStore.get(Note.hash(content2))?.toList()).isEqualTo(content2.toList())
+    }
+
+    @Test
+    fun `get content, in attachment store`() {
+        // Given
+        attachmentStore.put(content1)
+        val r = AttachmentRepository(eventStore, attachmentStore)
+
+        // When
+        val content = r.getContent(aggId, Note.hash(content1))
+
+        // Then
+        assertThat(content?.toList()).isEqualTo(content1.toList())
+        verify(exactly = 0) { eventStore.getEventsOfAggregate(any(), any()) }
+    }
+
+    @Test
+    fun `get content, nonexistent`() {
+        // Given
+        val r = AttachmentRepository(eventStore, attachmentStore)
+
+        // When
+        val content = r.getContent(aggId, Note.hash("other".toByteArray()))
+
+        // Then
+        assertThat(content).isNull()
+    }
+
+    @Test
+    fun `get contents`() {
+        // Given
+        val note = eventStore.getEventsOfAggregate(aggId).toList().blockingGet().fold(Note()) { note, event -> note.apply(event).component1() }
+        val r = AttachmentRepository(eventStore, attachmentStore)
+
+        // When
+        val contents = r.getContents(note)
+
+        // Then
+        assertThat(contents.mapValues { it.value.toList() }).isEqualTo(mapOf("att-1" to content1.toList(), "att-2" to content2.toList()))
+    }
+
+    @Test
+    fun `get contents, missing content`() {
+        // Given
+        val note = Note.deserialize(revision = 1, exists = true, aggId = aggId, path = Path(), title = "", content = "", attachmentHashes = mapOf("att" to "0"))
+        val r = AttachmentRepository(eventStore, attachmentStore)
+
+        // When / Then
+        assertThrows<IllegalStateException> { r.getContents(note) }
+    }
+}
@@ -0,0 +1,151 @@
+package info.maaskant.wmsnotes.model.note
+
+import assertk.assertThat
+import assertk.assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+
+internal abstract class AttachmentStoreTest {
+    private val content1 = "data1".toByteArray()
+    private val content2 = "data2".toByteArray()
+
+    @Test
+    fun `put and get`() {
+        // Given
+        val s = createInstance()
+
+        // When
+        val hash1 = s.put(content1)
+        val hash2 = s.put(content2)
+
+        // Then
+        assertThat(hash1).isEqualTo(Note.hash(content1))
+        assertThat(hash2).isEqualTo(Note.hash(content2))
+        assertThat(s.get(hash1)?.toList()).isEqualTo(content1.toList())
+        assertThat(s.get(hash2)?.toList()).isEqualTo(content2.toList())
+    }
+
+    @Test
+    fun `put twice`() {
+        // Given
+        val s = createInstance()
+        s.put(content1)
+
+        // When
+        val hash = s.put(content1)
+
+        // Then
+        assertThat(s.get(hash)?.toList()).isEqualTo(content1.toList())
+    }
+
+    @Test
+    fun `get, nonexistent`() {
+        // Given
+        val s = createInstance()
+
+        // When
+        val content = s.get(Note.hash(content1))
+
+        // Then
+        assertThat(content).isNull()
+    }
+
+    @Test
+    fun `size and read`() {
+        // Given
+        val s = createInstance()
+        val hash = s.put(content1)
+
+        // When
+        val size = s.size(hash)
+        val chunk1 = s.read(hash, offset = 0, length = 3)
+        val chunk2 = s.read(hash, offset = 3, length = 3)
+        val chunk3 = s.read(hash, offset = 5, length = 3)
+
+        // Then
+        assertThat(size).isEqualTo(content1.size.toLong())
+        assertThat(chunk1?.toList()).isEqualTo("dat".toByteArray().toList())
+        assertThat(chunk2?.toList()).isEqualTo("a1".toByteArray().toList())
+        assertThat(chunk3?.toList()).isEqualTo(emptyList<Byte>())
+    }
+
+    @Test
+    fun `size and read, nonexistent`() {
+        // Given
+        val s = createInstance()
+        val hash = Note.hash(content1)
+
+        // When
+        val size = s.size(hash)
+        val chunk = s.read(hash, offset = 0, length = 3)
+
+        // Then
+        assertThat(size).isNull()
+        assertThat(chunk).isNull()
+    }
+
+    @Test
+    fun `append and complete`() {
+        // Given
+        val s = createInstance()
+        val hash = Note.hash(content1)
+        s.append(hash, offset = 0, chunk = content1.copyOfRange(0, 3))
+        s.append(hash, offset = 3, chunk = content1.copyOfRange(3, content1.size))
+
+        // When
+        val completed = s.complete(hash)
+
+        // Then
+        assertThat(completed).isTrue()
+        assertThat(s.get(hash)?.toList()).isEqualTo(content1.toList())
+        assertThat(s.getReceivedSize(hash)).isEqualTo(0L)
+    }
+
+    @Test
+    fun `append, interrupted`() {
+        // Given
+        val s = createInstance()
+        val hash = Note.hash(content1)
+
+        // When
+        s.append(hash, offset = 0, chunk = content1.copyOfRange(0, 3))
+
+        // Then
+        assertThat(s.getReceivedSize(hash)).isEqualTo(3L)
+        assertThat(s.get(hash)).isNull()
+    }
+
+    @Test
+    fun `append, wrong offset`() {
+        // Given
+        val s = createInstance()
+        val hash = Note.hash(content1)
+        s.append(hash, offset = 0, chunk = content1.copyOfRange(0, 3))
+
+        // When / Then
+        assertThrows<IllegalArgumentException> { s.append(hash, offset = 2, chunk = content1.copyOfRange(2, 3)) }
+        assertThat(s.getReceivedSize(hash)).isEqualTo(3L)
+    }
+
+    @Test
+    fun `complete, content does not match hash`() {
+        // Given
+        val s = createInstance()
+        val hash = Note.hash(content1)
+        s.append(hash, offset = 0, chunk = content2)
+
+        // When
+        val completed = s.complete(hash)
+
+        // Then
+        assertThat(completed).isFalse()
+        assertThat(s.get(hash)).isNull()
+        assertThat(s.getReceivedSize(hash)).isEqualTo(0L)
+    }
+
+    protected abstract fun createInstance(): AttachmentStore
+}
+
+internal class InMemoryAttachmentStoreTest : AttachmentStoreTest() {
+    override fun createInstance(): AttachmentStore = InMemoryAttachmentStore()
+}
@@ -0,0 +1,74 @@
+package info.maaskant.wmsnotes.model.note
+
+import assertk.assertThat
+import assertk.assertions.*
+import org.junit.jupiter.api.DynamicTest
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestFactory
+import org.junit.jupiter.api.assertThrows
+
+internal class ContentPatchTest {
+    @TestFactory
+    fun `between and apply`(): List<DynamicTest> {
+        return listOf(
+                "" to "",
+                "" to "Text",
+                "Text" to "",
+                "Text" to "Text",
+                "Some text" to "Some longer text",
+                "Some longer text" to "Some text",
+                "Text 1" to "Text 2",
+                "aaa" to "aaaa",
+                "abc" to "xyz",
+                "\uD83D\uDE00" to "\uD83D\uDE01",
+                "a\uD83D\uDE00b" to "a\uD83D\uDE01b"
+                // Add more cases here
+        ).map { (from, to) ->
+            DynamicTest.dynamicTest("'$from' to '$to'") {
+                // When
+                val patch = ContentPatch.between(from, to)
+
+                // Then
+                assertThat(patch.applyTo(from)).isEqualTo(to)
+            }
+        }
+    }
+
+    @Test
+    fun `between, small change`() {
+        // When
+        val patch = ContentPatch.between("Some text", "Some longer text")
+
+        // Then
+        assertThat(patch).isEqualTo(ContentPatch(start = 5, deletedLength = 0, insertedText = "longer ", baseHash = ContentPatch.hash("Some text")))
+    }
+
+    @Test
+    fun `between, surrogate pairs are not split`() {
+        // When
+        val patch = ContentPatch.between("\uD83D\uDE00", "\uD83D\uDE01")
+
+        // Then
+        assertThat(patch.start).isEqualTo(0)
+        assertThat(patch.deletedLength).isEqualTo(2)
+        assertThat(patch.insertedText).isEqualTo("\uD83D\uDE01")
+    }
+
+    @Test
+    fun `apply, different content`() {
+        // Given
+        val patch = ContentPatch.between("Text 1", "Text 2")
+
+        // When / Then
+        assertThrows<IllegalStateException> { patch.applyTo("Text 3") }
+    }
+
+    @Test
+    fun `apply, different content with the same string hash code`() {
+        // Given
+        val patch = ContentPatch.between("Aa", "Aa!")
+
+        // When / Then
+        assertThrows<IllegalStateException> { patch.applyTo("BB") }
+    }
+}
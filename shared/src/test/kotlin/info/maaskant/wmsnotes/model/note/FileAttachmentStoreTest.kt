@@ -0,0 +1,61 @@
+package info.maaskant.wmsnotes.model.note
+
+import assertk.assertThat
+import assertk.assertions.exists
+import assertk.assertions.isEqualTo
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.io.File
+
+internal class FileAttachmentStoreTest : AttachmentStoreTest() {
+    private lateinit var tempDir: File
+
+    @BeforeEach
+    fun init() {
+        tempDir = createTempDir(this::class.simpleName!!)
+    }
+
+    @Test
+    fun `put, check file`() {
+        // Given
+        val content = "data".toByteArray()
+        val s = createInstance()
+
+        // When
+        val hash = s.put(content)
+
+        // Then
+        val expectedFile = tempDir.resolve(hash.substring(0, 2)).resolve(hash)
+        assertThat(expectedFile).exists()
+        assertThat(expectedFile.readBytes().toList()).isEqualTo(content.toList())
+    }
+
+    @Test
+    fun `append, resume with new instance`() {
+        // Given
+        val content = "data".toByteArray()
+        val hash = Note.hash(content)
+        createInstance().append(hash, offset = 0, chunk = content.copyOfRange(0, 2))
+        val s = createInstance()
+
+        // When
+        s.append(hash, offset = s.getReceivedSize(hash), chunk = content.copyOfRange(2, 4))
+        s.complete(hash)
+
+        // Then
+        assertThat(s.get(hash)?.toList()).isEqualTo(content.toList())
+    }
+
+    @Test
+    fun `invalid hash`() {
+        // Given
+        val s = createInstance()
+
+        // When / Then
+        assertThrows<IllegalArgumentException> { s.get("../file") }
+        assertThrows<IllegalArgumentException> { s.append("../file", offset = 0, chunk = ByteArray(1)) }
+    }
+
+    override fun createInstance(): AttachmentStore = FileAttachmentStore(tempDir)
+}
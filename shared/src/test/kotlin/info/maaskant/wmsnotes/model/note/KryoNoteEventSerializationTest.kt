@@ -17,6 +17,7 @@ internal class KryoNoteEventSerializationTest : KryoSerializerTest<Event>() {
             AttachmentAddedEvent(eventId = 1, aggId = aggId, revision = 1, name = "att", content = "data".toByteArray()),
             AttachmentDeletedEvent(eventId = 1, aggId = aggId, revision = 1, name = "att"),
             ContentChangedEvent(eventId = 0, aggId = aggId, revision = 1, content = "Text"),
+            ContentPatchedEvent(eventId = 0, aggId = aggId, revision = 1, patch = ContentPatch(start = 1, deletedLength = 2, insertedText = "ext", baseHash = "hash")),
             TitleChangedEvent(eventId = 0, aggId = aggId, revision = 1, title = "Title"),
             MovedEvent(eventId = 0, aggId = aggId, revision = 1, path = Path("path"))
             // Add more classes here
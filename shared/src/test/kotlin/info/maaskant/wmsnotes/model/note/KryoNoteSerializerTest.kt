@@ -13,6 +13,7 @@ internal class KryoNoteSerializerTest : KryoSerializerTest<Note>() {
             .apply(AttachmentAddedEvent(eventId = 2, aggId = aggId, revision = 2, name = "att-1", content = "data1".toByteArray())).component1()
             .apply(AttachmentAddedEvent(eventId = 3, aggId = aggId, revision = 3, name = "att-2", content = "data2".toByteArray())).component1()
             .apply(ContentChangedEvent(eventId = 4, aggId = aggId, revision = 4, content = "Hello")).component1()
+            .apply(ContentPatchedEvent(eventId = 5, aggId = aggId, revision = 5, patch = ContentPatch.between("Hello", "Hello world"))).component1()
     )
 
     override fun createInstance(kryoPool: Pool<Kryo>) = KryoNoteSerializer(kryoPool)
@@ -3,6 +3,7 @@ package info.maaskant.wmsnotes.model.note
 import info.maaskant.wmsnotes.model.*
 import info.maaskant.wmsnotes.model.aggregaterepository.AggregateRepository
 import info.maaskant.wmsnotes.model.eventstore.EventStore
+import io.mockk.MockKMatcherScope
 import io.mockk.mockk
 import io.reactivex.Scheduler
 
@@ -10,8 +11,8 @@ internal class NoteCommandExecutorTest : CommandExecutorTest<Note, NoteCommand,
     override fun createMockedCommandToEventMapper(): NoteCommandToEventMapper =
             mockk()
 
-    override fun createInstance(commandBus: CommandBus, eventStore: EventStore, repository: AggregateRepository<Note>, commandToEventMapper: NoteCommandToEventMapper, scheduler: Scheduler): CommandExecutor<Note, NoteCommand, NoteCommandRequest, NoteCommandToEventMapper> =
-            NoteCommandExecutor(commandBus, eventStore, repository, commandToEventMapper, scheduler)
+    override fun createInstance(commandBus: CommandBus, eventStore: EventStore, repository: AggregateRepository<Note>, commandToEventMapper: NoteCommandToEventMapper, scheduler: Scheduler, numberOfLanes: Int): AbstractCommandExecutor<Note, NoteCommand, NoteCommandRequest, NoteCommandToEventMapper> =
+            NoteCommandExecutor(commandBus, eventStore, repository, commandToEventMapper, scheduler, numberOfLanes)
 
     override fun createMockedCommand(): NoteCommand = mockk()
 
@@ -24,11 +25,15 @@ internal class NoteCommandExecutorTest : CommandExecutorTest<Note, NoteCommand,
         return Triple(eventIn, new, eventOut!!)
     }
 
+    override fun MockKMatcherScope.anyAggregate(): Note = any()
+
     override fun createEventThatDoesNotChangeAggregate(agg: Note): Event =
             TitleChangedEvent(eventId = 0, aggId = agg.aggId, revision = agg.revision + 1, title = agg.title)
 
     override fun getAggId1(): String = "n-10000000-0000-0000-0000-000000000000"
 
+    override fun getAggId2(): String = "n-20000000-0000-0000-0000-000000000000"
+
     override fun getInitialAggregate(aggId: String): Note = Note()
             .apply(NoteCreatedEvent(eventId = 0, aggId = aggId, revision = 1, path = Path(), title = "Title", content = "Content")).component1()
 }
\ No newline at end of file
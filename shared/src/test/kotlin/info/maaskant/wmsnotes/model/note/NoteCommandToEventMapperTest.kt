@@ -4,6 +4,7 @@ import info.maaskant.wmsnotes.model.Path
 import assertk.assertThat
 import assertk.assertions.*
 import org.junit.jupiter.api.DynamicTest
+import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.TestFactory
 
 internal class NoteCommandToEventMapperTest {
@@ -30,8 +31,69 @@ internal class NoteCommandToEventMapperTest {
         )
         return pairs.map { (command, expectedEvent) ->
             DynamicTest.dynamicTest("${command::class.simpleName} to ${expectedEvent::class.simpleName}") {
-                assertThat(NoteCommandToEventMapper().map(command, lastRevision = lastRevision)).isEqualTo(expectedEvent)
+                assertThat(NoteCommandToEventMapper().map(command, lastRevision = lastRevision, aggregate = Note())).isEqualTo(expectedEvent)
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `small content change`() {
+        // Given
+        val note = noteWithContent("Some long text")
+        val command = ChangeContentCommand(aggId = note.aggId, content = "Some longer text")
+
+        // When
+        val event = NoteCommandToEventMapper().map(command, lastRevision = note.revision, aggregate = note)
+
+        // Then
+        assertThat(event).isEqualTo(ContentPatchedEvent(eventId = 0, aggId = note.aggId, revision = note.revision + 1, patch = ContentPatch.between("Some long text", "Some longer text")))
+    }
+
+    @Test
+    fun `large content change`() {
+        // Given
+        val note = noteWithContent("Some long text")
+        val command = ChangeContentCommand(aggId = note.aggId, content = "Completely different")
+
+        // When
+        val event = NoteCommandToEventMapper().map(command, lastRevision = note.revision, aggregate = note)
+
+        // Then
+        assertThat(event).isEqualTo(ContentChangedEvent(eventId = 0, aggId = note.aggId, revision = note.revision + 1, content = "Completely different"))
+    }
+
+    @Test
+    fun `content patch`() {
+        // Given
+        val note = noteWithContent("Some long text")
+        val command = PatchContentCommand(aggId = note.aggId, patch = ContentPatch.between("Some long text", "Some longer text"))
+
+        // When
+        val event = NoteCommandToEventMapper().map(command, lastRevision = note.revision, aggregate = note)
+
+        // Then
+        assertThat(event).isEqualTo(ContentPatchedEvent(eventId = 0, aggId = note.aggId, revision = note.revision + 1, patch = command.patch))
+    }
+
+    @Test
+    fun `content checkpoint`() {
+        // Given
+        val mapper = NoteCommandToEventMapper(contentCheckpointInterval = 3)
+        var note = noteWithContent("Some long text")
+        for (i in 1..2) {
+            val command = ChangeContentCommand(aggId = note.aggId, content = "Some long text$i")
+            note = note.apply(mapper.map(command, lastRevision = note.revision, aggregate = note)).component1()
+        }
+        val command = ChangeContentCommand(aggId = note.aggId, content = "Some long text3")
+
+        // When
+        val event = mapper.map(command, lastRevision = note.revision, aggregate = note)
+
+        // Then
+        assertThat(note.contentPatches).isEqualTo(2)
+        assertThat(event).isEqualTo(ContentChangedEvent(eventId = 0, aggId = note.aggId, revision = note.revision + 1, content = "Some long text3"))
+    }
+
+    private fun noteWithContent(content: String): Note =
+            Note().apply(NoteCreatedEvent(eventId = 0, aggId = Note.randomAggId(), revision = 1, path = path, title = title, content = content)).component1()
+}
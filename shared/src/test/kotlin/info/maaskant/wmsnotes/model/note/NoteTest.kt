@@ -155,7 +155,6 @@ internal class NoteTest {
         assertThat(noteAfter.path).isEqualTo(eventIn.path)
         assertThat(noteAfter.title).isEqualTo(eventIn.title)
         assertThat(noteAfter.content).isEqualTo(eventIn.content)
-        assertThat(noteAfter.attachments).isEqualTo(emptyMap<String, ByteArray>())
         assertThat(noteAfter.attachmentHashes).isEqualTo(emptyMap<String, String>())
     }
 
@@ -313,10 +312,8 @@ internal class NoteTest {
         // Then
         assertThat(eventOut).isEqualTo(eventIn)
         assertThat(noteBefore.revision).isEqualTo(1)
-        assertThat(noteBefore.attachments).isEqualTo(emptyMap<String, ByteArray>())
         assertThat(noteBefore.attachmentHashes).isEqualTo(emptyMap<String, String>())
         assertThat(noteAfter.revision).isEqualTo(2)
-        assertThat(noteAfter.attachments).isEqualTo(mapOf("att" to binaryData))
         assertThat(noteAfter.attachmentHashes).isEqualTo(mapOf("att" to dataHash))
     }
 
@@ -361,7 +358,7 @@ internal class NoteTest {
 
         // Then
         assertThat(eventOut).isEqualTo(eventIn)
-        assertThat(noteAfter.attachments.keys).isEqualTo(setOf("att_____.jpg"))
+        assertThat(noteAfter.attachmentHashes.keys).isEqualTo(setOf("att_____.jpg"))
     }
 
     @Test
@@ -391,10 +388,8 @@ internal class NoteTest {
         // Then
         assertThat(eventOut).isEqualTo(eventIn)
         assertThat(noteBefore.revision).isEqualTo(2)
-        assertThat(noteBefore.attachments).isEqualTo(mapOf("att" to binaryData))
         assertThat(noteBefore.attachmentHashes).isEqualTo(mapOf("att" to dataHash))
         assertThat(noteAfter.revision).isEqualTo(3)
-        assertThat(noteAfter.attachments).isEqualTo(emptyMap<String, ByteArray>())
         assertThat(noteAfter.attachmentHashes).isEqualTo(emptyMap<String, String>())
     }
 
@@ -463,6 +458,63 @@ internal class NoteTest {
         assertThat(noteAfter).isEqualTo(noteBefore)
     }
 
+    @Test
+    fun `content patched`() {
+        // Given
+        val noteBefore = noteWithEvents(NoteCreatedEvent(eventId = 0, aggId = randomAggId, revision = 1, path = Path("el"), title = "Title", content = "Text 1"))
+        val eventIn = ContentPatchedEvent(eventId = 0, aggId = randomAggId, revision = 2, patch = ContentPatch.between("Text 1", "Text 2"))
+
+        // When
+        val (noteAfter, eventOut) = noteBefore.apply(eventIn)
+
+        // Then
+        assertThat(eventOut).isEqualTo(eventIn)
+        assertThat(noteAfter.revision).isEqualTo(2)
+        assertThat(noteAfter.content).isEqualTo("Text 2")
+        assertThat(noteAfter.contentPatches).isEqualTo(1)
+    }
+
+    @Test
+    fun `content patched, idempotence`() {
+        // Given
+        val noteBefore = noteWithEvents(NoteCreatedEvent(eventId = 0, aggId = randomAggId, revision = 1, path = Path("el"), title = "Title", content = "Text"))
+        val eventIn = ContentPatchedEvent(eventId = 0, aggId = randomAggId, revision = 2, patch = ContentPatch.between("Text", "Text"))
+
+        // When
+        val (noteAfter, eventOut) = noteBefore.apply(eventIn)
+
+        // Then
+        assertThat(eventOut).isNull()
+        assertThat(noteAfter).isEqualTo(noteBefore)
+    }
+
+    @Test
+    fun `content patched, different base`() {
+        // Given
+        val noteBefore = noteWithEvents(NoteCreatedEvent(eventId = 0, aggId = randomAggId, revision = 1, path = Path("el"), title = "Title", content = "Text 1"))
+        val eventIn = ContentPatchedEvent(eventId = 0, aggId = randomAggId, revision = 2, patch = ContentPatch.between("Other text", "Text 2"))
+
+        // When / Then
+        assertThrows<IllegalStateException> { noteBefore.apply(eventIn) }
+    }
+
+    @Test
+    fun `content changed after patches`() {
+        // Given
+        val noteBefore = noteWithEvents(
+                NoteCreatedEvent(eventId = 0, aggId = randomAggId, revision = 1, path = Path("el"), title = "Title", content = "Text 1"),
+                ContentPatchedEvent(eventId = 0, aggId = randomAggId, revision = 2, patch = ContentPatch.between("Text 1", "Text 2"))
+        )
+        val eventIn = ContentChangedEvent(eventId = 0, aggId = randomAggId, revision = 3, content = "Text 3")
+
+        // When
+        val (noteAfter, _) = noteBefore.apply(eventIn)
+
+        // Then
+        assertThat(noteBefore.contentPatches).isEqualTo(1)
+        assertThat(noteAfter.contentPatches).isEqualTo(0)
+    }
+
     @Test
     fun `title changed`() {
         // Given
@@ -569,18 +621,17 @@ internal class NoteTest {
         val path = Path("path")
         val title = "Title"
         val content = "Text"
-        val attachments = emptyMap<String, ByteArray>()
         val attachmentHashes = emptyMap<String, String>()
-        val original = Note.deserialize(revision = revision, exists = exists, aggId = aggId, path = path, title = title, content = content, attachments = attachments, attachmentHashes = attachmentHashes)
+        val original = Note.deserialize(revision = revision, exists = exists, aggId = aggId, path = path, title = title, content = content, attachmentHashes = attachmentHashes)
         return listOf(
-                "revision" to Note.deserialize(revision = 1, exists = exists, aggId = aggId, path = path, title = title, content = content, attachments = attachments, attachmentHashes = attachmentHashes),
-                "exists" to Note.deserialize(revision = revision, exists = true, aggId = aggId, path = path, title = title, content = content, attachments = attachments, attachmentHashes = attachmentHashes),
-                "aggId" to Note.deserialize(revision = revision, exists = exists, aggId = "different", path = path, title = title, content = content, attachments = attachments, attachmentHashes = attachmentHashes),
-                "path" to Note.deserialize(revision = revision, exists = exists, aggId = aggId, path = Path("different"), title = title, content = content, attachments = attachments, attachmentHashes = attachmentHashes),
-                "title" to Note.deserialize(revision = revision, exists = exists, aggId = aggId, path = path, title = "different", content = content, attachments = attachments, attachmentHashes = attachmentHashes),
-                "content" to Note.deserialize(revision = revision, exists = exists, aggId = aggId, path = path, title = title, content = "different", attachments = attachments, attachmentHashes = attachmentHashes),
-                "attachmentHashes" to Note.deserialize(revision = revision, exists = exists, aggId = aggId, path = path, title = title, content = content, attachments = attachments, attachmentHashes = mapOf("different" to "different"))
-                // "" to Note.deserialize(revision = revision, exists = exists, aggId = aggId, title = title, content = content, attachments = attachments, attachmentHashes = attachmentHashes),
+                "revision" to Note.deserialize(revision = 1, exists = exists, aggId = aggId, path = path, title = title, content = content, attachmentHashes = attachmentHashes),
+                "exists" to Note.deserialize(revision = revision, exists = true, aggId = aggId, path = path, title = title, content = content, attachmentHashes = attachmentHashes),
+                "aggId" to Note.deserialize(revision = revision, exists = exists, aggId = "different", path = path, title = title, content = content, attachmentHashes = attachmentHashes),
+                "path" to Note.deserialize(revision = revision, exists = exists, aggId = aggId, path = Path("different"), title = title, content = content, attachmentHashes = attachmentHashes),
+                "title" to Note.deserialize(revision = revision, exists = exists, aggId = aggId, path = path, title = "different", content = content, attachmentHashes = attachmentHashes),
+                "content" to Note.deserialize(revision = revision, exists = exists, aggId = aggId, path = path, title = title, content = "different", attachmentHashes = attachmentHashes),
+                "attachmentHashes" to Note.deserialize(revision = revision, exists = exists, aggId = aggId, path = path, title = title, content = content, attachmentHashes = mapOf("different" to "different"))
+                // "" to Note.deserialize(revision = revision, exists = exists, aggId = aggId, title = title, content = content, attachmentHashes = attachmentHashes),
                 // Add more fields here
         ).map {
             DynamicTest.dynamicTest(it.first) {
@@ -5,8 +5,9 @@ import arrow.core.Some
 import info.maaskant.wmsnotes.model.*
 import info.maaskant.wmsnotes.model.CommandOrigin.LOCAL
 import info.maaskant.wmsnotes.model.CommandOrigin.REMOTE
-import info.maaskant.wmsnotes.model.note.ChangeTitleCommand
-import info.maaskant.wmsnotes.model.note.ContentChangedEvent
+import info.maaskant.wmsnotes.model.aggregaterepository.AggregateRepository
+import info.maaskant.wmsnotes.model.note.*
+import io.mockk.every
 import io.mockk.mockk
 import io.reactivex.observers.TestObserver
 import io.reactivex.schedulers.Schedulers
@@ -23,6 +24,7 @@ internal class NoteTitlePolicyTest {
     val revision = 11
 
     private lateinit var commandBus: CommandBus
+    private val noteRepository: AggregateRepository<Note> = mockk()
     private val scheduler = Schedulers.trampoline()
 
     @BeforeEach
@@ -65,6 +67,27 @@ internal class NoteTitlePolicyTest {
         assertThatNoCommandWasRequested(commandRequestsObserver)
     }
 
+    @Test
+    fun `content patched event, local origin`() {
+        // Given
+        val commandRequestsObserver = commandBus.requests.test()
+        val content = UUID.randomUUID().toString()
+        val title = UUID.randomUUID().toString()
+        val event = ContentPatchedEvent(eventId = 0, aggId = aggId, revision = revision, patch = ContentPatch.between("", content))
+        val note: Note = mockk()
+        every { note.content }.returns(content)
+        every { noteRepository.get(aggId, revision) }.returns(note)
+        val commandResult = CommandResult(0, outcome = persistentListOf(mockk<Command>() to Right(Some(event))), origin = LOCAL)
+        val titleExtractor: (String) -> String = { if (it == content) title else "" }
+        createInstanceAndStart(titleExtractor)
+
+        // When
+        commandBus.results.onNext(commandResult)
+
+        // Then
+        assertThatOneChangeTitleCommandWasRequested(commandRequestsObserver, aggId, title, revision, LOCAL)
+    }
+
     @Test
     fun `other event`() {
         // Given
@@ -102,6 +125,7 @@ internal class NoteTitlePolicyTest {
     private fun createInstanceAndStart(titleExtractor: (String) -> String) {
         NoteTitlePolicy(
                 commandBus = commandBus,
+                noteRepository = noteRepository,
                 scheduler = scheduler,
                 titleExtractor = titleExtractor
         )
@@ -17,6 +17,8 @@ class Toastie constructor(
     override fun hashCode() = Objects.hash(aggId, revision, value)
     override fun toString() = kotlinToString(properties = arrayOf(Toastie::aggId, Toastie::revision, Toastie::value))
 
+    override fun isEventOfThisType(event: Event): Boolean = event is ToastieEvent
+
     override fun apply(event: Event): Pair<Toastie, Event?> {
         val expectedRevision = revision + 1
         if (event.aggId != aggId) throw IllegalArgumentException("The aggregate id of $event must be $aggId")
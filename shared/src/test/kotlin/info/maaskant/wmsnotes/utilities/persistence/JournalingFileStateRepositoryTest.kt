@@ -0,0 +1,162 @@
+package info.maaskant.wmsnotes.utilities.persistence
+
+import assertk.assertThat
+import assertk.assertions.*
+import info.maaskant.wmsnotes.utilities.serialization.Serializer
+import io.mockk.every
+import io.mockk.mockk
+import io.reactivex.Observable
+import io.reactivex.schedulers.Schedulers
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+internal class JournalingFileStateRepositoryTest {
+
+    private lateinit var tempFile: File
+    private lateinit var journalFile: File
+
+    private val producer: JournalingStateProducer<Item, Change> = mockk()
+
+    @BeforeEach
+    fun init() {
+        val tempDir = createTempDir(this::class.simpleName!!)
+        tempFile = tempDir.resolve("dir").resolve("file") // Does not exist yet
+        journalFile = tempFile.resolveSibling("file.journal")
+    }
+
+    @Test
+    fun `connect and load, journal only`() {
+        // Given
+        givenProducedChanges(Change("a", 1), Change("b", 2), Change("a", 3))
+        val repo = createInstance()
+
+        // When
+        repo.connect(producer)
+        waitAMoment()
+        val state = createInstance().load()
+
+        // Then
+        assertThat(tempFile.exists()).isFalse()
+        assertThat(journalFile.exists()).isTrue()
+        assertThat(state).isEqualTo(Item(mapOf("a" to 3, "b" to 2)))
+    }
+
+    @Test
+    fun `connect and load, snapshot and journal`() {
+        // Given
+        givenProducedChanges(Change("a", 1), Change("b", 2), Change("a", 3))
+        val repo = createInstance(snapshotInterval = 2)
+
+        // When
+        repo.connect(producer)
+        waitAMoment()
+        val state = createInstance().load()
+
+        // Then
+        assertThat(tempFile.exists()).isTrue()
+        assertThat(journalFile.exists()).isTrue()
+        assertThat(state).isEqualTo(Item(mapOf("a" to 3, "b" to 2)))
+    }
+
+    @Test
+    fun `load, no state present`() {
+        // Given
+        val repo = createInstance()
+
+        // When
+        val state = repo.load()
+
+        // Then
+        assertThat(state).isNull()
+    }
+
+    @Test
+    fun `load, journal already part of snapshot`() {
+        // Given
+        givenProducedChanges(Change("a", 1), Change("a", 2))
+        createInstance().connect(producer)
+        waitAMoment()
+        tempFile.writeBytes(serializeItem(Item(mapOf("a" to 2, "b" to 3))))
+
+        // When
+        val state = createInstance().load()
+
+        // Then
+        assertThat(state).isEqualTo(Item(mapOf("a" to 2, "b" to 3)))
+    }
+
+    @Test
+    fun `load, incomplete last change`() {
+        // Given
+        givenProducedChanges(Change("a", 1), Change("b", 2))
+        createInstance().connect(producer)
+        waitAMoment()
+        journalFile.writeBytes(journalFile.readBytes().dropLast(1).toByteArray())
+
+        // When
+        val state = createInstance().load()
+
+        // Then
+        assertThat(state).isEqualTo(Item(mapOf("a" to 1)))
+        assertThat(journalFile.exists()).isFalse()
+        assertThat(createInstance().load()).isEqualTo(Item(mapOf("a" to 1)))
+    }
+
+    private fun createInstance(snapshotInterval: Int = 1000) =
+            JournalingFileStateRepository(
+                    stateSerializer = stateSerializer,
+                    changeSerializer = changeSerializer,
+                    file = tempFile,
+                    emptyState = { Item(emptyMap()) },
+                    applyChange = Item::update,
+                    scheduler = Schedulers.trampoline(),
+                    timeout = 0,
+                    unit = TimeUnit.SECONDS,
+                    snapshotInterval = snapshotInterval
+            )
+
+    private fun givenProducedChanges(vararg changes: Change) {
+        var state = Item(emptyMap())
+        val observable = Observable.fromIterable(changes.map { change ->
+            state = state.update(change)
+            StateChanges(listOf(change), state)
+        })
+        every { producer.getStateChanges() }.returns(observable)
+    }
+
+    private fun waitAMoment() {
+        Thread.sleep(250)
+    }
+
+    private data class Item(val values: Map<String, Int>) {
+        fun update(change: Change) = Item(values + (change.key to change.value))
+    }
+
+    private data class Change(val key: String, val value: Int)
+
+    companion object {
+        private fun serializeItem(item: Item): ByteArray =
+                item.values.entries.joinToString(",") { "${it.key}=${it.value}" }.toByteArray()
+
+        private val stateSerializer = object : Serializer<Item> {
+            override fun serialize(o: Item): ByteArray = serializeItem(o)
+
+            override fun deserialize(bytes: ByteArray): Item =
+                    Item(String(bytes).split(",").filter { it.isNotEmpty() }.associate {
+                        val (key, value) = it.split("=")
+                        key to value.toInt()
+                    })
+        }
+
+        private val changeSerializer = object : Serializer<Change> {
+            override fun serialize(o: Change): ByteArray = "${o.key}=${o.value}".toByteArray()
+
+            override fun deserialize(bytes: ByteArray): Change {
+                val (key, value) = String(bytes).split("=")
+                return Change(key, value.toInt())
+            }
+        }
+    }
+}